@@ -17,14 +17,17 @@ package aiml.bot;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.NotSerializableException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
 
 import org.xmlpull.v1.XmlPullParser;
@@ -45,6 +48,9 @@ import aiml.parser.AIMLParser;
 import aiml.parser.AimlParserException;
 import aiml.parser.CheckingParser;
 import aiml.script.Formatter;
+import aiml.snapshot.SnapshotFormatException;
+import aiml.snapshot.SnapshotInput;
+import aiml.snapshot.SnapshotOutput;
 import aiml.substitutions.DuplicateSubstitutionException;
 import aiml.substitutions.Substitutions;
 import aiml.text.ICUSentenceSplitter;
@@ -54,24 +60,68 @@ public class Bot {
   private static final HashSet<String> PREDEFINED_SUBSTITUTIONS = new HashSet<String>(
       Arrays.asList("input", "gender", "person", "person2"));
   private String name;
-  private HashMap<String, String> properties = new HashMap<String, String>();
-  private HashMap<String, Substitutions> substitutions = new HashMap<String, Substitutions>();
   private boolean standalone = false;
   private boolean enabled = false;
 
   private Logger logger = Logger.getLogger(this.getClass().getName());
 
   private CheckingParser parser;
-  private SentenceSplitter sentenceSplitter;
-  private Classifier classifier;
+
+  /** The properties, substitutions, sentence splitter and classifier */
+  private volatile Content content;
+
+  /** The file the bot was loaded from, used for reloading */
+  private String file;
+
+  /** Was the bot loaded from a snapshot instead of a bot definition? */
+  private boolean snapshot;
+
+  /** Was the snapshot mapped instead of read onto the heap? */
+  private boolean mapped;
+  private MatchingBehaviour matchingBehaviour = PatternBehaviour.getDefaultBehaviour();
   public static final String UNKNOWN_PROPERTY = "";
 
+  /**
+   * The parts of the bot that are replaced together when it is reloaded. A
+   * reader takes them all from the same instance, so it never sees the
+   * classifier of one version of the bot with the substitutions of another.
+   * The maps are only modified while the bot is being loaded, before the
+   * instance is published to other threads.
+   */
+  private static final class Content {
+    final HashMap<String, String> properties;
+
+    final HashMap<String, Substitutions> substitutions;
+
+    final SentenceSplitter sentenceSplitter;
+
+    final Classifier classifier;
+
+    Content(HashMap<String, String> properties,
+        HashMap<String, Substitutions> substitutions,
+        SentenceSplitter sentenceSplitter, Classifier classifier) {
+      this.properties = properties;
+      this.substitutions = substitutions;
+      this.sentenceSplitter = sentenceSplitter;
+      this.classifier = classifier;
+    }
+
+    /**
+     * Returns the same content, with another sentence splitter
+     */
+    Content withSentenceSplitter(SentenceSplitter sentenceSplitter) {
+      return new Content(properties, substitutions, sentenceSplitter,
+          classifier);
+    }
+  }
+
   public Bot(Classifier classifier) throws XmlPullParserException {
     super();
     parser = new CheckingParser(
         XmlPullParserFactory.newInstance().newPullParser(),
         BotSyntaxException.class);
-    this.classifier = classifier;
+    content = new Content(new HashMap<String, String>(),
+        new HashMap<String, Substitutions>(), null, classifier);
   }
 
   public Bot(Classifier classifier, String name) throws XmlPullParserException,
@@ -81,10 +131,11 @@ public class Bot {
   }
 
   public void setProperty(String name, String value) {
-    properties.put(name, value);
+    content.properties.put(name, value);
   }
 
   public String getProperty(String name) throws InvalidPropertyException {
+    HashMap<String, String> properties = content.properties;
     if (properties.containsKey(name))
       return properties.get(name);
     else
@@ -93,7 +144,7 @@ public class Bot {
   }
 
   public boolean hasProperty(String name) {
-    return properties.containsKey(name);
+    return content.properties.containsKey(name);
   }
 
   public String getName() {
@@ -101,14 +152,30 @@ public class Bot {
   }
 
   /**
+   * Returns the current classifier of the bot. Note that the classifier is
+   * replaced when the bot is reloaded.
+   * 
    * @return the classifier
    */
   public Classifier getClassifier() {
-    return classifier;
+    return content.classifier;
+  }
+
+  /**
+   * Sets the matching behaviour of the standard contexts (input, that and
+   * topic), used when the bot definition doesn't specify its own contexts.
+   * Must be called before the bot is loaded.
+   * 
+   * @param matchingBehaviour
+   *          the matching behaviour
+   */
+  public void setMatchingBehaviour(MatchingBehaviour matchingBehaviour) {
+    this.matchingBehaviour = matchingBehaviour;
   }
 
   public String applySubstitutions(String list, String text)
       throws InvalidSubstitutionException {
+    HashMap<String, Substitutions> substitutions = content.substitutions;
     if (substitutions.containsKey(list)) {
       return substitutions.get(list).apply(text);
     }
@@ -131,6 +198,9 @@ public class Bot {
       parser.next();
       standalone = true;
       doBot();
+      this.file = file;
+      this.snapshot = false;
+      this.mapped = false;
       try {
         parser.require(XmlPullParser.END_DOCUMENT);
       } catch (BotSyntaxException e) {
@@ -144,6 +214,236 @@ public class Bot {
     }
   }
 
+  /**
+   * <p>
+   * Reloads the bot from the file it was originally loaded from. The bot
+   * definition and all the AIML files are loaded into a new classifier in the
+   * calling thread, while the current classifier keeps serving matches. Once
+   * loading is complete, the new classifier (together with the new
+   * properties, substitutions and sentence splitter) is published in a
+   * single step, without any locking on the match path.
+   * </p>
+   * 
+   * <p>
+   * Matches started before the new classifier is published are bound to the
+   * old classifier (see {@link aiml.classifier.MatchState#getClassifier()}),
+   * so their templates, including <code>srai</code> chains, are finished
+   * against the old categories. New matches use the new classifier. The
+   * settings of the old classifier (see
+   * {@link Classifier#copySettings(Classifier)}) are copied to the new one,
+   * and if the old classifier was frozen (or compiled), the new one is frozen
+   * (or compiled) too. If loading fails, the bot is left unchanged.
+   * </p>
+   * 
+   * <p>
+   * Concurrent reloads of the same bot are not supported. A bot loaded from a
+   * snapshot is reloaded from the snapshot.
+   * </p>
+   * 
+   * @throws IllegalStateException
+   *           if the bot hasn't been loaded from a file
+   */
+  public void reload() throws XmlPullParserException, IOException,
+      BotSyntaxException, AimlParserException {
+    if (file == null) {
+      throw new IllegalStateException("The bot " + name +
+          " hasn't been loaded from a file");
+    }
+    Classifier classifier = content.classifier;
+    Classifier reloaded = new Classifier();
+    reloaded.copySettings(classifier);
+    Bot bot = new Bot(reloaded, name);
+    bot.setMatchingBehaviour(matchingBehaviour);
+    if (snapshot) {
+      bot.loadSnapshot(file, mapped);
+    } else {
+      bot.load(file);
+    }
+    if (classifier.isFrozen()) {
+      reloaded.freeze(classifier.isOffHeap());
+    }
+    if (classifier.isCompiled()) {
+      reloaded.compile();
+    }
+    logger.info("Reloaded bot " + name + " from " + file + ", " +
+        reloaded.getCount() + " categories");
+    content = bot.content;
+  }
+
+  /**
+   * <p>
+   * Writes a binary snapshot of the loaded bot: its properties, substitution
+   * lists, sentence splitting rules, contexts and the classifier with all the
+   * templates. Loading the snapshot with {@link #loadSnapshot(String)} is much
+   * faster than loading the bot definition and parsing all the AIML files
+   * again.
+   * </p>
+   * 
+   * <p>
+   * The classifier is written in its frozen form (see
+   * {@link Classifier#freeze()}), so bots using a matching behaviour that
+   * can't be frozen can't be written either.
+   * </p>
+   * 
+   * @param file
+   *          the file to write the snapshot into
+   * @throws UnsupportedOperationException
+   *           if the classifier can't be frozen
+   * @throws java.io.NotSerializableException
+   *           if the sentence splitter or a category's template can't be
+   *           written
+   * @throws IOException
+   */
+  public void writeSnapshot(String file) throws IOException {
+    Content content = this.content;
+    SentenceSplitter sentenceSplitter = content.sentenceSplitter;
+    if (sentenceSplitter != null &&
+        !(sentenceSplitter instanceof ICUSentenceSplitter)) {
+      throw new NotSerializableException(sentenceSplitter.getClass().getName());
+    }
+    SnapshotOutput out = new SnapshotOutput(new FileOutputStream(file));
+    try {
+      out.writeString(name);
+      out.writeBoolean(enabled);
+      out.writeInt(content.properties.size());
+      for (Map.Entry<String, String> property : content.properties
+          .entrySet()) {
+        out.writeString(property.getKey());
+        out.writeString(property.getValue());
+      }
+      out.writeInt(content.substitutions.size());
+      for (Map.Entry<String, Substitutions> list : content.substitutions
+          .entrySet()) {
+        Map<String, String> substMap = list.getValue().getSubstitutions();
+        out.writeString(list.getKey());
+        out.writeInt(substMap.size());
+        for (Map.Entry<String, String> substitution : substMap.entrySet()) {
+          out.writeString(substitution.getKey());
+          out.writeString(substitution.getValue());
+        }
+      }
+      out.writeBoolean(sentenceSplitter != null);
+      if (sentenceSplitter != null) {
+        out.writeString(((ICUSentenceSplitter) sentenceSplitter).getRules());
+      }
+      ContextInfo contextInfo = content.classifier.getContextInfo();
+      out.writeInt(contextInfo.getCount());
+      for (int i = 0; i < contextInfo.getCount(); i++) {
+        out.writeString(contextInfo.getContext(i).getName());
+      }
+      content.classifier.write(out);
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * <p>
+   * Loads the bot from a snapshot written by {@link #writeSnapshot(String)}.
+   * The snapshot is read sequentially, without parsing any XML. The classifier
+   * must be empty; if it has no contexts, the standard contexts are
+   * registered first. The classifier ends up frozen.
+   * </p>
+   * 
+   * @param file
+   *          the snapshot file
+   * @throws SnapshotFormatException
+   *           if the file isn't a snapshot of the current version, or its
+   *           contexts differ from the contexts of the classifier
+   * @throws IOException
+   */
+  public void loadSnapshot(String file) throws IOException {
+    loadSnapshot(file, false);
+  }
+
+  /**
+   * <p>
+   * Loads the bot from a snapshot (see {@link #loadSnapshot(String)}),
+   * optionally mapping the classifier's node records and labels read-only
+   * from the file, instead of reading them onto the heap. A mapped classifier
+   * loads in time independent of its size, doesn't burden the garbage
+   * collector, and its pages are shared by all the processes on the host
+   * that map the same snapshot. The file must not be modified while it is
+   * mapped.
+   * </p>
+   * 
+   * @param file
+   *          the snapshot file
+   * @param map
+   *          should the classifier be mapped from the file?
+   * @throws SnapshotFormatException
+   *           if the file isn't a snapshot of the current version, or its
+   *           contexts differ from the contexts of the classifier
+   * @throws IOException
+   */
+  public void loadSnapshot(String file, boolean map) throws IOException {
+    FileInputStream inputStream = new FileInputStream(file);
+    try {
+      Classifier classifier = content.classifier;
+      ContextInfo contextInfo = classifier.getContextInfo();
+      SnapshotInput in = new SnapshotInput(inputStream, contextInfo,
+          map ? inputStream.getChannel() : null);
+      String name = in.readString();
+      boolean enabled = in.readBoolean();
+      HashMap<String, String> properties = new HashMap<String, String>();
+      for (int i = in.readInt(); i > 0; i--) {
+        properties.put(in.readString(), in.readString());
+      }
+      HashMap<String, Substitutions> substitutions =
+          new HashMap<String, Substitutions>();
+      for (int i = in.readInt(); i > 0; i--) {
+        String listName = in.readString();
+        LinkedHashMap<String, String> substMap =
+            new LinkedHashMap<String, String>();
+        for (int j = in.readInt(); j > 0; j--) {
+          substMap.put(in.readString(), in.readString());
+        }
+        try {
+          substitutions.put(listName, new Substitutions(substMap));
+        } catch (DuplicateSubstitutionException e) {
+          throw new SnapshotFormatException("Substitution list \"" +
+              listName + "\" has duplicate entries", e);
+        }
+      }
+      SentenceSplitter sentenceSplitter = null;
+      if (in.readBoolean()) {
+        String rules = in.readString();
+        sentenceSplitter = (rules == null ? new ICUSentenceSplitter()
+            : new ICUSentenceSplitter(rules));
+      }
+
+      if (contextInfo.getCount() == 0) {
+        registerDefaultContexts();
+      }
+      int contexts = in.readInt();
+      if (contexts != contextInfo.getCount()) {
+        throw new SnapshotFormatException("The snapshot has " + contexts +
+            " contexts, the classifier " + contextInfo.getCount());
+      }
+      for (int i = 0; i < contexts; i++) {
+        String contextName = in.readString();
+        if (!contextName.equals(contextInfo.getContext(i).getName())) {
+          throw new SnapshotFormatException("Context " + contextName +
+              " of the snapshot doesn't match context " +
+              contextInfo.getContext(i).getName() + " of the classifier");
+        }
+      }
+      classifier.read(in);
+
+      this.name = name;
+      this.enabled = enabled;
+      this.content = new Content(properties, substitutions, sentenceSplitter,
+          classifier);
+      this.file = file;
+      this.snapshot = true;
+      this.mapped = map;
+      logger.info("Loaded bot " + name + " from snapshot " + file + ", " +
+          classifier.getCount() + " categories");
+    } finally {
+      inputStream.close();
+    }
+  }
+
   public void load(CheckingParser parser) throws BotSyntaxException,
       XmlPullParserException, IOException, AimlParserException {
     CheckingParser oldParser = this.parser;
@@ -190,20 +490,12 @@ public class Bot {
     if (parser.isEvent(XmlPullParser.START_TAG, "contexts")) {
       doContexts();
     } else {
-      // TODO provide actual implementations of topics...
-      ContextInfo contextInfo = classifier.getContextInfo();
-      MatchingBehaviour patternBehaviour = PatternBehaviour.getDefaultBehaviour();
-      contextInfo.registerContext(new InputContext("input",
-          new EnvironmentInputSource(), patternBehaviour));
-      contextInfo.registerContext(new Context<String>("that",
-          new ResponseHistorySource(), patternBehaviour));
-      contextInfo.registerContext(new Context<String>("topic",
-          new VariableSource("topic"), patternBehaviour));
+      registerDefaultContexts();
     }
 
-    if (sentenceSplitter == null) {
+    if (content.sentenceSplitter == null) {
       logger.info("No explicit sentence splitting rules defined, using default sentence splitter");
-      sentenceSplitter = new ICUSentenceSplitter();
+      content = content.withSentenceSplitter(new ICUSentenceSplitter());
     }
 
     doLearn();
@@ -212,18 +504,40 @@ public class Bot {
     parser.next();
   }
 
+  /**
+   * Registers the standard contexts (input, that and topic)
+   */
+  private void registerDefaultContexts() {
+    // TODO provide actual implementations of topics...
+    ContextInfo contextInfo = content.classifier.getContextInfo();
+    contextInfo.registerContext(new InputContext("input",
+        new EnvironmentInputSource(), matchingBehaviour));
+    contextInfo.registerContext(new Context<String>("that",
+        new ResponseHistorySource(), matchingBehaviour));
+    contextInfo.registerContext(new Context<String>("topic",
+        new VariableSource("topic"), matchingBehaviour));
+  }
+
+  /**
+   * Loads the AIML files of the bot. The classifier's string pool is only
+   * needed while the files are loaded, and is released afterwards.
+   */
   private void doLearn() throws XmlPullParserException, IOException,
       BotSyntaxException, AimlParserException {
-    while (parser.isEvent(XmlPullParser.START_TAG, "learn")) {
-      File file = new File(parser.nextText());
-      parser.require(XmlPullParser.END_TAG, "learn");
-      if (!file.exists() || !file.isFile()) {
-        logger.warning("file " + file + " does not exist");
-      } else {
-        logger.info("Loading file " + file);
-        new AIMLParser(this).load(file.getPath(), "UTF-8");
+    try {
+      while (parser.isEvent(XmlPullParser.START_TAG, "learn")) {
+        File file = new File(parser.nextText());
+        parser.require(XmlPullParser.END_TAG, "learn");
+        if (!file.exists() || !file.isFile()) {
+          logger.warning("file " + file + " does not exist");
+        } else {
+          logger.info("Loading file " + file);
+          new AIMLParser(this).load(file.getPath(), "UTF-8");
+        }
+        parser.nextTag();
       }
-      parser.nextTag();
+    } finally {
+      content.classifier.getStringPool().clear();
     }
   }
 
@@ -293,7 +607,7 @@ public class Bot {
     }
 
     if (rules != null) {
-      sentenceSplitter = new ICUSentenceSplitter(rules);
+      content = content.withSentenceSplitter(new ICUSentenceSplitter(rules));
     }
     parser.require(XmlPullParser.END_TAG, "sentence-splitters");
     parser.nextTag();
@@ -320,6 +634,7 @@ public class Bot {
 
   private void doSubstitutions(String listName, String listTag)
       throws XmlPullParserException, IOException, AimlParserException {
+    HashMap<String, Substitutions> substitutions = content.substitutions;
     if (substitutions.containsKey(listName)) {
       throw new BotSyntaxException("Syntax error: substitution list \"" +
           listName + "\" already defined " + parser.getPositionDescription());
@@ -401,10 +716,11 @@ public class Bot {
    */
   public List<String> preprocessInput(String input) {
     ArrayList<String> result = new ArrayList<String>();
-    if (substitutions.containsKey("input")) {
-      input = substitutions.get("input").apply(input);
+    Content content = this.content;
+    if (content.substitutions.containsKey("input")) {
+      input = content.substitutions.get("input").apply(input);
     }
-    for (String sentence : sentenceSplitter.split(input)) {
+    for (String sentence : content.sentenceSplitter.split(input)) {
       sentence = Formatter.collapseWhitespace(sentence);
       sentence = Formatter.trimPunctiation(sentence);
       result.add(sentence);
@@ -416,7 +732,7 @@ public class Bot {
   }
 
   public SentenceSplitter getSentenceSplitter() {
-    return sentenceSplitter;
+    return content.sentenceSplitter;
   }
 
 }
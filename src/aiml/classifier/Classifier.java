@@ -15,15 +15,39 @@
 package aiml.classifier;
 
 import graphviz.Graphviz;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
 import aiml.classifier.PaternSequence.PatternIterator;
 import aiml.context.ContextInfo;
 import aiml.environment.Environment;
+import aiml.snapshot.SnapshotInput;
+import aiml.snapshot.SnapshotOutput;
 
 /**
  * <p>
  * This class encapsulates all AIML pattern matching functionality.
  * </p>
  * 
+ * <p>
+ * <b>Thread safety:</b> once all the categories have been added, the
+ * classifier is read-only, and {@link #match(Environment)} may be called
+ * concurrently from any number of threads (with a separate
+ * <code>Environment</code> per thread). All the state of a match is kept in
+ * its <code>MatchState</code>. Adding or removing categories (or freezing the
+ * classifier) while other threads match is <i>not</i> safe, and the loaded
+ * classifier must be safely published to the matching threads (for example,
+ * by starting them after the bot has been loaded).
+ * </p>
+ * 
  * 
  * @author Kim Sullivan
  * @version 1.0
@@ -40,6 +64,45 @@ public class Classifier {
   /** The number of paths in the tree */
   private int count = 0;
 
+  /**
+   * The frozen snapshot of the tree, or <code>null</code> if the classifier
+   * hasn't been frozen yet
+   */
+  private FrozenClassifier frozen;
+
+  /** Should matches use the failure memo? */
+  private boolean memoizeFailures = false;
+
+  /** The cache of match outcomes, or <code>null</code> if not caching */
+  private MatchCache cache;
+
+  /** The number of times the tree has been modified, invalidates the cache */
+  private int modifications = 0;
+
+  /** The maximum number of steps of a match, 0 if unlimited */
+  private long stepBudget = 0;
+
+  /** The maximum duration of a match in nanoseconds, 0 if unlimited */
+  private long timeBudget = 0;
+
+  /** The result of matches that exceed their budget, may be null */
+  private Object budgetFallback;
+
+  /** The number of matches that have exceeded their budget */
+  private final AtomicLong budgetExceeded = new AtomicLong();
+
+  /** The pool that matches the alternatives of branches, may be null */
+  private ForkJoinPool speculationPool;
+
+  /** Shares the strings of patterns and templates while loading */
+  private StringPool strings = new StringPool();
+
+  /**
+   * The largest number of environments matched by a single task of
+   * {@link #matchAll(List, ForkJoinPool)}
+   */
+  private static final int BATCH_SIZE = 64;
+
   /**
    * Creates an instance of the aiml matcher.
    */
@@ -48,17 +111,295 @@ public class Classifier {
   }
 
   /**
-   * Match the current context state to the paths in the tree.
+   * <p>
+   * Match the current context state to the paths in the tree. This method
+   * doesn't modify the classifier, and is safe to be called concurrently
+   * with other matches.
+   * </p>
+   * 
+   * <p>
+   * The match state is kept by the environment, and reused by its next match
+   * with the same number of inputs on the stack, so that matching produces
+   * very little garbage. The match state stays valid while the template of
+   * the result is processed, even if it makes recursive matches (which push
+   * their input first). A result that has to outlive the next match must be
+   * matched with its own match state, see {@link #match(MatchState)}.
+   * </p>
    * 
    * @return a complete match state if succesfull; <code>null</code> otherwise
    */
   public MatchState match(Environment e) {
-    MatchState m = new MatchState(e);
-
-    if (tree != null && tree.match(m)) {
-      return m;
+    MatchState m = e.getMatchState();
+    if (m == null || m.getClassifier() != this) {
+      m = new MatchState(e, this);
+      e.setMatchState(m);
     } else {
-      return null;
+      m.renew(e);
+    }
+    return (match(m) ? m : null);
+  }
+
+  /**
+   * Match a match state to the paths in the tree. The match state must have
+   * been created for this classifier, and must be either new, or reset
+   * using {@link MatchState#reset(Environment)}. Reusing a match state this
+   * way avoids most of the allocations of
+   * {@link #match(aiml.environment.Environment)}.
+   * 
+   * @param m
+   *          the match state
+   * @return <code>true</code> if a match was found
+   * @throws IllegalArgumentException
+   *           if the match state belongs to a different classifier
+   */
+  public boolean match(MatchState m) {
+    if (m.getClassifier() != this) {
+      throw new IllegalArgumentException(
+          "The match state belongs to a different classifier");
+    }
+    if (m.isMemoizingFailures() != memoizeFailures) {
+      m.setMemoizeFailures(memoizeFailures);
+    }
+
+    MatchCache cache = this.cache;
+    if (cache == null || m.isTracing()) {
+      return matchTree(m);
+    }
+    MatchCache.Key key = cache.key(m);
+    if (key == null) {
+      return matchTree(m);
+    }
+    int version = modifications;
+    Object outcome = cache.get(key, version);
+    if (outcome == null) {
+      boolean matched = matchTree(m);
+      if (!m.isBudgetExceeded()) {
+        cache.put(key, (matched ? m.getOutcome() : MatchCache.FAILED),
+            version);
+      }
+      return matched;
+    }
+    if (outcome == MatchCache.FAILED) {
+      return false;
+    }
+    m.setOutcome((MatchState.Outcome) outcome);
+    return true;
+  }
+
+  /**
+   * Matches a match state to the frozen snapshot or the tree, bypassing the
+   * cache. If the match exceeds its budget, it's stopped, and the result is
+   * the fallback.
+   * 
+   * @param m
+   *          the match state
+   * @return <code>true</code> if a match was found, or the budget was
+   *         exceeded and there is a fallback
+   */
+  private boolean matchTree(MatchState m) {
+    m.startBudget();
+    try {
+      if (frozen != null) {
+        return frozen.match(m);
+      }
+      return (tree != null && tree.match(m));
+    } catch (MatchBudgetExceededException e) {
+      budgetExceeded.incrementAndGet();
+      m.clearMatch();
+      if (budgetFallback == null) {
+        return false;
+      }
+      m.setResult(budgetFallback);
+      return true;
+    }
+  }
+
+  /**
+   * <p>
+   * Returns all the categories that match the environment, in the order of
+   * their priority: the first one is the result of
+   * {@link #match(Environment)}, the next one is the one that would be
+   * matched if the first one didn't exist, and so on. Each category is
+   * returned once, with the wildcards of its match of the highest priority.
+   * The "don't care" wildcards of a later match may differ from those of a
+   * single match, because they also reflect the paths the search has tried
+   * before it.
+   * </p>
+   * 
+   * <p>
+   * The matches are found lazily, one per call of {@link Iterator#hasNext()}.
+   * Each call resumes the backtracking search where it has stopped at the
+   * previous match, so taking the first few matches costs little more than a
+   * single match. A frozen classifier resumes a matcher of its frozen tree
+   * (the automata of a compiled classifier aren't used), any other one
+   * (including one with the word based pattern behaviour) a
+   * {@link TreeMatcher}, which never matches in parallel. Each match has the
+   * budget of a match (see {@link #setStepBudget(long)}); once it's exceeded,
+   * the iteration ends. The returned match states are independent
+   * of each other. The classifier must not be modified during the iteration.
+   * </p>
+   * 
+   * @param e
+   *          the environment
+   * @return the matches, as match states, in the order of priority
+   */
+  public Iterator<MatchState> matches(Environment e) {
+    MatchState m = new MatchState(e, this);
+    if (m.isMemoizingFailures() != memoizeFailures) {
+      m.setMemoizeFailures(memoizeFailures);
+    }
+    return new Matches(m, frozen, tree);
+  }
+
+  /**
+   * The matches of an environment, found by resuming a matcher of the frozen
+   * tree, or of the tree
+   */
+  private class Matches implements Iterator<MatchState> {
+    /** The match state the matches are stored in */
+    private final MatchState match;
+
+    /** The matcher of the frozen tree, <code>null</code> for the tree */
+    private final FrozenClassifier.Matcher matcher;
+
+    /** The matcher of the tree, <code>null</code> if frozen */
+    private final TreeMatcher treeMatcher;
+
+    /** The next match, if it has been found already */
+    private MatchState next;
+
+    /** Has the search ended? */
+    private boolean done;
+
+    Matches(MatchState match, FrozenClassifier frozen, ContextNode tree) {
+      this.match = match;
+      if (frozen != null) {
+        matcher = frozen.matcher(match, true);
+        treeMatcher = null;
+      } else {
+        matcher = null;
+        treeMatcher = new TreeMatcher(match, tree);
+      }
+    }
+
+    public boolean hasNext() {
+      if (next == null && !done) {
+        match.startBudget();
+        try {
+          boolean found;
+          if (matcher != null) {
+            match.clearMatch();
+            found = matcher.next();
+          } else {
+            //the match state holds the state of the search
+            found = treeMatcher.next();
+          }
+          if (found) {
+            next = match.copy();
+          } else {
+            done = true;
+          }
+        } catch (MatchBudgetExceededException e) {
+          budgetExceeded.incrementAndGet();
+          match.clearMatch();
+          done = true;
+        }
+      }
+      return next != null;
+    }
+
+    public MatchState next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      MatchState result = next;
+      next = null;
+      return result;
+    }
+
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  /**
+   * Matches a batch of environments in parallel, using the common fork/join
+   * pool. See {@link #matchAll(List, ForkJoinPool)}.
+   * 
+   * @param environments
+   *          the environments to match
+   * @return the match states, in the same order as the environments
+   */
+  public List<MatchState> matchAll(List<? extends Environment> environments) {
+    return matchAll(environments, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * <p>
+   * Matches a batch of environments in parallel. The batch is split into
+   * tasks of consecutive environments, which are run by the fork/join pool.
+   * Each environment is matched with the match state it keeps (see
+   * {@link #match(Environment)}), so the results stay valid until the next
+   * match of their environment.
+   * </p>
+   * 
+   * <p>
+   * Matching doesn't modify the classifier, so this is as safe as calling
+   * {@link #match(Environment)} from several threads: the environments must
+   * be distinct, and neither they nor the classifier may be modified until
+   * this method returns.
+   * </p>
+   * 
+   * @param environments
+   *          the environments to match, each with its context values (e.g.
+   *          the input) already set up
+   * @param pool
+   *          the pool that runs the tasks
+   * @return the match states, in the same order as the environments, with
+   *         <code>null</code> for environments that didn't match
+   */
+  public List<MatchState> matchAll(List<? extends Environment> environments,
+      ForkJoinPool pool) {
+    Environment batch[] = environments.toArray(
+        new Environment[environments.size()]);
+    MatchState results[] = new MatchState[batch.length];
+    pool.invoke(new BatchMatch(batch, results, 0, batch.length));
+    return Arrays.asList(results);
+  }
+
+  /**
+   * A task that matches a range of a batch of environments, or splits it
+   * into two smaller tasks.
+   */
+  private class BatchMatch extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final Environment batch[];
+
+    private final MatchState results[];
+
+    private final int begin;
+
+    private final int end;
+
+    BatchMatch(Environment batch[], MatchState results[], int begin, int end) {
+      this.batch = batch;
+      this.results = results;
+      this.begin = begin;
+      this.end = end;
+    }
+
+    @Override
+    protected void compute() {
+      if (end - begin > BATCH_SIZE) {
+        int middle = (begin + end) >>> 1;
+        invokeAll(new BatchMatch(batch, results, begin, middle),
+            new BatchMatch(batch, results, middle, end));
+        return;
+      }
+      for (int i = begin; i < end; i++) {
+        results[i] = match(batch[i]);
+      }
     }
   }
 
@@ -73,6 +414,9 @@ public class Classifier {
    */
   public void add(PaternSequence sequence, Object o)
       throws DuplicatePathException {
+    if (frozen != null) {
+      throw new IllegalStateException("Can't add a pattern to a frozen classifier");
+    }
     PatternIterator patterns = sequence.iterator();
     if (tree == null) {
       if (patterns.hasNext()) {
@@ -86,12 +430,411 @@ public class Classifier {
     }
     count++; // this is OK, because if the sequence isn't added, an exception gets
     // thrown before we reach this
+    modifications++;
+  }
+
+  /**
+   * Remove a sequence of patterns from the classifier trie. Nodes that are no
+   * longer needed are pruned or collapsed, so that matching behaves as if the
+   * sequence had never been added. This is much cheaper than reloading the
+   * whole classifier when a single category changes.
+   * 
+   * @param sequence
+   *          the sequence to be removed
+   * @throws NoSuchPathException
+   *           if the sequence isn't in the classifier; the classifier is left
+   *           unchanged
+   */
+  public void remove(PaternSequence sequence) throws NoSuchPathException {
+    if (frozen != null) {
+      throw new IllegalStateException(
+          "Can't remove a pattern from a frozen classifier");
+    }
+    if (tree == null) {
+      throw new NoSuchPathException();
+    }
+    tree = tree.remove(sequence.iterator());
+    count--;
+    modifications++;
+  }
+
+  /**
+   * <p>
+   * Freezes the classifier. The tree of context and pattern nodes is compiled
+   * into a compact, array based snapshot (see {@link FrozenClassifier}), and
+   * the object tree is released, together with the string pool (see
+   * {@link #getStringPool()}). Matching then uses the snapshot, with the
+   * same results as before.
+   * </p>
+   * 
+   * <p>
+   * This is meant to be called once all the AIML files have been loaded; a
+   * frozen classifier can't be modified anymore. Freezing an already frozen
+   * classifier does nothing.
+   * </p>
+   * 
+   * @throws UnsupportedOperationException
+   *           if the tree contains nodes that can't be frozen (currently the
+   *           nodes of the word based pattern behaviour); the classifier is
+   *           left unchanged in this case
+   */
+  public void freeze() {
+    freeze(false);
+  }
+
+  /**
+   * Freezes the classifier (see {@link #freeze()}), optionally storing the
+   * node records and labels of the snapshot outside of the Java heap, in
+   * direct memory. This takes the bulk of a large classifier out of the reach
+   * of the garbage collector; the templates stay on the heap. An already
+   * frozen classifier is moved off the heap if requested, otherwise nothing
+   * is done.
+   * 
+   * @param offHeap
+   *          should the snapshot be stored outside of the heap?
+   * @throws UnsupportedOperationException
+   *           if the tree contains nodes that can't be frozen
+   */
+  public void freeze(boolean offHeap) {
+    if (frozen == null) {
+      FrozenClassifier f = new FrozenClassifier(contextInfo, tree);
+      frozen = (offHeap ? f.toOffHeap() : f);
+      tree = null;
+      strings.clear();
+    } else if (offHeap && !frozen.isOffHeap()) {
+      FrozenClassifier f = frozen.toOffHeap();
+      if (frozen.isCompiled()) {
+        f.compile();
+      }
+      frozen = f;
+    }
+  }
+
+  /**
+   * <p>
+   * Compiles the pattern tree of every context into a deterministic
+   * automaton, freezing the classifier first if necessary. A context value is
+   * then matched in a single pass, in time proportional to its length, no
+   * matter how many ways the wildcards of the patterns could be placed;
+   * backtracking only remains between contexts (e.g. when the input matches,
+   * but the "that" doesn't). The results, including the wildcards, are the
+   * same as before.
+   * </p>
+   * 
+   * <p>
+   * The states of the automata are built lazily, as the inputs are matched,
+   * and their number is bounded (see {@link ContextAutomaton}), so the first
+   * matches are slower. Compiling an already compiled classifier does
+   * nothing.
+   * </p>
+   * 
+   * @throws UnsupportedOperationException
+   *           if the tree contains nodes that can't be frozen
+   */
+  public void compile() {
+    freeze();
+    frozen.compile();
+  }
+
+  /**
+   * Returns the frozen snapshot of the tree
+   * 
+   * @return the frozen classifier, or <code>null</code> if this classifier
+   *         hasn't been frozen
+   */
+  FrozenClassifier getFrozen() {
+    return frozen;
+  }
+
+  /**
+   * Returns <code>true</code> if this classifier has been compiled into
+   * automata (see {@link #compile()}).
+   * 
+   * @return <code>true</code> if matching uses automata
+   */
+  public boolean isCompiled() {
+    return frozen != null && frozen.isCompiled();
+  }
+
+  /**
+   * Writes the classifier into a snapshot, in its frozen form. A classifier
+   * that hasn't been frozen is compiled for this purpose only, and is left
+   * unchanged. Only strings and scripts can be written as the stored objects.
+   * 
+   * @param out
+   *          the snapshot
+   * @throws UnsupportedOperationException
+   *           if the tree contains nodes that can't be frozen
+   * @throws java.io.NotSerializableException
+   *           if a stored object can't be written
+   * @throws IOException
+   */
+  public void write(SnapshotOutput out) throws IOException {
+    out.writeInt(count);
+    (frozen != null ? frozen : new FrozenClassifier(contextInfo, tree))
+        .write(out);
+  }
+
+  /**
+   * Reads the classifier from a snapshot written by
+   * {@link #write(SnapshotOutput)}. The classifier must be empty, with the
+   * same contexts registered as the one that was written, and ends up frozen.
+   * If the snapshot input maps its file, the classifier is stored off the
+   * heap, in the mapped file.
+   * 
+   * @param in
+   *          the snapshot
+   * @throws IllegalStateException
+   *           if the classifier isn't empty
+   * @throws IOException
+   */
+  public void read(SnapshotInput in) throws IOException {
+    if (tree != null || frozen != null) {
+      throw new IllegalStateException(
+          "Can't read a snapshot into a classifier that isn't empty");
+    }
+    count = in.readInt();
+    frozen = new FrozenClassifier(contextInfo, in);
+    modifications++;
+  }
+
+  /**
+   * Enables or disables the failure memo for all subsequent matches (see
+   * {@link MatchState#setMemoizeFailures(boolean)}). The memo bounds the work
+   * done on inputs that cause heavy backtracking in patterns with many
+   * wildcards, but slows down ordinary matches a little. Should be set before
+   * the classifier is shared with other threads.
+   * 
+   * @param memoizeFailures
+   *          <code>true</code> to enable the memo
+   */
+  public void setMemoizeFailures(boolean memoizeFailures) {
+    this.memoizeFailures = memoizeFailures;
+  }
+
+  /**
+   * Returns <code>true</code> if matches use the failure memo
+   * 
+   * @return <code>true</code> if matches use the failure memo
+   */
+  public boolean isMemoizingFailures() {
+    return memoizeFailures;
+  }
+
+  /**
+   * <p>
+   * Limits the number of steps of every subsequent match. A step is a node
+   * entered while backtracking, or a character read by the automata of a
+   * compiled classifier. Some inputs (e.g. a very long line of repeated
+   * words) make patterns with many wildcards backtrack for a very long time;
+   * with a budget, such a match is stopped instead, and its result is the
+   * fallback (see {@link #setBudgetFallback(Object)}), or no result at all.
+   * Matches that were stopped aren't cached.
+   * </p>
+   * 
+   * <p>
+   * The budget is copied into every new match state, where it can be changed
+   * (see {@link MatchState#setStepBudget(long)}). Should be set before the
+   * classifier is shared with other threads.
+   * </p>
+   * 
+   * @param steps
+   *          the maximum number of steps, or 0 for no limit
+   */
+  public void setStepBudget(long steps) {
+    if (steps < 0) {
+      throw new IllegalArgumentException("The step budget can't be negative");
+    }
+    stepBudget = steps;
+  }
+
+  /**
+   * Returns the maximum number of steps of a match
+   * 
+   * @return the maximum number of steps, or 0 if there is no limit
+   */
+  public long getStepBudget() {
+    return stepBudget;
+  }
+
+  /**
+   * Limits the duration of every subsequent match, like
+   * {@link #setStepBudget(long)}. The clock is only read every few hundred
+   * steps, so a match may overrun its deadline slightly. Should be set
+   * before the classifier is shared with other threads.
+   * 
+   * @param timeout
+   *          the maximum duration, or 0 for no limit
+   * @param unit
+   *          the unit of the duration
+   */
+  public void setTimeBudget(long timeout, TimeUnit unit) {
+    if (timeout < 0) {
+      throw new IllegalArgumentException("The time budget can't be negative");
+    }
+    timeBudget = unit.toNanos(timeout);
+  }
+
+  /**
+   * Returns the maximum duration of a match
+   * 
+   * @param unit
+   *          the unit of the result
+   * @return the maximum duration, or 0 if there is no limit
+   */
+  public long getTimeBudget(TimeUnit unit) {
+    return unit.convert(timeBudget, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Sets the result of matches that exceed their budget, e.g. the template
+   * of a "sorry, that's too complicated" category. The match state of such a
+   * match has no wildcards, so the template should only refer to the whole
+   * input.
+   * 
+   * @param fallback
+   *          the result, or <code>null</code> if such matches should fail
+   */
+  public void setBudgetFallback(Object fallback) {
+    this.budgetFallback = fallback;
+  }
+
+  /**
+   * Returns the result of matches that exceed their budget
+   * 
+   * @return the result, or <code>null</code> if such matches fail
+   */
+  public Object getBudgetFallback() {
+    return budgetFallback;
+  }
+
+  /**
+   * Returns the number of matches that have been stopped because they
+   * exceeded their step or time budget
+   * 
+   * @return the number of stopped matches
+   */
+  public long getBudgetExceededCount() {
+    return budgetExceeded.get();
+  }
+
+  /**
+   * <p>
+   * Enables parallel matching of alternatives for all subsequent matches.
+   * Where the tree branches near its top (in the first context matched,
+   * before any wildcard), the underscore, string and star subtrees of the
+   * branch are then matched at the same time, by the pool, each with its own
+   * fork of the match state. The outcome is the same as if they were matched
+   * one by one: the first alternative by priority that succeeds wins, and
+   * the alternatives after it are cancelled.
+   * </p>
+   * 
+   * <p>
+   * This doesn't make ordinary matches faster, because forking costs more
+   * than matching a small subtree. It's meant for large trees, where some
+   * inputs take very long to match, and there are idle cores to shorten
+   * them. Frozen and compiled classifiers don't have branch nodes, and
+   * aren't affected. Should be set before the classifier is shared with
+   * other threads.
+   * </p>
+   * 
+   * @param pool
+   *          the pool, or <code>null</code> to match the alternatives one by
+   *          one
+   */
+  public void setSpeculationPool(ForkJoinPool pool) {
+    this.speculationPool = pool;
+  }
+
+  /**
+   * Returns the pool that matches the alternatives of branches in parallel
+   * 
+   * @return the pool, or <code>null</code> if alternatives are matched one
+   *         by one
+   */
+  public ForkJoinPool getSpeculationPool() {
+    return speculationPool;
+  }
+
+  /**
+   * Installs a cache of match outcomes in front of the classifier (see
+   * {@link MatchCache}). Inputs that repeat often (greetings, "yes", "no")
+   * are then matched without walking the tree. The cache is invalidated
+   * whenever a sequence is added or removed. Should be set before the
+   * classifier is shared with other threads.
+   *
+   * @param cache
+   *          the cache, or <code>null</code> to disable caching
+   */
+  public void setMatchCache(MatchCache cache) {
+    this.cache = cache;
+  }
+
+  /**
+   * Returns the cache of match outcomes
+   *
+   * @return the cache, or <code>null</code> if matches aren't cached
+   */
+  public MatchCache getMatchCache() {
+    return cache;
+  }
+
+  /**
+   * Copies the settings of another classifier into this one: the failure
+   * memo, the step and time budgets, the budget fallback, the speculation
+   * pool and the match cache. The cache isn't shared, this classifier gets a
+   * new empty one with the same capacity. Neither the categories nor the
+   * frozen or compiled form are copied. Used when a classifier is replaced
+   * by a new one with the same role, e.g. when a bot is reloaded.
+   * 
+   * @param other
+   *          the classifier to take the settings from
+   */
+  public void copySettings(Classifier other) {
+    memoizeFailures = other.memoizeFailures;
+    stepBudget = other.stepBudget;
+    timeBudget = other.timeBudget;
+    budgetFallback = other.budgetFallback;
+    speculationPool = other.speculationPool;
+    MatchCache cache = other.cache;
+    this.cache = (cache != null ? cache.copy() : null);
+  }
+
+  /**
+   * Returns <code>true</code> if this classifier has been frozen.
+   * 
+   * @return <code>true</code> if this classifier has been frozen
+   */
+  public boolean isFrozen() {
+    return frozen != null;
+  }
+
+  /**
+   * Returns <code>true</code> if this classifier has been frozen, and its
+   * snapshot is stored outside of the Java heap (see {@link #freeze(boolean)}).
+   * 
+   * @return <code>true</code> if this classifier is stored off the heap
+   */
+  public boolean isOffHeap() {
+    return frozen != null && frozen.isOffHeap();
   }
 
   public ContextInfo getContextInfo() {
     return contextInfo;
   }
 
+  /**
+   * Returns the pool used to share equal strings between the pattern nodes
+   * and templates of this classifier while AIML is being loaded. The pool is
+   * emptied when a bot has loaded its AIML files, and when the classifier is
+   * frozen.
+   * 
+   * @return the string pool
+   */
+  public StringPool getStringPool() {
+    return strings;
+  }
+
   /**
    * Returns the number of loaded patterns.
    * 
@@ -101,6 +844,18 @@ public class Classifier {
     return count;
   }
 
+  /**
+   * Gathers statistics about the structure of the classifier (node counts,
+   * fan-out, depth, wildcard density and an estimate of the used heap). This
+   * walks the whole tree, so it shouldn't be called while categories are being
+   * added or removed.
+   * 
+   * @return the statistics
+   */
+  public ClassifierStatistics getStatistics() {
+    return new ClassifierStatistics(this, tree, frozen);
+  }
+
   public Graphviz gvGraph(Graphviz graph) {
     graph.start("digraph classifier");
     graph.graphAttributes("rankdir", "LR");
@@ -0,0 +1,524 @@
+/*
+    jaiml - java AIML library
+    Copyright (C) 2026  Kim Sullivan
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    You should have received a copy of the GNU General Public License
+    along with this program; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package aiml.classifier;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import aiml.classifier.node.BranchNode;
+import aiml.classifier.node.EndOfStringNode;
+import aiml.classifier.node.HashMapNode;
+import aiml.classifier.node.PatternNode;
+import aiml.classifier.node.PatternNodeVisitor;
+import aiml.classifier.node.StringBranchNode;
+import aiml.classifier.node.StringNode;
+import aiml.classifier.node.WildcardNode;
+import aiml.classifier.node.WordNode;
+import aiml.classifier.node.WordWildcardNode;
+
+/**
+ * <p>
+ * Statistics about the structure of a classifier: the number of nodes of each
+ * type, the fan-out of the branching nodes, the depth of the leaves, the
+ * wildcard density of each context, and an estimate of the heap used by the
+ * tree. The statistics are gathered by walking the whole tree once, when the
+ * object is created (see {@link Classifier#getStatistics()}), and don't change
+ * afterwards.
+ * </p>
+ *
+ * <p>
+ * The heap estimates assume a 64 bit JVM with compressed references (12 byte
+ * object headers, 16 byte array headers, 4 byte references, and objects
+ * aligned to 8 bytes), and count only the objects of the tree itself, not the
+ * objects stored in the leaves. They are meant for capacity planning and for
+ * comparing different trees, not as an exact measurement.
+ * </p>
+ *
+ * <p>
+ * A frozen classifier has no tree, only the size of its snapshot is known.
+ * </p>
+ *
+ * @author Kim Sullivan
+ * @version 1.0
+ */
+public class ClassifierStatistics {
+
+  /**
+   * Statistics about the pattern trees of a single context.
+   */
+  public static class ContextStatistics {
+    /** The name of the context */
+    private String name;
+
+    /** The number of pattern trees */
+    private int trees;
+
+    /** The number of pattern nodes */
+    private int nodes;
+
+    /** The number of wildcard nodes */
+    private int wildcards;
+
+    /** The estimated heap used by the pattern trees */
+    private long estimatedSize;
+
+    private ContextStatistics(String name) {
+      this.name = name;
+    }
+
+    /**
+     * Returns the name of the context
+     *
+     * @return the name of the context
+     */
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * Returns the number of pattern trees of this context (there is one for
+     * every path through the previous contexts)
+     *
+     * @return the number of pattern trees
+     */
+    public int getTreeCount() {
+      return trees;
+    }
+
+    /**
+     * Returns the number of pattern nodes in all the trees of this context
+     *
+     * @return the number of pattern nodes
+     */
+    public int getNodeCount() {
+      return nodes;
+    }
+
+    /**
+     * Returns the number of wildcard nodes in all the trees of this context
+     *
+     * @return the number of wildcard nodes
+     */
+    public int getWildcardCount() {
+      return wildcards;
+    }
+
+    /**
+     * Returns the fraction of the pattern nodes that are wildcards
+     *
+     * @return the wildcard density, between 0 and 1
+     */
+    public double getWildcardDensity() {
+      return (nodes > 0 ? (double) wildcards / nodes : 0);
+    }
+
+    /**
+     * Returns the estimated heap used by the pattern trees of this context
+     * (without the sub contexts)
+     *
+     * @return the estimated size in bytes
+     */
+    public long getEstimatedSize() {
+      return estimatedSize;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "%-12s %6d trees %8d nodes %8d wildcards (%.1f%%) %8d KB", name,
+          trees, nodes, wildcards, 100 * getWildcardDensity(),
+          estimatedSize / 1024);
+    }
+  }
+
+  /** The size of an object header */
+  static final int HEADER = 12;
+
+  /** The size of an array header */
+  static final int ARRAY_HEADER = 16;
+
+  /** The size of a reference */
+  static final int REFERENCE = 4;
+
+  /** The number of categories */
+  private int categories;
+
+  /** The number of nodes, by simple class name */
+  private SortedMap<String, Integer> nodeCounts = new TreeMap<String, Integer>();
+
+  /** The fan-out histograms, by simple class name of the branching nodes */
+  private SortedMap<String, SortedMap<Integer, Integer>> fanOuts = new TreeMap<String, SortedMap<Integer, Integer>>();
+
+  /** The histogram of the depths of the leaves */
+  private SortedMap<Integer, Integer> leafDepths = new TreeMap<Integer, Integer>();
+
+  /** The statistics of the contexts, by context order */
+  private SortedMap<Integer, ContextStatistics> contexts = new TreeMap<Integer, ContextStatistics>();
+
+  /** The estimated heap used by the tree */
+  private long estimatedSize;
+
+  /** The estimated heap used by the frozen snapshot, or -1 */
+  private long frozenSize = -1;
+
+  /** The memory used by the frozen snapshot outside of the heap */
+  private long offHeapSize;
+
+  /**
+   * Walks the tree of a classifier.
+   *
+   * @param classifier
+   *          the classifier
+   * @param tree
+   *          the root context tree, may be <code>null</code>
+   * @param frozen
+   *          the frozen snapshot, may be <code>null</code>
+   */
+  ClassifierStatistics(Classifier classifier, ContextNode tree,
+      FrozenClassifier frozen) {
+    categories = classifier.getCount();
+    if (frozen != null) {
+      long arrays = 4L * frozen.getNodeSize() + 2L * frozen.getLabelSize();
+      if (frozen.isOffHeap()) {
+        offHeapSize = arrays;
+        frozenSize = array(categories, REFERENCE);
+      } else {
+        frozenSize = array(frozen.getNodeSize(), 4) +
+            array(frozen.getLabelSize(), 2) + array(categories, REFERENCE);
+      }
+    }
+    new Walker().walk(tree);
+  }
+
+  /**
+   * Visits all the nodes of the tree, and adds them to the statistics. The
+   * visit methods walk the subtrees of a node, and return the estimated size
+   * of the node itself.
+   */
+  private class Walker implements PatternNodeVisitor<Long> {
+    /** The number of pattern nodes on the path from the root */
+    private int depth;
+
+    /** The context of the pattern nodes being visited */
+    private ContextStatistics current;
+
+    void walk(ContextNode node) {
+      for (; node != null; node = node.next) {
+        count(node.getClass().getSimpleName());
+        if (node instanceof PatternContextNode) {
+          ContextStatistics outer = current;
+          current = contexts.get(node.context.getOrder());
+          if (current == null) {
+            current = new ContextStatistics(node.context.getName());
+            contexts.put(node.context.getOrder(), current);
+          }
+          current.trees++;
+          estimatedSize += object(4);
+          walk(((PatternContextNode) node).getTree());
+          current = outer;
+        } else {
+          add(leafDepths, depth);
+          estimatedSize += object(4);
+        }
+      }
+    }
+
+    void walk(PatternNode node) {
+      if (node == null) {
+        return;
+      }
+      depth++;
+      long size = node.accept(this);
+      count(node.getClass().getSimpleName());
+      current.nodes++;
+      if (node.getType() == PatternNode.STAR ||
+          node.getType() == PatternNode.UNDERSCORE) {
+        current.wildcards++;
+      }
+      current.estimatedSize += size;
+      estimatedSize += size;
+      walk(node.getSubContext());
+      depth--;
+    }
+
+    public Long visit(BranchNode node) {
+      walk(node.getUnderscore());
+      walk(node.getString());
+      walk(node.getStar());
+      int count = (node.getUnderscore() != null ? 1 : 0) +
+          (node.getString() != null ? 1 : 0) + (node.getStar() != null ? 1 : 0);
+      fanOut(node, count);
+      return node(3);
+    }
+
+    public Long visit(StringNode node) {
+      walk(node.getNext());
+      return node(2) + string(node.getPattern());
+    }
+
+    public Long visit(StringBranchNode node) {
+      char characters[] = node.getCharacters();
+      for (char c : characters) {
+        walk(node.getBranch(c));
+      }
+      fanOut(node, characters.length);
+      //the char map and its key and value arrays
+      return node(1) + object(5) + array(characters.length, 2) +
+          array(characters.length, REFERENCE);
+    }
+
+    public Long visit(WildcardNode node) {
+      walk(node.getNext());
+      long size = node(3);
+      String first[] = node.getNextFirst();
+      if (first != null) {
+        size += array(first.length, REFERENCE) + array(first.length, 2);
+      }
+      return size;
+    }
+
+    public Long visit(EndOfStringNode node) {
+      walk(node.getNext());
+      return node(1);
+    }
+
+    public Long visit(HashMapNode node) {
+      Map<String, PatternNode> branches = node.getBranches();
+      //the label and subtree tables, at most half full, and the length bits
+      long size = node(4) + object(3) + array(1, 8);
+      int table = 4;
+      while (table < branches.size() * 2) {
+        table *= 2;
+      }
+      size += 2 * array(table, REFERENCE);
+      for (Map.Entry<String, PatternNode> entry : branches.entrySet()) {
+        size += string(entry.getKey());
+        walk(entry.getValue());
+      }
+      fanOut(node, branches.size());
+      return size;
+    }
+
+    public Long visit(WordNode node) {
+      int ids[] = node.getIds();
+      for (int id : ids) {
+        walk(node.getBranch(id));
+      }
+      fanOut(node, ids.length);
+      int capacity = Integer.highestOneBit(Math.max(1, ids.length) * 2 - 1);
+      return node(4) + array(capacity, 4) + array(capacity, REFERENCE);
+    }
+
+    public Long visit(WordWildcardNode node) {
+      walk(node.getNext());
+      return node(2);
+    }
+
+    private void count(String type) {
+      Integer count = nodeCounts.get(type);
+      nodeCounts.put(type, (count == null ? 1 : count + 1));
+    }
+
+    private void fanOut(PatternNode node, int count) {
+      String type = node.getClass().getSimpleName();
+      SortedMap<Integer, Integer> histogram = fanOuts.get(type);
+      if (histogram == null) {
+        histogram = new TreeMap<Integer, Integer>();
+        fanOuts.put(type, histogram);
+      }
+      add(histogram, count);
+    }
+  }
+
+  private static void add(SortedMap<Integer, Integer> histogram, int value) {
+    Integer count = histogram.get(value);
+    histogram.put(value, (count == null ? 1 : count + 1));
+  }
+
+  private static long align(long size) {
+    return (size + 7) & ~7L;
+  }
+
+  /**
+   * Returns the size of an object with the specified number of 4 byte fields
+   */
+  private static long object(int fields) {
+    return align(HEADER + fields * 4);
+  }
+
+  /**
+   * Returns the size of a pattern node with the specified number of 4 byte
+   * fields, in addition to the fields of <code>PatternNode</code>
+   */
+  private static long node(int fields) {
+    return object(8 + fields);
+  }
+
+  private static long array(int length, int elementSize) {
+    return align(ARRAY_HEADER + (long) length * elementSize);
+  }
+
+  private static long string(String s) {
+    boolean latin1 = true;
+    for (int i = 0; i < s.length() && latin1; i++) {
+      latin1 = s.charAt(i) < 256;
+    }
+    return object(3) + array(s.length(), (latin1 ? 1 : 2));
+  }
+
+  /**
+   * Returns the number of categories in the classifier
+   *
+   * @return the number of categories
+   */
+  public int getCategoryCount() {
+    return categories;
+  }
+
+  /**
+   * Returns the total number of context and pattern nodes
+   *
+   * @return the number of nodes
+   */
+  public int getNodeCount() {
+    int total = 0;
+    for (int count : nodeCounts.values()) {
+      total += count;
+    }
+    return total;
+  }
+
+  /**
+   * Returns the number of context and pattern nodes of each type
+   *
+   * @return a map from the simple class names of the nodes to the counts
+   */
+  public SortedMap<String, Integer> getNodeCounts() {
+    return Collections.unmodifiableSortedMap(nodeCounts);
+  }
+
+  /**
+   * Returns the fan-out histogram of a type of branching node (a branch node,
+   * string branch node, hash map node or word node)
+   *
+   * @param type
+   *          the simple class name of the node type
+   * @return a map from the number of branches of a node to the number of
+   *         nodes with that many branches
+   */
+  public SortedMap<Integer, Integer> getFanOut(String type) {
+    SortedMap<Integer, Integer> histogram = fanOuts.get(type);
+    if (histogram == null) {
+      histogram = new TreeMap<Integer, Integer>();
+    }
+    return Collections.unmodifiableSortedMap(histogram);
+  }
+
+  /**
+   * Returns the histogram of the depths of the leaves, i.e. the number of
+   * pattern nodes on the path from the root to each category
+   *
+   * @return a map from the depth to the number of leaves at that depth
+   */
+  public SortedMap<Integer, Integer> getLeafDepths() {
+    return Collections.unmodifiableSortedMap(leafDepths);
+  }
+
+  /**
+   * Returns the statistics of the contexts that have patterns, in the order of
+   * the contexts
+   *
+   * @return the context statistics
+   */
+  public Collection<ContextStatistics> getContexts() {
+    return Collections.unmodifiableCollection(contexts.values());
+  }
+
+  /**
+   * Returns the estimated heap used by the tree of context and pattern nodes
+   *
+   * @return the estimated size in bytes, 0 if the classifier is frozen
+   */
+  public long getEstimatedSize() {
+    return estimatedSize;
+  }
+
+  /**
+   * Returns the estimated heap used by the frozen snapshot
+   *
+   * @return the estimated size in bytes, or -1 if the classifier isn't frozen
+   */
+  public long getFrozenSize() {
+    return frozenSize;
+  }
+
+  /**
+   * Returns the memory used by the node records and labels of the frozen
+   * snapshot outside of the Java heap (see {@link Classifier#freeze(boolean)})
+   *
+   * @return the size in bytes, 0 if the snapshot is on the heap or the
+   *         classifier isn't frozen
+   */
+  public long getOffHeapSize() {
+    return offHeapSize;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    sb.append(categories + " categories, " + getNodeCount() +
+        " nodes, estimated heap " + estimatedSize / 1024 + " KB\n");
+    if (frozenSize >= 0) {
+      sb.append("frozen snapshot " + frozenSize / 1024 + " KB");
+      if (offHeapSize > 0) {
+        sb.append(", off heap " + offHeapSize / 1024 + " KB");
+      }
+      sb.append('\n');
+    }
+    for (Map.Entry<String, Integer> entry : nodeCounts.entrySet()) {
+      sb.append(String.format("  %-20s %8d\n", entry.getKey(),
+          entry.getValue()));
+    }
+    if (!contexts.isEmpty()) {
+      sb.append("contexts:\n");
+      for (ContextStatistics context : contexts.values()) {
+        sb.append("  " + context + "\n");
+      }
+    }
+    for (Map.Entry<String, SortedMap<Integer, Integer>> entry : fanOuts.entrySet()) {
+      sb.append("fan-out of " + entry.getKey() + " (branches:nodes):\n  " +
+          histogram(entry.getValue()) + "\n");
+    }
+    if (!leafDepths.isEmpty()) {
+      sb.append("leaf depth (depth:leaves):\n  " + histogram(leafDepths) +
+          "\n");
+    }
+    return sb.toString();
+  }
+
+  private static String histogram(SortedMap<Integer, Integer> histogram) {
+    StringBuilder sb = new StringBuilder();
+    for (Map.Entry<Integer, Integer> entry : histogram.entrySet()) {
+      if (sb.length() > 0) {
+        sb.append(' ');
+      }
+      sb.append(entry.getKey()).append(':').append(entry.getValue());
+    }
+    return sb.toString();
+  }
+}
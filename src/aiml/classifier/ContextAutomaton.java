@@ -0,0 +1,803 @@
+/*
+    jaiml - java AIML library
+    Copyright (C) 2026  Kim Sullivan
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    You should have received a copy of the GNU General Public License
+    along with this program; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package aiml.classifier;
+
+import static aiml.classifier.FrozenClassifier.BRANCH;
+import static aiml.classifier.FrozenClassifier.CHARS;
+import static aiml.classifier.FrozenClassifier.END_OF_STRING;
+import static aiml.classifier.FrozenClassifier.HASH;
+import static aiml.classifier.FrozenClassifier.NONE;
+import static aiml.classifier.FrozenClassifier.STRING;
+import static aiml.classifier.FrozenClassifier.WILDCARD;
+
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>
+ * A lazily built deterministic automaton, that matches the pattern tree of a
+ * single context of a {@link FrozenClassifier} in one pass over the context
+ * value, without backtracking.
+ * </p>
+ *
+ * <p>
+ * A position in the pattern tree is a triple of integers
+ * <code>(node, sub, extra)</code>: about to enter a node (<code>sub</code>
+ * is {@link #ENTER}), inside a wildcard that has consumed at least one
+ * character ({@link #INSIDE}), <code>sub</code> characters into the label of
+ * a string node (<code>sub &gt; 0</code>), or <code>k</code> characters into
+ * the labels of a hash node (<code>sub</code> is <code>-(k + 2)</code>, and
+ * <code>extra</code> the first of the entries starting with the characters
+ * read so far; the entries are sorted).
+ * </p>
+ *
+ * <p>
+ * A state of the automaton is a list of positions, ordered by priority: the
+ * positions are expanded in the same order the backtracking matcher tries the
+ * alternatives (<code>_</code>, string, <code>*</code>; a wildcard tries the
+ * following nodes before consuming another character). If two positions
+ * are equal, only the first one is kept, because whatever the second one
+ * could match, the first one matches earlier. At the end of the value, the
+ * positions of the state yield the sub contexts that were reached, in the
+ * order the backtracking matcher would reach them.
+ * </p>
+ *
+ * <p>
+ * States and their transitions are created the first time they are needed,
+ * and are shared by all the threads matching the context. Once more than
+ * {@link #MAX_STATES} states exist, they are discarded and the automaton is
+ * rebuilt from scratch, so that adversarial inputs can't exhaust the memory.
+ * If the discarded states have hardly been reused (the inputs rarely repeat
+ * the same states), caching them costs more than it saves; the states are
+ * then computed for every character without being cached, for the next
+ * {@link #UNCACHED_LENGTH} characters. Either way, reading a character takes
+ * time proportional to the number of positions at most.
+ * </p>
+ *
+ * <p>
+ * The automaton doesn't track wildcards. Once a sub context has been chosen,
+ * {@link #path(String, int)} simulates the positions once more, this time
+ * with the wildcards of every position, to find the wildcards of the highest
+ * priority path.
+ * </p>
+ *
+ * @author Kim Sullivan
+ * @version 1.0
+ */
+final class ContextAutomaton {
+  /** The number of cached states after which the automaton is rebuilt */
+  static final int MAX_STATES = 2048;
+
+  /**
+   * The minimum number of characters read per cached state, for the states
+   * to be worth building
+   */
+  static final int MIN_REUSE = 10;
+
+  /**
+   * The number of characters read without caching, before caching is tried
+   * again
+   */
+  static final int UNCACHED_LENGTH = 100 * MAX_STATES;
+
+  /** A position before entering a node */
+  private static final int ENTER = -1;
+
+  /** A position inside a wildcard */
+  private static final int INSIDE = 0;
+
+  /** The node records */
+  private final IntBuffer nodes;
+
+  /** The edge labels */
+  private final CharBuffer labels;
+
+  /** The root of the pattern tree */
+  private final int tree;
+
+  /** The current set of cached states */
+  private volatile Generation generation;
+
+  /**
+   * Creates an automaton for a pattern tree. No states are created yet.
+   *
+   * @param nodes
+   *          the node records of the frozen classifier
+   * @param labels
+   *          the edge labels of the frozen classifier
+   * @param tree
+   *          the root of the pattern tree
+   */
+  ContextAutomaton(IntBuffer nodes, CharBuffer labels, int tree) {
+    this.nodes = nodes;
+    this.labels = labels;
+    this.tree = tree;
+  }
+
+  /**
+   * A state of the automaton. The states are immutable, except for the cache
+   * of their transitions, which is filled in concurrently (a lost update only
+   * means the transition is computed again).
+   */
+  static final class State {
+    /** The positions, three integers each */
+    final int positions[];
+
+    /** The set of states this state belongs to */
+    final Generation generation;
+
+    /** Does the state contain a position inside a wildcard? */
+    final boolean wildcard;
+
+    /**
+     * The sub contexts reached at the end of the value, in priority order;
+     * <code>null</code> if they haven't been computed (see
+     * {@link ContextAutomaton#finish(State)})
+     */
+    final int accepts[];
+
+    /** Has a wildcard been entered at the end of the value? */
+    final boolean acceptsWildcard;
+
+    /** The transitions on ASCII characters, created on demand */
+    private State ascii[];
+
+    /** The transitions on other characters, created on demand */
+    private volatile ConcurrentHashMap<Character, State> other;
+
+    State(Generation generation, int positions[], int accepts[],
+        boolean acceptsWildcard) {
+      this.generation = generation;
+      this.positions = positions;
+      this.accepts = accepts;
+      this.acceptsWildcard = acceptsWildcard;
+      boolean wildcard = false;
+      for (int i = 1; i < positions.length; i += 3) {
+        wildcard |= (positions[i] == INSIDE);
+      }
+      this.wildcard = wildcard;
+    }
+
+    /**
+     * Returns <code>true</code> if no position is left, so nothing can be
+     * matched anymore
+     */
+    boolean isDead() {
+      return positions.length == 0;
+    }
+
+    State get(char c) {
+      if (c < 128) {
+        State table[] = ascii;
+        return (table == null ? null : table[c]);
+      }
+      ConcurrentHashMap<Character, State> map = other;
+      return (map == null ? null : map.get(c));
+    }
+
+    void put(char c, State target) {
+      if (c < 128) {
+        State table[] = ascii;
+        if (table == null) {
+          table = new State[128];
+          ascii = table;
+        }
+        table[c] = target;
+      } else {
+        ConcurrentHashMap<Character, State> map = other;
+        if (map == null) {
+          synchronized (this) {
+            map = other;
+            if (map == null) {
+              map = new ConcurrentHashMap<Character, State>();
+              other = map;
+            }
+          }
+        }
+        map.put(c, target);
+      }
+    }
+  }
+
+  /** The key of a state in the cache: its positions */
+  private static final class Key {
+    private final int positions[];
+
+    private final int hash;
+
+    Key(int positions[]) {
+      this.positions = positions;
+      this.hash = Arrays.hashCode(positions);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof Key && Arrays.equals(positions, ((Key) o).positions);
+    }
+  }
+
+  /** A set of cached states, discarded all at once */
+  final class Generation {
+    final ConcurrentHashMap<Key, State> states =
+        new ConcurrentHashMap<Key, State>();
+
+    /** Are the states and their transitions cached? */
+    final boolean cached;
+
+    final State start;
+
+    /**
+     * The number of characters read using these states (updated without
+     * synchronization, so it's only approximate)
+     */
+    int characters;
+
+    Generation(boolean cached) {
+      this.cached = cached;
+      start = state(this, new int[] { tree, ENTER, 0 });
+    }
+  }
+
+  /**
+   * A wildcard of a path through the pattern tree. The wildcards of a path
+   * form a linked list, the last one first; the last one is open (has no end
+   * yet) while the path is inside it.
+   */
+  private static final class Capture {
+    final int begin;
+
+    final int end;
+
+    final Capture previous;
+
+    Capture(int begin, int end, Capture previous) {
+      this.begin = begin;
+      this.end = end;
+      this.previous = previous;
+    }
+
+    Capture close(int end) {
+      return new Capture(begin, end, previous);
+    }
+  }
+
+  /**
+   * The wildcards of the highest priority path to a sub context
+   */
+  static final class Path {
+    /**
+     * The beginning and ending positions of the wildcards, in pairs and in
+     * the order of the path
+     */
+    final int wildcards[];
+
+    /**
+     * Has the backtracking matcher entered a wildcard before it finished the
+     * path? (see {@link FrozenClassifier.Matcher})
+     */
+    final boolean wildcardTried;
+
+    Path(int wildcards[], boolean wildcardTried) {
+      this.wildcards = wildcards;
+      this.wildcardTried = wildcardTried;
+    }
+  }
+
+  /**
+   * Collects the positions of the next state (without duplicates), or the
+   * sub contexts reached at the end of the value. When capturing, the
+   * wildcards of every position and sub context are collected too, together
+   * with a flag telling if a wildcard was entered on the way to it, or on
+   * any path with a higher priority.
+   */
+  private static final class Builder {
+    final boolean capturing;
+
+    int positions[] = new int[48];
+
+    Capture captures[];
+
+    boolean tried[];
+
+    /** Has a position inside a wildcard been added yet? */
+    boolean inside;
+
+    /** The number of positions */
+    int size;
+
+    /** An open addressing hash table of position numbers + 1 */
+    int table[] = new int[32];
+
+    int accepts[] = new int[8];
+
+    Capture acceptCaptures[];
+
+    boolean acceptTried[];
+
+    int acceptCount;
+
+    /** Has a wildcard been entered at the end of the value? */
+    boolean wildcard;
+
+    Builder(boolean capturing) {
+      this.capturing = capturing;
+      if (capturing) {
+        captures = new Capture[positions.length / 3];
+        tried = new boolean[positions.length / 3];
+        acceptCaptures = new Capture[accepts.length];
+        acceptTried = new boolean[accepts.length];
+      }
+    }
+
+    void clear() {
+      Arrays.fill(table, 0);
+      if (capturing) {
+        Arrays.fill(captures, 0, size, null);
+      }
+      size = 0;
+      inside = false;
+    }
+
+    private static int hash(int node, int sub, int extra) {
+      int h = (node * 31 + sub) * 31 + extra;
+      return h ^ (h >>> 16);
+    }
+
+    void add(int node, int sub, int extra, Capture capture, boolean tried) {
+      int mask = table.length - 1;
+      int slot = hash(node, sub, extra) & mask;
+      for (int i = table[slot]; i != 0; i = table[slot]) {
+        int p = 3 * (i - 1);
+        if (positions[p] == node && positions[p + 1] == sub &&
+            positions[p + 2] == extra) {
+          return;
+        }
+        slot = (slot + 1) & mask;
+      }
+      if (3 * size == positions.length) {
+        positions = Arrays.copyOf(positions, positions.length * 2);
+        if (capturing) {
+          captures = Arrays.copyOf(captures, positions.length / 3);
+          this.tried = Arrays.copyOf(this.tried, positions.length / 3);
+        }
+      }
+      positions[3 * size] = node;
+      positions[3 * size + 1] = sub;
+      positions[3 * size + 2] = extra;
+      inside |= (sub == INSIDE);
+      if (capturing) {
+        captures[size] = capture;
+        this.tried[size] = tried || inside;
+      }
+      table[slot] = ++size;
+      if (2 * size > table.length) {
+        rehash();
+      }
+    }
+
+    private void rehash() {
+      table = new int[table.length * 2];
+      int mask = table.length - 1;
+      for (int i = 0; i < size; i++) {
+        int slot = hash(positions[3 * i], positions[3 * i + 1],
+            positions[3 * i + 2]) & mask;
+        while (table[slot] != 0) {
+          slot = (slot + 1) & mask;
+        }
+        table[slot] = i + 1;
+      }
+    }
+
+    /**
+     * Adds a sub context reached at the end of the value. There are few of
+     * them, so duplicates are looked up linearly.
+     */
+    void accept(int subContext, Capture capture, boolean tried) {
+      if (subContext == NONE) {
+        return;
+      }
+      for (int i = 0; i < acceptCount; i++) {
+        if (accepts[i] == subContext) {
+          return;
+        }
+      }
+      if (acceptCount == accepts.length) {
+        accepts = Arrays.copyOf(accepts, acceptCount * 2);
+        if (capturing) {
+          acceptCaptures = Arrays.copyOf(acceptCaptures, acceptCount * 2);
+          acceptTried = Arrays.copyOf(acceptTried, acceptCount * 2);
+        }
+      }
+      accepts[acceptCount] = subContext;
+      if (capturing) {
+        acceptCaptures[acceptCount] = capture;
+        acceptTried[acceptCount] = tried || wildcard;
+      }
+      acceptCount++;
+    }
+  }
+
+  /**
+   * Returns the initial state. If too many states have been cached, they are
+   * discarded first.
+   *
+   * @return the initial state
+   */
+  State start() {
+    Generation g = generation;
+    if (g == null) {
+      g = new Generation(true);
+      generation = g;
+    } else if (g.cached ? g.states.size() > MAX_STATES :
+        g.characters > UNCACHED_LENGTH) {
+      //stop caching if the states have hardly been reused
+      g = new Generation(!g.cached ||
+          g.characters >= MIN_REUSE * g.states.size());
+      generation = g;
+    }
+    return g.start;
+  }
+
+  /**
+   * Returns the state after reading a character
+   *
+   * @param state
+   *          the current state
+   * @param c
+   *          the character
+   * @return the next state, possibly dead
+   */
+  State next(State state, char c) {
+    state.generation.characters++;
+    State target = state.get(c);
+    if (target == null) {
+      Builder out = new Builder(false);
+      int positions[] = state.positions;
+      for (int i = 0; i < positions.length; i += 3) {
+        step(positions[i], positions[i + 1], positions[i + 2], c, 0, null,
+            false, out);
+      }
+      target = state(state.generation, Arrays.copyOf(out.positions,
+          3 * out.size));
+      if (state.generation.cached) {
+        state.put(c, target);
+      }
+    }
+    return target;
+  }
+
+  /**
+   * Returns the cached state with the specified positions, creating it if
+   * necessary (without caching it, if the generation isn't cached)
+   */
+  private State state(Generation g, int positions[]) {
+    Key key = (g.cached ? new Key(positions) : null);
+    State state = (g.cached ? g.states.get(key) : null);
+    if (state == null) {
+      if (!g.cached) {
+        //most of the states are passed through, and never finished
+        return new State(g, positions, null, false);
+      }
+      state = finish(new State(g, positions, null, false));
+      State existing = g.states.putIfAbsent(key, state);
+      if (existing != null) {
+        state = existing;
+      }
+    }
+    return state;
+  }
+
+  /**
+   * Returns a state with the sub contexts reached at the end of the value
+   * computed
+   *
+   * @param state
+   *          the state at the end of the value
+   * @return the same state, or a copy with {@link State#accepts}
+   */
+  State finish(State state) {
+    if (state.accepts != null) {
+      return state;
+    }
+    Builder out = new Builder(false);
+    int positions[] = state.positions;
+    for (int i = 0; i < positions.length; i += 3) {
+      close(positions[i], positions[i + 1], positions[i + 2], 0, null, false,
+          out);
+    }
+    return new State(state.generation, positions, Arrays.copyOf(out.accepts,
+        out.acceptCount), out.wildcard);
+  }
+
+  /**
+   * Returns the number of states currently cached
+   *
+   * @return the number of states
+   */
+  int getStateCount() {
+    Generation g = generation;
+    return (g == null ? 0 : g.states.size());
+  }
+
+  /**
+   * Finds the wildcards of the highest priority path from the root of the
+   * pattern tree to a sub context.
+   *
+   * @param value
+   *          the context value
+   * @param subContext
+   *          the sub context, as reached by the automaton
+   * @return the wildcards of the path
+   * @throws IllegalArgumentException
+   *           if the sub context isn't reached
+   */
+  Path path(String value, int subContext) {
+    Builder current = new Builder(true);
+    Builder next = new Builder(true);
+    current.add(tree, ENTER, 0, null, false);
+    for (int i = 0; i < value.length() && current.size > 0; i++) {
+      next.clear();
+      char c = value.charAt(i);
+      int positions[] = current.positions;
+      for (int j = 0; j < current.size; j++) {
+        step(positions[3 * j], positions[3 * j + 1], positions[3 * j + 2], c,
+            i, current.captures[j], current.tried[j], next);
+      }
+      Builder swap = current;
+      current = next;
+      next = swap;
+    }
+    Builder end = new Builder(true);
+    int positions[] = current.positions;
+    for (int j = 0; j < current.size; j++) {
+      close(positions[3 * j], positions[3 * j + 1], positions[3 * j + 2],
+          value.length(), current.captures[j], current.tried[j], end);
+    }
+    for (int i = 0; i < end.acceptCount; i++) {
+      if (end.accepts[i] == subContext) {
+        int count = 0;
+        for (Capture w = end.acceptCaptures[i]; w != null; w = w.previous) {
+          count++;
+        }
+        int result[] = new int[2 * count];
+        for (Capture w = end.acceptCaptures[i]; w != null; w = w.previous) {
+          result[--count * 2] = w.begin;
+          result[count * 2 + 1] = w.end;
+        }
+        return new Path(result, end.acceptTried[i]);
+      }
+    }
+    throw new IllegalArgumentException("Sub context " + subContext +
+        " isn't reached by \"" + value + "\"");
+  }
+
+  /**
+   * Adds the positions reached from a position by reading a character.
+   *
+   * @param position
+   *          the position of the character in the value (used for wildcards
+   *          only)
+   */
+  private void step(int node, int sub, int extra, char c, int position,
+      Capture capture, boolean tried, Builder out) {
+    if (node == NONE) {
+      return;
+    }
+    if (sub == ENTER) {
+      switch (nodes.get(node)) {
+      case BRANCH:
+        for (int i = 1; i <= 3; i++) {
+          step(nodes.get(node + i), ENTER, 0, c, position, capture, tried, out);
+        }
+        break;
+      case STRING:
+        if (labels.get(nodes.get(node + 1)) == c) {
+          out.add(node, 1, 0, capture, tried);
+        }
+        break;
+      case CHARS: {
+        int label = nodes.get(node + 2);
+        int i = search(label, label + nodes.get(node + 1), c);
+        if (i >= 0) {
+          out.add(nodes.get(node + 3 + i - label), ENTER, 0, capture, tried);
+        }
+        break;
+      }
+      case WILDCARD: //a wildcard consumes at least one character
+        out.add(node, INSIDE, 0, out.capturing ? new Capture(position, -1,
+            capture) : null, tried);
+        break;
+      case END_OF_STRING:
+        step(nodes.get(node + 1), ENTER, 0, c, position, capture, tried, out);
+        break;
+      case HASH:
+        stepHash(node, 0, 0, nodes.get(node + 1), c, capture, tried, out);
+        break;
+      default:
+        throw corrupted(node);
+      }
+    } else if (sub == INSIDE) {
+      //first try to end the wildcard here, then to make it longer
+      step(nodes.get(node + 2), ENTER, 0, c, position, out.capturing ? capture
+          .close(position) : null, tried, out);
+      out.add(node, INSIDE, 0, capture, tried);
+    } else if (sub > 0) {
+      if (sub < nodes.get(node + 2)) {
+        if (labels.get(nodes.get(node + 1) + sub) == c) {
+          out.add(node, sub + 1, 0, capture, tried);
+        }
+      } else {
+        step(nodes.get(node + 3), ENTER, 0, c, position, capture, tried, out);
+      }
+    } else {
+      int k = -sub - 2;
+      stepHash(node, k, extra, rangeEnd(node, extra, k), c, capture, tried,
+          out);
+    }
+  }
+
+  /**
+   * Adds the sub contexts reached from a position at the end of the value.
+   */
+  private void close(int node, int sub, int extra, int position,
+      Capture capture, boolean tried, Builder out) {
+    if (node == NONE) {
+      return;
+    }
+    if (sub == ENTER) {
+      switch (nodes.get(node)) {
+      case BRANCH:
+        for (int i = 1; i <= 3; i++) {
+          close(nodes.get(node + i), ENTER, 0, position, capture, tried, out);
+        }
+        break;
+      case STRING:
+      case CHARS:
+        break;
+      case WILDCARD: //an empty wildcard at the end
+        out.wildcard = true;
+        out.accept(nodes.get(node + 3), out.capturing ? new Capture(position,
+            position, capture) : null, tried);
+        break;
+      case END_OF_STRING:
+        out.accept(nodes.get(node + 2), capture, tried);
+        break;
+      case HASH:
+        if (nodes.get(node + 1) > 0 && nodes.get(entry(node, 0) + 1) == 0) {
+          out.accept(nodes.get(entry(node, 0) + 2), capture, tried);
+        }
+        break;
+      default:
+        throw corrupted(node);
+      }
+    } else if (sub == INSIDE) {
+      Capture closed = (out.capturing ? capture.close(position) : null);
+      close(nodes.get(node + 2), ENTER, 0, position, closed, tried, out);
+      out.accept(nodes.get(node + 3), closed, tried);
+    } else if (sub > 0) {
+      if (sub == nodes.get(node + 2)) {
+        out.accept(nodes.get(node + 4), capture, tried);
+      }
+    } else {
+      int entry = entry(node, extra);
+      if (nodes.get(entry + 1) == -sub - 2) {
+        out.accept(nodes.get(entry + 2), capture, tried);
+      }
+    }
+  }
+
+  /**
+   * Returns the offset of an entry of a hash node
+   */
+  private int entry(int node, int i) {
+    return node + 5 + 3 * i;
+  }
+
+  /**
+   * Reads a character from the hash node entries <code>[from, to)</code>,
+   * which all start with the same <code>k</code> characters.
+   */
+  private void stepHash(int node, int k, int from, int to, char c,
+      Capture capture, boolean tried, Builder out) {
+    //the entries are sorted: the one that ends after k characters comes
+    //first, the others by their k-th character
+    int low = from;
+    int high = to;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      int entry = entry(node, mid);
+      if (nodes.get(entry + 1) > k &&
+          labels.get(nodes.get(entry) + k) >= c) {
+        high = mid;
+      } else {
+        low = mid + 1;
+      }
+    }
+    if (low < to) {
+      int entry = entry(node, low);
+      if (labels.get(nodes.get(entry) + k) == c) {
+        out.add(node, -(k + 1) - 2, low, capture, tried);
+      }
+    }
+  }
+
+  /**
+   * Returns the end of the range of hash node entries, that start with the
+   * same <code>k</code> characters as the entry <code>from</code>.
+   */
+  private int rangeEnd(int node, int from, int k) {
+    int label = nodes.get(entry(node, from));
+    int low = from + 1;
+    int high = nodes.get(node + 1);
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (startsWith(entry(node, mid), label, k)) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Checks if the label of a hash node entry starts with the first
+   * <code>k</code> characters of a label
+   */
+  private boolean startsWith(int entry, int label, int k) {
+    if (nodes.get(entry + 1) < k) {
+      return false;
+    }
+    int other = nodes.get(entry);
+    for (int i = 0; i < k; i++) {
+      if (labels.get(other + i) != labels.get(label + i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Searches a sorted range of the labels for a character
+   */
+  private int search(int from, int to, char c) {
+    int low = from;
+    int high = to - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      char label = labels.get(mid);
+      if (label < c) {
+        low = mid + 1;
+      } else if (label > c) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -(low + 1);
+  }
+
+  private IllegalStateException corrupted(int node) {
+    return new IllegalStateException("Corrupted frozen classifier node " +
+        node);
+  }
+}
@@ -116,19 +116,109 @@ public abstract class ContextNode implements GraphvizNode {
    */
   public abstract PatternNode addPattern(PaternSequence.Pattern pattern);
 
+  /**
+   * Removes the remaining patterns in a sequence from this node. This follows
+   * the same path as {@link #add(PatternIterator, Object)}, and prunes the
+   * pattern subtrees and context nodes that become empty on the way back.
+   *
+   * @param patterns
+   *          remaining patterns in the sequence
+   * @throws NoSuchPathException
+   *           if the sequence isn't in the tree; the tree is left unchanged
+   * @return the resulting context tree, or <code>null</code> if nothing
+   *         remains
+   */
+  public ContextNode remove(PatternIterator patterns)
+      throws NoSuchPathException {
+    if (patterns.hasNext()) { //We're in the middle of the sequence
+      PaternSequence.Pattern pattern = patterns.peek();
+      if (context.compareTo(pattern.getContext()) < 0) {
+        //the sequence doesn't constrain this context, so it was added as next
+        if (next == null) {
+          throw new NoSuchPathException();
+        }
+        next = next.remove(patterns);
+        return this;
+      } else if (context.compareTo(pattern.getContext()) > 0) {
+        //it would have been added instead of self
+        throw new NoSuchPathException();
+      } else {
+        patterns.next();
+        if (removePattern(pattern, patterns)) {
+          return next;
+        }
+        return this;
+      }
+    } else { //the leaf node is the next context
+      if (next == null) {
+        throw new NoSuchPathException();
+      }
+      next = next.remove(patterns);
+      return this;
+    }
+  }
+
+  /**
+   * Removes a pattern from this context, together with the remaining patterns
+   * in the sequence from the sub context of the pattern.
+   *
+   * @param pattern
+   *          the pattern
+   * @param patterns
+   *          the remaining patterns in the sequence, after the pattern
+   * @return <code>true</code> if this context has no more patterns
+   * @throws NoSuchPathException
+   *           if the sequence isn't in the tree
+   */
+  public abstract boolean removePattern(PaternSequence.Pattern pattern,
+      PatternIterator patterns) throws NoSuchPathException;
+
   public Classifier getClassifier() {
     return classifier;
   }
 
   /**
-   * Try to match the current match state.
+   * Try to match the current match state. The match state is notified when
+   * the node is entered and left (see {@link MatchState#enterNode(Object)}).
+   * 
+   * @param match
+   *          MatchState
+   * @return <code>true</code> if a match was found; <code>false</code> if the
+   *         match failed
+   */
+  public final boolean match(MatchState match) {
+    match.enterNode(this);
+    boolean matched = matchNode(match);
+    match.leaveNode(this, matched);
+    return matched;
+  }
+
+  /**
+   * Try to match the current match state, see {@link #match(MatchState)}.
    * 
    * @param match
    *          MatchState
    * @return <code>true</code> if a match was found; <code>false</code> if the
    *         match failed
    */
-  public abstract boolean match(MatchState match);
+  protected abstract boolean matchNode(MatchState match);
+
+  /**
+   * Takes a step of a resumable match (see {@link TreeMatcher}), the
+   * counterpart of {@link #matchNode(MatchState)}. Instead of matching a
+   * child, the step passes it to {@link TreeMatcher#call(ContextNode, int)}
+   * or {@link TreeMatcher#call(PatternNode, int)}, and returns; the next
+   * step comes once the child has failed. If the node fails, the match state
+   * has to be left the same as before its first step.
+   * 
+   * @param matcher
+   *          the matcher, which keeps the phase of the node
+   * @param match
+   *          the match state
+   * @return <code>true</code> if a child was called; <code>false</code> if
+   *         the node has failed
+   */
+  protected abstract boolean matchStep(TreeMatcher matcher, MatchState match);
 
   /** Returns a string representation of this context node */
   public String toString() {
@@ -0,0 +1,1239 @@
+/*
+    jaiml - java AIML library
+    Copyright (C) 2026  Kim Sullivan
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    You should have received a copy of the GNU General Public License
+    along with this program; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package aiml.classifier;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import aiml.classifier.node.BranchNode;
+import aiml.classifier.node.EndOfStringNode;
+import aiml.classifier.node.HashMapNode;
+import aiml.classifier.node.PatternNode;
+import aiml.classifier.node.PatternNodeVisitor;
+import aiml.classifier.node.StringBranchNode;
+import aiml.classifier.node.StringNode;
+import aiml.classifier.node.WildcardNode;
+import aiml.classifier.node.WordNode;
+import aiml.classifier.node.WordWildcardNode;
+import aiml.context.ContextInfo;
+import aiml.snapshot.SnapshotFormatException;
+import aiml.snapshot.SnapshotInput;
+import aiml.snapshot.SnapshotOutput;
+
+/**
+ * <p>
+ * A read-only snapshot of the classifier tree, flattened into primitive
+ * arrays. Every context and pattern node is compiled into a record in a
+ * single <code>int</code> array, edge labels are stored in a shared
+ * <code>char</code> array, and the objects stored in the leaves in an object
+ * array. References between nodes are simply offsets into the node array.
+ * </p>
+ *
+ * <p>
+ * The records have the following layout (-1 stands for "no node"):
+ * </p>
+ * <ul>
+ * <li><code>LEAF, result index</code></li>
+ * <li><code>CONTEXT, context order, pattern tree, next context</code></li>
+ * <li><code>BRANCH, underscore, string, star</code></li>
+ * <li><code>STRING, label offset, label length, next, sub context</code></li>
+ * <li><code>CHARS, count, label offset, children[count]</code> (the labels
+ * are sorted)</li>
+ * <li><code>WILDCARD, wildcard type, next, sub context, look-ahead kind,
+ * look-ahead offset, look-ahead length</code> (the look-ahead is either a
+ * single literal, or a sorted set of characters, see
+ * {@link aiml.classifier.node.WildcardNode})</li>
+ * <li><code>END_OF_STRING, next, sub context</code></li>
+ * <li><code>HASH, count, shortest label length, longest label length, table
+ * size, [label offset, label length, sub context][count], table[size]</code>
+ * (an open addressing hash table of the labels, with the same hash codes as
+ * {@link String#hashCode()}, that contains entry numbers or -1)</li>
+ * </ul>
+ *
+ * <p>
+ * The snapshot is matched by a non-recursive {@link Matcher}, which keeps the
+ * backtracking state on an explicit stack of primitive arrays, and follows
+ * exactly the same priority rules as the object tree (<code>_</code> before
+ * a string before <code>*</code>, reluctant wildcards, contexts in order). If
+ * the failure memo of the match state is enabled, failed wildcards and
+ * contexts are recorded under their offsets.
+ * </p>
+ *
+ * <p>
+ * The node records and labels are accessed through NIO buffers, by absolute
+ * index, so they don't have to live on the Java heap: they can be copied into
+ * direct memory (see {@link #toOffHeap()}), or mapped read-only from a
+ * snapshot file (see {@link SnapshotInput}), in which case several processes
+ * matching against the same snapshot share its pages. Only the objects stored
+ * in the leaves (the templates) are always kept on the heap.
+ * </p>
+ *
+ * <p>
+ * Only the node types of the default (character based) pattern behaviour can
+ * be frozen.
+ * </p>
+ *
+ * @author Kim Sullivan
+ * @version 1.0
+ */
+public class FrozenClassifier {
+  /** A leaf context node */
+  static final int LEAF = 0;
+
+  /** A pattern context node */
+  static final int CONTEXT = 1;
+
+  /** A branch node */
+  static final int BRANCH = 2;
+
+  /** A string node */
+  static final int STRING = 3;
+
+  /** A string branch node */
+  static final int CHARS = 4;
+
+  /** A wildcard node */
+  static final int WILDCARD = 5;
+
+  /** An end of string node */
+  static final int END_OF_STRING = 6;
+
+  /** A hash map node */
+  static final int HASH = 7;
+
+  /** A missing node */
+  static final int NONE = -1;
+
+  /** Wildcard look-ahead: the sub patterns can begin with anything */
+  static final int LOOK_ANY = 0;
+
+  /** Wildcard look-ahead: the sub patterns begin with a single literal */
+  static final int LOOK_LITERAL = 1;
+
+  /** Wildcard look-ahead: the sub patterns begin with a set of characters */
+  static final int LOOK_CHARS = 2;
+
+  /** The node records */
+  private final IntBuffer nodes;
+
+  /** The edge labels */
+  private final CharBuffer labels;
+
+  /** The objects stored in the leaves */
+  private final Object results[];
+
+  /** Information about context set up */
+  private final ContextInfo contextInfo;
+
+  /** The offset of the root node */
+  private final int root;
+
+  /**
+   * The offsets of the context records that have a pattern tree, sorted, or
+   * <code>null</code> if the classifier hasn't been compiled into automata
+   */
+  private volatile int automatonContexts[];
+
+  /** The automata of the pattern trees of the context records */
+  private volatile ContextAutomaton automata[];
+
+  /**
+   * Compiles the context tree into a frozen snapshot.
+   *
+   * @param contextInfo
+   *          the context information of the classifier
+   * @param tree
+   *          the root context tree, may be <code>null</code>
+   * @throws UnsupportedOperationException
+   *           if the tree contains a node type that can't be frozen
+   */
+  FrozenClassifier(ContextInfo contextInfo, ContextNode tree) {
+    this.contextInfo = contextInfo;
+    Compiler compiler = new Compiler();
+    root = compiler.compile(tree);
+    nodes = IntBuffer.wrap(Arrays.copyOf(compiler.nodes, compiler.size));
+    labels = CharBuffer.wrap(compiler.labels.toString().toCharArray());
+    results = compiler.results.toArray();
+  }
+
+  /**
+   * Creates a frozen classifier that uses the specified node records and
+   * labels.
+   */
+  private FrozenClassifier(ContextInfo contextInfo, int root, IntBuffer nodes,
+      CharBuffer labels, Object results[]) {
+    this.contextInfo = contextInfo;
+    this.root = root;
+    this.nodes = nodes;
+    this.labels = labels;
+    this.results = results;
+  }
+
+  /**
+   * Reads a frozen snapshot written by {@link #write(SnapshotOutput)}. If the
+   * snapshot input maps its file, the node records and labels are used
+   * directly from the mapping.
+   *
+   * @param contextInfo
+   *          the context information of the classifier
+   * @param in
+   *          the snapshot
+   * @throws SnapshotFormatException
+   *           if the snapshot is inconsistent
+   * @throws IOException
+   */
+  FrozenClassifier(ContextInfo contextInfo, SnapshotInput in)
+      throws IOException {
+    this.contextInfo = contextInfo;
+    root = in.readInt();
+    nodes = in.readInts(in.readInt());
+    labels = in.readChars(in.readInt());
+    results = new Object[in.readInt()];
+    for (int i = 0; i < results.length; i++) {
+      results[i] = in.readObject();
+    }
+    if (root < NONE || root >= nodes.capacity()) {
+      throw new SnapshotFormatException("Invalid root node " + root);
+    }
+  }
+
+  /**
+   * Writes the node records, labels and results into a snapshot.
+   *
+   * @param out
+   *          the snapshot
+   * @throws java.io.NotSerializableException
+   *           if the results can't be written
+   * @throws IOException
+   */
+  void write(SnapshotOutput out) throws IOException {
+    out.writeInt(root);
+    out.writeInt(nodes.capacity());
+    out.writeInts(nodes);
+    out.writeInt(labels.capacity());
+    out.writeChars(labels);
+    out.writeInt(results.length);
+    for (Object result : results) {
+      out.writeObject(result);
+    }
+  }
+
+  /**
+   * Copies the node records and labels into direct buffers, outside of the
+   * Java heap. The copy matches exactly like the original; the original can be
+   * discarded.
+   *
+   * @return a copy of this frozen classifier, with its node records and labels
+   *         off the heap
+   */
+  FrozenClassifier toOffHeap() {
+    ByteBuffer nodeBytes = ByteBuffer.allocateDirect(4 * nodes.capacity())
+        .order(ByteOrder.nativeOrder());
+    IntBuffer directNodes = nodeBytes.asIntBuffer();
+    directNodes.put(nodes.duplicate()).clear();
+    ByteBuffer labelBytes = ByteBuffer.allocateDirect(2 * labels.capacity())
+        .order(ByteOrder.nativeOrder());
+    CharBuffer directLabels = labelBytes.asCharBuffer();
+    directLabels.put(labels.duplicate()).clear();
+    return new FrozenClassifier(contextInfo, root, directNodes, directLabels,
+        results);
+  }
+
+  /**
+   * Creates a deterministic automaton (see {@link ContextAutomaton}) for the
+   * pattern tree of every context record. Subsequent matches use the
+   * automata instead of the backtracking {@link Matcher}. The states of the
+   * automata are only built as the inputs are matched.
+   */
+  void compile() {
+    if (automata != null) {
+      return;
+    }
+    int count = 0;
+    for (int node = 0; node < nodes.capacity(); node += recordLength(node)) {
+      if (nodes.get(node) == CONTEXT && nodes.get(node + 2) != NONE) {
+        count++;
+      }
+    }
+    int contexts[] = new int[count];
+    ContextAutomaton automata[] = new ContextAutomaton[count];
+    int i = 0;
+    for (int node = 0; node < nodes.capacity(); node += recordLength(node)) {
+      if (nodes.get(node) == CONTEXT && nodes.get(node + 2) != NONE) {
+        contexts[i] = node;
+        automata[i] = new ContextAutomaton(nodes, labels, nodes.get(node + 2));
+        i++;
+      }
+    }
+    this.automatonContexts = contexts;
+    this.automata = automata;
+  }
+
+  /**
+   * Returns <code>true</code> if the classifier has been compiled into
+   * automata
+   *
+   * @return <code>true</code> if matching uses automata
+   */
+  boolean isCompiled() {
+    return automata != null;
+  }
+
+  /**
+   * Returns the number of states currently built by all the automata
+   *
+   * @return the number of states, 0 if the classifier hasn't been compiled
+   */
+  int getAutomatonStateCount() {
+    ContextAutomaton automata[] = this.automata;
+    int count = 0;
+    if (automata != null) {
+      for (ContextAutomaton automaton : automata) {
+        count += automaton.getStateCount();
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Describes a record, for match traces (see {@link TracingMatchState})
+   *
+   * @param node
+   *          the offset of the record
+   * @return the type of the record, and a short label
+   */
+  String[] describe(int node) {
+    switch (nodes.get(node)) {
+    case LEAF:
+      return new String[] { "LEAF", "" };
+    case CONTEXT:
+      return new String[] { "CONTEXT",
+          "<" + contextInfo.getContext(nodes.get(node + 1)).getName() + ">" };
+    case BRANCH:
+      return new String[] { "BRANCH", "" };
+    case STRING:
+      return new String[] { "STRING", "\"" +
+          labelText(nodes.get(node + 1), nodes.get(node + 2)) + "\"" };
+    case CHARS:
+      return new String[] { "CHARS", "[" +
+          labelText(nodes.get(node + 2), nodes.get(node + 1)) + "]" };
+    case WILDCARD:
+      return new String[] { "WILDCARD",
+          (nodes.get(node + 1) == PatternNode.UNDERSCORE ? "_" : "*") };
+    case END_OF_STRING:
+      return new String[] { "END_OF_STRING", "" };
+    case HASH:
+      return new String[] { "HASH", nodes.get(node + 1) + " labels" };
+    default:
+      throw new IllegalStateException("Corrupted frozen classifier node " +
+          node);
+    }
+  }
+
+  /**
+   * Returns the characters of the labels at the specified offset
+   */
+  private String labelText(int offset, int length) {
+    char chars[] = new char[length];
+    for (int i = 0; i < length; i++) {
+      chars[i] = labels.get(offset + i);
+    }
+    return new String(chars);
+  }
+
+  /**
+   * Returns the length of the record at the specified offset
+   */
+  private int recordLength(int node) {
+    switch (nodes.get(node)) {
+    case LEAF:
+      return 2;
+    case CONTEXT:
+    case BRANCH:
+      return 4;
+    case STRING:
+      return 5;
+    case CHARS:
+      return 3 + nodes.get(node + 1);
+    case WILDCARD:
+      return 7;
+    case END_OF_STRING:
+      return 3;
+    case HASH:
+      return 5 + 3 * nodes.get(node + 1) + nodes.get(node + 4);
+    default:
+      throw new IllegalStateException("Corrupted frozen classifier node " +
+          node);
+    }
+  }
+
+  /**
+   * Returns <code>true</code> if the node records and labels are stored
+   * outside of the Java heap (in direct memory or in a mapped file).
+   *
+   * @return <code>true</code> if this classifier is stored off the heap
+   */
+  public boolean isOffHeap() {
+    return nodes.isDirect();
+  }
+
+  /**
+   * <p>
+   * Compiles the nodes into records. A record is reserved before its children
+   * are compiled, so that the root of every subtree precedes its descendants
+   * in the node array.
+   * </p>
+   */
+  private static class Compiler implements PatternNodeVisitor<Integer> {
+    int nodes[] = new int[256];
+
+    int size;
+
+    StringBuilder labels = new StringBuilder();
+
+    List<Object> results = new ArrayList<Object>();
+
+    /**
+     * Reserves space for a record of the specified size and type.
+     *
+     * @return the offset of the record
+     */
+    private int reserve(int type, int length) {
+      if (size + length > nodes.length) {
+        nodes = Arrays.copyOf(nodes, Math.max(nodes.length * 2, size + length));
+      }
+      int offset = size;
+      nodes[offset] = type;
+      size += length;
+      return offset;
+    }
+
+    /**
+     * Sets a field of a record. The array has to be dereferenced only after
+     * the value has been computed, because compiling a child may reallocate it.
+     */
+    private void set(int index, int value) {
+      nodes[index] = value;
+    }
+
+    private int label(String s) {
+      int offset = labels.length();
+      labels.append(s);
+      return offset;
+    }
+
+    int compile(ContextNode node) {
+      if (node == null) {
+        return NONE;
+      }
+      if (node instanceof LeafContextNode) {
+        int offset = reserve(LEAF, 2);
+        nodes[offset + 1] = results.size();
+        results.add(((LeafContextNode) node).getResult());
+        return offset;
+      }
+      if (node instanceof PatternContextNode) {
+        int offset = reserve(CONTEXT, 4);
+        nodes[offset + 1] = node.context.getOrder();
+        set(offset + 2, compile(((PatternContextNode) node).getTree()));
+        set(offset + 3, compile(node.next));
+        return offset;
+      }
+      throw new UnsupportedOperationException("Can't freeze context node " +
+          node.getClass().getName());
+    }
+
+    int compile(PatternNode node) {
+      return (node == null ? NONE : node.accept(this));
+    }
+
+    public Integer visit(BranchNode node) {
+      int offset = reserve(BRANCH, 4);
+      set(offset + 1, compile(node.getUnderscore()));
+      set(offset + 2, compile(node.getString()));
+      set(offset + 3, compile(node.getStar()));
+      return offset;
+    }
+
+    public Integer visit(StringNode node) {
+      int offset = reserve(STRING, 5);
+      nodes[offset + 1] = label(node.getPattern());
+      nodes[offset + 2] = node.getPattern().length();
+      set(offset + 3, compile(node.getNext()));
+      set(offset + 4, compile(node.getSubContext()));
+      return offset;
+    }
+
+    public Integer visit(StringBranchNode node) {
+      char characters[] = node.getCharacters();
+      int offset = reserve(CHARS, 3 + characters.length);
+      nodes[offset + 1] = characters.length;
+      nodes[offset + 2] = label(new String(characters));
+      for (int i = 0; i < characters.length; i++) {
+        set(offset + 3 + i, compile(node.getBranch(characters[i])));
+      }
+      return offset;
+    }
+
+    public Integer visit(WildcardNode node) {
+      int offset = reserve(WILDCARD, 7);
+      nodes[offset + 1] = node.getType();
+      String first[] = node.getNextFirst();
+      if (first == null) {
+        nodes[offset + 4] = LOOK_ANY;
+      } else if (first.length == 1) {
+        nodes[offset + 4] = LOOK_LITERAL;
+        nodes[offset + 5] = label(first[0]);
+        nodes[offset + 6] = first[0].length();
+      } else {
+        TreeSet<Character> chars = new TreeSet<Character>();
+        for (String s : first) {
+          chars.add(s.charAt(0));
+        }
+        StringBuilder sb = new StringBuilder();
+        for (Character c : chars) {
+          sb.append(c);
+        }
+        nodes[offset + 4] = LOOK_CHARS;
+        nodes[offset + 5] = label(sb.toString());
+        nodes[offset + 6] = sb.length();
+      }
+      set(offset + 2, compile(node.getNext()));
+      set(offset + 3, compile(node.getSubContext()));
+      return offset;
+    }
+
+    public Integer visit(EndOfStringNode node) {
+      int offset = reserve(END_OF_STRING, 3);
+      set(offset + 1, compile(node.getNext()));
+      set(offset + 2, compile(node.getSubContext()));
+      return offset;
+    }
+
+    public Integer visit(HashMapNode node) {
+      Map<String, PatternNode> branches = new TreeMap<String, PatternNode>(
+          node.getBranches());
+      int count = branches.size();
+      int tableSize = Integer.highestOneBit(count) * 4;
+      int offset = reserve(HASH, 5 + 3 * count + tableSize);
+      int table = offset + 5 + 3 * count;
+      nodes[offset + 1] = count;
+      nodes[offset + 2] = Integer.MAX_VALUE;
+      nodes[offset + 3] = 0;
+      nodes[offset + 4] = tableSize;
+      Arrays.fill(nodes, table, table + tableSize, NONE);
+      int i = 0;
+      for (Map.Entry<String, PatternNode> entry : branches.entrySet()) {
+        String key = entry.getKey();
+        int record = offset + 5 + 3 * i;
+        nodes[offset + 2] = Math.min(nodes[offset + 2], key.length());
+        nodes[offset + 3] = Math.max(nodes[offset + 3], key.length());
+        nodes[record] = label(key);
+        nodes[record + 1] = key.length();
+        int slot = slot(key.hashCode(), tableSize);
+        while (nodes[table + slot] != NONE) {
+          slot = (slot + 1) & (tableSize - 1);
+        }
+        nodes[table + slot] = i;
+        set(record + 2, compile(entry.getValue().getSubContext()));
+        i++;
+      }
+      return offset;
+    }
+
+    public Integer visit(WordNode node) {
+      throw unsupported(node);
+    }
+
+    public Integer visit(WordWildcardNode node) {
+      throw unsupported(node);
+    }
+
+    private UnsupportedOperationException unsupported(PatternNode node) {
+      return new UnsupportedOperationException("Can't freeze pattern node " +
+          node.getClass().getSimpleName());
+    }
+  }
+
+  /**
+   * <p>
+   * A non-recursive matcher of the frozen tree. Instead of the call stack, the
+   * backtracking state is kept in a stack of frames; each frame stores the
+   * offset of a node and the phase of its matching (which alternative to try
+   * once the current child has failed). Wildcards are recorded as begin/end
+   * positions only, and are copied to the match state once a leaf has been
+   * reached.
+   * </p>
+   *
+   * <p>
+   * After a successful match, the matcher can be resumed by calling
+   * {@link #next()} again, which continues the search with the next leaf in
+   * the priority order. The match state has to be cleared first (see
+   * {@link MatchState#clearMatch()}). A leaf may be reached again through
+   * another path (with other wildcards); a matcher of distinct leaves skips
+   * it then.
+   * </p>
+   */
+  class Matcher {
+    /** The match state, providing the context values and receiving results */
+    private final MatchState match;
+
+    /** The normalized context values */
+    private final String values[];
+
+    /** The offsets of the nodes in the frames */
+    private int frameNode[] = new int[32];
+
+    /** The matching phases of the frames */
+    private int framePhase[] = new int[32];
+
+    /**
+     * Additional per-frame data (the previous context of context frames, the
+     * previous depth of hash frames)
+     */
+    private int frameData[] = new int[32];
+
+    /** The top of the frame stack, -1 if empty */
+    private int top = -1;
+
+    /** The context order of the wildcards */
+    private int wildcardContext[] = new int[8];
+
+    /** The beginning positions of the wildcards */
+    private int wildcardBegin[] = new int[8];
+
+    /** The ending positions of the wildcards */
+    private int wildcardEnd[] = new int[8];
+
+    /** The number of active wildcards */
+    private int wildcards;
+
+    /**
+     * Has a wildcard been tried in a context? The object tree leaves an empty
+     * wildcard list behind in such contexts, which affects how "don't care"
+     * wildcards are resolved, so the same is done here.
+     */
+    private final boolean wildcardsTried[];
+
+    /** The current context order, -1 if none */
+    private int context = -1;
+
+    /** The current depth in the context */
+    private int depth;
+
+    /** Has the search been started? */
+    private boolean started;
+
+    /** Is the failure memo of the match state enabled? */
+    private final boolean memo;
+
+    /** The match state, if the match is traced */
+    private final TracingMatchState<?> trace;
+
+    /**
+     * The results of the leaves reached so far, if every leaf is only
+     * reached once; <code>null</code> otherwise
+     */
+    private final BitSet leaves;
+
+    /**
+     * Creates a new matcher
+     *
+     * @param match
+     *          a newly created match state
+     */
+    Matcher(MatchState match) {
+      this(match, false);
+    }
+
+    /**
+     * Creates a new matcher
+     *
+     * @param match
+     *          a newly created match state
+     * @param distinct
+     *          <code>true</code> if the leaves that have been reached before
+     *          should be skipped
+     */
+    Matcher(MatchState match, boolean distinct) {
+      this.match = match;
+      this.values = match.normalizedValues;
+      this.wildcardsTried = new boolean[values.length];
+      this.memo = match.isMemoizingFailures();
+      this.trace = (match.isTracing() ? (TracingMatchState<?>) match : null);
+      this.leaves = (distinct ? new BitSet() : null);
+    }
+
+    /**
+     * Finds the next match. If successful, the contexts, wildcards and the
+     * result are stored in the match state.
+     *
+     * @return <code>true</code> if a match was found
+     */
+    boolean next() {
+      if (!started) {
+        started = true;
+        if (root == NONE) {
+          return false;
+        }
+        push(root);
+      } else if (top >= 0) {
+        top--; //the leaf frame of the last match
+      }
+      return run();
+    }
+
+    private void push(int node) {
+      match.step();
+      if (++top == frameNode.length) {
+        int length = frameNode.length * 2;
+        frameNode = Arrays.copyOf(frameNode, length);
+        framePhase = Arrays.copyOf(framePhase, length);
+        frameData = Arrays.copyOf(frameData, length);
+      }
+      frameNode[top] = node;
+      framePhase[top] = 0;
+      if (trace != null) {
+        trace.enter(Integer.valueOf(node), context, depth);
+      }
+    }
+
+    /**
+     * Pops the frame of a node that has failed
+     */
+    private void pop() {
+      if (trace != null) {
+        trace.leave(Integer.valueOf(frameNode[top]), context, depth, false);
+      }
+      top--;
+    }
+
+    private void pushWildcard() {
+      if (wildcards == wildcardBegin.length) {
+        int length = wildcards * 2;
+        wildcardContext = Arrays.copyOf(wildcardContext, length);
+        wildcardBegin = Arrays.copyOf(wildcardBegin, length);
+        wildcardEnd = Arrays.copyOf(wildcardEnd, length);
+      }
+      wildcardsTried[context] = true;
+      wildcardContext[wildcards] = context;
+      wildcardBegin[wildcards] = depth;
+      wildcardEnd[wildcards] = depth;
+      wildcards++;
+    }
+
+    /**
+     * Runs the search until a leaf is reached or the frame stack is empty.
+     */
+    private boolean run() {
+      while (top >= 0) {
+        int node = frameNode[top];
+        int phase = framePhase[top];
+        switch (nodes.get(node)) {
+        case LEAF:
+          if (leaves != null) {
+            if (leaves.get(nodes.get(node + 1))) {
+              pop();
+              break;
+            }
+            leaves.set(nodes.get(node + 1));
+          }
+          store(results[nodes.get(node + 1)]);
+          return true;
+
+        case CONTEXT:
+          if (phase == 0) {
+            if (memo && match.isKnownFailure(Integer.valueOf(node), 0)) {
+              pop();
+              break;
+            }
+            frameData[top] = context;
+            context = nodes.get(node + 1);
+            depth = 0;
+            framePhase[top] = 1;
+            if (nodes.get(node + 2) != NONE) {
+              push(nodes.get(node + 2));
+            }
+          } else if (phase == 1) { //the pattern tree has failed
+            context = frameData[top];
+            depth = (context >= 0 ? values[context].length() : 0);
+            if (nodes.get(node + 3) != NONE) {
+              framePhase[top] = 2;
+              push(nodes.get(node + 3));
+            } else {
+              failed(node, 0);
+            }
+          } else { //the next context has failed too
+            failed(node, 0);
+          }
+          break;
+
+        case BRANCH:
+          while (phase < 3 && nodes.get(node + 1 + phase) == NONE) {
+            phase++;
+          }
+          if (phase < 3) {
+            framePhase[top] = phase + 1;
+            push(nodes.get(node + 1 + phase));
+          } else {
+            pop();
+          }
+          break;
+
+        case STRING: {
+          int length = nodes.get(node + 2);
+          if (phase == 0) {
+            if (!startsWith(values[context], depth, nodes.get(node + 1),
+                length)) {
+              pop();
+              break;
+            }
+            depth += length;
+            int child = (depth == values[context].length() ? nodes.get(node + 4)
+                : nodes.get(node + 3));
+            if (child == NONE) {
+              depth -= length;
+              pop();
+            } else {
+              framePhase[top] = 1;
+              push(child);
+            }
+          } else {
+            depth -= length;
+            pop();
+          }
+          break;
+        }
+
+        case CHARS:
+          if (phase == 0) {
+            int child = NONE;
+            if (depth < values[context].length()) {
+              int count = nodes.get(node + 1);
+              int label = nodes.get(node + 2);
+              int i = search(label, label + count, values[context].charAt(
+                  depth));
+              if (i >= 0) {
+                child = nodes.get(node + 3 + i - label);
+              }
+            }
+            if (child == NONE) {
+              pop();
+            } else {
+              depth++;
+              framePhase[top] = 1;
+              push(child);
+            }
+          } else {
+            depth--;
+            pop();
+          }
+          break;
+
+        case WILDCARD:
+          if (phase == 0) {
+            if (memo && match.isKnownFailure(Integer.valueOf(node), depth)) {
+              pop();
+              break;
+            }
+            pushWildcard();
+            if (nodes.get(node + 2) != NONE) {
+              phase = 1;
+            } else { //trailing wildcard, add the rest of the input to it
+              depth = values[context].length();
+              wildcardEnd[wildcards - 1] = depth;
+              if (trace != null) {
+                trace.grow(context, depth);
+              }
+              phase = 2;
+            }
+          }
+          if (phase == 1) { //grow the wildcard to the next candidate position
+            if (depth < values[context].length()) {
+              depth = nextCandidate(node, values[context], depth + 1);
+              wildcardEnd[wildcards - 1] = depth;
+              if (trace != null) {
+                trace.grow(context, depth);
+              }
+              framePhase[top] = 1;
+              push(nodes.get(node + 2));
+              break;
+            }
+            phase = 2;
+          }
+          if (phase == 2 && nodes.get(node + 3) != NONE) {
+            framePhase[top] = 3;
+            push(nodes.get(node + 3));
+            break;
+          }
+          wildcards--;
+          depth -= wildcardEnd[wildcards] - wildcardBegin[wildcards];
+          failed(node, depth);
+          break;
+
+        case END_OF_STRING:
+          if (phase == 0) {
+            int child = (depth == values[context].length() ? nodes.get(node + 2)
+                : nodes.get(node + 1));
+            if (child != NONE) {
+              framePhase[top] = 1;
+              push(child);
+              break;
+            }
+          }
+          pop();
+          break;
+
+        case HASH:
+          if (phase == 0) {
+            int child = find(node, values[context], depth);
+            if (child != NONE) {
+              frameData[top] = depth;
+              depth = values[context].length();
+              framePhase[top] = 1;
+              push(child);
+              break;
+            }
+          } else {
+            depth = frameData[top];
+          }
+          pop();
+          break;
+
+        default:
+          throw new IllegalStateException("Corrupted frozen classifier node " +
+              node);
+        }
+      }
+      return false;
+    }
+
+    /**
+     * Pops the frame of a failed node, and records the failure in the memo
+     */
+    private void failed(int node, int depth) {
+      if (memo) {
+        match.addFailure(Integer.valueOf(node), depth);
+      }
+      pop();
+    }
+
+    /**
+     * Returns the next position (at least <code>from</code>) where the sub
+     * patterns of a wildcard can begin, according to its look-ahead.
+     */
+    private int nextCandidate(int node, String value, int from) {
+      int kind = nodes.get(node + 4);
+      if (kind == LOOK_ANY || from >= value.length()) {
+        return from;
+      }
+      int label = nodes.get(node + 5);
+      int length = nodes.get(node + 6);
+      if (kind == LOOK_LITERAL) {
+        char first = labels.get(label);
+        for (int i = value.indexOf(first, from); i >= 0; i = value.indexOf(
+            first, i + 1)) {
+          if (startsWith(value, i, label, length)) {
+            return i;
+          }
+        }
+      } else {
+        for (int i = from; i < value.length(); i++) {
+          if (search(label, label + length, value.charAt(i)) >= 0) {
+            return i;
+          }
+        }
+      }
+      return value.length();
+    }
+
+    /**
+     * Looks up the rest of the string in a hash node
+     *
+     * @return the sub context of the found label, or <code>NONE</code>
+     */
+    private int find(int node, String value, int from) {
+      int rest = value.length() - from;
+      if (rest < nodes.get(node + 2) || rest > nodes.get(node + 3)) {
+        return NONE;
+      }
+      int hash = 0;
+      for (int i = from; i < value.length(); i++) {
+        hash = 31 * hash + value.charAt(i);
+      }
+      int tableSize = nodes.get(node + 4);
+      int table = node + 5 + 3 * nodes.get(node + 1);
+      for (int slot = slot(hash, tableSize); nodes.get(table + slot) != NONE;
+          slot = (slot + 1) & (tableSize - 1)) {
+        int entry = node + 5 + 3 * nodes.get(table + slot);
+        if (nodes.get(entry + 1) == rest &&
+            startsWith(value, from, nodes.get(entry), rest)) {
+          return nodes.get(entry + 2);
+        }
+      }
+      return NONE;
+    }
+
+    /**
+     * Searches a sorted range of the labels for a character
+     *
+     * @return the index of the character, or a negative number if it isn't
+     *         in the range
+     */
+    private int search(int from, int to, char c) {
+      int low = from;
+      int high = to - 1;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        char label = labels.get(mid);
+        if (label < c) {
+          low = mid + 1;
+        } else if (label > c) {
+          high = mid - 1;
+        } else {
+          return mid;
+        }
+      }
+      return -(low + 1);
+    }
+
+    /**
+     * Checks if the string contains the label at the specified position
+     */
+    private boolean startsWith(String value, int depth, int label, int length) {
+      if (depth + length > value.length()) {
+        return false;
+      }
+      for (int i = 0; i < length; i++) {
+        if (value.charAt(depth + i) != labels.get(label + i)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * Stores the current path (contexts and wildcards) and the result in the
+     * match state.
+     */
+    private void store(Object result) {
+      if (trace != null) {
+        for (int i = top; i >= 0; i--) {
+          trace.leave(Integer.valueOf(frameNode[i]), context, depth, true);
+        }
+      }
+      for (int i = 0; i < top; i++) {
+        if (nodes.get(frameNode[i]) == CONTEXT && framePhase[i] == 1) {
+          match.addContext(contextInfo.getContext(nodes.get(frameNode[i] + 1)));
+        }
+      }
+      for (int i = 0; i < wildcardsTried.length; i++) {
+        if (wildcardsTried[i]) {
+          match.initWildcards(i);
+        }
+      }
+      for (int i = 0; i < wildcards; i++) {
+        match.addWildcard(wildcardContext[i], wildcardBegin[i], wildcardEnd[i]);
+      }
+      match.depth = depth;
+      match.setResult(result);
+    }
+  }
+
+  /**
+   * <p>
+   * Matches the frozen tree using the automata of the contexts. Each context
+   * value is read once by the automaton of its pattern tree, which yields the
+   * sub contexts the value leads to, in priority order. They are tried one by
+   * one, until one of them leads to a leaf; so backtracking only happens
+   * between contexts, not within them. The wildcards are reconstructed once
+   * the leaf is found, for the contexts on its path only.
+   * </p>
+   *
+   * <p>
+   * The result, the contexts and the wildcards are exactly the same as those
+   * of the {@link Matcher}.
+   * </p>
+   */
+  private class AutomatonMatcher {
+    private final MatchState match;
+
+    private final String values[];
+
+    /** Has a wildcard been tried in a context? (see {@link Matcher}) */
+    private final boolean wildcardsTried[];
+
+    /** The context records on the path to the current node */
+    private int pathContext[] = new int[8];
+
+    /** The sub contexts chosen by the context records on the path */
+    private int pathAccept[] = new int[8];
+
+    /** The length of the path */
+    private int path;
+
+    AutomatonMatcher(MatchState match) {
+      this.match = match;
+      this.values = match.normalizedValues;
+      this.wildcardsTried = new boolean[values.length];
+    }
+
+    /**
+     * Matches a context or leaf record
+     *
+     * @return <code>true</code> if a leaf has been reached
+     */
+    boolean match(int node) {
+      match.step();
+      if (nodes.get(node) == LEAF) {
+        store(results[nodes.get(node + 1)]);
+        return true;
+      }
+      if (nodes.get(node) != CONTEXT) {
+        throw new IllegalStateException("Corrupted frozen classifier node " +
+            node);
+      }
+      if (nodes.get(node + 2) != NONE) {
+        int order = nodes.get(node + 1);
+        String value = values[order];
+        ContextAutomaton automaton = automaton(node);
+        ContextAutomaton.State state = automaton.start();
+        boolean tried = false;
+        for (int i = 0; i < value.length() && !state.isDead(); i++) {
+          match.step();
+          state = automaton.next(state, value.charAt(i));
+          tried |= state.wildcard;
+        }
+        state = automaton.finish(state);
+        if (path == pathContext.length) {
+          pathContext = Arrays.copyOf(pathContext, path * 2);
+          pathAccept = Arrays.copyOf(pathAccept, path * 2);
+        }
+        pathContext[path++] = node;
+        for (int accept : state.accepts) {
+          pathAccept[path - 1] = accept;
+          if (match(accept)) {
+            return true;
+          }
+        }
+        path--;
+        //the whole tree has been tried; if the context is on the path of the
+        //result, the wildcards tried before are found in store() instead
+        if (tried || state.acceptsWildcard) {
+          wildcardsTried[order] = true;
+        }
+      }
+      return (nodes.get(node + 3) != NONE && match(nodes.get(node + 3)));
+    }
+
+    private ContextAutomaton automaton(int node) {
+      return automata[Arrays.binarySearch(automatonContexts, node)];
+    }
+
+    /**
+     * Stores the contexts and wildcards of the path, and the result in the
+     * match state.
+     */
+    private void store(Object result) {
+      ContextAutomaton.Path paths[] = new ContextAutomaton.Path[path];
+      for (int i = 0; i < path; i++) {
+        int order = nodes.get(pathContext[i] + 1);
+        match.addContext(contextInfo.getContext(order));
+        paths[i] = automaton(pathContext[i]).path(values[order],
+            pathAccept[i]);
+        wildcardsTried[order] |= paths[i].wildcardTried;
+      }
+      for (int i = 0; i < wildcardsTried.length; i++) {
+        if (wildcardsTried[i]) {
+          match.initWildcards(i);
+        }
+      }
+      for (int i = 0; i < path; i++) {
+        int order = nodes.get(pathContext[i] + 1);
+        int wildcards[] = paths[i].wildcards;
+        for (int j = 0; j < wildcards.length; j += 2) {
+          match.addWildcard(order, wildcards[j], wildcards[j + 1]);
+        }
+      }
+      match.depth = (path > 0 ? values[nodes.get(pathContext[path - 1] + 1)]
+          .length() : 0);
+      match.setResult(result);
+    }
+  }
+
+  /**
+   * Returns the slot of a hash code in a hash table of the specified size (a
+   * power of two)
+   */
+  static int slot(int hash, int tableSize) {
+    return (hash ^ (hash >>> 16)) & (tableSize - 1);
+  }
+
+  /**
+   * Match the match state to the frozen tree.
+   *
+   * @param match
+   *          a newly created match state
+   * @return <code>true</code> if a match was found
+   */
+  boolean match(MatchState match) {
+    if (automata != null && !match.isTracing()) {
+      return root != NONE && new AutomatonMatcher(match).match(root);
+    }
+    return new Matcher(match).next();
+  }
+
+  /**
+   * Creates a resumable matcher of the frozen tree, which doesn't use the
+   * automata (see {@link Matcher#next()}).
+   *
+   * @param match
+   *          a newly created match state
+   * @param distinct
+   *          <code>true</code> if every leaf should only be reached once
+   * @return the matcher
+   */
+  Matcher matcher(MatchState match, boolean distinct) {
+    return new Matcher(match, distinct);
+  }
+
+  /**
+   * Returns the number of <code>int</code>s used by the node records
+   *
+   * @return the size of the node array
+   */
+  public int getNodeSize() {
+    return nodes.capacity();
+  }
+
+  /**
+   * Returns the number of characters used by the edge labels
+   *
+   * @return the size of the label array
+   */
+  public int getLabelSize() {
+    return labels.capacity();
+  }
+}
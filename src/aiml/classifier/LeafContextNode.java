@@ -47,11 +47,34 @@ public class LeafContextNode extends ContextNode {
    *          the match state, used to store the resulting object
    * @return <code>true</code>
    */
-  public boolean match(MatchState match) {
+  protected boolean matchNode(MatchState match) {
     match.setResult(result);
     return true;
   }
 
+  /**
+   * Stores the result in the match state and stops the search, unless the
+   * leaf has been reached before; the leaf fails at its next step.
+   * 
+   * @param matcher
+   *          the matcher
+   * @param match
+   *          the match state
+   * @return <code>true</code> if the search stops at this leaf
+   */
+  protected boolean matchStep(TreeMatcher matcher, MatchState match) {
+    return (matcher.getPhase() == 0 && matcher.reach(this));
+  }
+
+  /**
+   * Returns the object stored in this leaf
+   * 
+   * @return the stored object
+   */
+  Object getResult() {
+    return result;
+  }
+
   /**
    * Adds a pattern to this context.
    * 
@@ -88,6 +111,35 @@ public class LeafContextNode extends ContextNode {
     return super.add(patterns, o);
   }
 
+  /**
+   * Leaf nodes don't have patterns.
+   *
+   * @throws UnsupportedOperationException
+   *           always
+   */
+  public boolean removePattern(PaternSequence.Pattern pattern,
+      PatternIterator patterns) {
+    throw new UnsupportedOperationException(
+        "Can't remove a pattern from a leaf context");
+  }
+
+  /**
+   * Remove a pattern sequence, from the current pattern onwards. If the
+   * sequence is already at the end, it ends in this leaf, which is removed.
+   *
+   * @param patterns
+   *          a pattern sequence
+   * @throws NoSuchPathException
+   * @return the resulting context tree
+   */
+  public ContextNode remove(PatternIterator patterns)
+      throws NoSuchPathException {
+    if (!patterns.hasNext()) {
+      return next;
+    }
+    return super.remove(patterns);
+  }
+
   public String toString() {
     return "<LEAF>" + result;
   }
@@ -0,0 +1,42 @@
+/*
+    jaiml - java AIML library
+    Copyright (C) 2026  Kim Sullivan
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    You should have received a copy of the GNU General Public License
+    along with this program; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package aiml.classifier;
+
+/**
+ * This exception gets thrown by a match state when the match has exceeded its
+ * step budget or its deadline. It unwinds the recursion of the nodes, and is
+ * caught by the classifier, which then ends the match (see
+ * {@link Classifier#setStepBudget(long)}).
+ * 
+ * It's a runtime exception, because it has to pass through the match methods
+ * of the nodes. It doesn't fill in a stack trace, because it's thrown from
+ * deep recursions, and the trace would never be used.
+ * 
+ * @author Kim Sullivan
+ * @version 1.0
+ */
+
+class MatchBudgetExceededException extends RuntimeException {
+  private static final long serialVersionUID = 1L;
+
+  public MatchBudgetExceededException() {
+  }
+
+  @Override
+  public synchronized Throwable fillInStackTrace() {
+    return this;
+  }
+
+}
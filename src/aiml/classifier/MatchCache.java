@@ -0,0 +1,442 @@
+/*
+    jaiml - java AIML library
+    Copyright (C) 2026  Kim Sullivan
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    You should have received a copy of the GNU General Public License
+    along with this program; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package aiml.classifier;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ * A bounded cache of match outcomes, keyed by the normalized values of all
+ * the contexts. Once installed in a classifier (see
+ * {@link Classifier#setMatchCache(MatchCache)}), a match of context values
+ * that have been matched before restores the winning leaf and its wildcards
+ * from the cache, instead of walking the tree again. Failed matches are cached
+ * as well.
+ * </p>
+ *
+ * <p>
+ * The cache is a segmented LRU: new entries are put into a probationary
+ * segment, and entries that are hit again are promoted into a protected
+ * segment, which takes up to 80% of the capacity. Entries are evicted from the
+ * probationary segment first, so a burst of inputs that are seen only once
+ * can't push out the frequently repeated ones. Context values longer than a
+ * limit (in total) are never cached, because such inputs rarely repeat, and
+ * would take up a lot of memory.
+ * </p>
+ *
+ * <p>
+ * The cache is invalidated (cleared) whenever categories are added to or
+ * removed from the classifier. It is safe to use from several threads: the
+ * keys are spread over independent stripes, each a segmented LRU with its own
+ * lock and a share of the capacity, so threads matching different inputs
+ * rarely wait for each other. The counters of the statistics don't need a
+ * lock at all.
+ * </p>
+ *
+ * @author Kim Sullivan
+ * @version 1.0
+ */
+public class MatchCache {
+  /** The default limit of the total length of the cached context values */
+  public static final int DEFAULT_MAX_KEY_LENGTH = 256;
+
+  /** The fewest entries a stripe should hold, when choosing the stripes */
+  private static final int MIN_STRIPE_CAPACITY = 64;
+
+  /** The cached outcome of a failed match */
+  static final Object FAILED = new Object();
+
+  /** The maximum number of entries */
+  private final int capacity;
+
+  /** The maximum total length of cached context values */
+  private final int maxKeyLength;
+
+  /** The stripes, the number of them is a power of two */
+  private final Stripe stripes[];
+
+  /** The newest modification count of the classifier seen by the cache */
+  private final AtomicInteger version = new AtomicInteger();
+
+  private final LongAdder hits = new LongAdder();
+
+  private final LongAdder misses = new LongAdder();
+
+  private final LongAdder evictions = new LongAdder();
+
+  private final LongAdder invalidations = new LongAdder();
+
+  /**
+   * The normalized context values of a match
+   */
+  static final class Key {
+    private final String values[];
+
+    private final int hash;
+
+    Key(String values[]) {
+      this.values = values;
+      hash = Arrays.hashCode(values);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      return (obj instanceof Key) && ((Key) obj).hash == hash &&
+          Arrays.equals(((Key) obj).values, values);
+    }
+  }
+
+  /**
+   * A segmented LRU holding the entries of some of the keys
+   */
+  private final class Stripe {
+    /** The maximum number of entries */
+    private final int capacity;
+
+    /** The maximum number of entries in the protected segment */
+    private final int protectedCapacity;
+
+    /** Entries that have been hit only once, in access order */
+    private final LinkedHashMap<Key, Object> probation =
+        new LinkedHashMap<Key, Object>(16, 0.75f, true);
+
+    /** Entries that have been hit more than once, in access order */
+    private final LinkedHashMap<Key, Object> protectedSegment =
+        new LinkedHashMap<Key, Object>(16, 0.75f, true);
+
+    /** The modification count of the classifier the entries belong to */
+    private int version;
+
+    Stripe(int capacity) {
+      this.capacity = capacity;
+      this.protectedCapacity = capacity * 4 / 5;
+    }
+
+    synchronized Object get(Key key, int version) {
+      if (version != this.version) {
+        //a newer classifier discards the entries, an older one can't use them
+        if (version > this.version) {
+          advance(version);
+        }
+        return null;
+      }
+      Object outcome = protectedSegment.get(key);
+      if (outcome != null) {
+        return outcome;
+      }
+      outcome = probation.remove(key);
+      if (outcome == null) {
+        return null;
+      }
+      protectedSegment.put(key, outcome);
+      if (protectedSegment.size() > protectedCapacity) {
+        //demote the least recently used protected entry
+        Iterator<Map.Entry<Key, Object>> i = protectedSegment.entrySet()
+            .iterator();
+        Map.Entry<Key, Object> eldest = i.next();
+        i.remove();
+        probation.put(eldest.getKey(), eldest.getValue());
+      }
+      return outcome;
+    }
+
+    synchronized void put(Key key, Object outcome, int version) {
+      if (version != this.version || protectedSegment.containsKey(key) ||
+          probation.containsKey(key)) {
+        return;
+      }
+      probation.put(key, outcome);
+      if (probation.size() + protectedSegment.size() > capacity) {
+        Map<Key, Object> segment = (probation.isEmpty() ? protectedSegment
+            : probation);
+        Iterator<Key> i = segment.keySet().iterator();
+        i.next();
+        i.remove();
+        evictions.increment();
+      }
+    }
+
+    /**
+     * Discards the entries if they belong to an older version of the
+     * classifier
+     *
+     * @return the number of discarded entries, or -1 if the entries weren't
+     *         older
+     */
+    synchronized int advance(int version) {
+      if (version <= this.version) {
+        return -1;
+      }
+      int size = size();
+      clear();
+      this.version = version;
+      return size;
+    }
+
+    synchronized void clear() {
+      probation.clear();
+      protectedSegment.clear();
+    }
+
+    synchronized int size() {
+      return probation.size() + protectedSegment.size();
+    }
+  }
+
+  /**
+   * Creates a new cache, with the default limit of the length of the context
+   * values.
+   *
+   * @param capacity
+   *          the maximum number of cached matches
+   */
+  public MatchCache(int capacity) {
+    this(capacity, DEFAULT_MAX_KEY_LENGTH);
+  }
+
+  /**
+   * Creates a new cache, with as many stripes as suit the capacity and the
+   * number of processors.
+   *
+   * @param capacity
+   *          the maximum number of cached matches
+   * @param maxKeyLength
+   *          matches where the total length of the context values is longer
+   *          than this aren't cached
+   */
+  public MatchCache(int capacity, int maxKeyLength) {
+    this(capacity, maxKeyLength, Math.min(4 * Runtime.getRuntime()
+        .availableProcessors(), capacity / MIN_STRIPE_CAPACITY));
+  }
+
+  /**
+   * Creates a new cache. The capacity is divided evenly between the stripes,
+   * and a stripe evicts its own entries, so with more stripes the evicted
+   * entries are less exactly the least recently used ones.
+   *
+   * @param capacity
+   *          the maximum number of cached matches
+   * @param maxKeyLength
+   *          matches where the total length of the context values is longer
+   *          than this aren't cached
+   * @param stripes
+   *          the number of independently locked stripes, rounded down to a
+   *          power of two (and at most the capacity)
+   */
+  public MatchCache(int capacity, int maxKeyLength, int stripes) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("The capacity must be positive");
+    }
+    this.capacity = capacity;
+    this.maxKeyLength = maxKeyLength;
+    int count = Integer.highestOneBit(Math.max(1, Math.min(stripes,
+        capacity)));
+    this.stripes = new Stripe[count];
+    for (int i = 0; i < count; i++) {
+      this.stripes[i] = new Stripe(capacity / count +
+          (i < capacity % count ? 1 : 0));
+    }
+  }
+
+  /**
+   * Creates a new, empty cache with the same capacity, limit of the length
+   * of the context values and stripes as this one
+   *
+   * @return the new cache
+   */
+  public MatchCache copy() {
+    return new MatchCache(capacity, maxKeyLength, stripes.length);
+  }
+
+  /**
+   * Returns the key for the context values of a match state, or
+   * <code>null</code> if the values are too long to be cached.
+   */
+  Key key(MatchState<?> m) {
+    String values[] = m.getNormalizedValues();
+    int length = 0;
+    for (String value : values) {
+      length += value.length();
+    }
+    return (length <= maxKeyLength ? new Key(values.clone()) : null);
+  }
+
+  /**
+   * Returns the stripe of a key
+   */
+  private Stripe stripe(Key key) {
+    int hash = key.hash;
+    return stripes[(hash ^ (hash >>> 16)) & (stripes.length - 1)];
+  }
+
+  /**
+   * Looks up a cached match outcome. If the classifier has been modified
+   * since the entries were stored, the cache is cleared first.
+   *
+   * @param key
+   *          the key
+   * @param version
+   *          the current modification count of the classifier
+   * @return the outcome, {@link #FAILED} if the match failed, or
+   *         <code>null</code> if the match isn't in the cache
+   */
+  Object get(Key key, int version) {
+    int current = this.version.get();
+    if (version > current && this.version.compareAndSet(current, version)) {
+      invalidate(version);
+    }
+    Object outcome = stripe(key).get(key, version);
+    (outcome != null ? hits : misses).increment();
+    return outcome;
+  }
+
+  /**
+   * Discards the entries of all the stripes that belong to an older version
+   * of the classifier
+   */
+  private void invalidate(int version) {
+    boolean discarded = false;
+    for (Stripe stripe : stripes) {
+      discarded |= (stripe.advance(version) > 0);
+    }
+    if (discarded) {
+      invalidations.increment();
+    }
+  }
+
+  /**
+   * Stores the outcome of a match. Outcomes computed for an older version of
+   * the classifier are ignored.
+   *
+   * @param key
+   *          the key
+   * @param outcome
+   *          the outcome, or {@link #FAILED} if the match failed
+   * @param version
+   *          the modification count of the classifier when the match started
+   */
+  void put(Key key, Object outcome, int version) {
+    stripe(key).put(key, outcome, version);
+  }
+
+  /**
+   * Removes all the entries. The statistics are kept.
+   */
+  public void clear() {
+    for (Stripe stripe : stripes) {
+      stripe.clear();
+    }
+  }
+
+  /**
+   * Returns the maximum number of entries
+   *
+   * @return the capacity
+   */
+  public int getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * Returns the number of independently locked stripes
+   *
+   * @return the number of stripes
+   */
+  public int getStripes() {
+    return stripes.length;
+  }
+
+  /**
+   * Returns the current number of entries
+   *
+   * @return the number of entries
+   */
+  public int getSize() {
+    int size = 0;
+    for (Stripe stripe : stripes) {
+      size += stripe.size();
+    }
+    return size;
+  }
+
+  /**
+   * Returns the number of matches found in the cache
+   *
+   * @return the number of hits
+   */
+  public long getHits() {
+    return hits.sum();
+  }
+
+  /**
+   * Returns the number of matches not found in the cache (not counting the
+   * ones that were too long to be cached)
+   *
+   * @return the number of misses
+   */
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  /**
+   * Returns the fraction of the lookups that were hits
+   *
+   * @return the hit rate, between 0 and 1
+   */
+  public double getHitRate() {
+    long hits = getHits();
+    long lookups = hits + getMisses();
+    return (lookups > 0 ? (double) hits / lookups : 0);
+  }
+
+  /**
+   * Returns the number of entries that were evicted because the cache was
+   * full
+   *
+   * @return the number of evictions
+   */
+  public long getEvictions() {
+    return evictions.sum();
+  }
+
+  /**
+   * Returns the number of times the entries were discarded because the
+   * classifier changed
+   *
+   * @return the number of invalidations
+   */
+  public long getInvalidations() {
+    return invalidations.sum();
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "%d/%d entries, %d hits, %d misses (%.1f%% hit rate), "
+            + "%d evictions, %d invalidations",
+        getSize(), capacity, getHits(), getMisses(), 100 * getHitRate(),
+        getEvictions(), getInvalidations());
+  }
+}
@@ -14,10 +14,14 @@
 
 package aiml.classifier;
 
-import java.util.ArrayList;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 
+import aiml.classifier.node.PatternNode;
 import aiml.context.Context;
 import aiml.context.ContextInfo;
 import aiml.environment.Environment;
@@ -32,6 +36,15 @@ import aiml.environment.Environment;
  * recursion tree.
  * </p>
  * 
+ * <p>
+ * To keep the garbage produced by matching low, the context stack and the
+ * wildcards are stored in arrays, and no objects are created while pattern
+ * nodes are being matched. {@link Wildcard} objects are only created when a
+ * wildcard is requested (e.g. by a template). A match state must only be used
+ * by one thread at a time, but it can be reused for another match by calling
+ * {@link #reset(Environment)}.
+ * </p>
+ * 
  * @author Kim Sullivan
  * @version 1.0
  * @param <T extends Object> The result type
@@ -41,14 +54,23 @@ public class MatchState<T extends Object> {
 
   private Environment e;
 
+  /** The classifier that produced this match */
+  private Classifier classifier;
+
   /** The currently matched context */
   public Context context;
 
   /**
-   * The contextStack list stores the history of context traversal, used for
+   * The contextStack array stores the history of context traversal, used for
    * backtracking.
    */
-  private LinkedList<Context> contextStack = new LinkedList<Context>();
+  private Context contextStack[];
+
+  /** The number of contexts on the context stack */
+  private int contextStackSize;
+
+  /** Is a context (by order) on the context stack? */
+  private boolean stacked[];
 
   /** The current depth in the context */
   public int depth;
@@ -60,9 +82,122 @@ public class MatchState<T extends Object> {
   String contextValues[];
 
   /**
-   * An array of lists, each list represents wildcards from a context
+   * The normalized copies of the context values. Matching is performed on
+   * these strings, so that the pattern nodes don't have to normalize the
+   * input over and over again while backtracking.
+   */
+  String normalizedValues[];
+
+  /**
+   * For each context, maps a position in the normalized value to the position
+   * of the original character it was produced from. The last element maps the
+   * end of the normalized value to the end of the original one. If
+   * normalization didn't change the length of the context value, the mapping
+   * is the identity and the array is <code>null</code>.
+   */
+  int normalizedOffsets[][];
+
+  /**
+   * The word tokens of the normalized context values, created on demand by
+   * word based pattern nodes.
+   */
+  WordDictionary.Tokens words[];
+
+  /**
+   * The signatures of the suffixes of the normalized context values (see
+   * {@link Pattern#signature(char)}), created on demand by the pattern nodes.
+   * The arrays are reused by later matches.
+   */
+  private long signatures[][];
+
+  /**
+   * Whether the signatures of the context values have been computed in the
+   * current match
+   */
+  private boolean signed[];
+
+  /**
+   * The beginning positions of the wildcards, one array per context (created
+   * when the first wildcard is added to the context)
+   */
+  private int wildcardBegin[][];
+
+  /**
+   * The ending positions of the wildcards, one array per context
+   */
+  private int wildcardEnd[][];
+
+  /**
+   * The number of wildcards in each context, -1 if no wildcard has been added
+   * to the context yet. A context where all the wildcards have been removed
+   * again while backtracking has a count of 0, which affects how "don't care"
+   * wildcards are resolved.
+   */
+  private int wildcardCount[];
+
+  /** The wildcard objects that have already been requested, per context */
+  private Wildcard wildcardObjects[][];
+
+  /**
+   * <p>
+   * The failure memo, <code>null</code> if memoization is disabled. Maps a
+   * node to the set of depths where matching the node is known to fail. Every
+   * pattern node belongs to a single context, so this effectively records the
+   * failed (node, depth) pairs per context.
+   * </p>
+   * 
+   * <p>
+   * A failure can be reused, because the outcome of matching a node depends
+   * only on the node, the depth and the (fixed) context values, not on the
+   * path that led to it.
+   * </p>
+   */
+  private HashMap<Object, BitSet> failures;
+
+  /** The number of times a known failure was reused */
+  private int memoHits;
+
+  /** The number of recorded failures */
+  private int memoFailures;
+
+  /** The maximum number of steps of a match, 0 if unlimited */
+  private long stepBudget;
+
+  /** The maximum duration of a match in nanoseconds, 0 if unlimited */
+  private long timeBudget;
+
+  /** The number of steps taken by the current match */
+  private long steps;
+
+  /** The number of steps after which the budget is checked again */
+  private long checkpoint = Long.MAX_VALUE;
+
+  /** The value of {@link System#nanoTime()} when the match must end */
+  private long deadline;
+
+  /** Has the current match exceeded its budget? */
+  private boolean budgetExceeded;
+
+  /** The number of steps between two checks of the deadline */
+  private static final int DEADLINE_INTERVAL = 256;
+
+  /**
+   * The pool that matches the alternatives of branches in parallel, or
+   * <code>null</code> if they are matched one by one
+   */
+  private ForkJoinPool speculationPool;
+
+  /**
+   * The parallel match of the alternatives of a branch, if this is a fork
+   * matching one of them; <code>null</code> otherwise
    */
-  List<Wildcard> wildcards[];
+  private Speculation speculation;
+
+  /** The rank of the alternative matched by this fork */
+  private int speculationRank;
+
+  /** Are the alternatives of a branch being matched in parallel? */
+  private boolean speculating;
 
   /**
    * This contains the result of the matching.
@@ -72,10 +207,11 @@ public class MatchState<T extends Object> {
   /**
    * <p>
    * This inner class represents a single matched wildcard inside a context.
-   * Normally, only the beginning and ending positions of the wildcard are
-   * stored to save resources during matching. Once the actual wildcard value is
-   * requested (this could even be during the process of matching), the wildcard
-   * string is constructed.
+   * Only the beginning and ending positions of the wildcard are stored in the
+   * match state to save resources during matching, a wildcard object is just a
+   * view of these positions. Once the actual wildcard value is requested (this
+   * could even be during the process of matching), the wildcard string is
+   * constructed.
    * <p>
    * 
    * <p>
@@ -91,39 +227,33 @@ public class MatchState<T extends Object> {
    */
   public class Wildcard {
     /**
-     * The beginning index of a wildcard in a string
+     * The context that this wildcard has been matched in
      */
-    private int beginIndex;
+    private Context context;
 
     /**
-     * The ending index of a wildcard in a string
+     * The index of the wildcard in its context (0 based)
      */
-    private int endIndex;
+    private int index;
 
     /**
-     * The context that this wildcard has been matched in
-     */
-    private Context context;
-
-    /**
-     * Creates a new wildcard with length 0
+     * Creates a view of a wildcard
      * 
      * @param context
      *          The context this wildcard applies to
-     * @param beginIndex
-     *          The starting position of this wildcard
+     * @param index
+     *          The index of the wildcard in the context (0 based)
      */
-    public Wildcard(Context context, int beginIndex) {
-      this.beginIndex = beginIndex;
-      this.endIndex = beginIndex;
+    private Wildcard(Context context, int index) {
       this.context = context;
+      this.index = index;
     }
 
     /**
      * Increases the size of the string matched by the wildcard by one
      */
     public void grow() {
-      endIndex++;
+      wildcardEnd[context.getOrder()][index]++;
     }
 
     /**
@@ -133,11 +263,11 @@ public class MatchState<T extends Object> {
      *          how much more characters are matched by the wildcard
      */
     public void grow(int length) {
-      endIndex += length;
+      wildcardEnd[context.getOrder()][index] += length;
     }
 
     public void growRest() {
-      endIndex = contextValues[context.getOrder()].length();
+      wildcardEnd[context.getOrder()][index] = normalizedValues[context.getOrder()].length();
     }
 
     /**
@@ -146,7 +276,8 @@ public class MatchState<T extends Object> {
      * @return the length of this wildcard
      */
     public int getLength() {
-      return endIndex - beginIndex;
+      int order = context.getOrder();
+      return wildcardEnd[order][index] - wildcardBegin[order][index];
     }
 
     /**
@@ -155,16 +286,26 @@ public class MatchState<T extends Object> {
      * @return the starting index of the wildcard
      */
     public int getBeginIndex() {
-      return beginIndex;
+      return wildcardBegin[context.getOrder()][index];
     }
 
     /**
-     * Produces the actual wildcard value.
+     * Produces the actual wildcard value. The indexes of the wildcard refer to
+     * the normalized context value, but the returned string is taken from the
+     * original one, so that the user's text is preserved.
      * 
      * @return the wildcard value
      */
     public String getValue() {
-      return contextValues[context.getOrder()].substring(beginIndex, endIndex);
+      int order = context.getOrder();
+      int beginIndex = wildcardBegin[order][index];
+      int endIndex = wildcardEnd[order][index];
+      int offsets[] = normalizedOffsets[order];
+      if (offsets == null) {
+        return contextValues[order].substring(beginIndex, endIndex);
+      }
+      return contextValues[order].substring(offsets[beginIndex],
+          offsets[endIndex]);
     }
 
     /**
@@ -180,18 +321,214 @@ public class MatchState<T extends Object> {
   }
 
   /**
-   * Creates a new MatchState object, makes a snapshot of the context variables.
+   * The outcome of a successful match: the result, and everything needed to
+   * resolve its wildcards later. The positions refer to the normalized context
+   * values, so the outcome can be restored into any match state with the same
+   * normalized values (see {@link MatchCache}).
+   */
+  static class Outcome {
+    final Object result;
+
+    final Context context;
+
+    final int depth;
+
+    final boolean stacked[];
+
+    final int wildcardCount[];
+
+    final int wildcardBegin[][];
+
+    final int wildcardEnd[][];
+
+    private Outcome(MatchState<?> m) {
+      result = m.result;
+      context = m.context;
+      depth = m.depth;
+      stacked = m.stacked.clone();
+      wildcardCount = m.wildcardCount.clone();
+      wildcardBegin = new int[wildcardCount.length][];
+      wildcardEnd = new int[wildcardCount.length][];
+      for (int i = 0; i < wildcardCount.length; i++) {
+        if (wildcardCount[i] > 0) {
+          wildcardBegin[i] = Arrays.copyOf(m.wildcardBegin[i],
+              wildcardCount[i]);
+          wildcardEnd[i] = Arrays.copyOf(m.wildcardEnd[i], wildcardCount[i]);
+        }
+      }
+    }
+  }
+
+  /**
+   * Creates a new MatchState object for the current classifier of the
+   * environment's bot, makes a snapshot of the context variables.
    */
   public MatchState(Environment e) {
-    this.e = e;
-    contextValues = new String[getContextInfo().getCount()];
-    wildcards = new List[getContextInfo().getCount()];
-    if (getContextInfo().getCount() <= 0) {
+    this(e, e.getBot().getClassifier());
+  }
+
+  /**
+   * Creates a new MatchState object for a classifier, makes a snapshot of the
+   * context variables. The match state stays bound to this classifier even if
+   * the bot's classifier is replaced (see {@link aiml.bot.Bot#reload()}), so
+   * that the template of the match (including any recursive matches it makes)
+   * is processed against the same set of categories.
+   */
+  public MatchState(Environment e, Classifier classifier) {
+    this.classifier = classifier;
+    stepBudget = classifier.getStepBudget();
+    timeBudget = classifier.getTimeBudget(TimeUnit.NANOSECONDS);
+    speculationPool = classifier.getSpeculationPool();
+    int count = getContextInfo().getCount();
+    contextValues = new String[count];
+    normalizedValues = new String[count];
+    normalizedOffsets = new int[count][];
+    words = new WordDictionary.Tokens[count];
+    signatures = new long[count][];
+    signed = new boolean[count];
+    contextStack = new Context[count + 1];
+    stacked = new boolean[count];
+    wildcardBegin = new int[count][];
+    wildcardEnd = new int[count][];
+    wildcardCount = new int[count];
+    wildcardObjects = new MatchState.Wildcard[count][];
+    if (count <= 0) {
       throw new NoContextPresentException();
     }
+    reset(e);
+  }
+
+  /**
+   * Creates a copy of a match state: either a fork in the middle of a match,
+   * which matches one of the alternatives of a branch in parallel (see
+   * {@link Speculation}), or a copy of a successful match. The copy starts
+   * with the same contexts, wildcards, depth and budget, and shares the
+   * snapshot of the context values.
+   */
+  private MatchState(MatchState<T> m, Speculation speculation, int rank) {
+    e = m.e;
+    classifier = m.classifier;
+    speculationPool = m.speculationPool;
+    this.speculation = speculation;
+    speculationRank = rank;
+    int count = m.wildcardCount.length;
+    contextValues = m.contextValues.clone();
+    normalizedValues = m.normalizedValues.clone();
+    normalizedOffsets = m.normalizedOffsets.clone();
+    words = new WordDictionary.Tokens[count];
+    signatures = new long[count][];
+    signed = new boolean[count];
+    context = m.context;
+    depth = m.depth;
+    contextStack = m.contextStack.clone();
+    contextStackSize = m.contextStackSize;
+    stacked = m.stacked.clone();
+    wildcardBegin = new int[count][];
+    wildcardEnd = new int[count][];
+    for (int i = 0; i < count; i++) {
+      if (m.wildcardBegin[i] != null) {
+        wildcardBegin[i] = m.wildcardBegin[i].clone();
+        wildcardEnd[i] = m.wildcardEnd[i].clone();
+      }
+    }
+    wildcardCount = m.wildcardCount.clone();
+    wildcardObjects = new MatchState.Wildcard[count][];
+    if (m.failures != null) {
+      failures = new HashMap<Object, BitSet>();
+    }
+    stepBudget = m.stepBudget;
+    timeBudget = m.timeBudget;
+    steps = m.steps;
+    deadline = m.deadline;
+    //check for the cancellation regularly
+    checkpoint = Math.min(m.checkpoint, steps + DEADLINE_INTERVAL);
+  }
+
+  /**
+   * Returns a fork of this match state, which matches an alternative of a
+   * branch in parallel
+   */
+  MatchState<T> fork(Speculation speculation, int rank) {
+    return new MatchState<T>(this, speculation, rank);
+  }
+
+  /**
+   * Returns a copy of this match state after a successful match, with the
+   * same result, contexts and wildcards. The copy stays valid when this match
+   * state is cleared and matched again.
+   */
+  MatchState<T> copy() {
+    MatchState<T> copy = new MatchState<T>(this, null, 0);
+    copy.result = result;
+    return copy;
+  }
+
+  /**
+   * <p>
+   * Prepares this match state for another match of the same classifier, and
+   * makes a new snapshot of the context variables. The arrays of the match
+   * state are reused, so repeatedly matching with the same match state
+   * produces very little garbage.
+   * </p>
+   * 
+   * <p>
+   * Wildcard objects obtained from the match state before the reset must not
+   * be used any more.
+   * </p>
+   * 
+   * @param e
+   *          the environment
+   */
+  public void reset(Environment e) {
+    this.e = e;
+    clearMatch();
+    Arrays.fill(normalizedOffsets, null);
+    Arrays.fill(words, null);
+    Arrays.fill(signed, false);
+    if (failures != null) {
+      failures.clear();
+    }
+    memoHits = 0;
+    memoFailures = 0;
+    steps = 0;
+    budgetExceeded = false;
     initializeContexts(e);
   }
 
+  /**
+   * Prepares this match state for another match like
+   * {@link #reset(Environment)}, and takes over the current budget and
+   * speculation pool of the classifier, like a new match state would.
+   * 
+   * @param e
+   *          the environment
+   */
+  void renew(Environment e) {
+    stepBudget = classifier.getStepBudget();
+    timeBudget = classifier.getTimeBudget(TimeUnit.NANOSECONDS);
+    speculationPool = classifier.getSpeculationPool();
+    reset(e);
+  }
+
+  /**
+   * Clears the result, the context stack and the wildcards, as if nothing
+   * had been matched yet. The snapshot of the context variables is kept.
+   */
+  void clearMatch() {
+    context = null;
+    depth = 0;
+    result = null;
+    Arrays.fill(contextStack, null);
+    contextStackSize = 0;
+    Arrays.fill(stacked, false);
+    Arrays.fill(wildcardCount, -1);
+    for (int i = 0; i < wildcardObjects.length; i++) {
+      if (wildcardObjects[i] != null) {
+        Arrays.fill(wildcardObjects[i], null);
+      }
+    }
+  }
+
   /**
    * <p>
    * Initialize the contexts making a snapshot of the current values (because
@@ -199,11 +536,100 @@ public class MatchState<T extends Object> {
    * matching). This essentially creates a "local scope" for the current match.
    * </p>
    * 
+   * <p>
+   * The values are normalized here, once per match, instead of in every
+   * pattern node that is visited.
+   * </p>
+   * 
    * @param e
    */
   private void initializeContexts(Environment e) {
-    for (int i = 0; i < getContextInfo().getCount(); i++)
+    for (int i = 0; i < getContextInfo().getCount(); i++) {
       contextValues[i] = getContextInfo().getContext(i).getValue(e).toString();
+      normalizeContext(i);
+    }
+  }
+
+  /**
+   * <p>
+   * Normalizes the value of a context, and if the normalization changed the
+   * length of the string, also creates a mapping from the normalized positions
+   * back to the original ones.
+   * </p>
+   * 
+   * <p>
+   * In the general case, the value is split into clusters (a base character
+   * followed by its combining marks), and each cluster is normalized
+   * separately, so that every normalized character can be traced back to the
+   * cluster that produced it. Pure ASCII strings (by far the most common case)
+   * take a fast path that doesn't need to invoke the transliterator at all.
+   * </p>
+   * 
+   * @param i
+   *          the context order
+   */
+  private void normalizeContext(int i) {
+    String value = contextValues[i];
+    if (isAscii(value)) {
+      normalizedValues[i] = value.toUpperCase(Locale.ENGLISH);
+      return;
+    }
+    String normalized = Pattern.normalize(value);
+    if (normalized.length() == value.length() && !hasCombiningMarks(value)) {
+      normalizedValues[i] = normalized;
+      return;
+    }
+
+    StringBuilder sb = new StringBuilder(value.length());
+    int offsets[] = new int[value.length() + 1];
+    int begin = 0;
+    while (begin < value.length()) {
+      int end = begin + Character.charCount(value.codePointAt(begin));
+      while (end < value.length() && isCombiningMark(value.codePointAt(end))) {
+        end += Character.charCount(value.codePointAt(end));
+      }
+      String cluster = Pattern.normalize(value.substring(begin, end));
+      if (sb.length() + cluster.length() >= offsets.length) {
+        offsets = Arrays.copyOf(offsets, (offsets.length + cluster.length()) * 2);
+      }
+      for (int j = 0; j < cluster.length(); j++) {
+        offsets[sb.length() + j] = begin;
+      }
+      sb.append(cluster);
+      begin = end;
+    }
+    offsets[sb.length()] = value.length();
+    normalizedValues[i] = sb.toString();
+    normalizedOffsets[i] = Arrays.copyOf(offsets, sb.length() + 1);
+  }
+
+  private static boolean isAscii(String s) {
+    for (int i = 0; i < s.length(); i++) {
+      if (s.charAt(i) >= 0x80) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean hasCombiningMarks(String s) {
+    for (int i = 0; i < s.length(); i++) {
+      if (isCombiningMark(s.charAt(i))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean isCombiningMark(int codePoint) {
+    switch (Character.getType(codePoint)) {
+    case Character.NON_SPACING_MARK:
+    case Character.COMBINING_SPACING_MARK:
+    case Character.ENCLOSING_MARK:
+      return true;
+    default:
+      return false;
+    }
   }
 
   /**
@@ -213,7 +639,13 @@ public class MatchState<T extends Object> {
    *          The new context
    */
   public void addContext(Context context) {
-    contextStack.addLast(this.context);
+    if (contextStackSize == contextStack.length) {
+      contextStack = Arrays.copyOf(contextStack, contextStackSize * 2);
+    }
+    contextStack[contextStackSize++] = this.context;
+    if (this.context != null) {
+      stacked[this.context.getOrder()] = true;
+    }
     this.context = context;
     depth = 0;
   }
@@ -230,10 +662,14 @@ public class MatchState<T extends Object> {
    * </p>
    */
   public void dropContext() {
-    // shouldn't this be error-checked? The default NoSuchElementException is
-    // probably enough though...
-    this.context = contextStack.removeLast();
-    depth = getContextValue().length();
+    // shouldn't this be error-checked? The default
+    // ArrayIndexOutOfBoundsException is probably enough though...
+    this.context = contextStack[--contextStackSize];
+    contextStack[contextStackSize] = null;
+    if (context != null) {
+      stacked[context.getOrder()] = false;
+    }
+    depth = (context != null ? getContextValue().length() : 0);
   }
 
   /**
@@ -255,12 +691,92 @@ public class MatchState<T extends Object> {
    * @return Wildcard
    */
   public Wildcard addWildcard(Context context, int depth) {
-    Wildcard wc = new Wildcard(context, depth);
-    if (wildcards[context.getOrder()] == null) {
-      wildcards[context.getOrder()] = new ArrayList<Wildcard>();
+    int order = context.getOrder();
+    addWildcard(order, depth, depth);
+    return wildcard(context, wildcardCount[order] - 1);
+  }
+
+  /**
+   * Add a new, empty wildcard to the current context at the current depth.
+   * Unlike {@link #addWildcard()}, this doesn't create a wildcard object.
+   */
+  public void beginWildcard() {
+    addWildcard(context.getOrder(), depth, depth);
+  }
+
+  /**
+   * Sets the ending position of the last wildcard of the current context
+   * 
+   * @param end
+   *          the ending position (exclusive)
+   */
+  public void setWildcardEnd(int end) {
+    int order = context.getOrder();
+    wildcardEnd[order][wildcardCount[order] - 1] = end;
+  }
+
+  /**
+   * Add a new wildcard to a context
+   * 
+   * @param order
+   *          the context order
+   * @param begin
+   *          the beginning position of the wildcard
+   * @param end
+   *          the ending position of the wildcard
+   */
+  void addWildcard(int order, int begin, int end) {
+    initWildcards(order);
+    int count = wildcardCount[order];
+    if (wildcardBegin[order] == null) {
+      wildcardBegin[order] = new int[4];
+      wildcardEnd[order] = new int[4];
+    } else if (count == wildcardBegin[order].length) {
+      wildcardBegin[order] = Arrays.copyOf(wildcardBegin[order], count * 2);
+      wildcardEnd[order] = Arrays.copyOf(wildcardEnd[order], count * 2);
+    }
+    wildcardBegin[order][count] = begin;
+    wildcardEnd[order][count] = end;
+    wildcardCount[order] = count + 1;
+  }
+
+  /**
+   * Marks that wildcards have been added to a context, even if there are none
+   * at the moment (see {@link #wildcardCount}).
+   * 
+   * @param order
+   *          the context order
+   */
+  void initWildcards(int order) {
+    if (wildcardCount[order] < 0) {
+      wildcardCount[order] = 0;
+    }
+  }
+
+  /**
+   * Returns the object of a wildcard, creating it if necessary
+   * 
+   * @param context
+   *          the context
+   * @param index
+   *          the index of the wildcard (0 based)
+   * @return the wildcard
+   */
+  private Wildcard wildcard(Context context, int index) {
+    int order = context.getOrder();
+    Wildcard objects[] = wildcardObjects[order];
+    if (objects == null || objects.length <= index) {
+      objects = new MatchState.Wildcard[wildcardBegin[order].length];
+      if (wildcardObjects[order] != null) {
+        System.arraycopy(wildcardObjects[order], 0, objects, 0,
+            wildcardObjects[order].length);
+      }
+      wildcardObjects[order] = objects;
+    }
+    if (objects[index] == null) {
+      objects[index] = new Wildcard(context, index);
     }
-    wildcards[context.getOrder()].add(wc);
-    return wc;
+    return objects[index];
   }
 
   /**
@@ -285,9 +801,9 @@ public class MatchState<T extends Object> {
   public Wildcard getWildcard(Context context, int index)
       throws InvalidWildcardReferenceException {
     if (isValidWildcard(context, index)) {
-      return wildcards[context.getOrder()].get(index - 1);
+      return wildcard(context, index - 1);
     }
-    if (wildcards[context.getOrder()] == null &&
+    if (wildcardCount[context.getOrder()] < 0 &&
         isDontCareWildcard(context, index)) {
       //lazily bind implicit wildcards (from don't care contexts)
       Wildcard wc = addWildcard(context, 0);
@@ -313,7 +829,7 @@ public class MatchState<T extends Object> {
    *         context.
    */
   private boolean isDontCareWildcard(Context context, int index) {
-    return !contextStack.contains(context) && index == 1;
+    return !stacked[context.getOrder()] && index == 1;
   }
 
   /**
@@ -326,24 +842,472 @@ public class MatchState<T extends Object> {
    * @return <code>true</code> if the index and context are valid
    */
   private boolean isValidWildcard(Context context, int index) {
-    return wildcards[context.getOrder()] != null && index >= 1 &&
-        index <= wildcards[context.getOrder()].size();
+    return index >= 1 && index <= wildcardCount[context.getOrder()];
+  }
+
+  /**
+   * Returns <code>true</code> if a wildcard has been tried in the current
+   * context, even if it has been removed again while backtracking.
+   * 
+   * @return <code>true</code> if a wildcard has been tried
+   */
+  public boolean isWildcardTried() {
+    return wildcardCount[context.getOrder()] >= 0;
+  }
+
+  /**
+   * Records that a wildcard would have been tried in the current context by
+   * a pattern node that has been skipped, as if the wildcard had been begun
+   * and removed again. This keeps the "don't care" wildcards the same.
+   */
+  public void skipWildcard() {
+    initWildcards(context.getOrder());
   }
 
   /**
    * Removes the last wildcard during matching.
    */
   public void removeWildcard() {
-    wildcards[context.getOrder()].remove(wildcards[context.getOrder()].size() - 1);
+    wildcardCount[context.getOrder()]--;
   }
 
   /**
-   * Returns the value of the current context.
+   * Returns the normalized value of the current context. All positions used
+   * during matching (the depth, wildcard indexes) refer to this string.
    * 
-   * @return the value of the current context
+   * @return the normalized value of the current context
    */
   public String getContextValue() {
-    return contextValues[context.getOrder()];
+    return normalizedValues[context.getOrder()];
+  }
+
+  /**
+   * Returns the words of the current (normalized) context value. The value is
+   * tokenized only once per match and context, subsequent calls return the
+   * cached tokens.
+   * 
+   * @param dictionary
+   *          the dictionary used to look up word IDs
+   * @return the words of the current context value
+   */
+  public WordDictionary.Tokens getWords(WordDictionary dictionary) {
+    int order = context.getOrder();
+    if (words[order] == null || words[order].getDictionary() != dictionary) {
+      words[order] = dictionary.tokenize(normalizedValues[order]);
+    }
+    return words[order];
+  }
+
+  /**
+   * Returns the signature of the current context value from a position to
+   * its end: the union of the signatures of its characters (see
+   * {@link Pattern#signature(char)}). A pattern subtree can't match there
+   * unless this contains the signature of the characters it requires. The
+   * signatures of all the positions are computed once per match and context.
+   * 
+   * @param position
+   *          the position in the normalized context value
+   * @return the signature of the rest of the context value
+   */
+  public long getSignature(int position) {
+    int order = context.getOrder();
+    if (!signed[order]) {
+      String value = normalizedValues[order];
+      int length = value.length();
+      if (signatures[order] == null || signatures[order].length <= length) {
+        signatures[order] = new long[length + 1];
+      }
+      long suffixes[] = signatures[order];
+      long signature = 0;
+      suffixes[length] = 0;
+      for (int i = length - 1; i >= 0; i--) {
+        signature |= Pattern.signature(value.charAt(i));
+        suffixes[i] = signature;
+      }
+      signed[order] = true;
+    }
+    return signatures[order][position];
+  }
+
+  /**
+   * Enables or disables the failure memo. When enabled, nodes that are prone
+   * to repeated backtracking (wildcards and contexts) record where they have
+   * failed, and fail immediately if they are tried again at the same depth.
+   * This makes matching polynomial even for patterns with many wildcards, at
+   * the cost of some bookkeeping.
+   * 
+   * @param memoize
+   *          <code>true</code> to enable the memo
+   */
+  public void setMemoizeFailures(boolean memoize) {
+    failures = (memoize ? new HashMap<Object, BitSet>() : null);
+  }
+
+  /**
+   * Returns <code>true</code> if the failure memo is enabled.
+   * 
+   * @return <code>true</code> if the failure memo is enabled
+   */
+  public boolean isMemoizingFailures() {
+    return failures != null;
+  }
+
+  /**
+   * Checks if matching a node at a depth is already known to fail.
+   * 
+   * @param node
+   *          the node
+   * @param depth
+   *          the depth in the node's context
+   * @return <code>true</code> if the match is known to fail;
+   *         <code>false</code> if it isn't known, or the memo is disabled
+   */
+  public boolean isKnownFailure(Object node, int depth) {
+    if (failures == null) {
+      return false;
+    }
+    BitSet depths = failures.get(node);
+    if (depths != null && depths.get(depth)) {
+      memoHits++;
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Records that matching a node at a depth has failed. Does nothing if the
+   * memo is disabled.
+   * 
+   * @param node
+   *          the node
+   * @param depth
+   *          the depth in the node's context
+   */
+  public void addFailure(Object node, int depth) {
+    if (failures == null) {
+      return;
+    }
+    BitSet depths = failures.get(node);
+    if (depths == null) {
+      depths = new BitSet();
+      failures.put(node, depths);
+    }
+    depths.set(depth);
+    memoFailures++;
+  }
+
+  /**
+   * Returns the number of times a failure was found in the memo, i.e. how
+   * many times the matching of a whole subtree was skipped.
+   * 
+   * @return the number of memo hits
+   */
+  public int getMemoHits() {
+    return memoHits;
+  }
+
+  /**
+   * Returns the number of failures recorded in the memo
+   * 
+   * @return the number of recorded failures
+   */
+  public int getMemoFailures() {
+    return memoFailures;
+  }
+
+  /**
+   * Sets the maximum number of steps of a match (see
+   * {@link Classifier#setStepBudget(long)}). The initial budget is the one of
+   * the classifier, and it's kept when the match state is reset.
+   * 
+   * @param steps
+   *          the maximum number of steps, or 0 for no limit
+   */
+  public void setStepBudget(long steps) {
+    if (steps < 0) {
+      throw new IllegalArgumentException("The step budget can't be negative");
+    }
+    stepBudget = steps;
+  }
+
+  /**
+   * Returns the maximum number of steps of a match
+   * 
+   * @return the maximum number of steps, or 0 if there is no limit
+   */
+  public long getStepBudget() {
+    return stepBudget;
+  }
+
+  /**
+   * Sets the maximum duration of a match (see
+   * {@link Classifier#setTimeBudget(long, TimeUnit)}). The initial budget is
+   * the one of the classifier, and it's kept when the match state is reset.
+   * 
+   * @param timeout
+   *          the maximum duration, or 0 for no limit
+   * @param unit
+   *          the unit of the duration
+   */
+  public void setTimeBudget(long timeout, TimeUnit unit) {
+    if (timeout < 0) {
+      throw new IllegalArgumentException("The time budget can't be negative");
+    }
+    timeBudget = unit.toNanos(timeout);
+  }
+
+  /**
+   * Returns the maximum duration of a match
+   * 
+   * @param unit
+   *          the unit of the result
+   * @return the maximum duration, or 0 if there is no limit
+   */
+  public long getTimeBudget(TimeUnit unit) {
+    return unit.convert(timeBudget, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Returns the number of steps the last match has taken: one for every node
+   * entered, or for every character read by the automata of a compiled
+   * classifier.
+   * 
+   * @return the number of steps
+   */
+  public long getSteps() {
+    return steps;
+  }
+
+  /**
+   * Returns <code>true</code> if the last match was stopped because it
+   * exceeded the step budget or the time budget. The result of such a match
+   * is the fallback of the classifier, if there is one (see
+   * {@link Classifier#setBudgetFallback(Object)}).
+   * 
+   * @return <code>true</code> if the budget was exceeded
+   */
+  public boolean isBudgetExceeded() {
+    return budgetExceeded;
+  }
+
+  /**
+   * Starts counting the steps of a match, and sets its deadline.
+   */
+  void startBudget() {
+    steps = 0;
+    budgetExceeded = false;
+    checkpoint = (stepBudget > 0 ? stepBudget : Long.MAX_VALUE);
+    if (timeBudget > 0) {
+      deadline = System.nanoTime() + timeBudget;
+      checkpoint = Math.min(checkpoint, DEADLINE_INTERVAL);
+    }
+  }
+
+  /**
+   * Counts a step of the match. The deadline is only checked every few
+   * hundred steps, so this is cheap enough to be called for every node.
+   * 
+   * @throws MatchBudgetExceededException
+   *           if the match has exceeded its budget
+   */
+  final void step() {
+    if (++steps > checkpoint) {
+      checkBudget();
+    }
+  }
+
+  private void checkBudget() {
+    if (speculation != null && speculation.isCancelled(speculationRank)) {
+      throw new Speculation.Cancelled();
+    }
+    if ((stepBudget > 0 && steps > stepBudget) ||
+        (timeBudget > 0 && System.nanoTime() - deadline > 0)) {
+      budgetExceeded = true;
+      throw new MatchBudgetExceededException();
+    }
+    checkpoint = (stepBudget > 0 ? stepBudget : Long.MAX_VALUE);
+    if (timeBudget > 0 || speculation != null) {
+      checkpoint = Math.min(checkpoint, steps + DEADLINE_INTERVAL);
+    }
+  }
+
+  /**
+   * Adds the steps taken by a fork of this match state
+   */
+  void addSteps(long steps) {
+    this.steps += steps;
+  }
+
+  /**
+   * Records that a fork of this match state has exceeded the budget
+   */
+  void setBudgetExceeded() {
+    budgetExceeded = true;
+  }
+
+  /**
+   * <p>
+   * Returns <code>true</code> if the alternatives of a branch can be matched
+   * in parallel, by {@link #matchAlternatives(PatternNode[])}. This is only
+   * the case if the classifier has a speculation pool, and the match is near
+   * the top of the tree: in the first context that is matched, before any
+   * wildcard, and not already matching alternatives in parallel.
+   * </p>
+   * 
+   * @return <code>true</code> if the alternatives can be matched in parallel
+   */
+  public boolean canSpeculate() {
+    return speculationPool != null && speculation == null && !speculating &&
+        contextStackSize == 1 && wildcardCount[context.getOrder()] <= 0 &&
+        !isTracing();
+  }
+
+  /**
+   * <p>
+   * Matches the alternatives of a branch in parallel, with the same outcome
+   * as matching them one by one, in order. The first alternative is matched
+   * by the current thread, the others by forks of this match state; the
+   * result of the first successful alternative is adopted by this match
+   * state.
+   * </p>
+   * 
+   * <p>
+   * Each fork has the remaining budget of the match, so the alternatives
+   * together may take more steps than the budget.
+   * </p>
+   * 
+   * @param alternatives
+   *          the alternatives, by priority; some of them may be
+   *          <code>null</code>
+   * @return <code>true</code> if one of the alternatives has matched
+   */
+  public boolean matchAlternatives(PatternNode alternatives[]) {
+    speculating = true;
+    try {
+      return Speculation.match(this, speculationPool, alternatives);
+    } finally {
+      speculating = false;
+    }
+  }
+
+  /**
+   * Records the wildcards tried by a fork that has failed, as if it had been
+   * matched by this match state (see {@link #skipWildcard()})
+   */
+  void mergeWildcardsTried(MatchState<?> fork) {
+    for (int i = 0; i < wildcardCount.length; i++) {
+      if (wildcardCount[i] < 0 && fork.wildcardCount[i] >= 0) {
+        wildcardCount[i] = 0;
+      }
+    }
+  }
+
+  /**
+   * Takes over the outcome of a fork that has matched, together with the
+   * wildcards tried by this match state before
+   */
+  @SuppressWarnings("unchecked")
+  void adopt(MatchState<?> fork) {
+    fork.mergeWildcardsTried(this);
+    result = (T) fork.result;
+    context = fork.context;
+    depth = fork.depth;
+    contextStack = fork.contextStack;
+    contextStackSize = fork.contextStackSize;
+    stacked = fork.stacked;
+    wildcardBegin = fork.wildcardBegin;
+    wildcardEnd = fork.wildcardEnd;
+    wildcardCount = fork.wildcardCount;
+    for (int i = 0; i < wildcardObjects.length; i++) {
+      if (wildcardObjects[i] != null) {
+        Arrays.fill(wildcardObjects[i], null);
+      }
+    }
+  }
+
+  /**
+   * Called by a node of the classifier when it starts matching. Counts a step
+   * of the match; a {@link TracingMatchState} also records the node.
+   * 
+   * @param node
+   *          the node
+   * @throws MatchBudgetExceededException
+   *           if the match has exceeded its budget
+   */
+  public void enterNode(Object node) {
+    step();
+  }
+
+  /**
+   * Called by a node of the classifier when it has finished matching. Does
+   * nothing; a {@link TracingMatchState} records the node, and if it failed,
+   * that the matcher backtracks.
+   * 
+   * @param node
+   *          the node
+   * @param matched
+   *          <code>true</code> if the node has matched
+   */
+  public void leaveNode(Object node, boolean matched) {
+  }
+
+  /**
+   * Returns <code>true</code> if the match is being traced. A traced match
+   * bypasses the match cache and the automata of a compiled classifier, so
+   * that the nodes are really visited.
+   * 
+   * @return <code>true</code> for a {@link TracingMatchState}
+   */
+  boolean isTracing() {
+    return false;
+  }
+
+  /**
+   * Returns the outcome of the match, which has to be successful.
+   * 
+   * @return the outcome
+   */
+  Outcome getOutcome() {
+    return new Outcome(this);
+  }
+
+  /**
+   * Restores the outcome of a match, as if this match state had been matched
+   * again. The match state must have been just created or reset, and its
+   * normalized context values must be the same as the ones of the outcome.
+   * 
+   * @param outcome
+   *          the outcome
+   */
+  @SuppressWarnings("unchecked")
+  void setOutcome(Outcome outcome) {
+    result = (T) outcome.result;
+    context = outcome.context;
+    depth = outcome.depth;
+    System.arraycopy(outcome.stacked, 0, stacked, 0, stacked.length);
+    for (int i = 0; i < wildcardCount.length; i++) {
+      int count = outcome.wildcardCount[i];
+      if (count > 0) {
+        if (wildcardBegin[i] == null || wildcardBegin[i].length < count) {
+          wildcardBegin[i] = new int[Math.max(4, count)];
+          wildcardEnd[i] = new int[Math.max(4, count)];
+        }
+        System.arraycopy(outcome.wildcardBegin[i], 0, wildcardBegin[i], 0,
+            count);
+        System.arraycopy(outcome.wildcardEnd[i], 0, wildcardEnd[i], 0, count);
+      }
+      wildcardCount[i] = count;
+    }
+  }
+
+  /**
+   * Returns the normalized values of all the contexts, which determine the
+   * outcome of the match. The array must not be modified.
+   * 
+   * @return the normalized context values, by context order
+   */
+  String[] getNormalizedValues() {
+    return normalizedValues;
   }
 
   /**
@@ -381,9 +1345,16 @@ public class MatchState<T extends Object> {
       sb.append("[RESULT]" + result + "\n");
     }
     sb.append("[WILDCARDS]\n");
-    for (int i = 0; i < wildcards.length; i++) {
-      if ((wildcards[i] != null) && (wildcards[i].size() > 0)) {
-        sb.append("<" + i + ">" + wildcards[i] + "\n");
+    for (int i = 0; i < wildcardCount.length; i++) {
+      if (wildcardCount[i] > 0) {
+        sb.append("<" + i + ">[");
+        for (int j = 0; j < wildcardCount[i]; j++) {
+          if (j > 0) {
+            sb.append(", ");
+          }
+          sb.append(wildcard(getContextInfo().getContext(i), j));
+        }
+        sb.append("]\n");
       }
     }
 
@@ -394,8 +1365,17 @@ public class MatchState<T extends Object> {
     return e;
   }
 
+  /**
+   * Returns the classifier that produced this match
+   * 
+   * @return the classifier
+   */
+  public Classifier getClassifier() {
+    return classifier;
+  }
+
   private ContextInfo getContextInfo() {
-    return e.getBot().getClassifier().getContextInfo();
+    return classifier.getContextInfo();
   }
 
 }
@@ -0,0 +1,434 @@
+/*
+    jaiml - java AIML library
+    Copyright (C) 2026  Kim Sullivan
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    You should have received a copy of the GNU General Public License
+    along with this program; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package aiml.classifier;
+
+import graphviz.Graphviz;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * The trace of a single match, recorded by a {@link TracingMatchState}. The
+ * trace is a sequence of events: a node has been entered, a node has matched,
+ * a node has failed (so the matcher backtracks), and a wildcard has been
+ * grown to another candidate position. Every event knows the context and
+ * depth it happened at, the time since the match started, and the event
+ * that entered the node it belongs to; so the events form the search tree
+ * that the matcher has explored.
+ * </p>
+ *
+ * <p>
+ * The events are stored in primitive arrays, and the nodes are described only
+ * once (their type and a short label), so even long traces stay compact. Once
+ * the limit of events has been reached, further events are only counted, and
+ * the trace is marked as truncated.
+ * </p>
+ *
+ * @author Kim Sullivan
+ * @version 1.0
+ */
+public class MatchTrace {
+  /** The kinds of events */
+  public enum Event {
+    /** A node has been entered */
+    ENTER,
+    /** A node has matched */
+    MATCH,
+    /** A node has failed, the matcher backtracks */
+    BACKTRACK,
+    /** A wildcard has been grown; the depth is its new ending position */
+    GROW
+  }
+
+  private static final Event EVENTS[] = Event.values();
+
+  /** The names of the contexts, by order */
+  private final String contexts[];
+
+  /** The maximum number of events recorded */
+  private final int limit;
+
+  /** The numbers of the nodes described so far */
+  private final Map<Object, Integer> nodeIds = new HashMap<Object, Integer>();
+
+  /** The types of the nodes, by number */
+  private final List<String> nodeTypes = new ArrayList<String>();
+
+  /** The labels of the nodes, by number */
+  private final List<String> nodeLabels = new ArrayList<String>();
+
+  private byte events[] = new byte[64];
+
+  private int nodes[] = new int[64];
+
+  private int eventContexts[] = new int[64];
+
+  private int depths[] = new int[64];
+
+  private int parents[] = new int[64];
+
+  private long times[] = new long[64];
+
+  /** The number of recorded events */
+  private int size;
+
+  /** The number of events, including those that weren't recorded */
+  private final int counts[] = new int[EVENTS.length];
+
+  /** The time spent in each context, in nanoseconds */
+  private final long contextTimes[];
+
+  /** The time the match started */
+  private final long start = System.nanoTime();
+
+  /** The time of the last event */
+  private long last = start;
+
+  /** The context of the last event */
+  private int lastContext = -1;
+
+  /**
+   * Creates an empty trace
+   *
+   * @param contexts
+   *          the names of the contexts, by order
+   * @param limit
+   *          the maximum number of events recorded
+   */
+  MatchTrace(String contexts[], int limit) {
+    this.contexts = contexts;
+    this.limit = limit;
+    this.contextTimes = new long[contexts.length];
+  }
+
+  /**
+   * Returns the number of a node, or -1 if the node hasn't been described yet
+   */
+  int findNode(Object node) {
+    Integer id = nodeIds.get(node);
+    return (id == null ? -1 : id);
+  }
+
+  /**
+   * Returns the number of the node of an event
+   */
+  int getNodeId(int i) {
+    return nodes[i];
+  }
+
+  /**
+   * Describes a node, and returns its number
+   */
+  int addNode(Object node, String type, String label) {
+    nodeIds.put(node, nodeTypes.size());
+    nodeTypes.add(type);
+    nodeLabels.add(label);
+    return nodeTypes.size() - 1;
+  }
+
+  /**
+   * Records an event. The time since the last event is added to the context
+   * of the last event.
+   *
+   * @return the index of the event, or -1 if it hasn't been recorded
+   */
+  int add(Event event, int node, int context, int depth, int parent) {
+    long now = System.nanoTime();
+    if (lastContext >= 0) {
+      contextTimes[lastContext] += now - last;
+    }
+    last = now;
+    lastContext = context;
+    counts[event.ordinal()]++;
+    if (size == limit) {
+      return -1;
+    }
+    if (size == events.length) {
+      int length = size * 2;
+      events = Arrays.copyOf(events, length);
+      nodes = Arrays.copyOf(nodes, length);
+      eventContexts = Arrays.copyOf(eventContexts, length);
+      depths = Arrays.copyOf(depths, length);
+      parents = Arrays.copyOf(parents, length);
+      times = Arrays.copyOf(times, length);
+    }
+    events[size] = (byte) event.ordinal();
+    nodes[size] = node;
+    eventContexts[size] = context;
+    depths[size] = depth;
+    parents[size] = parent;
+    times[size] = now - start;
+    return size++;
+  }
+
+  /**
+   * Returns the number of recorded events
+   *
+   * @return the number of events
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns <code>true</code> if some events haven't been recorded, because
+   * the limit was reached
+   *
+   * @return <code>true</code> if the trace is incomplete
+   */
+  public boolean isTruncated() {
+    return getCount(Event.ENTER) + getCount(Event.MATCH) +
+        getCount(Event.BACKTRACK) + getCount(Event.GROW) > size;
+  }
+
+  /**
+   * Returns the kind of an event
+   *
+   * @param i
+   *          the index of the event
+   * @return the kind of the event
+   */
+  public Event getEvent(int i) {
+    return EVENTS[events[i]];
+  }
+
+  /**
+   * Returns the type of the node of an event (the class of a pattern node,
+   * or the record type of a frozen classifier)
+   *
+   * @param i
+   *          the index of the event
+   * @return the node type
+   */
+  public String getNodeType(int i) {
+    return nodeTypes.get(nodes[i]);
+  }
+
+  /**
+   * Returns a short label of the node of an event, e.g. the string a string
+   * node matches
+   *
+   * @param i
+   *          the index of the event
+   * @return the node label
+   */
+  public String getNodeLabel(int i) {
+    return nodeLabels.get(nodes[i]);
+  }
+
+  /**
+   * Returns the name of the context an event happened in
+   *
+   * @param i
+   *          the index of the event
+   * @return the name of the context, or <code>null</code> before the first
+   *         context has been entered
+   */
+  public String getContext(int i) {
+    return (eventContexts[i] < 0 ? null : contexts[eventContexts[i]]);
+  }
+
+  /**
+   * Returns the depth in the context an event happened at. For a
+   * {@link Event#GROW} event, it's the new ending position of the wildcard.
+   *
+   * @param i
+   *          the index of the event
+   * @return the depth
+   */
+  public int getDepth(int i) {
+    return depths[i];
+  }
+
+  /**
+   * Returns the index of the {@link Event#ENTER} event of the node an event
+   * belongs to: for an entered node the enclosing node, for the other events
+   * the node itself.
+   *
+   * @param i
+   *          the index of the event
+   * @return the index of the event, or -1 if there is none (or it hasn't been
+   *         recorded)
+   */
+  public int getParent(int i) {
+    return parents[i];
+  }
+
+  /**
+   * Returns the time of an event, since the match started
+   *
+   * @param i
+   *          the index of the event
+   * @return the time in nanoseconds
+   */
+  public long getTime(int i) {
+    return times[i];
+  }
+
+  /**
+   * Returns the number of events of a kind, including those that haven't been
+   * recorded
+   *
+   * @param event
+   *          the kind of the events
+   * @return the number of events
+   */
+  public int getCount(Event event) {
+    return counts[event.ordinal()];
+  }
+
+  /**
+   * Returns the wall time spent in each context, i.e. the time between an
+   * event in the context and the next event
+   *
+   * @return the times in nanoseconds, by the names of the contexts, in the
+   *         order of the contexts
+   */
+  public Map<String, Long> getContextTimes() {
+    Map<String, Long> result = new LinkedHashMap<String, Long>();
+    for (int i = 0; i < contexts.length; i++) {
+      result.put(contexts[i], contextTimes[i]);
+    }
+    return result;
+  }
+
+  /**
+   * Returns the number of nodes that are entered, but haven't finished yet
+   * before an event
+   */
+  private int nesting(int i) {
+    int nesting = 0;
+    for (int p = parents[i]; p >= 0; p = parents[p]) {
+      nesting++;
+    }
+    return nesting;
+  }
+
+  /**
+   * Returns the outcome of each {@link Event#ENTER} event: the kind of the
+   * event that finished the node, or <code>null</code> if it hasn't been
+   * recorded
+   */
+  private Event[] outcomes() {
+    Event outcomes[] = new Event[size];
+    for (int i = 0; i < size; i++) {
+      Event event = getEvent(i);
+      if ((event == Event.MATCH || event == Event.BACKTRACK) &&
+          parents[i] >= 0) {
+        outcomes[parents[i]] = event;
+      }
+    }
+    return outcomes;
+  }
+
+  /**
+   * Renders the search tree as a Graphviz graph. Every entered node is a
+   * vertex, labeled with its type, label, context, depth and the number of
+   * times it has been grown (for wildcards), and connected to the node it was
+   * entered from by an edge labeled with the order of the visit. Nodes that
+   * matched are drawn in bold, nodes that failed are dashed.
+   *
+   * @return the graph in the Graphviz language
+   */
+  public String toGraphviz() {
+    Event outcomes[] = outcomes();
+    int grown[] = new int[size];
+    for (int i = 0; i < size; i++) {
+      if (getEvent(i) == Event.GROW && parents[i] >= 0) {
+        grown[parents[i]]++;
+      }
+    }
+    Graphviz graph = new Graphviz();
+    graph.start("digraph trace");
+    graph.graphAttributes("rankdir", "LR");
+    int visit = 0;
+    for (int i = 0; i < size; i++) {
+      if (getEvent(i) != Event.ENTER) {
+        continue;
+      }
+      StringBuilder label = new StringBuilder(getNodeType(i));
+      if (getNodeLabel(i).length() > 0) {
+        label.append("\\n").append(escape(getNodeLabel(i)));
+      }
+      if (getContext(i) != null) {
+        label.append("\\n").append(getContext(i)).append('@').append(
+            getDepth(i));
+      }
+      if (grown[i] > 0) {
+        label.append("\\ngrown ").append(grown[i]).append('x');
+      }
+      String style = (outcomes[i] == Event.MATCH ? "bold"
+          : outcomes[i] == Event.BACKTRACK ? "dashed" : "solid");
+      graph.node("e" + i, "label", label.toString(), "shape", "box", "style",
+          style);
+      visit++;
+      if (parents[i] >= 0) {
+        graph.edge("e" + parents[i], "e" + i, "label", String.valueOf(visit),
+            "style", style);
+      }
+    }
+    graph.end();
+    return graph.toString();
+  }
+
+  /**
+   * Escapes the characters that have a special meaning in Graphviz strings
+   */
+  private static String escape(String s) {
+    return s.replace("\\", "\\\\").replace("\"", "\\\"");
+  }
+
+  /**
+   * Returns the events, one per line, indented by the nesting of the nodes,
+   * followed by a summary.
+   */
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < size; i++) {
+      //the other events belong to the node, not inside of it
+      int nesting = nesting(i) - (getEvent(i) == Event.ENTER ? 0 : 1);
+      for (int j = nesting; j > 0; j--) {
+        sb.append("  ");
+      }
+      sb.append(getEvent(i)).append(' ').append(getNodeType(i));
+      if (getNodeLabel(i).length() > 0) {
+        sb.append(' ').append(getNodeLabel(i));
+      }
+      if (getContext(i) != null) {
+        sb.append(" <").append(getContext(i)).append(">@").append(getDepth(i));
+      }
+      sb.append(" +").append(getTime(i) / 1000).append("us\n");
+    }
+    if (isTruncated()) {
+      sb.append("...\n");
+    }
+    sb.append(getCount(Event.ENTER)).append(" nodes entered, ").append(
+        getCount(Event.BACKTRACK)).append(" backtracks, ").append(
+        getCount(Event.GROW)).append(" wildcard grows, context times ");
+    boolean first = true;
+    for (Map.Entry<String, Long> e : getContextTimes().entrySet()) {
+      sb.append(first ? "" : ", ").append(e.getKey()).append('=').append(
+          e.getValue() / 1000).append("us");
+      first = false;
+    }
+    return sb.toString();
+  }
+}
@@ -36,10 +36,22 @@ import com.ibm.icu.text.Transliterator;
 public class Pattern {
 
   /**
-   * A transliterator that removes diacritics and turns the result into
+   * The transliteration rules that remove diacritics and turn the result into
    * uppercase. Used for pattern normalization.
    */
-  private static Transliterator normalizer = Transliterator.getInstance("NFD; [:Nonspacing Mark:] Remove; Upper; NFC;");
+  private static final String NORMALIZER_RULES = "NFD; [:Nonspacing Mark:] Remove; Upper; NFC;";
+
+  /**
+   * The transliterators used for pattern normalization. Transliterators keep
+   * internal state while transliterating, so every thread gets its own
+   * instance.
+   */
+  private static final ThreadLocal<Transliterator> normalizer = new ThreadLocal<Transliterator>() {
+    @Override
+    protected Transliterator initialValue() {
+      return Transliterator.getInstance(NORMALIZER_RULES);
+    }
+  };
 
   /**
    * Returns the type of the pattern at the current depth. This can be either
@@ -179,20 +191,55 @@ public class Pattern {
    * @return the length of the longest common prefix of strings a and b
    */
   public static int prefixLength(String a, String b) {
-    if (a.length() == 0 || b.length() == 0) {
-      return 0;
-    }
+    int end = Math.min(a.length(), b.length());
     int length = 0;
-
-    while (a.charAt(length) == b.charAt(length)) {
+    while (length < end && a.charAt(length) == b.charAt(length)) {
       length++;
-      if (a.length() == length || b.length() == length) {
-        return length;
-      }
     }
     return length;
   }
 
+  /**
+   * Returns the signature of a normalized character: a 64 bit mask with one
+   * bit set for the character. Letters and digits have bits of their own,
+   * other characters share the remaining bits, and spaces have none (almost
+   * every input has them). The signature of a string is the union of the
+   * signatures of its characters; if a string contains another one, its
+   * signature contains the other one's signature.
+   * 
+   * @param ch
+   *          a normalized character
+   * @return the signature of the character
+   */
+  public static long signature(char ch) {
+    if (ch >= 'A' && ch <= 'Z') {
+      return 1L << (ch - 'A');
+    }
+    if (ch >= '0' && ch <= '9') {
+      return 1L << (ch - '0' + 26);
+    }
+    if (ch == ' ') {
+      return 0;
+    }
+    return 1L << (36 + ch % 28);
+  }
+
+  /**
+   * Returns the signature of a normalized string, the union of the
+   * signatures of its characters (see {@link #signature(char)}).
+   * 
+   * @param s
+   *          a normalized string
+   * @return the signature of the string
+   */
+  public static long signature(String s) {
+    long signature = 0;
+    for (int i = 0; i < s.length(); i++) {
+      signature |= signature(s.charAt(i));
+    }
+    return signature;
+  }
+
   /**
    * Normalize a string according to pattern matching rules. This means that:
    * <ol>
@@ -206,7 +253,7 @@ public class Pattern {
    * @return
    */
   public static String normalize(String s) {
-    return normalizer.transliterate(s);
+    return normalizer.get().transliterate(s);
   }
 
   /**
@@ -222,7 +269,7 @@ public class Pattern {
    * @return
    */
   public static char normalize(char ch) {
-    return normalizer.transliterate(String.valueOf(ch)).charAt(0);
+    return normalizer.get().transliterate(String.valueOf(ch)).charAt(0);
   }
 
 }
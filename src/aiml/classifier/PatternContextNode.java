@@ -90,6 +90,26 @@ public class PatternContextNode extends ContextNode {
 
   }
 
+  /**
+   * Removes a pattern from this context.
+   *
+   * @param pattern
+   *          the pattern
+   * @param patterns
+   *          the remaining patterns in the sequence, after the pattern
+   * @return <code>true</code> if the pattern tree is empty now
+   * @throws NoSuchPathException
+   *           if the sequence isn't in the tree
+   */
+  public boolean removePattern(PaternSequence.Pattern pattern,
+      PaternSequence.PatternIterator patterns) throws NoSuchPathException {
+    if (tree == null) {
+      throw new NoSuchPathException();
+    }
+    tree = tree.remove(0, pattern.getPattern(), patterns);
+    return tree == null;
+  }
+
   /**
    * Try to match the current match state.
    * 
@@ -98,22 +118,67 @@ public class PatternContextNode extends ContextNode {
    * @return <code>true</code> if a match was found; <code>false</code> if the
    *         match failed
    */
-  public boolean match(MatchState match) {
+  protected boolean matchNode(MatchState match) {
+    //the outcome doesn't depend on the depth in the enclosing context
+    if (match.isKnownFailure(this, 0)) {
+      return false;
+    }
     match.addContext(context);
 
     if (!tree.match(match)) {
       match.dropContext();
-      if (next != null) {
-        return next.match(match);
-      } else {
-        return false;
+      if (next != null && next.match(match)) {
+        return true;
       }
+      match.addFailure(this, 0);
+      return false;
     } else {
       return true;
     }
 
   }
+
+  /**
+   * Takes a step of a resumable match, following
+   * {@link #matchNode(MatchState)}: the pattern tree is called first, then
+   * the next context.
+   * 
+   * @param matcher
+   *          the matcher
+   * @param match
+   *          the match state
+   * @return <code>true</code> if a child was called
+   */
+  protected boolean matchStep(TreeMatcher matcher, MatchState match) {
+    switch (matcher.getPhase()) {
+    case 0:
+      if (match.isKnownFailure(this, 0)) {
+        return false;
+      }
+      match.addContext(context);
+      matcher.call(tree, 1);
+      return true;
+    case 1: //the pattern tree has failed
+      match.dropContext();
+      if (next != null) {
+        matcher.call(next, 2);
+        return true;
+      }
+      break;
+    }
+    match.addFailure(this, 0);
+    return false;
+  }
   
+  /**
+   * Returns the subtree of pattern nodes
+   * 
+   * @return the pattern tree
+   */
+  PatternNode getTree() {
+    return tree;
+  }
+
   public PatternNodeFactory getPNF() {
     return ((PatternBehaviour) context.getBehaviour()).getPNF();
   }
@@ -0,0 +1,188 @@
+/*
+    jaiml - java AIML library
+    Copyright (C) 2026  Kim Sullivan
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    You should have received a copy of the GNU General Public License
+    along with this program; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package aiml.classifier;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import aiml.classifier.node.PatternNode;
+
+/**
+ * <p>
+ * Matches the alternatives of a branch in parallel (see
+ * {@link Classifier#setSpeculationPool(ForkJoinPool)}). The first
+ * alternative is matched by the calling thread, with the original match
+ * state; every other one by a task of the pool, with a fork of the match
+ * state. The results are then taken in the order of the alternatives, so the
+ * outcome is the same as if they had been matched one by one: the first
+ * successful alternative wins, and the wildcards that the failed ones before
+ * it have tried are recorded, so that the "don't care" wildcards stay the
+ * same.
+ * </p>
+ *
+ * <p>
+ * Once an alternative has succeeded, the alternatives after it can't win any
+ * more, and are cancelled. A fork notices this when it checks its budget, so
+ * it stops within a few hundred steps.
+ * </p>
+ *
+ * @author Kim Sullivan
+ * @version 1.0
+ */
+class Speculation {
+  /**
+   * The rank of the first alternative that has succeeded, or of the first
+   * one that has failed for good (e.g. by exceeding its budget); the
+   * alternatives after it are cancelled
+   */
+  private final AtomicInteger winner = new AtomicInteger(Integer.MAX_VALUE);
+
+  /**
+   * Returns <code>true</code> if an alternative has been cancelled, because
+   * an alternative before it has already decided the match
+   *
+   * @param rank
+   *          the rank of the alternative
+   * @return <code>true</code> if the alternative can stop
+   */
+  boolean isCancelled(int rank) {
+    return winner.get() < rank;
+  }
+
+  /**
+   * Records that an alternative has decided the match, and cancels the ones
+   * after it
+   */
+  private void decide(int rank, Task tasks[]) {
+    winner.set(rank);
+    for (int i = rank + 1; i < tasks.length; i++) {
+      if (tasks[i] != null) {
+        tasks[i].cancel(false);
+      }
+    }
+  }
+
+  /**
+   * Matches the alternatives of a branch in parallel, as if they were
+   * matched one by one, in the order of their priority.
+   *
+   * @param match
+   *          the match state, positioned at the branch
+   * @param pool
+   *          the pool that runs the forks
+   * @param alternatives
+   *          the alternatives, by priority; some of them may be
+   *          <code>null</code>
+   * @return <code>true</code> if one of the alternatives has matched
+   * @throws MatchBudgetExceededException
+   *           if an alternative has exceeded the budget of the match
+   */
+  static boolean match(MatchState<?> match, ForkJoinPool pool,
+      PatternNode alternatives[]) {
+    Speculation speculation = new Speculation();
+    Task tasks[] = new Task[alternatives.length];
+    long steps = match.getSteps();
+    for (int i = 1; i < alternatives.length; i++) {
+      if (alternatives[i] != null) {
+        tasks[i] = new Task(alternatives[i], match.fork(speculation, i));
+        if (ForkJoinTask.getPool() == pool) {
+          tasks[i].fork();
+        } else {
+          pool.execute(tasks[i]);
+        }
+      }
+    }
+
+    boolean matched = false;
+    boolean finished = false;
+    try {
+      matched = (alternatives[0] != null && alternatives[0].match(match));
+      finished = true;
+    } finally {
+      if (!finished) { //the first alternative has thrown
+        speculation.decide(-1, tasks);
+      }
+    }
+    if (matched) {
+      speculation.decide(0, tasks);
+      return true;
+    }
+
+    for (int i = 1; i < tasks.length; i++) {
+      if (tasks[i] == null) {
+        continue;
+      }
+      MatchState<?> fork = tasks[i].state;
+      try {
+        matched = tasks[i].join();
+      } catch (MatchBudgetExceededException e) {
+        speculation.decide(i, tasks);
+        match.addSteps(fork.getSteps() - steps);
+        match.setBudgetExceeded();
+        throw e;
+      }
+      match.addSteps(fork.getSteps() - steps);
+      if (matched) {
+        speculation.decide(i, tasks);
+        match.adopt(fork);
+        return true;
+      }
+      match.mergeWildcardsTried(fork);
+    }
+    return false;
+  }
+
+  /**
+   * A task that matches one of the alternatives, with a fork of the match
+   * state
+   */
+  private static class Task extends RecursiveTask<Boolean> {
+    private static final long serialVersionUID = 1L;
+
+    private final PatternNode node;
+
+    private final MatchState<?> state;
+
+    Task(PatternNode node, MatchState<?> state) {
+      this.node = node;
+      this.state = state;
+    }
+
+    @Override
+    protected Boolean compute() {
+      try {
+        return node.match(state);
+      } catch (Cancelled e) {
+        return false;
+      }
+    }
+  }
+
+  /**
+   * Thrown by a fork of a match state when its alternative has been
+   * cancelled. Like {@link MatchBudgetExceededException}, it unwinds the
+   * recursion of the nodes, and has no stack trace.
+   */
+  static class Cancelled extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+      return this;
+    }
+  }
+}
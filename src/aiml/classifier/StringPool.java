@@ -0,0 +1,102 @@
+/*
+    jaiml - java AIML library
+    Copyright (C) 2026  Kim Sullivan
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    You should have received a copy of the GNU General Public License
+    along with this program; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package aiml.classifier;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * A pool of strings used while loading AIML. Large AIML sets repeat the same
+ * pattern segments, template texts and attribute values over and over again;
+ * the pattern nodes and script element parsers pass the strings they keep
+ * through {@link #intern(String)}, so that every distinct string is stored
+ * only once.
+ * </p>
+ *
+ * <p>
+ * Unlike {@link String#intern()}, the pool belongs to a single classifier and
+ * is released once loading is done (see {@link #clear()}); the strings
+ * already shared stay shared. A bot clears the pool of its classifier after
+ * loading its AIML files, so the pool doesn't keep a map entry for every
+ * label (including the labels of categories removed later) for the lifetime
+ * of the bot. Code that loads AIML through the parser directly should clear
+ * it when done as well.
+ * </p>
+ *
+ * @author Kim Sullivan
+ * @version 1.0
+ */
+public class StringPool {
+  /** The pooled strings */
+  private final ConcurrentHashMap<String, String> strings =
+      new ConcurrentHashMap<String, String>();
+
+  /** The number of strings that were replaced by a pooled copy */
+  private final AtomicLong duplicates = new AtomicLong();
+
+  /**
+   * Returns the pooled copy of a string. If the pool doesn't contain an equal
+   * string yet, the string itself is added.
+   *
+   * @param s
+   *          the string, may be <code>null</code>
+   * @return the pooled string equal to <code>s</code>
+   */
+  public String intern(String s) {
+    if (s == null) {
+      return null;
+    }
+    String pooled = strings.putIfAbsent(s, s);
+    if (pooled == null) {
+      return s;
+    }
+    if (pooled != s) {
+      duplicates.incrementAndGet();
+    }
+    return pooled;
+  }
+
+  /**
+   * Returns the number of distinct strings in the pool
+   *
+   * @return the number of strings
+   */
+  public int getSize() {
+    return strings.size();
+  }
+
+  /**
+   * Returns the number of strings that were replaced by an equal pooled
+   * string, i.e. the number of copies that didn't have to be kept
+   *
+   * @return the number of duplicates
+   */
+  public long getDuplicates() {
+    return duplicates.get();
+  }
+
+  /**
+   * Releases all the pooled strings.
+   */
+  public void clear() {
+    strings.clear();
+  }
+
+  @Override
+  public String toString() {
+    return getSize() + " strings, " + getDuplicates() + " duplicates";
+  }
+}
@@ -0,0 +1,232 @@
+/*
+    jaiml - java AIML library
+    Copyright (C) 2026  Kim Sullivan
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    You should have received a copy of the GNU General Public License
+    along with this program; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package aiml.classifier;
+
+import graphviz.GraphvizNode;
+import aiml.classifier.node.StringNode;
+import aiml.environment.Environment;
+
+/**
+ * <p>
+ * A match state that records a {@link MatchTrace} of the match: every node
+ * visited, every backtrack and wildcard grow attempt, and the time spent in
+ * each context. It's meant for finding out why a request is slow, or why it
+ * matches the wrong category:
+ * </p>
+ *
+ * <pre>
+ * TracingMatchState m = new TracingMatchState(environment);
+ * classifier.match(m);
+ * System.out.println(m.getTrace());
+ * </pre>
+ *
+ * <p>
+ * Traced matches bypass the match cache and the automata of a compiled
+ * classifier; a frozen classifier is traced by record. Ordinary match states
+ * aren't affected by tracing: the hooks of {@link MatchState} do nothing.
+ * </p>
+ *
+ * @author Kim Sullivan
+ * @version 1.0
+ * @param <T>
+ *          the result type
+ */
+public class TracingMatchState<T> extends MatchState<T> {
+  /** The default maximum number of events in a trace */
+  public static final int DEFAULT_LIMIT = 100000;
+
+  /** The maximum number of events in a trace */
+  private int limit = DEFAULT_LIMIT;
+
+  /** The trace of the current match */
+  private MatchTrace trace;
+
+  /** The indexes of the events that entered the unfinished nodes */
+  private int entered[] = new int[32];
+
+  /** The number of unfinished nodes */
+  private int nesting;
+
+  /**
+   * Creates a new tracing match state for the current classifier of the
+   * environment's bot.
+   *
+   * @param e
+   *          the environment
+   */
+  public TracingMatchState(Environment e) {
+    this(e, e.getBot().getClassifier());
+  }
+
+  /**
+   * Creates a new tracing match state for a classifier.
+   *
+   * @param e
+   *          the environment
+   * @param classifier
+   *          the classifier
+   */
+  public TracingMatchState(Environment e, Classifier classifier) {
+    super(e, classifier);
+    startTrace();
+  }
+
+  /**
+   * Creates a new tracing match state for a classifier, which records at
+   * most the specified number of events.
+   *
+   * @param e
+   *          the environment
+   * @param classifier
+   *          the classifier
+   * @param limit
+   *          the maximum number of events
+   */
+  public TracingMatchState(Environment e, Classifier classifier, int limit) {
+    super(e, classifier);
+    this.limit = limit;
+    startTrace();
+  }
+
+  private void startTrace() {
+    int count = getClassifier().getContextInfo().getCount();
+    String names[] = new String[count];
+    for (int i = 0; i < count; i++) {
+      names[i] = getClassifier().getContextInfo().getContext(i).getName();
+    }
+    trace = new MatchTrace(names, limit);
+    nesting = 0;
+  }
+
+  /**
+   * Returns the trace of the last match (or of the match in progress)
+   *
+   * @return the trace
+   */
+  public MatchTrace getTrace() {
+    return trace;
+  }
+
+  /**
+   * Prepares the match state for another match, and starts a new trace.
+   */
+  @Override
+  public void reset(Environment e) {
+    super.reset(e);
+    if (trace != null) { //not while the superclass is being constructed
+      startTrace();
+    }
+  }
+
+  @Override
+  boolean isTracing() {
+    return true;
+  }
+
+  @Override
+  public void enterNode(Object node) {
+    super.enterNode(node);
+    enter(node, order(), depth);
+  }
+
+  @Override
+  public void leaveNode(Object node, boolean matched) {
+    leave(node, order(), depth, matched);
+  }
+
+  @Override
+  public void setWildcardEnd(int end) {
+    super.setWildcardEnd(end);
+    grow(order(), end);
+  }
+
+  /**
+   * Returns the order of the current context, or -1
+   */
+  private int order() {
+    return (context == null ? -1 : context.getOrder());
+  }
+
+  /**
+   * Records that a node (a pattern node, a context node, or the offset of a
+   * frozen record) has been entered.
+   */
+  void enter(Object node, int context, int depth) {
+    int i = trace.add(MatchTrace.Event.ENTER, nodeId(node), context, depth,
+        (nesting > 0 ? entered[nesting - 1] : -1));
+    if (nesting == entered.length) {
+      int copy[] = new int[nesting * 2];
+      System.arraycopy(entered, 0, copy, 0, nesting);
+      entered = copy;
+    }
+    entered[nesting++] = i;
+  }
+
+  /**
+   * Records that a node has finished
+   */
+  void leave(Object node, int context, int depth, boolean matched) {
+    trace.add((matched ? MatchTrace.Event.MATCH
+        : MatchTrace.Event.BACKTRACK), nodeId(node), context, depth,
+        (nesting > 0 ? entered[--nesting] : -1));
+  }
+
+  /**
+   * Records that the wildcard of the innermost unfinished node has been
+   * grown
+   */
+  void grow(int context, int end) {
+    int parent = (nesting > 0 ? entered[nesting - 1] : -1);
+    //if the node wasn't recorded, the limit has been reached, and neither
+    //will this event
+    trace.add(MatchTrace.Event.GROW, (parent >= 0 ? trace.getNodeId(parent)
+        : -1), context, end, parent);
+  }
+
+  /**
+   * Returns the number of a node in the trace, describing it first if
+   * necessary
+   */
+  private int nodeId(Object node) {
+    int id = trace.findNode(node);
+    if (id >= 0) {
+      return id;
+    }
+    String type;
+    String label;
+    if (node instanceof Integer) {
+      String description[] = getClassifier().getFrozen().describe(
+          (Integer) node);
+      type = description[0];
+      label = description[1];
+    } else if (node instanceof StringNode) {
+      type = node.getClass().getSimpleName();
+      label = "\"" + ((StringNode) node).getPattern() + "\"";
+    } else if (node instanceof LeafContextNode) {
+      type = node.getClass().getSimpleName();
+      label = "";
+    } else if (node instanceof GraphvizNode) {
+      type = node.getClass().getSimpleName();
+      label = ((GraphvizNode) node).gvNodeLabel();
+      if (label.equals(type)) {
+        label = "";
+      }
+    } else {
+      type = String.valueOf(node);
+      label = "";
+    }
+    return trace.addNode(node, type, label);
+  }
+}
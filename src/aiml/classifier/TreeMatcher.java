@@ -0,0 +1,244 @@
+/*
+    jaiml - java AIML library
+    Copyright (C) 2026  Kim Sullivan
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    You should have received a copy of the GNU General Public License
+    along with this program; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package aiml.classifier;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import aiml.classifier.node.PatternNode;
+
+/**
+ * <p>
+ * A resumable matcher of the tree of a classifier, which finds the matches of
+ * a match state one by one, in the order of their priority (see
+ * {@link Classifier#matches(aiml.environment.Environment)}).
+ * </p>
+ *
+ * <p>
+ * Like {@link FrozenClassifier.Matcher}, it keeps the backtracking state in a
+ * stack of frames instead of the call stack. Each frame stores a node, the
+ * phase of its matching (which alternative to try once the current child has
+ * failed), the depth at which the node was entered, and an index for nodes
+ * that loop over their candidates. The nodes take the steps themselves (see
+ * {@link PatternNode#matchStep(TreeMatcher, MatchState)} and
+ * {@link ContextNode#matchStep(TreeMatcher, MatchState)}), and modify the
+ * match state the same way a recursive match does; the phase tells them what
+ * has happened since their last step.
+ * </p>
+ *
+ * <p>
+ * Once a leaf has been reached, the search stops with the match in the match
+ * state. The next call of {@link #next()} treats the leaf as failed, and the
+ * search backtracks from there, so the match state must not be modified
+ * between the calls. Each leaf is reported once: a leaf reached again through
+ * another path (with other wildcards) is skipped. The alternatives of a
+ * branch are always tried one by one, never in parallel.
+ * </p>
+ *
+ * @author Kim Sullivan
+ * @version 1.0
+ */
+public final class TreeMatcher {
+  /** The match state, providing the context values and receiving results */
+  private final MatchState match;
+
+  /** The root of the tree, <code>null</code> if the tree is empty */
+  private final ContextNode root;
+
+  /** The nodes of the frames, pattern nodes or context nodes */
+  private Object frameNode[] = new Object[32];
+
+  /** The matching phases of the frames */
+  private int framePhase[] = new int[32];
+
+  /** The depths at which the nodes of the frames were entered */
+  private int frameDepth[] = new int[32];
+
+  /** The indexes of the candidates the nodes of the frames try next */
+  private int frameIndex[] = new int[32];
+
+  /** The top of the frame stack, -1 if empty */
+  private int top = -1;
+
+  /** Has the search been started? */
+  private boolean started;
+
+  /** Has the last step reached a leaf? */
+  private boolean found;
+
+  /** The leaves reached so far */
+  private final Set<LeafContextNode> leaves = new HashSet<LeafContextNode>();
+
+  /**
+   * Creates a new matcher
+   *
+   * @param match
+   *          a newly created match state
+   * @param root
+   *          the root of the tree, <code>null</code> if the tree is empty
+   */
+  TreeMatcher(MatchState match, ContextNode root) {
+    this.match = match;
+    this.root = root;
+  }
+
+  /**
+   * Finds the next match. If successful, the contexts, wildcards and the
+   * result are stored in the match state.
+   *
+   * @return <code>true</code> if a match was found
+   * @throws MatchBudgetExceededException
+   *           if the match state has exceeded its budget; the search can't be
+   *           resumed then
+   */
+  boolean next() {
+    if (!started) {
+      started = true;
+      if (root == null) {
+        return false;
+      }
+      match.enterNode(root);
+      push(root);
+    }
+    found = false;
+    while (top >= 0) {
+      Object node = frameNode[top];
+      boolean matching;
+      if (node instanceof PatternNode) {
+        matching = ((PatternNode) node).matchStep(this, match);
+      } else {
+        matching = ((ContextNode) node).matchStep(this, match);
+      }
+      if (found) {
+        return true;
+      }
+      if (!matching) {
+        match.leaveNode(node, false);
+        frameNode[top--] = null;
+      }
+    }
+    return false;
+  }
+
+  private void push(Object node) {
+    if (++top == frameNode.length) {
+      int length = frameNode.length * 2;
+      frameNode = Arrays.copyOf(frameNode, length);
+      framePhase = Arrays.copyOf(framePhase, length);
+      frameDepth = Arrays.copyOf(frameDepth, length);
+      frameIndex = Arrays.copyOf(frameIndex, length);
+    }
+    frameNode[top] = node;
+    framePhase[top] = 0;
+    frameDepth[top] = match.depth;
+    frameIndex[top] = 0;
+  }
+
+  /**
+   * Returns the phase of the node taking the step: 0 when it has just been
+   * entered, otherwise the phase it has passed to the last
+   * {@link #call(PatternNode, int)}, whose node has failed since.
+   *
+   * @return the phase
+   */
+  public int getPhase() {
+    return framePhase[top];
+  }
+
+  /**
+   * Returns the depth in the current context at which the node taking the
+   * step was entered
+   *
+   * @return the depth
+   */
+  public int getDepth() {
+    return frameDepth[top];
+  }
+
+  /**
+   * Returns the index kept for the node taking the step, 0 when it has just
+   * been entered
+   *
+   * @return the index
+   */
+  public int getIndex() {
+    return frameIndex[top];
+  }
+
+  /**
+   * Sets the index kept for the node taking the step, e.g. the next candidate
+   * to try once the current one has failed
+   *
+   * @param index
+   *          the index
+   */
+  public void setIndex(int index) {
+    frameIndex[top] = index;
+  }
+
+  /**
+   * Matches a pattern node next, as {@link PatternNode#match(MatchState)}
+   * would. The node taking the step has to return <code>true</code> then. If
+   * the node can't match (see {@link PatternNode#enter(MatchState)}), it isn't
+   * entered, and the caller takes its next step right away.
+   *
+   * @param node
+   *          the node
+   * @param phase
+   *          the phase of the caller's next step, after the node has failed
+   */
+  public void call(PatternNode node, int phase) {
+    framePhase[top] = phase;
+    if (node.enter(match)) {
+      push(node);
+    }
+  }
+
+  /**
+   * Matches a context node next, as {@link ContextNode#match(MatchState)}
+   * would. The node taking the step has to return <code>true</code> then.
+   *
+   * @param node
+   *          the node
+   * @param phase
+   *          the phase of the caller's next step, after the node has failed
+   */
+  public void call(ContextNode node, int phase) {
+    framePhase[top] = phase;
+    match.enterNode(node);
+    push(node);
+  }
+
+  /**
+   * Called by a leaf when its step reaches it. Stores the result of the leaf
+   * and stops the search, unless the leaf has been reached before.
+   *
+   * @param leaf
+   *          the leaf
+   * @return <code>true</code> if the search stops at the leaf; the leaf fails
+   *         at its next step
+   */
+  @SuppressWarnings("unchecked")
+  boolean reach(LeafContextNode leaf) {
+    if (!leaves.add(leaf)) {
+      return false;
+    }
+    match.setResult(leaf.getResult());
+    framePhase[top] = 1;
+    found = true;
+    return true;
+  }
+}
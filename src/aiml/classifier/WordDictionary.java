@@ -0,0 +1,282 @@
+/*
+    jaiml - java AIML library
+    Copyright (C) 2026  Kim Sullivan
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    You should have received a copy of the GNU General Public License
+    along with this program; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package aiml.classifier;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ * A dictionary of interned words, used by the word based pattern nodes. Every
+ * distinct (normalized) word that appears in a pattern gets a unique integer
+ * ID, so that pattern nodes can branch on integers instead of characters.
+ * </p>
+ *
+ * <p>
+ * Words are separated by whitespace. Words that appear only in the input, and
+ * never in a pattern, don't have an ID; they are reported as
+ * {@link #UNKNOWN}, which never matches a pattern word but can be consumed by
+ * a wildcard.
+ * </p>
+ *
+ * @author Kim Sullivan
+ * @version 1.0
+ */
+public class WordDictionary {
+
+  /** The ID of a word that isn't present in any pattern */
+  public static final int UNKNOWN = -1;
+
+  /** The known words */
+  private ConcurrentHashMap<String, Integer> words = new ConcurrentHashMap<String, Integer>();
+
+  /** The next free word ID */
+  private AtomicInteger nextId = new AtomicInteger();
+
+  /**
+   * <p>
+   * A tokenized string. For every word in the string, the word ID and the
+   * beginning and ending index of the word are stored.
+   * </p>
+   */
+  public static class Tokens {
+    /** The dictionary used to produce these tokens */
+    private WordDictionary dictionary;
+
+    /** The word IDs */
+    private int ids[];
+
+    /** The beginning indexes of words */
+    private int begins[];
+
+    /** The ending indexes of words */
+    private int ends[];
+
+    /**
+     * Maps a position in the string to the word starting there (or after the
+     * separators that start there), or -1
+     */
+    private int indexAt[];
+
+    /** The number of words */
+    private int count;
+
+    private Tokens(WordDictionary dictionary, String s) {
+      this.dictionary = dictionary;
+      ids = new int[s.length() / 2 + 1];
+      begins = new int[ids.length];
+      ends = new int[ids.length];
+      indexAt = new int[s.length() + 1];
+      for (int i = 0; i <= s.length(); i++) {
+        indexAt[i] = -1;
+      }
+      int i = 0;
+      while (true) {
+        int separator = i;
+        while (i < s.length() && isSeparator(s.charAt(i))) {
+          i++;
+        }
+        if (i == s.length()) {
+          break;
+        }
+        int begin = i;
+        while (i < s.length() && !isSeparator(s.charAt(i))) {
+          i++;
+        }
+        begins[count] = begin;
+        ends[count] = i;
+        ids[count] = dictionary.lookup(s.substring(begin, i));
+        for (int j = separator; j <= begin; j++) {
+          indexAt[j] = count;
+        }
+        count++;
+      }
+    }
+
+    /**
+     * Returns the dictionary used to produce these tokens
+     *
+     * @return the dictionary
+     */
+    public WordDictionary getDictionary() {
+      return dictionary;
+    }
+
+    /**
+     * Returns the number of words
+     *
+     * @return the number of words
+     */
+    public int getCount() {
+      return count;
+    }
+
+    /**
+     * Returns the index of the word that starts at the specified position. Any
+     * separators at the position are skipped.
+     *
+     * @param position
+     *          a position in the string
+     * @return the index of the word; -1 if no word starts at this position
+     */
+    public int indexAt(int position) {
+      return indexAt[position];
+    }
+
+    /**
+     * Returns the ID of a word
+     *
+     * @param index
+     *          the index of the word
+     * @return the word ID, or {@link WordDictionary#UNKNOWN}
+     */
+    public int getId(int index) {
+      return ids[index];
+    }
+
+    /**
+     * Returns the beginning index of a word
+     *
+     * @param index
+     *          the index of the word
+     * @return the beginning index of the word
+     */
+    public int getBegin(int index) {
+      return begins[index];
+    }
+
+    /**
+     * Returns the ending index of a word
+     *
+     * @param index
+     *          the index of the word
+     * @return the ending index of the word
+     */
+    public int getEnd(int index) {
+      return ends[index];
+    }
+
+    /**
+     * Returns the position where the next word after the specified word
+     * begins. If this is the last word, returns the length of the string, so
+     * that trailing whitespace is skipped.
+     *
+     * @param index
+     *          the index of the word
+     * @param length
+     *          the length of the tokenized string
+     * @return the beginning of the following word
+     */
+    public int getNextBegin(int index, int length) {
+      return (index + 1 < count ? begins[index + 1] : length);
+    }
+  }
+
+  /**
+   * Returns <code>true</code> if the character separates words
+   *
+   * @param c
+   *          the character
+   * @return <code>true</code> if the character separates words
+   */
+  public static boolean isSeparator(char c) {
+    return Character.isWhitespace(c);
+  }
+
+  /**
+   * Returns the position of the end of the word starting at
+   * <code>depth</code>.
+   *
+   * @param depth
+   *          the beginning of the word
+   * @param s
+   *          the string
+   * @return the ending index of the word
+   */
+  public static int wordEnd(int depth, String s) {
+    while (depth < s.length() && !isSeparator(s.charAt(depth))) {
+      depth++;
+    }
+    return depth;
+  }
+
+  /**
+   * Returns the position of the next word, skipping any separators
+   *
+   * @param depth
+   *          the position to start at
+   * @param s
+   *          the string
+   * @return the beginning of the next word, or the length of the string
+   */
+  public static int skipSeparators(int depth, String s) {
+    while (depth < s.length() && isSeparator(s.charAt(depth))) {
+      depth++;
+    }
+    return depth;
+  }
+
+  /**
+   * Returns the ID of the word, adding it to the dictionary if necessary. The
+   * word must already be normalized.
+   *
+   * @param word
+   *          the word
+   * @return the word ID
+   */
+  public int intern(String word) {
+    Integer id = words.get(word);
+    if (id == null) {
+      Integer newId = nextId.getAndIncrement();
+      id = words.putIfAbsent(word, newId);
+      if (id == null) {
+        id = newId;
+      }
+    }
+    return id;
+  }
+
+  /**
+   * Returns the ID of the word, without adding it to the dictionary.
+   *
+   * @param word
+   *          the normalized word
+   * @return the word ID, or {@link #UNKNOWN} if the word isn't known
+   */
+  public int lookup(String word) {
+    Integer id = words.get(word);
+    return (id == null ? UNKNOWN : id);
+  }
+
+  /**
+   * Returns the number of words in this dictionary
+   *
+   * @return the number of words
+   */
+  public int getCount() {
+    return words.size();
+  }
+
+  /**
+   * Splits a normalized string into words and looks up their IDs.
+   *
+   * @param s
+   *          the normalized string
+   * @return the tokens
+   */
+  public Tokens tokenize(String s) {
+    return new Tokens(this, s);
+  }
+}
@@ -16,8 +16,11 @@ package aiml.classifier.node;
 
 import graphviz.Graphviz;
 import aiml.classifier.MatchState;
+import aiml.classifier.NoSuchPathException;
+import aiml.classifier.PaternSequence;
 import aiml.classifier.Pattern;
 import aiml.classifier.PatternContextNode;
+import aiml.classifier.TreeMatcher;
 
 /**
  * A branch in the pattern matching tree. This pure branching node implements
@@ -76,6 +79,7 @@ public class BranchNode extends PatternNode {
       throw new UnsupportedOperationException(
           "Can't add unknown node types to a branch");
     }
+    includeBounds(0, 0L, node);
   }
 
   /**
@@ -100,6 +104,7 @@ public class BranchNode extends PatternNode {
       }
       result = underscore.add(depth, pattern);
       underscore = result.root;
+      includeBounds(0, 0L, underscore);
       result.root = this;
       return result;
     }
@@ -109,6 +114,7 @@ public class BranchNode extends PatternNode {
       }
       result = star.add(depth, pattern);
       star = result.root;
+      includeBounds(0, 0L, star);
       result.root = this;
       return result;
     }
@@ -118,6 +124,7 @@ public class BranchNode extends PatternNode {
       }
       result = string.add(depth, pattern);
       string = result.root;
+      includeBounds(0, 0L, string);
       result.root = this;
       return result;
     }
@@ -125,12 +132,56 @@ public class BranchNode extends PatternNode {
         "Can't add unknown node types to a branch");
   }
 
+  /**
+   * Removes the pattern from the appropriate subtree. A branch that is left
+   * with a single subtree is replaced by it.
+   */
+  public PatternNode remove(int depth, String pattern,
+      PaternSequence.PatternIterator patterns) throws NoSuchPathException {
+    switch (Pattern.getType(depth, pattern)) {
+    case PatternNode.UNDERSCORE:
+      if (underscore == null) {
+        throw new NoSuchPathException();
+      }
+      underscore = underscore.remove(depth, pattern, patterns);
+      break;
+    case PatternNode.STAR:
+      if (star == null) {
+        throw new NoSuchPathException();
+      }
+      star = star.remove(depth, pattern, patterns);
+      break;
+    default:
+      if (string == null) {
+        throw new NoSuchPathException();
+      }
+      string = string.remove(depth, pattern, patterns);
+    }
+
+    if (string == null && star == null) {
+      return underscore;
+    }
+    if (underscore == null && star == null) {
+      return string;
+    }
+    if (underscore == null && string == null) {
+      return star;
+    }
+    return this;
+  }
+
   /**
    * Try to match the current match state. This node implements the AIML pattern
    * ordering principle. First it tries to match the state to an underscore
-   * wildcard pattern, then an exact string, and finally a star wildcard.
+   * wildcard pattern, then an exact string, and finally a star wildcard. If
+   * the match state allows it, the subtrees are matched in parallel, with the
+   * same outcome (see {@link MatchState#canSpeculate()}).
    */
-  public boolean match(MatchState match) {
+  protected boolean matchNode(MatchState match) {
+    if (match.canSpeculate() && alternatives() > 1) {
+      return match.matchAlternatives(new PatternNode[] { underscore, string,
+          star });
+    }
     if (underscore != null) {
       if (underscore.match(match)) {
         return true;
@@ -149,6 +200,89 @@ public class BranchNode extends PatternNode {
     return false;
   }
 
+  /**
+   * Takes a step of a resumable match: calls the underscore, the string and
+   * the star subtree, in this order, one per step.
+   */
+  public boolean matchStep(TreeMatcher matcher, MatchState match) {
+    int phase = matcher.getPhase();
+    if (phase < 1 && underscore != null) {
+      matcher.call(underscore, 1);
+      return true;
+    }
+    if (phase < 2 && string != null) {
+      matcher.call(string, 2);
+      return true;
+    }
+    if (phase < 3 && star != null) {
+      matcher.call(star, 3);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Returns the number of subtrees
+   */
+  private int alternatives() {
+    return (underscore != null ? 1 : 0) + (string != null ? 1 : 0) +
+        (star != null ? 1 : 0);
+  }
+
+  /**
+   * The underscore and star subtrees begin with a wildcard, and are tried
+   * even if the string subtree fails.
+   */
+  protected boolean triesWildcard(MatchState match, int depth) {
+    return underscore != null || star != null ||
+        string.triesWildcard(match, depth);
+  }
+
+  /**
+   * Returns the union of the FIRST sets of the subtrees. Wildcard subtrees can
+   * begin with anything, so in practice this is only useful for string
+   * subtrees followed by the end of the string.
+   */
+  @Override
+  public String[] getFirst() {
+    if (underscore != null || star != null) {
+      return null;
+    }
+    return (string != null ? string.getFirst() : new String[0]);
+  }
+
+  /**
+   * Returns the underscore (_) wildcard subtree
+   * 
+   * @return the underscore subtree, or <code>null</code>
+   */
+  public PatternNode getUnderscore() {
+    return underscore;
+  }
+
+  /**
+   * Returns the exact string match subtree
+   * 
+   * @return the string subtree, or <code>null</code>
+   */
+  public PatternNode getString() {
+    return string;
+  }
+
+  /**
+   * Returns the star (*) wildcard subtree
+   * 
+   * @return the star subtree, or <code>null</code>
+   */
+  public PatternNode getStar() {
+    return star;
+  }
+
+  @Override
+  public <T> T accept(PatternNodeVisitor<T> visitor) {
+    return visitor.visit(this);
+  }
+
   @Override
   public String toString() {
     StringBuilder sb = new StringBuilder();
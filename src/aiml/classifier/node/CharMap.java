@@ -0,0 +1,317 @@
+/*
+    jaiml - java AIML library
+    Copyright (C) 2026  Kim Sullivan
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    You should have received a copy of the GNU General Public License
+    along with this program; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package aiml.classifier.node;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * A map from <code>char</code> keys to non-null values, that doesn't box the
+ * keys. Depending on the number of keys and how densely they are packed, the
+ * entries are stored in one of three ways:
+ * </p>
+ * <ul>
+ * <li>a pair of sorted arrays, searched by binary search (for a small number
+ * of keys)</li>
+ * <li>a value array indexed directly by the key minus the smallest key (if
+ * the keys are dense)</li>
+ * <li>an open addressing hash table with linear probing (otherwise)</li>
+ * </ul>
+ * <p>
+ * The representation is chosen again whenever the current one runs out of
+ * space, and when an entry is removed.
+ * </p>
+ *
+ * @author Kim Sullivan
+ * @version 1.0
+ *
+ * @param <V>
+ *          the type of the values
+ */
+class CharMap<V> {
+  /** Keys and values in sorted arrays */
+  static final int SORTED = 0;
+
+  /** Values indexed by the key */
+  static final int DIRECT = 1;
+
+  /** Open addressing hash table */
+  static final int HASH = 2;
+
+  /** The largest number of keys stored in sorted arrays */
+  static final int SORTED_LIMIT = 8;
+
+  /**
+   * The keys may be stored directly if the range of the keys is at most this
+   * many times the number of keys
+   */
+  static final int DIRECT_DENSITY = 3;
+
+  /** The current representation */
+  private int mode = SORTED;
+
+  /** The keys (sorted, or a hash table, unused in direct mode) */
+  private char keys[] = new char[2];
+
+  /** The values, in the same positions as the keys (or by key in direct mode) */
+  private Object values[] = new Object[2];
+
+  /** The smallest key in direct mode */
+  private char base;
+
+  /** The number of entries */
+  private int size;
+
+  /**
+   * Returns the value of a key
+   *
+   * @param c
+   *          the key
+   * @return the value, or <code>null</code> if the key isn't in the map
+   */
+  @SuppressWarnings("unchecked")
+  public V get(char c) {
+    switch (mode) {
+    case SORTED: {
+      int i = Arrays.binarySearch(keys, 0, size, c);
+      return (i >= 0 ? (V) values[i] : null);
+    }
+    case DIRECT: {
+      int i = c - base;
+      return (i >= 0 && i < values.length ? (V) values[i] : null);
+    }
+    default:
+      for (int i = slot(c);; i = (i + 1) & (keys.length - 1)) {
+        if (values[i] == null || keys[i] == c) {
+          return (V) values[i];
+        }
+      }
+    }
+  }
+
+  /**
+   * Associates a value with a key
+   *
+   * @param c
+   *          the key
+   * @param value
+   *          the value, must not be <code>null</code>
+   */
+  public void put(char c, V value) {
+    if (value == null) {
+      throw new NullPointerException("Can't store null values in a CharMap");
+    }
+    switch (mode) {
+    case SORTED: {
+      int i = Arrays.binarySearch(keys, 0, size, c);
+      if (i >= 0) {
+        values[i] = value;
+        return;
+      }
+      if (size == SORTED_LIMIT) {
+        break;
+      }
+      i = -(i + 1);
+      if (size == keys.length) {
+        keys = Arrays.copyOf(keys, size * 2);
+        values = Arrays.copyOf(values, size * 2);
+      }
+      System.arraycopy(keys, i, keys, i + 1, size - i);
+      System.arraycopy(values, i, values, i + 1, size - i);
+      keys[i] = c;
+      values[i] = value;
+      size++;
+      return;
+    }
+    case DIRECT: {
+      int i = c - base;
+      if (i >= 0 && i < values.length) {
+        if (values[i] == null) {
+          size++;
+        }
+        values[i] = value;
+        return;
+      }
+      break;
+    }
+    default: {
+      int i = slot(c);
+      while (values[i] != null && keys[i] != c) {
+        i = (i + 1) & (keys.length - 1);
+      }
+      if (values[i] != null) {
+        values[i] = value;
+        return;
+      }
+      if ((size + 1) * 2 <= keys.length) {
+        keys[i] = c;
+        values[i] = value;
+        size++;
+        return;
+      }
+    }
+    }
+    rebuild(c, value);
+  }
+
+  /**
+   * Removes a key from the map. The remaining entries are stored again from
+   * scratch, so this is only meant for occasional use.
+   *
+   * @param c
+   *          the key
+   */
+  @SuppressWarnings("unchecked")
+  public void remove(char c) {
+    if (get(c) == null) {
+      return;
+    }
+    char oldKeys[] = keys();
+    Object oldValues[] = new Object[oldKeys.length];
+    for (int i = 0; i < oldKeys.length; i++) {
+      oldValues[i] = get(oldKeys[i]);
+    }
+    mode = SORTED;
+    keys = new char[2];
+    values = new Object[2];
+    size = 0;
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldKeys[i] != c) {
+        put(oldKeys[i], (V) oldValues[i]);
+      }
+    }
+  }
+
+  /**
+   * Returns the number of entries
+   *
+   * @return the number of entries
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns all the keys, in ascending order
+   *
+   * @return the keys
+   */
+  public char[] keys() {
+    char result[] = new char[size];
+    switch (mode) {
+    case SORTED:
+      System.arraycopy(keys, 0, result, 0, size);
+      break;
+    case DIRECT: {
+      int j = 0;
+      for (int i = 0; i < values.length; i++) {
+        if (values[i] != null) {
+          result[j++] = (char) (base + i);
+        }
+      }
+      break;
+    }
+    default: {
+      int j = 0;
+      for (int i = 0; i < keys.length; i++) {
+        if (values[i] != null) {
+          result[j++] = keys[i];
+        }
+      }
+      Arrays.sort(result);
+    }
+    }
+    return result;
+  }
+
+  /**
+   * Returns the current representation
+   *
+   * @return one of <code>SORTED</code>, <code>DIRECT</code> and
+   *         <code>HASH</code>
+   */
+  int getMode() {
+    return mode;
+  }
+
+  /**
+   * Returns the position in the hash table where the search for a key begins
+   */
+  private int slot(char c) {
+    return (c * 0x9E37) & (keys.length - 1);
+  }
+
+  /**
+   * Stores all the entries and a new one again, in the most appropriate
+   * representation.
+   */
+  private void rebuild(char c, V value) {
+    char oldKeys[] = keys();
+    Object oldValues[] = new Object[oldKeys.length];
+    for (int i = 0; i < oldKeys.length; i++) {
+      oldValues[i] = get(oldKeys[i]);
+    }
+    int count = oldKeys.length + 1;
+    int min = Math.min(c, oldKeys[0]);
+    int max = Math.max(c, oldKeys[oldKeys.length - 1]);
+    if (max - min + 1 <= DIRECT_DENSITY * count) {
+      mode = DIRECT;
+      base = (char) min;
+      keys = null;
+      values = new Object[max - min + 1];
+    } else {
+      mode = HASH;
+      keys = new char[Integer.highestOneBit(count) * 4];
+      values = new Object[keys.length];
+    }
+    size = 0;
+    for (int i = 0; i < oldKeys.length; i++) {
+      putNew(oldKeys[i], oldValues[i]);
+    }
+    putNew(c, value);
+  }
+
+  /**
+   * Stores a key that isn't in the map, when there is enough room for it
+   */
+  private void putNew(char c, Object value) {
+    if (mode == DIRECT) {
+      values[c - base] = value;
+    } else {
+      int i = slot(c);
+      while (values[i] != null) {
+        i = (i + 1) & (keys.length - 1);
+      }
+      keys[i] = c;
+      values[i] = value;
+    }
+    size++;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    sb.append('{');
+    char k[] = keys();
+    for (int i = 0; i < k.length; i++) {
+      if (i > 0) {
+        sb.append(", ");
+      }
+      sb.append(k[i]).append('=').append(get(k[i]));
+    }
+    sb.append('}');
+    return sb.toString();
+  }
+}
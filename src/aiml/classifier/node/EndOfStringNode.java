@@ -16,7 +16,10 @@ package aiml.classifier.node;
 
 import graphviz.Graphviz;
 import aiml.classifier.MatchState;
+import aiml.classifier.NoSuchPathException;
+import aiml.classifier.PaternSequence;
 import aiml.classifier.PatternContextNode;
+import aiml.classifier.TreeMatcher;
 
 /**
  * <p>
@@ -50,6 +53,23 @@ public class EndOfStringNode extends PatternNode {
     super(parent);
     this.next = next;
     type = PatternNode.STRING;
+    updateBounds();
+  }
+
+  /**
+   * Recomputes the bounds from the sub context and the next node,
+   * after the node has been created from the parts of another one.
+   */
+  void updateBounds() {
+    minLength = UNBOUNDED;
+    maxLength = -1;
+    required = -1L;
+    if (subContext != null) {
+      includeBounds(0, 0, 0L);
+    }
+    if (next != null) {
+      includeBounds(0, 0L, next);
+    }
   }
 
   /**
@@ -66,6 +86,7 @@ public class EndOfStringNode extends PatternNode {
     if (depth == pattern.length()) {
       //OK, we can "add" the end of the string;
       //System.out.println("AddEOS");
+      includeBounds(0, 0, 0L);
       return new AddResult(this, this, depth);
 
     } else {
@@ -75,11 +96,29 @@ public class EndOfStringNode extends PatternNode {
       }
       AddResult result = next.add(depth, pattern);
       next = result.root;
+      includeBounds(0, 0L, next);
       result.root = this;
       return result;
     }
   }
 
+  /**
+   * Removes the pattern from itself. If this node no longer terminates a
+   * pattern, it is replaced by its subtree.
+   */
+  public PatternNode remove(int depth, String pattern,
+      PaternSequence.PatternIterator patterns) throws NoSuchPathException {
+    if (depth == pattern.length()) {
+      removeContext(patterns);
+    } else {
+      if (next == null) {
+        throw new NoSuchPathException();
+      }
+      next = next.remove(depth, pattern, patterns);
+    }
+    return (subContext != null ? this : next);
+  }
+
   /**
    * Matches the current context value starting at the depth specified in the
    * match state.
@@ -88,10 +127,11 @@ public class EndOfStringNode extends PatternNode {
    *          MatchState
    * @return boolean
    */
-  public boolean match(MatchState match) {
+  protected boolean matchNode(MatchState match) {
     if (match.depth == match.getContextValue().length()) {
-      //we have a winner, at least for now
-      return subContext.match(match);
+      //we have a winner, at least for now (unless this node only remained
+      //after splitting a string node that didn't end a pattern)
+      return (subContext != null && subContext.match(match));
     } else {
       if (next != null) {
         return next.match(match);
@@ -101,6 +141,54 @@ public class EndOfStringNode extends PatternNode {
     }
   }
 
+  /**
+   * Takes a step of a resumable match: calls the sub context at the end of
+   * the value, the next node otherwise.
+   */
+  public boolean matchStep(TreeMatcher matcher, MatchState match) {
+    if (matcher.getPhase() > 0) {
+      return false;
+    }
+    if (match.depth == match.getContextValue().length()) {
+      if (subContext != null) {
+        matcher.call(subContext, 1);
+        return true;
+      }
+    } else if (next != null) {
+      matcher.call(next, 1);
+      return true;
+    }
+    return false;
+  }
+
+  protected boolean triesWildcard(MatchState match, int depth) {
+    return depth < match.getContextValue().length() && next != null &&
+        next.triesWildcard(match, depth);
+  }
+
+  /**
+   * The end of the string doesn't contribute to the FIRST set, only the next
+   * subtree (if any) does.
+   */
+  @Override
+  public String[] getFirst() {
+    return (next != null ? next.getFirst() : new String[0]);
+  }
+
+  /**
+   * Returns the subtree that is matched if the string hasn't ended yet
+   * 
+   * @return the next node, or <code>null</code>
+   */
+  public PatternNode getNext() {
+    return next;
+  }
+
+  @Override
+  public <T> T accept(PatternNodeVisitor<T> visitor) {
+    return visitor.visit(this);
+  }
+
   public String toString() {
     return "[EOS]" + super.toString() +
         (next != null ? "[EOS.NEXT]" + next.toString() : "");
@@ -14,13 +14,20 @@
 
 package aiml.classifier.node;
 
+import graphviz.Graphviz;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.Map;
 
 import aiml.classifier.MatchState;
+import aiml.classifier.NoSuchPathException;
+import aiml.classifier.PaternSequence;
 import aiml.classifier.Pattern;
 import aiml.classifier.PatternContextNode;
+import aiml.classifier.TreeMatcher;
 
 /**
  * <p>
@@ -29,8 +36,17 @@ import aiml.classifier.PatternContextNode;
  * wildcard matching (apart from being case-insensitive).
  * </p>
  * <p>
- * It consumes the whole rest of the pattern, and so has to be used in
- * conjunction with a "terminal" node like EndOfStringNode.
+ * It consumes the whole rest of the pattern, so it is only created for
+ * pattern suffixes that contain no wildcards. Every stored (normalized) suffix
+ * maps to an EndOfStringNode that holds its sub context, matching is a single
+ * map lookup of the rest of the context value. If a pattern with a wildcard is
+ * later added through this node, it is converted back into an ordinary tree of
+ * string nodes, which is then split as usual.
+ * </p>
+ * <p>
+ * The patterns are kept in an open addressing hash table, with the hash codes
+ * of the strings, so that the rest of a context value can be looked up in
+ * place, without copying it.
  * </p>
  * 
  * @author Kim Sullivan
@@ -38,17 +54,31 @@ import aiml.classifier.PatternContextNode;
  */
 
 public class HashMapNode extends PatternNode {
-  private HashMap<String, PatternNode> map = new HashMap<String, PatternNode>();
+  /** The stored (normalized) patterns, in a table with linear probing */
+  private String labels[] = new String[4];
+
+  /** The subtrees of the stored patterns, in the slots of their labels */
+  private PatternNode nodes[] = new PatternNode[4];
+
+  /** The number of stored patterns */
+  private int size;
+
+  /**
+   * The lengths of the stored patterns
+   */
+  private BitSet lengths = new BitSet();
 
   /**
    * Creates a new hash map pattern node
    */
   public HashMapNode(PatternContextNode parent) {
     super(parent);
+    type = PatternNode.STRING;
   }
 
   /**
-   * Adds the rest of the pattern to a hashmap.
+   * Adds the rest of the pattern to a hashmap. If the rest of the pattern
+   * contains a wildcard, the node is converted to a tree first.
    * 
    * @param depth
    *          int
@@ -57,45 +87,237 @@ public class HashMapNode extends PatternNode {
    * @return AddResult
    */
   public AddResult add(int depth, String pattern) {
-    AddResult result;
-    PatternNodeFactory patternNodeFactory = parentContext.getPNF();
-    pattern = Pattern.normalize(pattern.substring(depth));
-
-    PatternNode node = map.get(pattern);
-    depth += pattern.length();
-    if (node == null) {
-      node = patternNodeFactory.getInstance(parentContext, depth, pattern);
+    if (Pattern.nextWildcard(depth, pattern) != -1) {
+      return toTree().add(depth, pattern);
     }
-    result = node.add(depth, pattern);
-    map.put(pattern, result.root);
+    String s = Pattern.normalize(pattern.substring(depth));
 
+    int slot = find(s, 0);
+    PatternNode node;
+    if (slot >= 0) {
+      node = nodes[slot];
+    } else {
+      node = new EndOfStringNode(parentContext);
+      put(intern(s), node);
+      lengths.set(s.length());
+    }
+    AddResult result = node.add(pattern.length(), pattern);
+    includeBounds(s.length(), Pattern.signature(s), node);
     result.root = this;
     return result;
+  }
+
+  /**
+   * Removes the rest of the pattern from the hashmap.
+   * 
+   * @param depth
+   *          int
+   * @param pattern
+   *          String
+   * @param patterns
+   *          the remaining patterns in the sequence
+   * @return this node, the end of string node of the empty pattern if it's
+   *         the only one left, or <code>null</code> if the map is empty
+   */
+  public PatternNode remove(int depth, String pattern,
+      PaternSequence.PatternIterator patterns) throws NoSuchPathException {
+    int slot = -1;
+    if (Pattern.nextWildcard(depth, pattern) == -1) {
+      slot = find(Pattern.normalize(pattern.substring(depth)), 0);
+    }
+    if (slot < 0) {
+      throw new NoSuchPathException();
+    }
+    nodes[slot].removeContext(patterns);
+    if (nodes[slot].subContext == null) {
+      delete(slot);
+      updateBounds();
+    }
+    if (size == 1 && (slot = find("", 0)) >= 0) {
+      return nodes[slot];
+    }
+    return (size == 0 ? null : this);
+  }
+
+  /**
+   * Looks up the rest of a string, starting at a position, without copying
+   * it
+   * 
+   * @return the slot of the pattern, or -1 if it isn't stored
+   */
+  private int find(String value, int from) {
+    int length = value.length() - from;
+    int hash = 0;
+    if (from == 0) {
+      hash = value.hashCode();
+    } else {
+      for (int i = from; i < value.length(); i++) {
+        hash = 31 * hash + value.charAt(i);
+      }
+    }
+    int mask = labels.length - 1;
+    int slot = slot(hash, mask);
+    while (labels[slot] != null) {
+      String label = labels[slot];
+      if (label.hashCode() == hash && label.length() == length &&
+          value.regionMatches(from, label, 0, length)) {
+        return slot;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the first slot to probe for a hash code
+   */
+  private static int slot(int hash, int mask) {
+    return (hash ^ (hash >>> 16)) & mask;
+  }
+
+  /**
+   * Stores a new pattern, growing the table so that it's at most half full
+   */
+  private void put(String label, PatternNode node) {
+    if ((size + 1) * 2 > labels.length) {
+      resize(labels.length * 2);
+    }
+    insert(label, node);
+    size++;
+  }
+
+  /**
+   * Stores a pattern in the first free slot of its probe sequence
+   */
+  private void insert(String label, PatternNode node) {
+    int mask = labels.length - 1;
+    int slot = slot(label.hashCode(), mask);
+    while (labels[slot] != null) {
+      slot = (slot + 1) & mask;
+    }
+    labels[slot] = label;
+    nodes[slot] = node;
+  }
+
+  /**
+   * Deletes the pattern in a slot, and moves the patterns after it in the
+   * same cluster, so that they can still be found
+   */
+  private void delete(int slot) {
+    int mask = labels.length - 1;
+    labels[slot] = null;
+    nodes[slot] = null;
+    size--;
+    for (int i = (slot + 1) & mask; labels[i] != null; i = (i + 1) & mask) {
+      String label = labels[i];
+      PatternNode node = nodes[i];
+      labels[i] = null;
+      nodes[i] = null;
+      insert(label, node);
+    }
+    if (labels.length > 4 && size * 8 <= labels.length) {
+      resize(labels.length / 2);
+    }
+  }
+
+  /**
+   * Moves the patterns to a table of a new size (a power of two)
+   */
+  private void resize(int capacity) {
+    String oldLabels[] = labels;
+    PatternNode oldNodes[] = nodes;
+    labels = new String[capacity];
+    nodes = new PatternNode[capacity];
+    for (int i = 0; i < oldLabels.length; i++) {
+      if (oldLabels[i] != null) {
+        insert(oldLabels[i], oldNodes[i]);
+      }
+    }
+  }
+
+  /**
+   * Recomputes the lengths and the bounds from the stored patterns, after a
+   * pattern has been removed (adding a pattern only widens them).
+   */
+  private void updateBounds() {
+    lengths.clear();
+    minLength = UNBOUNDED;
+    maxLength = -1;
+    required = -1L;
+    for (int i = 0; i < labels.length; i++) {
+      if (labels[i] != null) {
+        lengths.set(labels[i].length());
+        includeBounds(labels[i].length(), Pattern.signature(labels[i]),
+            nodes[i]);
+      }
+    }
+  }
+
+  /**
+   * Converts the stored patterns into an equivalent tree of string nodes,
+   * keeping their sub contexts.
+   * 
+   * @return the root of the new tree
+   */
+  private PatternNode toTree() {
+    PatternNode root = null;
+    PatternNode end = null;
+    for (int i = 0; i < labels.length; i++) {
+      if (labels[i] == null) {
+        continue;
+      }
+      if (labels[i].length() == 0) {
+        end = nodes[i];
+      } else {
+        if (root == null) {
+          root = new StringNode(parentContext);
+        }
+        root = graft(root, labels[i], nodes[i]);
+      }
+    }
+    if (end != null) {
+      root = (root != null ? graft(root, "", end) : end);
+    }
+    return root;
+  }
 
+  /**
+   * Adds a stored pattern to the tree, and moves the sub context of its old
+   * leaf to the new leaf.
+   */
+  private static PatternNode graft(PatternNode root, String pattern,
+      PatternNode leaf) {
+    AddResult result = root.add(0, pattern);
+    result.leaf.subContext = leaf.subContext;
+    return result.root;
   }
 
   /**
    * Matches the current context value starting at the depth specified in the
-   * match state. This method preforms a simple map lookup to determine a match,
-   * no wildcards are processed.
+   * match state. This method preforms a simple table lookup of the rest of the
+   * context value to determine a match, no wildcards are processed.
    * 
    * @param match
    *          the match state
    * @return <code>true</code> if the match was successful; <code>false</code>
    *         if not
    */
-  public boolean match(MatchState match) {
-    //Match
-    String s = Pattern.normalize(match.getContextValue().substring(match.depth));
-    PatternNode node = map.get(s);
+  protected boolean matchNode(MatchState match) {
+    String value = match.getContextValue();
+    int length = value.length() - match.depth;
+    if (!lengths.get(length)) {
+      return false;
+    }
+    int slot = find(value, match.depth);
     //match is "done" check result:
-    if (node != null) {
-      match.depth += s.length();
+    if (slot >= 0) {
+      PatternNode node = nodes[slot];
+      match.depth += length;
       if (node.match(match)) {
         return true;
       } else {
         //restore the previous match state
-        match.depth -= s.length();
+        match.depth -= length;
         return false;
       }
     } else {
@@ -103,28 +325,109 @@ public class HashMapNode extends PatternNode {
     }
   }
 
+  /**
+   * Takes a step of a resumable match: calls the node of the rest of the
+   * value, if it's in the map.
+   */
+  public boolean matchStep(TreeMatcher matcher, MatchState match) {
+    if (matcher.getPhase() > 0) {
+      match.depth = matcher.getDepth();
+      return false;
+    }
+    String value = match.getContextValue();
+    int length = value.length() - match.depth;
+    if (!lengths.get(length)) {
+      return false;
+    }
+    int slot = find(value, match.depth);
+    if (slot < 0) {
+      return false;
+    }
+    match.depth += length;
+    matcher.call(nodes[slot], 1);
+    return true;
+  }
+  /**
+   * The stored patterns don't contain wildcards.
+   */
+  protected boolean triesWildcard(MatchState match, int depth) {
+    return false;
+  }
+
+
+  /**
+   * The FIRST set are the stored patterns themselves (the empty pattern can
+   * only be matched at the end of the string).
+   */
+  @Override
+  public String[] getFirst() {
+    ArrayList<String> first = new ArrayList<String>(size);
+    for (String s : labels) {
+      if (s != null && s.length() > 0) {
+        first.add(s);
+      }
+    }
+    return first.toArray(new String[first.size()]);
+  }
+
+  /**
+   * Returns an unmodifiable copy of the stored (normalized) patterns and their
+   * subtrees
+   * 
+   * @return the stored patterns
+   */
+  public Map<String, PatternNode> getBranches() {
+    Map<String, PatternNode> map = new HashMap<String, PatternNode>(size * 2);
+    for (int i = 0; i < labels.length; i++) {
+      if (labels[i] != null) {
+        map.put(labels[i], nodes[i]);
+      }
+    }
+    return Collections.unmodifiableMap(map);
+  }
+
+  @Override
+  public <T> T accept(PatternNodeVisitor<T> visitor) {
+    return visitor.visit(this);
+  }
+
   public String toString() {
-    Iterator i = map.entrySet().iterator();
     StringBuffer result = new StringBuffer();
-    while (i.hasNext()) {
-      Map.Entry me = (Map.Entry) i.next();
-      PatternNode subnode = (PatternNode) me.getValue();
-      result.append("[" + me.getKey() + "]" + subnode + "\n");
-
+    for (int i = 0; i < labels.length; i++) {
+      if (labels[i] != null) {
+        result.append("[" + labels[i] + "]" + nodes[i] + "\n");
+      }
     }
     return result.toString();
   }
 
+  @Override
+  public void gvNodes(Graphviz graph) {
+    graph.node(gvNodeID(), "label", "#");
+  }
+
+  @Override
+  public void gvInternalGraph(Graphviz graph) {
+    for (int i = 0; i < labels.length; i++) {
+      if (labels[i] != null) {
+        graph.connectGraph(this, nodes[i], ("'" + labels[i] + "'"));
+      }
+    }
+  }
+
   /**
-   * Register this node type in PatternNodeFactory.
+   * Register this node type in PatternNodeFactory. The node is only created
+   * for the rest of a pattern that contains no wildcards, so it has to be
+   * registered before the other string nodes.
    * 
-   * @param classifier
-   *          TODO
+   * @param patternNodeFactory
+   *          the factory
    */
   public static void register(PatternNodeFactory patternNodeFactory) {
     patternNodeFactory.registerNode(new Creatable() {
       public boolean canCreate(int depth, String pattern) {
-        return (depth != pattern.length());
+        return (depth != pattern.length() && Pattern.nextWildcard(depth,
+            pattern) == -1);
       }
 
       public PatternNode getInstance(PatternContextNode parentContextNode) {
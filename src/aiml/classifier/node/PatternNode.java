@@ -16,12 +16,17 @@ package aiml.classifier.node;
 
 import graphviz.Graphviz;
 import graphviz.GraphvizNode;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
 import aiml.classifier.ContextNode;
 import aiml.classifier.DuplicatePathException;
 import aiml.classifier.LeafContextNode;
 import aiml.classifier.MatchState;
+import aiml.classifier.NoSuchPathException;
 import aiml.classifier.PaternSequence;
 import aiml.classifier.PatternContextNode;
+import aiml.classifier.TreeMatcher;
 
 /**
  * <p>
@@ -54,6 +59,11 @@ public abstract class PatternNode implements GraphvizNode {
    */
   public static final int OTHER = -1;
 
+  /**
+   * The maximum length of a subtree that can match any number of characters
+   */
+  public static final int UNBOUNDED = Integer.MAX_VALUE;
+
   /**
    * The type of this node. I feel it is better to express the type with numbers
    * instead of the class hierarchy, because star and underscore are implemented
@@ -72,15 +82,51 @@ public abstract class PatternNode implements GraphvizNode {
    */
   protected PatternContextNode parentContext;
 
+  /**
+   * The fewest characters of the context value that have to remain (from the
+   * current depth to the end) for this subtree to match. A new node that
+   * hasn't been added to yet can't match anything, and has a minimum of
+   * {@link #UNBOUNDED}.
+   */
+  protected int minLength = UNBOUNDED;
+
+  /**
+   * The most characters of the context value that may remain for this
+   * subtree to match, {@link #UNBOUNDED} if it contains a wildcard, -1 for a
+   * new node that hasn't been added to yet.
+   */
+  protected int maxLength = -1;
+
+  /**
+   * The signature of the characters (see
+   * {@link aiml.classifier.Pattern#signature(char)}) that every match of this
+   * subtree consumes from the rest of the context value, i.e. the letters of
+   * the literals on every path through the subtree. A new node that hasn't
+   * been added to yet can't match anything, and requires every character.
+   */
+  protected long required = -1L;
+
   /**
    * A unique node identifier, used for node output
    */
-  private static int gvMaxId = 0;
+  private static AtomicInteger gvMaxId = new AtomicInteger();
   private int gvId;
 
   public PatternNode(PatternContextNode parent) {
     this.parentContext = parent;
-    gvId = gvMaxId++;
+    gvId = gvMaxId.getAndIncrement();
+  }
+
+  /**
+   * Returns the pooled copy of a string that is going to be kept in this node
+   * (see {@link aiml.classifier.Classifier#getStringPool()})
+   * 
+   * @param s
+   *          the string
+   * @return the pooled string
+   */
+  protected String intern(String s) {
+    return parentContext.getClassifier().getStringPool().intern(s);
   }
 
   /**
@@ -146,13 +192,249 @@ public abstract class PatternNode implements GraphvizNode {
    * match state.
    * </p>
    * 
+   * <p>
+   * If the node can't match (see {@link #enter(MatchState)}), the match
+   * fails right away, and the node isn't even entered. Otherwise the match
+   * state is notified when the node is entered and left (see
+   * {@link MatchState#enterNode(Object)}), the actual matching is done by
+   * {@link #matchNode(MatchState)}.
+   * </p>
+   * 
    * @param match
    *          the match state
    * @return <code>true</code> if the match was successful; <code>false</code>
    *         if not
    */
+  public final boolean match(MatchState match) {
+    if (!enter(match)) {
+      return false;
+    }
+    boolean matched = matchNode(match);
+    match.leaveNode(this, matched);
+    return matched;
+  }
 
-  public abstract boolean match(MatchState match);
+  /**
+   * Enters this node at the depth specified in the match state, unless it
+   * can't match. If the rest of the context value is too short or too long
+   * for this subtree (see {@link #getMinLength()}), or lacks some of the
+   * characters the subtree requires (see {@link #getRequired()}), the node
+   * isn't entered. If the subtree would have tried a wildcard before
+   * failing, this is recorded in the match state, so that the "don't care"
+   * wildcards stay the same. Otherwise the match state is notified that the
+   * node is entered (see {@link MatchState#enterNode(Object)}).
+   * 
+   * @param match
+   *          the match state
+   * @return <code>true</code> if the node has been entered
+   */
+  public final boolean enter(MatchState match) {
+    int remaining = match.getContextValue().length() - match.depth;
+    if (remaining < minLength || remaining > maxLength ||
+        (required != 0 && (required & ~match.getSignature(match.depth)) != 0)) {
+      if (!match.isWildcardTried() && triesWildcard(match, match.depth)) {
+        match.skipWildcard();
+      }
+      return false;
+    }
+    match.enterNode(this);
+    return true;
+  }
+
+  /**
+   * <p>
+   * Matches the current context value starting at the depth specified in the
+   * match state. If the match fails, the match state has to be left the same
+   * as before.
+   * </p>
+   * 
+   * @param match
+   *          the match state
+   * @return <code>true</code> if the match was successful; <code>false</code>
+   *         if not
+   */
+  protected abstract boolean matchNode(MatchState match);
+
+  /**
+   * <p>
+   * Takes a step of a resumable match (see {@link TreeMatcher}), the
+   * counterpart of {@link #matchNode(MatchState)}, which it follows. Instead
+   * of matching a child, the step passes it to
+   * {@link TreeMatcher#call(PatternNode, int)} or
+   * {@link TreeMatcher#call(ContextNode, int)} together with the phase of the
+   * next step, and returns; the next step comes once the child has failed.
+   * State that a recursive match keeps in local variables is kept by the
+   * matcher (see {@link TreeMatcher#getDepth()} and
+   * {@link TreeMatcher#getIndex()}).
+   * </p>
+   * 
+   * <p>
+   * The alternatives are always tried one by one. If the node fails, the
+   * match state has to be left the same as before its first step.
+   * </p>
+   * 
+   * @param matcher
+   *          the matcher, which keeps the phase of the node
+   * @param match
+   *          the match state
+   * @return <code>true</code> if a child was called; <code>false</code> if
+   *         the node has failed
+   */
+  public abstract boolean matchStep(TreeMatcher matcher, MatchState match);
+
+  /**
+   * <p>
+   * Returns <code>true</code> if matching this subtree at a depth would begin
+   * a wildcard in the current context, before the match fails. This is only
+   * asked when the subtree has been skipped because of its bounds, so
+   * the match is known to fail, and its sub contexts can't be reached.
+   * </p>
+   * 
+   * <p>
+   * Implementations follow the literals of the subtree like
+   * {@link #matchNode(MatchState)} would, without modifying the match state,
+   * and stop at the first wildcard.
+   * </p>
+   * 
+   * @param match
+   *          the match state
+   * @param depth
+   *          the depth in the current context value
+   * @return <code>true</code> if a wildcard would be tried
+   */
+  protected abstract boolean triesWildcard(MatchState match, int depth);
+
+  /**
+   * <p>
+   * Widens the bounds of this subtree, so that they include a new way to
+   * match: the length bounds are widened, and the required characters are
+   * narrowed down to those the new way consumes as well. The bounds are
+   * updated this way by {@link #add(int, String)}, on the way back from the
+   * added leaf; adding a pattern can only widen them. Removing a pattern
+   * leaves them as they are in most nodes: they may be wider than necessary
+   * afterwards, but are still correct. Nodes that hold many patterns (like
+   * {@link HashMapNode}) recompute them instead.
+   * </p>
+   * 
+   * @param min
+   *          the fewest characters that have to remain for the new way to
+   *          match
+   * @param max
+   *          the most characters that may remain, or {@link #UNBOUNDED}
+   * @param signature
+   *          the signature of the characters the new way consumes
+   */
+  protected void includeBounds(int min, int max, long signature) {
+    minLength = Math.min(minLength, min);
+    maxLength = Math.max(maxLength, max);
+    required &= signature;
+  }
+
+  /**
+   * Widens the bounds of this subtree, so that they include matching
+   * <code>length</code> characters, and then the subtree of
+   * <code>node</code>.
+   * 
+   * @param length
+   *          the number of characters consumed by this node
+   * @param signature
+   *          the signature of the characters consumed by this node
+   * @param node
+   *          the node matched next
+   */
+  protected void includeBounds(int length, long signature, PatternNode node) {
+    includeBounds(sum(length, node.minLength), sum(length, node.maxLength),
+        signature | node.required);
+  }
+
+  /**
+   * Widens the bounds of this subtree, so that they include matching at
+   * least <code>length</code> characters, and then the subtree of
+   * <code>node</code> (e.g. a wildcard followed by a node).
+   * 
+   * @param length
+   *          the fewest characters consumed by this node
+   * @param signature
+   *          the signature of the characters always consumed by this node
+   * @param node
+   *          the node matched next
+   */
+  protected void includeUnbounded(int length, long signature,
+      PatternNode node) {
+    includeBounds(sum(length, node.minLength), UNBOUNDED,
+        signature | node.required);
+  }
+
+  /**
+   * Returns the sum of two lengths, which is {@link #UNBOUNDED} if either of
+   * them is
+   */
+  private static int sum(int a, int b) {
+    return (a == UNBOUNDED || b == UNBOUNDED ? UNBOUNDED : a + b);
+  }
+
+  /**
+   * Returns the fewest characters of the context value that have to remain
+   * from the current depth for this subtree to match. Nodes further down the
+   * trie can't be reached if there are fewer characters left.
+   * 
+   * @return the minimum remaining length
+   */
+  public int getMinLength() {
+    return minLength;
+  }
+
+  /**
+   * Returns the most characters of the context value that may remain from
+   * the current depth for this subtree to match.
+   * 
+   * @return the maximum remaining length, {@link #UNBOUNDED} if the subtree
+   *         contains a wildcard
+   */
+  public int getMaxLength() {
+    return maxLength;
+  }
+
+  /**
+   * Returns the signature of the characters that every match of this subtree
+   * consumes (see {@link aiml.classifier.Pattern#signature(char)}). Nodes
+   * further down the trie can't be reached if the rest of the context value
+   * lacks some of them.
+   * 
+   * @return the signature of the required characters
+   */
+  public long getRequired() {
+    return required;
+  }
+
+  /**
+   * <p>
+   * Removes the <code>pattern</code> from itself, together with the remaining
+   * patterns in the sequence from its sub context. This follows the same path
+   * through the tree as {@link #add(int, String)}. On the way back, nodes that
+   * are no longer needed are pruned, and nodes that became simpler are
+   * collapsed or merged with their subtrees, so that the result matches like
+   * a tree where the pattern was never added.
+   * </p>
+   * 
+   * <p>
+   * If the pattern isn't in the tree, an exception is thrown before anything
+   * is modified.
+   * </p>
+   * 
+   * @param depth
+   *          the current depth, or position in the pattern
+   * @param pattern
+   *          the whole currently removed pattern
+   * @param patterns
+   *          the remaining patterns in the sequence
+   * @return the node that replaces this node, or <code>null</code> if nothing
+   *         remains
+   * @throws NoSuchPathException
+   *           if the pattern sequence isn't in the tree
+   */
+  public abstract PatternNode remove(int depth, String pattern,
+      PaternSequence.PatternIterator patterns) throws NoSuchPathException;
 
   /**
    * <p>
@@ -179,6 +461,66 @@ public abstract class PatternNode implements GraphvizNode {
     }
   }
 
+  /**
+   * <p>
+   * Removes the remaining patterns in the sequence from the sub context of this
+   * pattern node. This is called by the node where the removed pattern ends.
+   * </p>
+   * 
+   * @param patterns
+   *          the remaining patterns in the sequence
+   * @throws NoSuchPathException
+   *           if this node doesn't end a pattern, or the sub context doesn't
+   *           contain the remaining patterns
+   */
+  protected void removeContext(PaternSequence.PatternIterator patterns)
+      throws NoSuchPathException {
+    if (subContext == null) {
+      throw new NoSuchPathException();
+    }
+    subContext = subContext.remove(patterns);
+  }
+
+  /**
+   * Accepts a visitor, by calling the <code>visit()</code> method appropriate
+   * for the class of this node.
+   * 
+   * @param visitor
+   *          the visitor
+   * @return the result of the visit
+   */
+  public abstract <T> T accept(PatternNodeVisitor<T> visitor);
+
+  /**
+   * <p>
+   * Returns the FIRST set of this node: the literals that a successful match
+   * of this subtree must start with, unless it starts at the end of the
+   * context value. Wildcard nodes use this as a look-ahead, to skip positions
+   * in the input where matching the following nodes can't succeed.
+   * </p>
+   * 
+   * <p>
+   * The default implementation returns <code>null</code>, which means that
+   * the subtree can start with anything (e.g. with a wildcard).
+   * </p>
+   * 
+   * @return the possible beginnings of a match, or <code>null</code> if a
+   *         match can begin with anything
+   */
+  public String[] getFirst() {
+    return null;
+  }
+
+  /**
+   * Returns the sub context of this node (applicable if this node terminates a
+   * pattern).
+   * 
+   * @return the sub context, or <code>null</code>
+   */
+  public ContextNode getSubContext() {
+    return subContext;
+  }
+
   /**
    * Returns the type of this pattern node
    * 
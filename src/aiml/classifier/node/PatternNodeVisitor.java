@@ -0,0 +1,46 @@
+/*
+    jaiml - java AIML library
+    Copyright (C) 2026  Kim Sullivan
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    You should have received a copy of the GNU General Public License
+    along with this program; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package aiml.classifier.node;
+
+/**
+ * <p>
+ * A visitor of pattern nodes. It allows code outside of the node classes (for
+ * example, compilers of the pattern tree into other representations) to
+ * process each node type differently without resorting to
+ * <code>instanceof</code> chains.
+ * </p>
+ * 
+ * @author Kim Sullivan
+ * @version 1.0
+ * @param <T>
+ *          the result type of the visit
+ */
+public interface PatternNodeVisitor<T> {
+  public T visit(BranchNode node);
+
+  public T visit(StringNode node);
+
+  public T visit(StringBranchNode node);
+
+  public T visit(WildcardNode node);
+
+  public T visit(EndOfStringNode node);
+
+  public T visit(HashMapNode node);
+
+  public T visit(WordNode node);
+
+  public T visit(WordWildcardNode node);
+}
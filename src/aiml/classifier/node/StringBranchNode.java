@@ -16,12 +16,12 @@ package aiml.classifier.node;
 
 import graphviz.Graphviz;
 
-import java.util.HashMap;
-import java.util.Map.Entry;
-
 import aiml.classifier.MatchState;
+import aiml.classifier.NoSuchPathException;
+import aiml.classifier.PaternSequence;
 import aiml.classifier.Pattern;
 import aiml.classifier.PatternContextNode;
+import aiml.classifier.TreeMatcher;
 
 /**
  * A single character branch in the strings portion of the pattern tree. All by
@@ -37,7 +37,7 @@ public class StringBranchNode extends PatternNode {
   /**
    * a map to store the branches
    */
-  private HashMap<Character, PatternNode> map = new HashMap<Character, PatternNode>();
+  private CharMap<PatternNode> map = new CharMap<PatternNode>();
 
   /**
    * Create a new empty string branch node. The type is PatternNode.STRING
@@ -52,6 +52,7 @@ public class StringBranchNode extends PatternNode {
     type = PatternNode.STRING;
     char c = node.getPattern().charAt(0); //this is safe, because a stringnode always represents at least 1 character
     map.put(c, node.removePrefix(1));
+    includeBounds(1, Pattern.signature(c), map.get(c));
 
   }
 
@@ -88,16 +89,61 @@ public class StringBranchNode extends PatternNode {
     }
     result = node.add(depth, pattern);
     map.put(c, result.root);
+    includeBounds(1, Pattern.signature(c), result.root);
     result.root = this;
     return result;
 
   }
 
-  public boolean match(MatchState match) {
+  /**
+   * Removes the pattern from itself. When only a single branch remains, and a
+   * string node would match the same, the branch node is converted back into a
+   * string node.
+   */
+  public PatternNode remove(int depth, String pattern,
+      PaternSequence.PatternIterator patterns) throws NoSuchPathException {
+    if (depth == pattern.length() || Pattern.isWildcard(depth, pattern)) {
+      throw new NoSuchPathException();
+    }
+    char c = Pattern.normalize(pattern.charAt(depth));
+    PatternNode node = map.get(c);
+    if (node == null) {
+      throw new NoSuchPathException();
+    }
+    node = node.remove(depth + 1, pattern, patterns);
+    if (node == null) {
+      map.remove(c);
+    } else {
+      map.put(c, node);
+    }
+
+    if (map.size() != 1) {
+      return (map.size() == 0 ? null : this);
+    }
+    c = map.keys()[0];
+    node = map.get(c);
+    if (node instanceof StringNode) {
+      ((StringNode) node).addPrefix(String.valueOf(c));
+      return node;
+    }
+    if (node instanceof EndOfStringNode) {
+      //unlike a branch node, a string node doesn't try the next node at the
+      //end of the string, so this is only the same for string nodes
+      EndOfStringNode eos = (EndOfStringNode) node;
+      String label = intern(String.valueOf(c));
+      StringNode result = new StringNode(parentContext, label, eos.next);
+      result.subContext = eos.subContext;
+      result.updateBounds();
+      return result;
+    }
+    return this;
+  }
+
+  protected boolean matchNode(MatchState match) {
     //Match
     char c;
     try {
-      c = Pattern.normalize(match.getContextValue().charAt(match.depth));
+      c = match.getContextValue().charAt(match.depth);
     } catch (StringIndexOutOfBoundsException e) {
       return false; //the current context is an empty string
     }
@@ -117,6 +163,72 @@ public class StringBranchNode extends PatternNode {
     }
   }
 
+  /**
+   * Takes a step of a resumable match: calls the node of the character at the
+   * current depth.
+   */
+  public boolean matchStep(TreeMatcher matcher, MatchState match) {
+    if (matcher.getPhase() > 0) {
+      match.depth = matcher.getDepth();
+      return false;
+    }
+    String value = match.getContextValue();
+    if (match.depth == value.length()) {
+      return false; //the current context is an empty string
+    }
+    PatternNode node = map.get(value.charAt(match.depth));
+    if (node == null) {
+      return false;
+    }
+    match.depth++;
+    matcher.call(node, 1);
+    return true;
+  }
+  protected boolean triesWildcard(MatchState match, int depth) {
+    String cValue = match.getContextValue();
+    if (depth == cValue.length()) {
+      return false;
+    }
+    PatternNode node = map.get(cValue.charAt(depth));
+    return node != null && node.triesWildcard(match, depth + 1);
+  }
+
+
+  /**
+   * Returns the characters of all the branches, in ascending order
+   * 
+   * @return the branch characters
+   */
+  public char[] getCharacters() {
+    return map.keys();
+  }
+
+  @Override
+  public String[] getFirst() {
+    char characters[] = map.keys();
+    String first[] = new String[characters.length];
+    for (int i = 0; i < characters.length; i++) {
+      first[i] = String.valueOf(characters[i]);
+    }
+    return first;
+  }
+
+  /**
+   * Returns the branch for a character
+   * 
+   * @param c
+   *          the character
+   * @return the subtree, or <code>null</code> if there is no such branch
+   */
+  public PatternNode getBranch(char c) {
+    return map.get(c);
+  }
+
+  @Override
+  public <T> T accept(PatternNodeVisitor<T> visitor) {
+    return visitor.visit(this);
+  }
+
   /**
    * Register this node type in PatternNodeFactory.
    * 
@@ -151,8 +263,8 @@ public class StringBranchNode extends PatternNode {
 
   @Override
   public void gvInternalGraph(Graphviz graph) {
-    for (Entry<Character, PatternNode> branch : map.entrySet()) {
-      graph.connectGraph(this, branch.getValue(), ("'" + branch.getKey() + "'"));
+    for (char c : map.keys()) {
+      graph.connectGraph(this, map.get(c), ("'" + c + "'"));
     }
   }
 }
@@ -16,8 +16,11 @@ package aiml.classifier.node;
 
 import graphviz.Graphviz;
 import aiml.classifier.MatchState;
+import aiml.classifier.NoSuchPathException;
+import aiml.classifier.PaternSequence;
 import aiml.classifier.Pattern;
 import aiml.classifier.PatternContextNode;
+import aiml.classifier.TreeMatcher;
 
 /**
  * A single string node. This represents a "compressed" part of the tree, with
@@ -62,6 +65,25 @@ public class StringNode extends PatternNode {
     type = PatternNode.STRING;
     s = pattern;
     this.next = next;
+    updateBounds();
+  }
+
+  /**
+   * Recomputes the bounds from the pattern, the sub context and the
+   * next node, after the pattern has changed or the node has been created
+   * from the parts of another one. A string node tries its sub context only
+   * at the end of the context value, and its next node only before it.
+   */
+  void updateBounds() {
+    minLength = UNBOUNDED;
+    maxLength = -1;
+    required = -1L;
+    if (subContext != null) {
+      includeBounds(s.length(), s.length(), Pattern.signature(s));
+    }
+    if (next != null) {
+      includeBounds(s.length(), Pattern.signature(s), next);
+    }
   }
 
   /**
@@ -103,7 +125,7 @@ public class StringNode extends PatternNode {
 
     int plength;
     if (s == null) { //could it be we're just initializing this node for the first time?
-      s = thissegment;
+      s = intern(thissegment);
       plength = s.length();
       /*now I could properly finish initialization, but this would only
        duplicate the code from the next case, so let's combine them.*/
@@ -114,6 +136,7 @@ public class StringNode extends PatternNode {
     if (plength == s.length()) { //the most simple case, no splitting necessary, just add the rest.
       depth += plength;
       if (depth == pattern.length()) { //even better, we're practically done. there are no remaining characters in the pattern
+        includeBounds(s.length(), s.length(), Pattern.signature(s));
         result = new AddResult(this, this, depth);
       } else { //we still have to add the rest of the pattern
         if (next == null) {
@@ -121,6 +144,7 @@ public class StringNode extends PatternNode {
         }
         result = next.add(depth, pattern);
         next = result.root;
+        includeBounds(s.length(), Pattern.signature(s), next);
         result.root = this;
       }
       return result;
@@ -135,9 +159,11 @@ public class StringNode extends PatternNode {
     //assert(plength>0&&plength<s.length())
     //split prefix
     depth += plength;
-    PatternNode node = new StringNode(parentContext, thissegment.substring(0,
-        plength), this.removePrefix(plength));
+    String prefix = intern(thissegment.substring(0, plength));
+    PatternNode node = new StringNode(parentContext, prefix,
+        this.removePrefix(plength));
     if (depth == pattern.length()) { //the new node is the final one, don't create unnecessary EOS nodes...
+      node.includeBounds(plength, plength, Pattern.signature(prefix));
       result = new AddResult(node, node, depth);
     } else {
 
@@ -148,11 +174,56 @@ public class StringNode extends PatternNode {
 
   }
 
-  public boolean match(MatchState match) {
-    String cValue = Pattern.normalize(match.getContextValue());
-    int plength = Pattern.prefixLength(cValue.substring(match.depth), s);
-    //String thissegment = cValue.substring(match.depth, match.depth + s.length());
-    if (plength == s.length()) { //match, so try it
+  /**
+   * Removes the pattern from itself. If this node no longer terminates a
+   * pattern, it is merged with the next node if that's a string node, or
+   * removed if there's no next node.
+   */
+  public PatternNode remove(int depth, String pattern,
+      PaternSequence.PatternIterator patterns) throws NoSuchPathException {
+    if (depth == pattern.length() || Pattern.isWildcard(depth, pattern)) {
+      throw new NoSuchPathException();
+    }
+    int nextw = Pattern.nextWildcard(depth, pattern);
+    String thissegment;
+    if (nextw == -1) {
+      thissegment = Pattern.normalize(pattern.substring(depth));
+    } else {
+      thissegment = Pattern.normalize(pattern.substring(depth, nextw));
+    }
+    if (Pattern.prefixLength(s, thissegment) != s.length()) {
+      throw new NoSuchPathException();
+    }
+
+    depth += s.length();
+    if (depth == pattern.length()) {
+      removeContext(patterns);
+    } else {
+      if (next == null) {
+        throw new NoSuchPathException();
+      }
+      next = next.remove(depth, pattern, patterns);
+    }
+
+    if (subContext != null) {
+      return this;
+    }
+    if (next == null) {
+      return null;
+    }
+    if (next instanceof StringNode) {
+      ((StringNode) next).addPrefix(s);
+      return next;
+    }
+    return this;
+  }
+
+  protected boolean matchNode(MatchState match) {
+    String cValue = match.getContextValue();
+    //compare in place, copying the rest of the value would cost more than the
+    //comparison itself
+    int plength = s.length();
+    if (cValue.startsWith(s, match.depth)) { //match, so try it
       match.depth += plength;
       if (match.depth == cValue.length()) { //this context value is done, match subcontext
         if (subContext != null && subContext.match(match)) {
@@ -176,11 +247,37 @@ public class StringNode extends PatternNode {
   }
 
   /**
-   * Returns the pattern this node represents. Actually, this might be replaced
-   * by something like <code>Set getFirst()</code> in the future, because that's
-   * what it is used for (and, for further optimizations of wildcard matching,
-   * it will more closely resemble the FIRST-FOLLOW functions used in computer
-   * linguistics.
+   * Takes a step of a resumable match: if the string is at the current depth,
+   * calls the sub context at the end of the value, the next node otherwise.
+   */
+  public boolean matchStep(TreeMatcher matcher, MatchState match) {
+    String cValue = match.getContextValue();
+    if (matcher.getPhase() == 0 && cValue.startsWith(s, match.depth)) {
+      match.depth += s.length();
+      if (match.depth == cValue.length()) {
+        if (subContext != null) {
+          matcher.call(subContext, 1);
+          return true;
+        }
+      } else if (next != null) {
+        matcher.call(next, 1);
+        return true;
+      }
+    }
+    match.depth = matcher.getDepth();
+    return false;
+  }
+
+  protected boolean triesWildcard(MatchState match, int depth) {
+    String cValue = match.getContextValue();
+    int end = depth + s.length();
+    return end < cValue.length() && cValue.startsWith(s, depth) &&
+        next != null && next.triesWildcard(match, end);
+  }
+
+  /**
+   * Returns the pattern this node represents. For the look-ahead of wildcards,
+   * see {@link #getFirst()}.
    * 
    * @return the pattern
    */
@@ -188,6 +285,25 @@ public class StringNode extends PatternNode {
     return s;
   }
 
+  @Override
+  public String[] getFirst() {
+    return (s.length() > 0 ? new String[] { s } : null);
+  }
+
+  /**
+   * Returns the next node in the tree
+   * 
+   * @return the next node, or <code>null</code>
+   */
+  public PatternNode getNext() {
+    return next;
+  }
+
+  @Override
+  public <T> T accept(PatternNodeVisitor<T> visitor) {
+    return visitor.visit(this);
+  }
+
   /**
    * Removes the prefix of the specified length and returns the new modified
    * node. If, after removing the prefix nothing remains, changes the
@@ -202,15 +318,29 @@ public class StringNode extends PatternNode {
       throw new IllegalArgumentException(
           "Can' remove prefix longer than this pattern!");
     }
-    s = s.substring(length);
+    s = intern(s.substring(length));
     if (s.length() > 0) {
+      updateBounds();
       return this;
     }
     EndOfStringNode node = new EndOfStringNode(parentContext, next);
     node.subContext = subContext;
+    node.updateBounds();
     return node;
   }
 
+  /**
+   * Prepends a prefix to the pattern this node represents. This is the inverse
+   * of {@link #removePrefix(int)}, used when nodes are merged.
+   * 
+   * @param prefix
+   *          the prefix
+   */
+  void addPrefix(String prefix) {
+    s = intern(prefix + s);
+    updateBounds();
+  }
+
   /**
    * Register this node type in PatternNodeFactory.
    * 
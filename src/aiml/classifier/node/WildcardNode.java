@@ -15,9 +15,15 @@
 package aiml.classifier.node;
 
 import graphviz.Graphviz;
+
+import java.util.Arrays;
+
 import aiml.classifier.MatchState;
+import aiml.classifier.NoSuchPathException;
+import aiml.classifier.PaternSequence;
 import aiml.classifier.Pattern;
 import aiml.classifier.PatternContextNode;
+import aiml.classifier.TreeMatcher;
 
 /**
  * <p>
@@ -26,15 +32,17 @@ import aiml.classifier.PatternContextNode;
  * fails.</p
  * 
  * <p>
- * The current implementation optimizes only trailing wildcards (wildcards that
- * have no child pattern nodes).
+ * Trailing wildcards (wildcards that have no child pattern nodes) consume the
+ * rest of the input at once.
  * </p>
  * 
  * <p>
- * Another very powerful optimization utilizes look-ahead, where the set of
- * characters that follow the wildcard is used to skip larger portions of the
- * input. This works only when there are no wildcards in the follow set. Look
- * ahead is currently not implemented.
+ * Other wildcards use look-ahead: the FIRST set of the child nodes (see
+ * {@link PatternNode#getFirst()}) is precomputed whenever a pattern is added,
+ * and during matching, the wildcard grows directly to the next position where
+ * one of the literals from the set begins, skipping the positions where the
+ * child nodes can't match. This works only when there are no wildcards in the
+ * FIRST set; otherwise every position is tried.
  * </p>
  * 
  * @author Kim Sullivan
@@ -47,6 +55,17 @@ public class WildcardNode extends PatternNode {
    */
   private PatternNode next;
 
+  /**
+   * The FIRST set of the sub patterns, or <code>null</code> if the sub
+   * patterns can begin with anything
+   */
+  private String first[];
+
+  /**
+   * The sorted first characters of the literals in the FIRST set
+   */
+  private char firstChars[];
+
   /**
    * Create a new empty wildcard of the specified type. This constructor is
    * private, the only way to create a new wildcard node is via the
@@ -83,6 +102,9 @@ public class WildcardNode extends PatternNode {
 
     //if we're at the end of the pattern, don't create unnecessary EOS nodes
     if (depth == pattern.length()) {
+      //a wildcard that ends a pattern takes the rest of the input, even if
+      //nothing is left
+      includeBounds(0, UNBOUNDED, 0L);
       return new AddResult(this, this, depth);
     }
 
@@ -91,30 +113,120 @@ public class WildcardNode extends PatternNode {
     }
     result = next.add(depth, pattern);
     next = result.root;
+    includeUnbounded(1, 0L, next);
     result.root = this;
+    updateFirst();
     return result;
 
   }
 
+  /**
+   * Removes the pattern from itself. A wildcard that no longer terminates a
+   * pattern and has no sub patterns is removed.
+   */
+  public PatternNode remove(int depth, String pattern,
+      PaternSequence.PatternIterator patterns) throws NoSuchPathException {
+    if (depth == pattern.length() || Pattern.getType(depth, pattern) != type) {
+      throw new NoSuchPathException();
+    }
+
+    depth++;
+
+    if (depth == pattern.length()) {
+      removeContext(patterns);
+    } else {
+      if (next == null) {
+        throw new NoSuchPathException();
+      }
+      next = next.remove(depth, pattern, patterns);
+      updateFirst();
+    }
+    return (subContext == null && next == null ? null : this);
+  }
+
+  /**
+   * Recomputes the look-ahead after the sub patterns have changed. All changes
+   * to the sub patterns go through this node's add() and remove() methods, so
+   * this is the only place where the FIRST set can change.
+   */
+  private void updateFirst() {
+    first = (next != null ? next.getFirst() : null);
+    if (first == null) {
+      firstChars = null;
+      return;
+    }
+    char chars[] = new char[first.length];
+    int count = 0;
+    for (String s : first) {
+      chars[count++] = s.charAt(0);
+    }
+    Arrays.sort(chars);
+    int unique = 0;
+    for (int i = 0; i < count; i++) {
+      if (unique == 0 || chars[unique - 1] != chars[i]) {
+        chars[unique++] = chars[i];
+      }
+    }
+    firstChars = Arrays.copyOf(chars, unique);
+  }
+
+  /**
+   * Returns the next position (at least <code>from</code>) where the sub
+   * patterns can begin to match, or the length of the string if there is no
+   * such position (the end of the string always has to be tried).
+   * 
+   * @param s
+   *          the string
+   * @param from
+   *          the position to start at
+   * @return the next candidate position
+   */
+  private int nextCandidate(String s, int from) {
+    if (first == null || from >= s.length()) {
+      return from;
+    }
+    int position;
+    if (first.length == 1) { //a single literal, search for all of it
+      position = s.indexOf(first[0], from);
+    } else if (firstChars.length == 1) {
+      position = s.indexOf(firstChars[0], from);
+    } else {
+      position = -1;
+      for (int i = from; i < s.length(); i++) {
+        if (Arrays.binarySearch(firstChars, s.charAt(i)) >= 0) {
+          position = i;
+          break;
+        }
+      }
+    }
+    return (position >= 0 ? position : s.length());
+  }
+
   /**
    * Match the curent state to the wildcard. Matching proceeds reluctantly
-   * (non-greedily) one character at a time, except if this wildcard has no
-   * child pattern nodes.
+   * (non-greedily), skipping the positions where the child pattern nodes can't
+   * match, except if this wildcard has no child pattern nodes.
    */
-  public boolean match(MatchState match) {
-    MatchState.Wildcard w = match.addWildcard();
+  protected boolean matchNode(MatchState match) {
+    if (match.isKnownFailure(this, match.depth)) {
+      return false;
+    }
+    int depth = match.depth;
+    String value = match.getContextValue();
+    match.beginWildcard();
     if (next != null) { //there are subnodes we have to try
-      while (match.depth < match.getContextValue().length()) {
-        match.depth++;
-        w.grow();
+      while (match.depth < value.length()) {
+        int position = nextCandidate(value, match.depth + 1);
+        match.setWildcardEnd(position);
+        match.depth = position;
         if (next.match(match)) {
           return true;
         }
       }
     } // if (next!=null)
     else { //this wildcard is "trailing" - add the rest of the input to it
-      w.growRest();
-      match.depth += w.getLength();
+      match.setWildcardEnd(value.length());
+      match.depth = value.length();
     }
 
     if (subContext != null) {
@@ -123,10 +235,79 @@ public class WildcardNode extends PatternNode {
       }
     }
 
-    match.depth -= w.getLength();
+    match.depth = depth;
+    match.removeWildcard();
+    match.addFailure(this, match.depth);
+    return false;
+
+  }
+
+  /**
+   * Takes a step of a resumable match: calls the child pattern nodes at the
+   * next candidate position, one position per step, and then the sub context.
+   */
+  public boolean matchStep(TreeMatcher matcher, MatchState match) {
+    String value = match.getContextValue();
+    int phase = matcher.getPhase();
+    if (phase == 0) {
+      if (match.isKnownFailure(this, match.depth)) {
+        return false;
+      }
+      match.beginWildcard();
+      if (next == null) { //the rest of the input belongs to the wildcard
+        match.setWildcardEnd(value.length());
+        match.depth = value.length();
+      }
+    }
+    if (phase < 2) {
+      //the children restore the depth to the position they were called at
+      if (next != null && match.depth < value.length()) {
+        int position = nextCandidate(value, match.depth + 1);
+        match.setWildcardEnd(position);
+        match.depth = position;
+        matcher.call(next, 1);
+        return true;
+      }
+      if (subContext != null) {
+        matcher.call(subContext, 2);
+        return true;
+      }
+    }
+    match.depth = matcher.getDepth();
     match.removeWildcard();
+    match.addFailure(this, match.depth);
     return false;
+  }
+  /**
+   * A wildcard always begins, even at the end of the context value.
+   */
+  protected boolean triesWildcard(MatchState match, int depth) {
+    return true;
+  }
 
+
+  /**
+   * Returns the FIRST set of the sub patterns, used for look-ahead
+   * 
+   * @return the FIRST set, or <code>null</code> if the sub patterns can begin
+   *         with anything
+   */
+  public String[] getNextFirst() {
+    return first;
+  }
+
+  /**
+   * Returns the sub patterns of this wildcard
+   * 
+   * @return the next node, or <code>null</code> if this is a trailing wildcard
+   */
+  public PatternNode getNext() {
+    return next;
+  }
+
+  @Override
+  public <T> T accept(PatternNodeVisitor<T> visitor) {
+    return visitor.visit(this);
   }
 
   /**
@@ -0,0 +1,298 @@
+/*
+    jaiml - java AIML library
+    Copyright (C) 2026  Kim Sullivan
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    You should have received a copy of the GNU General Public License
+    along with this program; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package aiml.classifier.node;
+
+import graphviz.Graphviz;
+
+import java.util.Arrays;
+
+import aiml.classifier.MatchState;
+import aiml.classifier.NoSuchPathException;
+import aiml.classifier.PaternSequence;
+import aiml.classifier.Pattern;
+import aiml.classifier.PatternContextNode;
+import aiml.classifier.TreeMatcher;
+import aiml.classifier.WordDictionary;
+
+/**
+ * <p>
+ * A single word branch in the word based pattern tree. Instead of branching on
+ * single characters, this node branches on interned word IDs (see
+ * {@link aiml.classifier.WordDictionary}), and consumes a whole word of the
+ * input at once, together with the whitespace that follows it.
+ * </p>
+ *
+ * <p>
+ * The branches are stored in a pair of sorted arrays, and looked up using
+ * binary search.
+ * </p>
+ *
+ * @author Kim Sullivan
+ * @version 1.0
+ */
+
+public class WordNode extends PatternNode {
+
+  /** The dictionary of words */
+  private WordDictionary dictionary;
+
+  /** The sorted word IDs of the branches */
+  private int ids[] = new int[1];
+
+  /** The subtrees, in the same order as the IDs */
+  private PatternNode nodes[] = new PatternNode[1];
+
+  /** The number of branches */
+  private int size;
+
+  /**
+   * Create a new empty word node. The type is PatternNode.STRING
+   *
+   * @param dictionary
+   *          the dictionary of words
+   */
+  public WordNode(PatternContextNode parent, WordDictionary dictionary) {
+    super(parent);
+    type = PatternNode.STRING;
+    this.dictionary = dictionary;
+  }
+
+  /**
+   * Add the pattern to itself. The word at the current depth is added as a
+   * branch, except when adding an end of a string, or a wildcard.
+   *
+   * @param depth
+   *          int
+   * @param pattern
+   *          String
+   * @return AddResult
+   */
+  public AddResult add(int depth, String pattern) {
+    AddResult result;
+    PatternNodeFactory patternNodeFactory = parentContext.getPNF();
+    if (depth == pattern.length()) {
+      PatternNode node = new EndOfStringNode(parentContext, this);
+      result = node.add(depth, pattern);
+      return result;
+    }
+    if (Pattern.isWildcard(depth, pattern)) {
+      PatternNode node = new BranchNode(parentContext, this);
+      result = node.add(depth, pattern);
+      return result;
+    }
+
+    int end = WordDictionary.wordEnd(depth, pattern);
+    String word = Pattern.normalize(pattern.substring(depth, end));
+    int id = dictionary.intern(word);
+    depth = WordDictionary.skipSeparators(end, pattern);
+
+    int i = Arrays.binarySearch(ids, 0, size, id);
+    PatternNode node;
+    if (i >= 0) {
+      node = nodes[i];
+    } else {
+      node = patternNodeFactory.getInstance(parentContext, depth, pattern);
+    }
+    result = node.add(depth, pattern);
+    if (i >= 0) {
+      nodes[i] = result.root;
+    } else {
+      insert(-(i + 1), id, result.root);
+    }
+    //a word takes at least one character, and its separators any number
+    includeUnbounded(1, Pattern.signature(word), result.root);
+    result.root = this;
+    return result;
+  }
+
+  /**
+   * Inserts a new branch at the specified position
+   */
+  private void insert(int position, int id, PatternNode node) {
+    if (size == ids.length) {
+      ids = Arrays.copyOf(ids, size * 2);
+      nodes = Arrays.copyOf(nodes, size * 2);
+    }
+    System.arraycopy(ids, position, ids, position + 1, size - position);
+    System.arraycopy(nodes, position, nodes, position + 1, size - position);
+    ids[position] = id;
+    nodes[position] = node;
+    size++;
+  }
+
+  /**
+   * Removes the pattern from the branch of the word at the current depth. The
+   * branch is deleted if its subtree becomes empty.
+   */
+  public PatternNode remove(int depth, String pattern,
+      PaternSequence.PatternIterator patterns) throws NoSuchPathException {
+    if (depth == pattern.length() || Pattern.isWildcard(depth, pattern)) {
+      throw new NoSuchPathException();
+    }
+
+    int end = WordDictionary.wordEnd(depth, pattern);
+    int id = dictionary.lookup(Pattern.normalize(pattern.substring(depth, end)));
+    int i = Arrays.binarySearch(ids, 0, size, id);
+    if (i < 0) {
+      throw new NoSuchPathException();
+    }
+    PatternNode node = nodes[i].remove(WordDictionary.skipSeparators(end,
+        pattern), pattern, patterns);
+    if (node != null) {
+      nodes[i] = node;
+    } else {
+      System.arraycopy(ids, i + 1, ids, i, size - i - 1);
+      System.arraycopy(nodes, i + 1, nodes, i, size - i - 1);
+      nodes[--size] = null;
+    }
+    return (size > 0 ? this : null);
+  }
+
+  protected boolean matchNode(MatchState match) {
+    WordDictionary.Tokens words = match.getWords(dictionary);
+    int word = words.indexAt(match.depth);
+    if (word < 0) {
+      return false; //no more words in the current context
+    }
+    int i = Arrays.binarySearch(ids, 0, size, words.getId(word));
+    if (i < 0) {
+      return false;
+    }
+    int depth = match.depth;
+    match.depth = words.getNextBegin(word, match.getContextValue().length());
+    if (nodes[i].match(match)) {
+      return true;
+    } else {
+      //restore the previous match state
+      match.depth = depth;
+      return false;
+    }
+  }
+
+  /**
+   * Takes a step of a resumable match: calls the node of the word at the
+   * current depth.
+   */
+  public boolean matchStep(TreeMatcher matcher, MatchState match) {
+    if (matcher.getPhase() > 0) {
+      match.depth = matcher.getDepth();
+      return false;
+    }
+    WordDictionary.Tokens words = match.getWords(dictionary);
+    int word = words.indexAt(match.depth);
+    if (word < 0) {
+      return false; //no more words in the current context
+    }
+    int i = Arrays.binarySearch(ids, 0, size, words.getId(word));
+    if (i < 0) {
+      return false;
+    }
+    match.depth = words.getNextBegin(word, match.getContextValue().length());
+    matcher.call(nodes[i], 1);
+    return true;
+  }
+  protected boolean triesWildcard(MatchState match, int depth) {
+    WordDictionary.Tokens words = match.getWords(dictionary);
+    int word = words.indexAt(depth);
+    if (word < 0) {
+      return false;
+    }
+    int i = Arrays.binarySearch(ids, 0, size, words.getId(word));
+    return i >= 0 && nodes[i].triesWildcard(match, words.getNextBegin(word,
+        match.getContextValue().length()));
+  }
+
+
+  /**
+   * Returns the word IDs of all the branches, in ascending order
+   * 
+   * @return the word IDs
+   */
+  public int[] getIds() {
+    return Arrays.copyOf(ids, size);
+  }
+
+  /**
+   * Returns the branch for a word
+   * 
+   * @param id
+   *          the word ID
+   * @return the subtree, or <code>null</code> if there is no such branch
+   */
+  public PatternNode getBranch(int id) {
+    int i = Arrays.binarySearch(ids, 0, size, id);
+    return (i >= 0 ? nodes[i] : null);
+  }
+
+  /**
+   * Returns the dictionary of words used by this node
+   * 
+   * @return the dictionary
+   */
+  public WordDictionary getDictionary() {
+    return dictionary;
+  }
+
+  @Override
+  public <T> T accept(PatternNodeVisitor<T> visitor) {
+    return visitor.visit(this);
+  }
+
+  /**
+   * Register this node type in PatternNodeFactory.
+   *
+   * @param patternNodeFactory
+   *          the factory
+   * @param dictionary
+   *          the dictionary used by the created nodes
+   */
+  public static void register(PatternNodeFactory patternNodeFactory,
+      final WordDictionary dictionary) {
+    patternNodeFactory.registerNode(new Creatable() {
+      public boolean canCreate(int depth, String pattern) {
+        return (depth != pattern.length() && pattern.length() > 0 && !Pattern.isWildcard(
+            depth, pattern));
+      }
+
+      public PatternNode getInstance(PatternContextNode parentContextNode) {
+        return new WordNode(parentContextNode, dictionary);
+      }
+
+    });
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    sb.append('{');
+    for (int i = 0; i < size; i++) {
+      sb.append('#').append(ids[i]).append('=').append(nodes[i]).append(' ');
+    }
+    sb.append('}');
+    return sb.toString() + super.toString();
+  }
+
+  @Override
+  public void gvNodes(Graphviz graph) {
+    graph.node(gvNodeID(), "label", "");
+  }
+
+  @Override
+  public void gvInternalGraph(Graphviz graph) {
+    for (int i = 0; i < size; i++) {
+      graph.connectGraph(this, nodes[i], ("#" + ids[i]));
+    }
+  }
+}
@@ -0,0 +1,303 @@
+/*
+    jaiml - java AIML library
+    Copyright (C) 2026  Kim Sullivan
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    You should have received a copy of the GNU General Public License
+    along with this program; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package aiml.classifier.node;
+
+import graphviz.Graphviz;
+import aiml.classifier.MatchState;
+import aiml.classifier.NoSuchPathException;
+import aiml.classifier.PaternSequence;
+import aiml.classifier.Pattern;
+import aiml.classifier.PatternContextNode;
+import aiml.classifier.TreeMatcher;
+import aiml.classifier.WordDictionary;
+
+/**
+ * <p>
+ * A wildcard node in the word based pattern tree. This node reluctantly
+ * matches one or more whole words from the current context, until a match is
+ * found or a match fails. The whitespace following the last word is consumed,
+ * but is not a part of the wildcard value.
+ * </p>
+ *
+ * <p>
+ * In patterns, the wildcard must be a separate word, a wildcard character
+ * inside a word (like "FOO*") is treated as a part of the word.
+ * </p>
+ *
+ * @author Kim Sullivan
+ * @version 1.0
+ */
+
+public class WordWildcardNode extends PatternNode {
+  /**
+   * Sub patterns
+   */
+  private PatternNode next;
+
+  /** The dictionary of words */
+  private WordDictionary dictionary;
+
+  /**
+   * Create a new empty wildcard of the specified type. This constructor is
+   * private, the only way to create a new wildcard node is via the
+   * <code>PatternNodeFactory</code> class.
+   *
+   * @param type
+   *          the wildcard type
+   * @param dictionary
+   *          the dictionary of words
+   */
+  private WordWildcardNode(PatternContextNode parent, int type,
+      WordDictionary dictionary) {
+    super(parent);
+    this.type = type;
+    this.dictionary = dictionary;
+  }
+
+  /**
+   * Add the pattern to the node. As a side effect, Branch or EOS nodes may be
+   * inserted in the original place of this node.
+   */
+  public AddResult add(int depth, String pattern) {
+    AddResult result;
+    PatternNodeFactory patternNodeFactory = parentContext.getPNF();
+    if (depth == pattern.length()) {
+      PatternNode node = new EndOfStringNode(parentContext, this);
+      result = node.add(depth, pattern);
+      return result;
+    }
+    if (Pattern.getType(depth, pattern) != type) {
+      PatternNode node = new BranchNode(parentContext, this);
+      result = node.add(depth, pattern);
+      return result;
+    }
+
+    depth = WordDictionary.skipSeparators(depth + 1, pattern);
+
+    //if we're at the end of the pattern, don't create unnecessary EOS nodes
+    if (depth == pattern.length()) {
+      includeBounds(0, UNBOUNDED, 0L);
+      return new AddResult(this, this, depth);
+    }
+
+    if (next == null) {
+      next = patternNodeFactory.getInstance(parentContext, depth, pattern);
+    }
+    result = next.add(depth, pattern);
+    next = result.root;
+    includeUnbounded(1, 0L, next);
+    result.root = this;
+    return result;
+  }
+
+  /**
+   * Removes the pattern from itself. A wildcard that no longer terminates a
+   * pattern and has no sub patterns is removed.
+   */
+  public PatternNode remove(int depth, String pattern,
+      PaternSequence.PatternIterator patterns) throws NoSuchPathException {
+    if (depth == pattern.length() || Pattern.getType(depth, pattern) != type) {
+      throw new NoSuchPathException();
+    }
+
+    depth = WordDictionary.skipSeparators(depth + 1, pattern);
+
+    if (depth == pattern.length()) {
+      removeContext(patterns);
+    } else {
+      if (next == null) {
+        throw new NoSuchPathException();
+      }
+      next = next.remove(depth, pattern, patterns);
+    }
+    return (subContext == null && next == null ? null : this);
+  }
+
+  /**
+   * Match the curent state to the wildcard. Matching proceeds reluctantly
+   * (non-greedily) one word at a time, except if this wildcard has no child
+   * pattern nodes.
+   */
+  protected boolean matchNode(MatchState match) {
+    if (match.isKnownFailure(this, match.depth)) {
+      return false;
+    }
+    WordDictionary.Tokens words = match.getWords(dictionary);
+    int length = match.getContextValue().length();
+    int depth = match.depth;
+    int word = words.indexAt(depth);
+    if (word >= 0) {
+      match.depth = words.getBegin(word);
+    }
+    match.beginWildcard();
+    if (word >= 0) {
+      if (next != null) { //there are subnodes we have to try
+        for (int i = word; i < words.getCount(); i++) {
+          match.setWildcardEnd(words.getEnd(i));
+          match.depth = words.getNextBegin(i, length);
+          if (next.match(match)) {
+            return true;
+          }
+        }
+      } else { //this wildcard is "trailing" - add the rest of the input to it
+        match.setWildcardEnd(words.getEnd(words.getCount() - 1));
+      }
+    }
+    match.depth = length;
+
+    if (subContext != null) {
+      if (subContext.match(match)) {
+        return true;
+      }
+    }
+
+    match.depth = depth;
+    match.removeWildcard();
+    match.addFailure(this, depth);
+    return false;
+  }
+
+  /**
+   * Takes a step of a resumable match: calls the child pattern nodes after
+   * each word, one word per step, and then the sub context. The matcher keeps
+   * the index of the next word.
+   */
+  public boolean matchStep(TreeMatcher matcher, MatchState match) {
+    WordDictionary.Tokens words = match.getWords(dictionary);
+    int length = match.getContextValue().length();
+    int phase = matcher.getPhase();
+    if (phase == 0) {
+      if (match.isKnownFailure(this, match.depth)) {
+        return false;
+      }
+      int word = words.indexAt(match.depth);
+      if (word >= 0) {
+        match.depth = words.getBegin(word);
+      }
+      match.beginWildcard();
+      if (word >= 0 && next == null) { //add the rest of the input to it
+        match.setWildcardEnd(words.getEnd(words.getCount() - 1));
+      }
+      matcher.setIndex(word >= 0 && next != null ? word : words.getCount());
+    }
+    if (phase < 2) {
+      int i = matcher.getIndex();
+      if (i < words.getCount()) {
+        match.setWildcardEnd(words.getEnd(i));
+        match.depth = words.getNextBegin(i, length);
+        matcher.setIndex(i + 1);
+        matcher.call(next, 1);
+        return true;
+      }
+      match.depth = length;
+      if (subContext != null) {
+        matcher.call(subContext, 2);
+        return true;
+      }
+    }
+    match.depth = matcher.getDepth();
+    match.removeWildcard();
+    match.addFailure(this, match.depth);
+    return false;
+  }
+  /**
+   * A wildcard always begins, even after the last word.
+   */
+  protected boolean triesWildcard(MatchState match, int depth) {
+    return true;
+  }
+
+
+  /**
+   * Returns the sub patterns of this wildcard
+   * 
+   * @return the next node, or <code>null</code> if this is a trailing wildcard
+   */
+  public PatternNode getNext() {
+    return next;
+  }
+
+  @Override
+  public <T> T accept(PatternNodeVisitor<T> visitor) {
+    return visitor.visit(this);
+  }
+
+  /**
+   * Register this node type in PatternNodeFactory. This actually registers 2
+   * node types, one for the * and one for the _ wildcard.
+   *
+   * @param patternNodeFactory
+   *          the factory
+   * @param dictionary
+   *          the dictionary used by the created nodes
+   */
+  public static void register(PatternNodeFactory patternNodeFactory,
+      final WordDictionary dictionary) {
+    patternNodeFactory.registerNode(new Creatable() {
+      public boolean canCreate(int depth, String pattern) {
+        return (Pattern.isStar(depth, pattern));
+      }
+
+      public PatternNode getInstance(PatternContextNode parentContextNode) {
+        return new WordWildcardNode(parentContextNode, PatternNode.STAR,
+            dictionary);
+      }
+
+    });
+    patternNodeFactory.registerNode(new Creatable() {
+      public boolean canCreate(int depth, String pattern) {
+        return (Pattern.isUnderscore(depth, pattern));
+      }
+
+      public PatternNode getInstance(PatternContextNode parentContextNode) {
+        return new WordWildcardNode(parentContextNode, PatternNode.UNDERSCORE,
+            dictionary);
+      }
+
+    });
+
+  }
+
+  @Override
+  public String toString() {
+    if (next != null) {
+      return "WordWildCard" + next.toString() + super.toString();
+    }
+    return "WordWildCard" + super.toString();
+  }
+
+  public String gvNodeLabel() {
+    switch (type) {
+    case PatternNode.STAR:
+      return "*";
+    case PatternNode.UNDERSCORE:
+      return "_";
+    default:
+      return "WC" + type;
+    }
+  }
+
+  @Override
+  public void gvInternalGraph(Graphviz graph) {
+    graph.edge(gvNodeID(), gvNodeID(), "label", Graphviz.ALPHABET);
+    graph.connectGraph(this, next, Graphviz.ALPHABET);
+  }
+
+  @Override
+  public void gvExternalGraph(Graphviz graph) {
+    graph.connectGraph(this, subContext, Graphviz.ALPHABET);
+  }
+
+}
@@ -17,10 +17,14 @@ import aiml.classifier.Classifier;
 import aiml.classifier.ContextNode;
 import aiml.classifier.PaternSequence;
 import aiml.classifier.PatternContextNode;
+import aiml.classifier.WordDictionary;
 import aiml.classifier.node.EndOfStringNode;
+import aiml.classifier.node.HashMapNode;
 import aiml.classifier.node.PatternNodeFactory;
 import aiml.classifier.node.StringNode;
 import aiml.classifier.node.WildcardNode;
+import aiml.classifier.node.WordNode;
+import aiml.classifier.node.WordWildcardNode;
 
 /**
  * The standard AIML matching behaviour. This class returns a PatternContextNode
@@ -37,6 +41,7 @@ public class PatternBehaviour implements MatchingBehaviour {
     static PatternBehaviour defaultPatternBehaviour;
     static {
       PatternNodeFactory pnf = new PatternNodeFactory();
+      HashMapNode.register(pnf);
       StringNode.register(pnf);
       EndOfStringNode.register(pnf);
       WildcardNode.register(pnf);
@@ -44,6 +49,18 @@ public class PatternBehaviour implements MatchingBehaviour {
     }
   }
 
+  private static class WordHolder {
+    static PatternBehaviour wordPatternBehaviour;
+    static {
+      WordDictionary dictionary = new WordDictionary();
+      PatternNodeFactory pnf = new PatternNodeFactory();
+      WordNode.register(pnf, dictionary);
+      EndOfStringNode.register(pnf);
+      WordWildcardNode.register(pnf, dictionary);
+      wordPatternBehaviour = new PatternBehaviour(pnf);
+    }
+  }
+
   /**
    * Returns an instance with the default (hopefully most optimal) node handler
    * classes registered in its pattern node factory.
@@ -55,6 +72,22 @@ public class PatternBehaviour implements MatchingBehaviour {
   public static PatternBehaviour getDefaultBehaviour() {
     return Holder.defaultPatternBehaviour;
   }
+
+  /**
+   * Returns an instance that matches whole words instead of single
+   * characters. Patterns and inputs are split into words, which are interned
+   * into integer IDs, and wildcards consume whole words at a time. This is
+   * usually much faster for long inputs and wildcard heavy pattern sets, but
+   * requires wildcards in patterns to be separate words.
+   * 
+   * @see aiml.classifier.node.WordNode
+   * @see aiml.classifier.node.WordWildcardNode
+   * 
+   * @return the word based pattern behaviour
+   */
+  public static PatternBehaviour getWordBehaviour() {
+    return WordHolder.wordPatternBehaviour;
+  }
   
   public PatternBehaviour(PatternNodeFactory pnf) {
     assert (pnf.getCount() > 0) : "You have to register node types";
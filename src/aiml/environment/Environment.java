@@ -16,6 +16,7 @@ package aiml.environment;
 
 import java.security.InvalidParameterException;
 import java.text.DateFormat;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -57,6 +58,11 @@ public class Environment {
    * order.
    */
   private LinkedList<LinkedList<String>> responseHistory = new LinkedList<LinkedList<String>>();
+  /**
+   * The match states reused by the matches of this environment, by the number
+   * of inputs on the stack
+   */
+  private MatchState matchStates[] = new MatchState[4];
   public static final String UNDEFINED_VARIABLE = "";
 
   public Environment(Bot bot) {
@@ -107,6 +113,34 @@ public class Environment {
     return input.removeFirst();
   }
 
+  /**
+   * Returns the match state kept for matches made with the current number of
+   * inputs on the stack (see
+   * {@link aiml.classifier.Classifier#match(Environment)}).
+   * 
+   * @return the match state, or <code>null</code> if there isn't one yet
+   */
+  public MatchState getMatchState() {
+    int level = input.size();
+    return (level < matchStates.length ? matchStates[level] : null);
+  }
+
+  /**
+   * Keeps a match state for the matches made with the current number of
+   * inputs on the stack.
+   * 
+   * @param m
+   *          the match state
+   */
+  public void setMatchState(MatchState m) {
+    int level = input.size();
+    if (level >= matchStates.length) {
+      matchStates = Arrays.copyOf(matchStates, Math.max(level + 1,
+          2 * matchStates.length));
+    }
+    matchStates[level] = m;
+  }
+
   public String getUserID() {
     return USER_ID;
   }
@@ -23,6 +23,8 @@ import org.xmlpull.v1.XmlPullParserException;
 import aiml.classifier.Classifier;
 import aiml.classifier.MatchState;
 import aiml.parser.AimlParserException;
+import aiml.snapshot.SnapshotInput;
+import aiml.snapshot.SnapshotOutput;
 
 public class Block implements Script {
   String blockName;
@@ -61,6 +63,22 @@ public class Block implements Script {
     return result.toString();
   }
 
+  public void write(SnapshotOutput out) throws IOException {
+    out.writeInt(items.size());
+    for (Script s : items) {
+      out.writeScript(s);
+    }
+  }
+
+  public Script read(SnapshotInput in) throws IOException {
+    int count = in.readInt();
+    items.ensureCapacity(count);
+    for (int i = 0; i < count; i++) {
+      items.add(in.readScript());
+    }
+    return this;
+  }
+
   public String toString() {
     return items.toString();
   }
@@ -26,13 +26,16 @@ import aiml.classifier.Classifier;
 import aiml.classifier.MatchState;
 import aiml.parser.AimlParserException;
 import aiml.parser.AimlSyntaxException;
+import aiml.snapshot.SnapshotInput;
+import aiml.snapshot.SnapshotOutput;
 
 public class BotElement extends EmptyElement {
   private String name;
 
   public Script parse(XmlPullParser parser, Classifier classifier) throws XmlPullParserException,
       IOException, AimlParserException {
-    name = parser.getAttributeValue(null, "name");
+    name = classifier.getStringPool().intern(
+        parser.getAttributeValue(null, "name"));
     if (name == null)
       throw new AimlSyntaxException(
           "Syntax error: mandatory attribute 'name' missing from element '" +
@@ -50,6 +53,17 @@ public class BotElement extends EmptyElement {
     }
   }
 
+  @Override
+  public void write(SnapshotOutput out) throws IOException {
+    out.writeString(name);
+  }
+
+  @Override
+  public Script read(SnapshotInput in) throws IOException {
+    name = in.readString();
+    return this;
+  }
+
   public String toString() {
     return "$_bot['" + name + "']";
   }
@@ -21,15 +21,19 @@ import org.xmlpull.v1.XmlPullParserException;
 
 import aiml.classifier.Classifier;
 import aiml.classifier.MatchState;
+import aiml.classifier.StringPool;
 import aiml.parser.AimlParserException;
 import aiml.parser.AimlSyntaxException;
+import aiml.snapshot.SnapshotInput;
+import aiml.snapshot.SnapshotOutput;
 
 public class ConditionElement implements Script {
 
   public Script parse(XmlPullParser parser, Classifier classifier) throws XmlPullParserException,
       IOException, AimlParserException {
-    String name = parser.getAttributeValue(null, "name");
-    String value = parser.getAttributeValue(null, "value");
+    StringPool strings = classifier.getStringPool();
+    String name = strings.intern(parser.getAttributeValue(null, "name"));
+    String value = strings.intern(parser.getAttributeValue(null, "value"));
     if (name != null && value != null) {
       return new If(name, value).parse(parser, classifier);
     } else if (name != null && value == null) {
@@ -46,4 +50,11 @@ public class ConditionElement implements Script {
   public String evaluate(MatchState m) {
     throw new UnsupportedOperationException("evaluate()");
   }
+
+  public void write(SnapshotOutput out) throws IOException {
+  }
+
+  public Script read(SnapshotInput in) throws IOException {
+    return this;
+  }
 }
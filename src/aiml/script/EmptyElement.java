@@ -22,6 +22,8 @@ import org.xmlpull.v1.XmlPullParserException;
 import aiml.classifier.Classifier;
 import aiml.parser.AimlParserException;
 import aiml.parser.AimlSyntaxException;
+import aiml.snapshot.SnapshotInput;
+import aiml.snapshot.SnapshotOutput;
 
 public abstract class EmptyElement implements Script {
 
@@ -36,4 +38,10 @@ public abstract class EmptyElement implements Script {
     return this;
   }
 
+  public void write(SnapshotOutput out) throws IOException {
+  }
+
+  public Script read(SnapshotInput in) throws IOException {
+    return this;
+  }
 }
@@ -22,6 +22,8 @@ import org.xmlpull.v1.XmlPullParserException;
 import aiml.classifier.Classifier;
 import aiml.classifier.MatchState;
 import aiml.parser.AimlParserException;
+import aiml.snapshot.SnapshotInput;
+import aiml.snapshot.SnapshotOutput;
 
 public class EmptyScript implements Script {
 
@@ -34,6 +36,13 @@ public class EmptyScript implements Script {
     return "";
   }
 
+  public void write(SnapshotOutput out) throws IOException {
+  }
+
+  public Script read(SnapshotInput in) throws IOException {
+    return this;
+  }
+
   public String toString() {
     return "\"\"";
   }
@@ -24,13 +24,16 @@ import aiml.classifier.MatchState;
 import aiml.environment.Environment;
 import aiml.parser.AimlParserException;
 import aiml.parser.AimlSyntaxException;
+import aiml.snapshot.SnapshotInput;
+import aiml.snapshot.SnapshotOutput;
 
 public class GetElement extends SimpleScriptElement {
   private String nameAttr;
 
   public Script parse(XmlPullParser parser, Classifier classifier) throws XmlPullParserException,
       IOException, AimlParserException {
-    nameAttr = parser.getAttributeValue(null, "name");
+    nameAttr = classifier.getStringPool().intern(
+        parser.getAttributeValue(null, "name"));
     if (nameAttr == null)
       throw new AimlSyntaxException(
           "Syntax error: mandatory attribute 'name' missing from element '" +
@@ -46,6 +49,18 @@ public class GetElement extends SimpleScriptElement {
     return result;
   }
 
+  @Override
+  public void write(SnapshotOutput out) throws IOException {
+    out.writeString(nameAttr);
+    super.write(out);
+  }
+
+  @Override
+  public Script read(SnapshotInput in) throws IOException {
+    nameAttr = in.readString();
+    return super.read(in);
+  }
+
   public String toString() {
     if (content instanceof EmptyScript)
       return "$" + nameAttr;
@@ -14,7 +14,11 @@
 
 package aiml.script;
 
+import java.io.IOException;
+
 import aiml.classifier.MatchState;
+import aiml.snapshot.SnapshotInput;
+import aiml.snapshot.SnapshotOutput;
 
 /**
  * This class handles a simple AIML condition:
@@ -31,6 +35,10 @@ public class If extends SimpleScriptElement {
   private String name;
   private String value;
 
+  If() {
+    super();
+  }
+
   If(String name, String value) {
     super();
     this.name = name;
@@ -50,6 +58,20 @@ public class If extends SimpleScriptElement {
     }
   }
 
+  @Override
+  public void write(SnapshotOutput out) throws IOException {
+    out.writeString(name);
+    out.writeString(value);
+    super.write(out);
+  }
+
+  @Override
+  public Script read(SnapshotInput in) throws IOException {
+    name = in.readString();
+    value = in.readString();
+    return super.read(in);
+  }
+
   public String toString() {
     return "(($" + name + "==\"" + value + "\") ? " + content + ": \"\")";
 
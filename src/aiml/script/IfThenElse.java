@@ -23,8 +23,11 @@ import org.xmlpull.v1.XmlPullParserException;
 
 import aiml.classifier.Classifier;
 import aiml.classifier.MatchState;
+import aiml.classifier.StringPool;
 import aiml.parser.AimlParserException;
 import aiml.parser.AimlSyntaxException;
+import aiml.snapshot.SnapshotInput;
+import aiml.snapshot.SnapshotOutput;
 
 /**
  * <p>
@@ -106,8 +109,9 @@ public class IfThenElse implements Script {
           "Syntax error: no conditions allowed after the default block in if-else conditions " +
               parser.getPositionDescription());
 
-    String name = parser.getAttributeValue(null, "name");
-    String value = parser.getAttributeValue(null, "value");
+    StringPool strings = classifier.getStringPool();
+    String name = strings.intern(parser.getAttributeValue(null, "name"));
+    String value = strings.intern(parser.getAttributeValue(null, "value"));
     if (value == null && name == null) {
       defaultBlock = new Block().parse(parser, classifier);
     } else if (value != null && name != null) {
@@ -167,6 +171,27 @@ public class IfThenElse implements Script {
     return "";
   }
 
+  public void write(SnapshotOutput out) throws IOException {
+    out.writeInt(conditions.size());
+    for (Entry condition : conditions) {
+      out.writeString(condition.name);
+      out.writeString(condition.value);
+      out.writeScript(condition.content);
+    }
+    out.writeScript(defaultBlock);
+  }
+
+  public Script read(SnapshotInput in) throws IOException {
+    int count = in.readInt();
+    conditions.ensureCapacity(count);
+    for (int i = 0; i < count; i++) {
+      conditions.add(new Entry(in.readString(), in.readString(),
+          in.readScript()));
+    }
+    defaultBlock = in.readScript();
+    return this;
+  }
+
   public String toString() {
     return "ifElse(" + conditions.toString() +
         ((defaultBlock != null) ? defaultBlock : "") + ")";
@@ -22,6 +22,8 @@ import org.xmlpull.v1.XmlPullParserException;
 import aiml.classifier.Classifier;
 import aiml.parser.AimlParserException;
 import aiml.parser.AimlSyntaxException;
+import aiml.snapshot.SnapshotInput;
+import aiml.snapshot.SnapshotOutput;
 
 public abstract class MultiIndexedElement extends EmptyElement {
 
@@ -58,4 +60,16 @@ public abstract class MultiIndexedElement extends EmptyElement {
     return super.parse(parser, classifier);
   }
 
+  @Override
+  public void write(SnapshotOutput out) throws IOException {
+    out.writeInt(i1);
+    out.writeInt(i2);
+  }
+
+  @Override
+  public Script read(SnapshotInput in) throws IOException {
+    i1 = in.readInt();
+    i2 = in.readInt();
+    return this;
+  }
 }
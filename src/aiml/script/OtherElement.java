@@ -21,6 +21,7 @@ import org.xmlpull.v1.XmlPullParserException;
 
 import aiml.classifier.Classifier;
 import aiml.classifier.MatchState;
+import aiml.classifier.StringPool;
 import aiml.parser.AimlParserException;
 
 /**
@@ -51,6 +52,7 @@ public class OtherElement extends SimpleScriptElement {
 
   public Script parse(XmlPullParser parser, Classifier classifier) throws XmlPullParserException,
       IOException, AimlParserException {
+    StringPool strings = classifier.getStringPool();
     StringBuffer b = new StringBuffer();
     // First recreate the tag with all it's attributes
     b.append('<').append(parser.getName());
@@ -63,18 +65,18 @@ public class OtherElement extends SimpleScriptElement {
       b.append('/').append('>');
       parser.nextTag();
       parser.next();
-      return new TextElement(b.toString());
+      return new TextElement(strings.intern(b.toString()));
     } else {
       b.append('>');
 
-      String ETag = "</" + parser.getName() + ">";
+      String ETag = strings.intern("</" + parser.getName() + ">");
       // Parse the contents of this element
       super.parse(parser, classifier);
       if (content instanceof EmptyScript) {
-        return new TextElement(b.append(ETag).toString());
+        return new TextElement(strings.intern(b.append(ETag).toString()));
       } else {
         Block result = new Block();
-        result.addScript(new TextElement(b.toString()));
+        result.addScript(new TextElement(strings.intern(b.toString())));
         result.addScript(content);
         result.addScript(new TextElement(ETag));
         return result;
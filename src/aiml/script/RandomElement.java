@@ -26,11 +26,24 @@ import aiml.classifier.Classifier;
 import aiml.classifier.MatchState;
 import aiml.parser.AimlParserException;
 import aiml.parser.AimlSyntaxException;
+import aiml.snapshot.SnapshotInput;
+import aiml.snapshot.SnapshotOutput;
 
 public class RandomElement implements Script {
 
   private ArrayList<Script> items = new ArrayList<Script>();
-  private final Random random = new Random();
+
+  /**
+   * The random number generators. Templates are evaluated concurrently by
+   * many environments, so every thread gets its own generator instead of
+   * contending for a shared one.
+   */
+  private static final ThreadLocal<Random> random = new ThreadLocal<Random>() {
+    @Override
+    protected Random initialValue() {
+      return new Random();
+    }
+  };
 
   private void parseItem(XmlPullParser parser, Classifier classifier)
       throws XmlPullParserException, IOException, AimlParserException {
@@ -69,7 +82,23 @@ public class RandomElement implements Script {
   }
 
   public String evaluate(MatchState m) {
-    return items.get(random.nextInt(items.size())).evaluate(m);
+    return items.get(random.get().nextInt(items.size())).evaluate(m);
+  }
+
+  public void write(SnapshotOutput out) throws IOException {
+    out.writeInt(items.size());
+    for (Script s : items) {
+      out.writeScript(s);
+    }
+  }
+
+  public Script read(SnapshotInput in) throws IOException {
+    int count = in.readInt();
+    items.ensureCapacity(count);
+    for (int i = 0; i < count; i++) {
+      items.add(in.readScript());
+    }
+    return this;
   }
 
   public String toString() {
@@ -22,6 +22,8 @@ import org.xmlpull.v1.XmlPullParserException;
 import aiml.classifier.Classifier;
 import aiml.classifier.MatchState;
 import aiml.parser.AimlParserException;
+import aiml.snapshot.SnapshotInput;
+import aiml.snapshot.SnapshotOutput;
 
 public interface Script {
 
@@ -29,4 +31,26 @@ public interface Script {
       IOException, AimlParserException;
 
   public String evaluate(MatchState m);
+
+  /**
+   * Writes the script into a snapshot. Nested scripts are written using
+   * {@link SnapshotOutput#writeScript(Script)}.
+   * 
+   * @param out
+   *          the snapshot
+   * @throws IOException
+   */
+  public void write(SnapshotOutput out) throws IOException;
+
+  /**
+   * Reads the script from a snapshot, in the same order it was written by
+   * {@link #write(SnapshotOutput)}. This is called on a new instance created
+   * using the no argument constructor, and returns the instance itself.
+   * 
+   * @param in
+   *          the snapshot
+   * @return the script
+   * @throws IOException
+   */
+  public Script read(SnapshotInput in) throws IOException;
 }
\ No newline at end of file
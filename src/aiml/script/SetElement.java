@@ -23,13 +23,16 @@ import aiml.classifier.Classifier;
 import aiml.classifier.MatchState;
 import aiml.parser.AimlParserException;
 import aiml.parser.AimlSyntaxException;
+import aiml.snapshot.SnapshotInput;
+import aiml.snapshot.SnapshotOutput;
 
 public class SetElement extends SimpleScriptElement {
   private String nameAttr;
 
   public Script parse(XmlPullParser parser, Classifier classifier) throws XmlPullParserException,
       IOException, AimlParserException {
-    nameAttr = parser.getAttributeValue(null, "name");
+    nameAttr = classifier.getStringPool().intern(
+        parser.getAttributeValue(null, "name"));
     if (nameAttr == null)
       throw new AimlSyntaxException(
           "Syntax error: mandatory attribute 'name' missing from element '" +
@@ -43,6 +46,18 @@ public class SetElement extends SimpleScriptElement {
     return result;
   }
 
+  @Override
+  public void write(SnapshotOutput out) throws IOException {
+    out.writeString(nameAttr);
+    super.write(out);
+  }
+
+  @Override
+  public Script read(SnapshotInput in) throws IOException {
+    nameAttr = in.readString();
+    return super.read(in);
+  }
+
   public String toString() {
     return "$" + nameAttr + "=" + content;
   }
@@ -22,6 +22,8 @@ import org.xmlpull.v1.XmlPullParserException;
 import aiml.classifier.Classifier;
 import aiml.parser.AimlParserException;
 import aiml.parser.AimlSyntaxException;
+import aiml.snapshot.SnapshotInput;
+import aiml.snapshot.SnapshotOutput;
 
 public abstract class SimpleScriptElement implements Script {
 
@@ -40,4 +42,12 @@ public abstract class SimpleScriptElement implements Script {
           "' " + parser.getPositionDescription());
   }
 
+  public void write(SnapshotOutput out) throws IOException {
+    out.writeScript(content);
+  }
+
+  public Script read(SnapshotInput in) throws IOException {
+    content = in.readScript();
+    return this;
+  }
 }
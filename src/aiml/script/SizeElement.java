@@ -19,7 +19,7 @@ import aiml.classifier.MatchState;
 public class SizeElement extends EmptyElement {
 
   public String evaluate(MatchState m) {
-    return String.valueOf(m.getEnvironment().getBot().getClassifier().getCount());
+    return String.valueOf(m.getClassifier().getCount());
   }
 
   public String toString() {
@@ -16,6 +16,7 @@ package aiml.script;
 
 import java.util.logging.Logger;
 
+import aiml.classifier.Classifier;
 import aiml.classifier.MatchState;
 import aiml.context.InputContext;
 import aiml.environment.Environment;
@@ -26,11 +27,13 @@ public class SraiElement extends SimpleScriptElement {
 
     String newInput = content.evaluate(m);
     Environment environment = m.getEnvironment();
-    InputContext inputContext = (InputContext) environment.getBot().getClassifier().getContextInfo().getContext(
+    //recursive matches use the same classifier, even if the bot was reloaded
+    Classifier classifier = m.getClassifier();
+    InputContext inputContext = (InputContext) classifier.getContextInfo().getContext(
         "input");
 
     inputContext.push(newInput, environment);
-    MatchState result = environment.match();
+    MatchState result = classifier.match(environment);
     inputContext.pop(environment);
     if (result != null) {
       return ((aiml.script.Script) result.getResult()).evaluate(result);
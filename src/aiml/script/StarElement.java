@@ -28,6 +28,8 @@ import aiml.context.ContextInfo;
 import aiml.context.UnknownContextException;
 import aiml.parser.AimlParserException;
 import aiml.parser.AimlSyntaxException;
+import aiml.snapshot.SnapshotInput;
+import aiml.snapshot.SnapshotOutput;
 
 public class StarElement extends EmptyElement {
   private Context context;
@@ -95,6 +97,19 @@ public class StarElement extends EmptyElement {
     }
   }
 
+  @Override
+  public void write(SnapshotOutput out) throws IOException {
+    out.writeString(context.getName());
+    out.writeInt(index);
+  }
+
+  @Override
+  public Script read(SnapshotInput in) throws IOException {
+    context = in.getContextInfo().getContext(in.readString());
+    index = in.readInt();
+    return this;
+  }
+
   public String toString() {
     return "star[" + context.getName() + "," + index + "]";
   }
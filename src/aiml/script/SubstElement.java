@@ -25,6 +25,8 @@ import aiml.classifier.Classifier;
 import aiml.classifier.MatchState;
 import aiml.parser.AimlParserException;
 import aiml.parser.AimlSyntaxException;
+import aiml.snapshot.SnapshotInput;
+import aiml.snapshot.SnapshotOutput;
 
 public class SubstElement extends NonEmptyElement {
   private String type;
@@ -33,7 +35,8 @@ public class SubstElement extends NonEmptyElement {
       IOException, AimlParserException {
     type = parser.getName();
     if (type.equals("subst")) {
-      type = parser.getAttributeValue(null, "name");
+      type = classifier.getStringPool().intern(
+          parser.getAttributeValue(null, "name"));
       if (type == null) {
         throw new AimlSyntaxException(
             "Syntax error: mandatory attribute 'name' for 'subst' element missing");
@@ -55,6 +58,18 @@ public class SubstElement extends NonEmptyElement {
 
   }
 
+  @Override
+  public void write(SnapshotOutput out) throws IOException {
+    out.writeString(type);
+    super.write(out);
+  }
+
+  @Override
+  public Script read(SnapshotInput in) throws IOException {
+    type = in.readString();
+    return super.read(in);
+  }
+
   public String toString() {
     return "subst(" + type + "," + content + ")";
   }
@@ -28,6 +28,8 @@ import aiml.classifier.Classifier;
 import aiml.classifier.MatchState;
 import aiml.parser.AimlParserException;
 import aiml.parser.AimlSyntaxException;
+import aiml.snapshot.SnapshotInput;
+import aiml.snapshot.SnapshotOutput;
 
 /**
  * <p>
@@ -69,6 +71,9 @@ public class Switch implements Script {
 
   private Script defaultCase;
 
+  Switch() {
+  }
+
   Switch(String name) {
     this.name = name;
   }
@@ -90,7 +95,8 @@ public class Switch implements Script {
           "Syntax error: name attribute in switch case not allowed " +
               parser.getPositionDescription());
     }
-    String value = parser.getAttributeValue(null, "value");
+    String value = classifier.getStringPool().intern(
+        parser.getAttributeValue(null, "value"));
     if (value == null) {
       defaultCase = new Block().parse(parser, classifier);
     } else {
@@ -152,6 +158,26 @@ public class Switch implements Script {
     return "";
   }
 
+  public void write(SnapshotOutput out) throws IOException {
+    out.writeString(name);
+    out.writeInt(cases.size());
+    for (Entry<String, Script> aCase : cases.entrySet()) {
+      out.writeString(aCase.getKey());
+      out.writeScript(aCase.getValue());
+    }
+    out.writeScript(defaultCase);
+  }
+
+  public Script read(SnapshotInput in) throws IOException {
+    name = in.readString();
+    int count = in.readInt();
+    for (int i = 0; i < count; i++) {
+      cases.put(in.readString(), in.readScript());
+    }
+    defaultCase = in.readScript();
+    return this;
+  }
+
   public String toString() {
     StringBuffer result = new StringBuffer();
     result.append("switch($").append(name).append(',').append(cases.toString());
@@ -21,6 +21,8 @@ import org.xmlpull.v1.XmlPullParserException;
 
 import aiml.classifier.Classifier;
 import aiml.classifier.MatchState;
+import aiml.snapshot.SnapshotInput;
+import aiml.snapshot.SnapshotOutput;
 
 public class TextElement implements Script {
   private String text = null;
@@ -36,7 +38,7 @@ public class TextElement implements Script {
 
   public Script parse(XmlPullParser parser, Classifier classifier) throws XmlPullParserException,
       IOException {
-    text = parser.getText();
+    text = classifier.getStringPool().intern(parser.getText());
     parser.next();
     return this;
   }
@@ -78,6 +80,15 @@ public class TextElement implements Script {
     return s;
   }
 
+  public void write(SnapshotOutput out) throws IOException {
+    out.writeString(text);
+  }
+
+  public Script read(SnapshotInput in) throws IOException {
+    text = in.readString();
+    return this;
+  }
+
   public String toString() {
     return "\"" + printable(text) + "\"";
   }
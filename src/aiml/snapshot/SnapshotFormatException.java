@@ -0,0 +1,37 @@
+/*
+    jaiml - java AIML library
+    Copyright (C) 2026  Kim Sullivan
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    You should have received a copy of the GNU General Public License
+    along with this program; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package aiml.snapshot;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a snapshot can't be read, because it isn't a snapshot, was
+ * written by an incompatible version of the library, or is corrupted.
+ *
+ * @author Kim Sullivan
+ * @version 1.0
+ */
+public class SnapshotFormatException extends IOException {
+  private static final long serialVersionUID = 1L;
+
+  public SnapshotFormatException(String message) {
+    super(message);
+  }
+
+  public SnapshotFormatException(String message, Throwable cause) {
+    super(message, cause);
+  }
+
+}
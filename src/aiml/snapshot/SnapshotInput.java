@@ -0,0 +1,375 @@
+/*
+    jaiml - java AIML library
+    Copyright (C) 2026  Kim Sullivan
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    You should have received a copy of the GNU General Public License
+    along with this program; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package aiml.snapshot;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import aiml.classifier.StringPool;
+import aiml.context.ContextInfo;
+import aiml.script.Script;
+
+/**
+ * <p>
+ * Reads a binary snapshot written by a {@link SnapshotOutput}. The data is
+ * read sequentially, in the same order as it was written.
+ * </p>
+ *
+ * <p>
+ * If the snapshot is read from a file, and the file's channel is supplied,
+ * arrays of primitives aren't copied onto the heap, but mapped read-only
+ * directly from the file. The mapped pages are shared by all the processes
+ * mapping the same file, and stay valid after the snapshot is closed.
+ * </p>
+ *
+ * @author Kim Sullivan
+ * @version 1.0
+ */
+public class SnapshotInput {
+  private final DataInputStream in;
+
+  /** Counts the bytes read, to find the offsets of mapped arrays */
+  private final CountingInputStream counter;
+
+  /** The channel of the snapshot file, or <code>null</code> */
+  private final FileChannel channel;
+
+  /** The offset of the snapshot in the file */
+  private final long base;
+
+  /** The contexts that scripts refer to */
+  private final ContextInfo contextInfo;
+
+  /** The constructors of the script classes read so far, by number */
+  private final List<Constructor<? extends Script>> classes =
+      new ArrayList<Constructor<? extends Script>>();
+
+  /** Shares the equal strings read from the snapshot */
+  private final StringPool strings = new StringPool();
+
+  /** A buffer for converting strings and arrays of primitives */
+  private byte buffer[] = new byte[8192];
+
+  /**
+   * Opens a snapshot, and checks its header.
+   *
+   * @param in
+   *          the stream to read from
+   * @param contextInfo
+   *          the contexts of the classifier the snapshot is being read into
+   * @throws SnapshotFormatException
+   *           if the stream doesn't start with a header of a snapshot of the
+   *           current version
+   * @throws IOException
+   */
+  public SnapshotInput(InputStream in, ContextInfo contextInfo)
+      throws IOException {
+    this(in, contextInfo, null);
+  }
+
+  /**
+   * Opens a snapshot, and checks its header. Arrays of primitives will be
+   * mapped from the channel, which must belong to the file the stream reads,
+   * and be positioned at the beginning of the snapshot.
+   *
+   * @param in
+   *          the stream to read from
+   * @param contextInfo
+   *          the contexts of the classifier the snapshot is being read into
+   * @param channel
+   *          the channel of the snapshot file, or <code>null</code> to copy
+   *          arrays onto the heap
+   * @throws SnapshotFormatException
+   *           if the stream doesn't start with a header of a snapshot of the
+   *           current version
+   * @throws IOException
+   */
+  public SnapshotInput(InputStream in, ContextInfo contextInfo,
+      FileChannel channel) throws IOException {
+    this.counter = new CountingInputStream(new BufferedInputStream(in, 65536));
+    this.in = new DataInputStream(counter);
+    this.contextInfo = contextInfo;
+    this.channel = channel;
+    this.base = (channel == null ? 0 : channel.position());
+    try {
+      if (readInt() != SnapshotOutput.MAGIC) {
+        throw new SnapshotFormatException("Not a bot snapshot");
+      }
+    } catch (EOFException e) {
+      throw new SnapshotFormatException("Not a bot snapshot", e);
+    }
+    int version = readInt();
+    if (version != SnapshotOutput.VERSION) {
+      throw new SnapshotFormatException("Unsupported snapshot version " +
+          version + ", expected " + SnapshotOutput.VERSION);
+    }
+  }
+
+  /**
+   * Returns the contexts that scripts refer to
+   *
+   * @return the context information
+   */
+  public ContextInfo getContextInfo() {
+    return contextInfo;
+  }
+
+  public int readInt() throws IOException {
+    return in.readInt();
+  }
+
+  public boolean readBoolean() throws IOException {
+    return in.readBoolean();
+  }
+
+  /**
+   * Reads a string written by {@link SnapshotOutput#writeString(String)}.
+   * Equal strings read from the same snapshot are returned as the same
+   * instance.
+   *
+   * @return the string, may be <code>null</code>
+   * @throws IOException
+   */
+  public String readString() throws IOException {
+    int length = in.readInt();
+    if (length < 0) {
+      return null;
+    }
+    if (length > buffer.length) {
+      buffer = new byte[Math.max(length, buffer.length * 2)];
+    }
+    in.readFully(buffer, 0, length);
+    return strings.intern(new String(buffer, 0, length, SnapshotOutput.UTF8));
+  }
+
+  /**
+   * Skips the padding in front of an array of primitives
+   */
+  private void align() throws IOException {
+    while (counter.getPosition() % SnapshotOutput.ALIGNMENT != 0) {
+      in.readByte();
+    }
+  }
+
+  /**
+   * Maps the next bytes of the snapshot file, and skips them in the stream
+   */
+  private ByteBuffer map(int length) throws IOException {
+    long offset = base + counter.getPosition();
+    if (offset + length > channel.size()) {
+      throw new EOFException();
+    }
+    ByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, offset,
+        length).order(SnapshotOutput.ORDER);
+    if (in.skipBytes(length) < length) {
+      throw new EOFException();
+    }
+    return bytes;
+  }
+
+  /**
+   * Reads the next bytes of the snapshot into the buffer
+   */
+  private ByteBuffer read(int length) throws IOException {
+    if (length > buffer.length) {
+      buffer = new byte[length];
+    }
+    in.readFully(buffer, 0, length);
+    return ByteBuffer.wrap(buffer, 0, length).order(SnapshotOutput.ORDER);
+  }
+
+  /**
+   * Reads an array of integers written by
+   * {@link SnapshotOutput#writeInts(IntBuffer)}. The buffer is read-only
+   * and mapped from the file if a channel was supplied, otherwise it wraps an
+   * array on the heap.
+   *
+   * @param length
+   *          the number of integers
+   * @return the integers
+   * @throws IOException
+   */
+  public IntBuffer readInts(int length) throws IOException {
+    if (length < 0) {
+      throw new SnapshotFormatException("Invalid array length " + length);
+    }
+    align();
+    if (channel != null) {
+      return map(4 * length).asIntBuffer();
+    }
+    int values[] = new int[length];
+    int offset = 0;
+    while (offset < length) {
+      int count = Math.min(length - offset, 2048);
+      read(count * 4).asIntBuffer().get(values, offset, count);
+      offset += count;
+    }
+    return IntBuffer.wrap(values);
+  }
+
+  /**
+   * Reads an array of characters written by
+   * {@link SnapshotOutput#writeChars(CharBuffer)}. The buffer is read-only
+   * and mapped from the file if a channel was supplied, otherwise it wraps an
+   * array on the heap.
+   *
+   * @param length
+   *          the number of characters
+   * @return the characters
+   * @throws IOException
+   */
+  public CharBuffer readChars(int length) throws IOException {
+    if (length < 0) {
+      throw new SnapshotFormatException("Invalid array length " + length);
+    }
+    align();
+    if (channel != null) {
+      return map(2 * length).asCharBuffer();
+    }
+    char values[] = new char[length];
+    int offset = 0;
+    while (offset < length) {
+      int count = Math.min(length - offset, 4096);
+      read(count * 2).asCharBuffer().get(values, offset, count);
+      offset += count;
+    }
+    return CharBuffer.wrap(values);
+  }
+
+  /**
+   * Reads a script written by {@link SnapshotOutput#writeScript(Script)}. A
+   * new instance of the script's class is created using its no argument
+   * constructor (which doesn't have to be public), and then reads its data
+   * using {@link Script#read(SnapshotInput)}.
+   *
+   * @return the script, may be <code>null</code>
+   * @throws SnapshotFormatException
+   *           if the script's class can't be instantiated
+   * @throws IOException
+   */
+  public Script readScript() throws IOException {
+    int id = in.readInt();
+    if (id < 0) {
+      return null;
+    }
+    if (id == classes.size()) {
+      String name = readString();
+      try {
+        Constructor<? extends Script> constructor = Class.forName(name)
+            .asSubclass(Script.class).getDeclaredConstructor();
+        constructor.setAccessible(true);
+        classes.add(constructor);
+      } catch (Exception e) {
+        throw new SnapshotFormatException("Can't load script class " + name,
+            e);
+      }
+    } else if (id > classes.size()) {
+      throw new SnapshotFormatException("Unknown script class " + id);
+    }
+    Script script;
+    try {
+      script = classes.get(id).newInstance();
+    } catch (Exception e) {
+      throw new SnapshotFormatException("Can't create script " +
+          classes.get(id).getName(), e);
+    }
+    return script.read(this);
+  }
+
+  /**
+   * Reads an object written by {@link SnapshotOutput#writeObject(Object)}
+   *
+   * @return the object, may be <code>null</code>
+   * @throws IOException
+   */
+  public Object readObject() throws IOException {
+    int tag = in.readByte();
+    switch (tag) {
+    case SnapshotOutput.NULL:
+      return null;
+    case SnapshotOutput.STRING:
+      return readString();
+    case SnapshotOutput.SCRIPT:
+      return readScript();
+    default:
+      throw new SnapshotFormatException("Unknown object type " + tag);
+    }
+  }
+
+  /**
+   * Closes the underlying stream.
+   *
+   * @throws IOException
+   */
+  public void close() throws IOException {
+    in.close();
+  }
+
+  /**
+   * An input stream that keeps track of its position in the snapshot
+   */
+  private static class CountingInputStream extends FilterInputStream {
+    private long position;
+
+    CountingInputStream(InputStream in) {
+      super(in);
+    }
+
+    long getPosition() {
+      return position;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b >= 0) {
+        position++;
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte b[], int off, int len) throws IOException {
+      int count = super.read(b, off, len);
+      if (count > 0) {
+        position += count;
+      }
+      return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long count = super.skip(n);
+      position += count;
+      return count;
+    }
+
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
+  }
+}
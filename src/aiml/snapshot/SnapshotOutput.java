@@ -0,0 +1,243 @@
+/*
+    jaiml - java AIML library
+    Copyright (C) 2026  Kim Sullivan
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    You should have received a copy of the GNU General Public License
+    along with this program; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package aiml.snapshot;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+import aiml.script.Script;
+
+/**
+ * <p>
+ * Writes a binary snapshot of a bot (see
+ * {@link aiml.bot.Bot#writeSnapshot(String)}). The snapshot starts with a
+ * header, which identifies the format and its version, followed by whatever
+ * the objects being saved write into it, in the order they write it. There is
+ * no random access and no self description: a snapshot can only be read back
+ * by a {@link SnapshotInput} making the same calls, in the same order.
+ * </p>
+ *
+ * <p>
+ * Scripts are written as the name of their class (only the first time a class
+ * is used, later by number), followed by the data written by
+ * {@link Script#write(SnapshotOutput)}.
+ * </p>
+ *
+ * <p>
+ * Arrays of primitives are written in little endian byte order, starting at
+ * an offset aligned to {@link #ALIGNMENT} bytes (padded with zeros), so that
+ * a {@link SnapshotInput} can map them directly from the file instead of
+ * copying them onto the heap.
+ * </p>
+ *
+ * @author Kim Sullivan
+ * @version 1.0
+ */
+public class SnapshotOutput {
+  /** The first four bytes of every snapshot */
+  public static final int MAGIC = 0x4A41494D; //"JAIM"
+
+  /**
+   * The version of the format. Has to be increased whenever anything writes
+   * different data into the snapshot.
+   */
+  public static final int VERSION = 2;
+
+  /** The alignment of arrays of primitives, in bytes */
+  static final int ALIGNMENT = 8;
+
+  /** The byte order of arrays of primitives */
+  static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+  /** Tag of a <code>null</code> object */
+  static final int NULL = 0;
+
+  /** Tag of a string object */
+  static final int STRING = 1;
+
+  /** Tag of a script object */
+  static final int SCRIPT = 2;
+
+  static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private final DataOutputStream out;
+
+  /** The numbers of the script classes written so far */
+  private final Map<Class<?>, Integer> classes =
+      new HashMap<Class<?>, Integer>();
+
+  /** A buffer for converting arrays of primitives */
+  private final ByteBuffer buffer = ByteBuffer.allocate(8192).order(ORDER);
+
+  /**
+   * Creates a new snapshot and writes its header.
+   *
+   * @param out
+   *          the stream to write into
+   * @throws IOException
+   */
+  public SnapshotOutput(OutputStream out) throws IOException {
+    this.out = new DataOutputStream(new BufferedOutputStream(out, 65536));
+    writeInt(MAGIC);
+    writeInt(VERSION);
+  }
+
+  public void writeInt(int value) throws IOException {
+    out.writeInt(value);
+  }
+
+  public void writeBoolean(boolean value) throws IOException {
+    out.writeBoolean(value);
+  }
+
+  /**
+   * Writes a string, which may be <code>null</code>.
+   *
+   * @param s
+   *          the string
+   * @throws IOException
+   */
+  public void writeString(String s) throws IOException {
+    if (s == null) {
+      out.writeInt(-1);
+    } else {
+      byte bytes[] = s.getBytes(UTF8);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+  }
+
+  /**
+   * Pads the snapshot with zeros up to the next aligned offset
+   */
+  private void align() throws IOException {
+    while (out.size() % ALIGNMENT != 0) {
+      out.writeByte(0);
+    }
+  }
+
+  /**
+   * Writes all the integers of a buffer (regardless of its position and
+   * limit), aligned. The length isn't written.
+   *
+   * @param values
+   *          the buffer
+   * @throws IOException
+   */
+  public void writeInts(IntBuffer values) throws IOException {
+    align();
+    IntBuffer source = values.duplicate();
+    source.clear();
+    while (source.hasRemaining()) {
+      int count = Math.min(source.remaining(), buffer.capacity() / 4);
+      buffer.clear();
+      IntBuffer chunk = source.slice();
+      chunk.limit(count);
+      buffer.asIntBuffer().put(chunk);
+      out.write(buffer.array(), 0, count * 4);
+      source.position(source.position() + count);
+    }
+  }
+
+  /**
+   * Writes all the characters of a buffer (regardless of its position and
+   * limit), aligned. The length isn't written.
+   *
+   * @param values
+   *          the buffer
+   * @throws IOException
+   */
+  public void writeChars(CharBuffer values) throws IOException {
+    align();
+    CharBuffer source = values.duplicate();
+    source.clear();
+    while (source.hasRemaining()) {
+      int count = Math.min(source.remaining(), buffer.capacity() / 2);
+      buffer.clear();
+      CharBuffer chunk = source.slice();
+      chunk.limit(count);
+      buffer.asCharBuffer().put(chunk);
+      out.write(buffer.array(), 0, count * 2);
+      source.position(source.position() + count);
+    }
+  }
+
+  /**
+   * Writes a script, which may be <code>null</code>.
+   *
+   * @param script
+   *          the script
+   * @throws IOException
+   */
+  public void writeScript(Script script) throws IOException {
+    if (script == null) {
+      out.writeInt(-1);
+      return;
+    }
+    Integer id = classes.get(script.getClass());
+    if (id == null) {
+      //a new class is written as the next number, followed by the name
+      out.writeInt(classes.size());
+      writeString(script.getClass().getName());
+      classes.put(script.getClass(), classes.size());
+    } else {
+      out.writeInt(id);
+    }
+    script.write(this);
+  }
+
+  /**
+   * Writes an object stored in the classifier. Only strings and scripts are
+   * supported.
+   *
+   * @param o
+   *          the object, may be <code>null</code>
+   * @throws NotSerializableException
+   *           if the object is of an unsupported class
+   * @throws IOException
+   */
+  public void writeObject(Object o) throws IOException {
+    if (o == null) {
+      out.writeByte(NULL);
+    } else if (o instanceof String) {
+      out.writeByte(STRING);
+      writeString((String) o);
+    } else if (o instanceof Script) {
+      out.writeByte(SCRIPT);
+      writeScript((Script) o);
+    } else {
+      throw new NotSerializableException(o.getClass().getName());
+    }
+  }
+
+  /**
+   * Writes out the buffered data and closes the underlying stream.
+   *
+   * @throws IOException
+   */
+  public void close() throws IOException {
+    out.close();
+  }
+}
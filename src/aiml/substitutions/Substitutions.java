@@ -15,7 +15,9 @@
 package aiml.substitutions;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -85,6 +87,15 @@ public class Substitutions {
     return sb.toString();
   }
 
+  /**
+   * Returns the substitutions in the list, in the order they were added
+   * 
+   * @return an unmodifiable map from the patterns to their replacements
+   */
+  public Map<String, String> getSubstitutions() {
+    return Collections.unmodifiableMap(substitutions);
+  }
+
   private String getReplacement(Matcher m) {
     for (int i = 1; i < m.groupCount() + 1; i++) {
       if (m.group(i) != null) {
@@ -23,15 +23,36 @@ import com.ibm.icu.text.RuleBasedBreakIterator;
 public class ICUSentenceSplitter implements SentenceSplitter {
 
   BreakIterator sentenceIterator;
+
+  /** The sentence splitting rules, <code>null</code> for the default rules */
+  private String rules;
+
   public ICUSentenceSplitter() {
     sentenceIterator = BreakIterator.getSentenceInstance();
   }
 
   public ICUSentenceSplitter(String rules) {
     sentenceIterator = new RuleBasedBreakIterator(rules);
+    this.rules = rules;
   }
+
+  /**
+   * Returns the rules this splitter was created with
+   * 
+   * @return the rules, or <code>null</code> if the default rules are used
+   */
+  public String getRules() {
+    return rules;
+  }
+
+  /**
+   * Splits the text into sentences. The splitter is shared by all the
+   * environments of a bot, so a copy of the break iterator (which keeps the
+   * iteration state) is used for every call.
+   */
   public List<String> split(String text) {
     ArrayList<String> result = new ArrayList<String>();
+    BreakIterator sentenceIterator = (BreakIterator) this.sentenceIterator.clone();
     sentenceIterator.setText(text);
     int start = sentenceIterator.first();
     for (int end = sentenceIterator.next(); end != BreakIterator.DONE; start = end, end = sentenceIterator.next()) {
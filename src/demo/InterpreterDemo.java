@@ -56,9 +56,13 @@ public class InterpreterDemo {
     Bot b = new Bot(classifier);
     System.out.println("Loading bot...");
     // b.setProperty("name","Really Complicated");
-    b.load(args[0]);
+    if (args[0].endsWith(".snapshot")) {
+      b.loadSnapshot(args[0]);
+    } else {
+      b.load(args[0]);
+    }
     System.out.println("done, loaded " + classifier.getCount() + " categories.");
-    System.out.println("Enter text to match, or /exit to quit");
+    System.out.println("Enter text to match, /stats to show statistics of the classifier, /snapshot <file> to save a snapshot of the bot, or /exit to quit");
 
     BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
     System.out.print("> ");
@@ -67,6 +71,11 @@ public class InterpreterDemo {
     while (!line.equals("/exit")) {
       if (line.equals("/gv")) {
         System.out.println(classifier.gvGraph(new Graphviz()));
+      } else if (line.equals("/stats")) {
+        System.out.print(classifier.getStatistics());
+      } else if (line.startsWith("/snapshot ")) {
+        b.writeSnapshot(line.substring("/snapshot ".length()).trim());
+        System.out.println("Snapshot saved.");
       } else {
         for (String input : b.preprocessInput(line)) {
           e.pushInput(input);
@@ -0,0 +1,547 @@
+/*
+    jaiml - java AIML library
+    Copyright (C) 2026  Kim Sullivan
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    You should have received a copy of the GNU General Public License
+    along with this program; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package demo;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import aiml.bot.Bot;
+import aiml.classifier.Classifier;
+import aiml.classifier.DuplicatePathException;
+import aiml.classifier.MatchCache;
+import aiml.classifier.MatchState;
+import aiml.classifier.PaternSequence;
+import aiml.context.ContextInfo;
+import aiml.context.InputContext;
+import aiml.context.behaviour.MatchingBehaviour;
+import aiml.context.behaviour.PatternBehaviour;
+import aiml.context.data.EnvironmentInputSource;
+import aiml.environment.Environment;
+
+/**
+ * <p>
+ * A simple benchmark of the matching engines. It compares the default
+ * (character based) pattern behaviour with the word based one, both on the
+ * AIML sets of a bot and on synthetic, randomly generated pattern sets. The
+ * character based classifier is also measured when reusing a single match
+ * state, with a match cache, after being frozen (on and off the heap) and
+ * after being compiled into automata. A few patterns with many wildcards are
+ * also matched against inputs designed to make backtracking slow, and long
+ * literal sentences (like the questions of a FAQ) against inputs that share
+ * long prefixes with them.
+ * </p>
+ *
+ * <p>
+ * The synthetic set is also matched from as many threads as there are
+ * processors, sharing the classifier, and the throughput is compared with
+ * that of a single thread.
+ * </p>
+ *
+ * <p>
+ * Besides the average time of a match, the heap used by the classifier (after
+ * a full garbage collection) and the number of bytes allocated per match are
+ * reported. The allocation is only available on JVMs that support measuring
+ * the allocations of a thread, otherwise -1 is reported.
+ * </p>
+ *
+ * <p>
+ * Usage: <code>MatchBenchmark [bot.xml] [categories]</code>
+ * </p>
+ *
+ * <p>
+ * Each measurement is preceded by a warm up phase, so that the JIT has a
+ * chance to compile the matching code.
+ * </p>
+ *
+ * @author Kim Sullivan
+ */
+public class MatchBenchmark {
+  /** How many times all the inputs are matched before measuring */
+  private static final int WARMUP_ROUNDS = 5;
+
+  /** How many times all the inputs are matched while measuring */
+  private static final int ROUNDS = 10;
+
+  /** The number of words in the synthetic vocabulary */
+  private static final int VOCABULARY = 2000;
+
+  /** The number of words in a synthetic input */
+  private static final int INPUT_WORDS = 40;
+
+  /** The number of long literal patterns */
+  private static final int LITERALS = 2000;
+
+  /** Patterns that none of the adversarial inputs match */
+  private static final String ADVERSARIAL_PATTERNS[] = { "* X * X * X * X * Y",
+      "_ X _ X _ X _ Z", "* X * X * X * X * X * W" };
+
+  public static void main(String[] args) throws Exception {
+    Logger.getLogger("aiml").setLevel(Level.WARNING);
+    String botFile = (args.length > 0 ? args[0] : "bot.xml");
+    int categories = (args.length > 1 ? Integer.parseInt(args[1]) : 100000);
+
+    if (new File(botFile).exists()) {
+      List<String> inputs = botInputs();
+      for (MatchingBehaviour behaviour : behaviours()) {
+        long heap = usedHeap();
+        Classifier classifier = new Classifier();
+        Bot bot = new Bot(classifier);
+        bot.setMatchingBehaviour(behaviour);
+        bot.load(botFile);
+        Environment e = bot.createEnvironment();
+        e.addBotResponse("");
+        e.addBotResponse("");
+        report(botFile, name(behaviour), classifier.getCount(), usedHeap() -
+            heap, measure(e, inputs));
+        if (behaviour == PatternBehaviour.getDefaultBehaviour()) {
+          classifier.freeze();
+          report(botFile, "frozen", classifier.getCount(), usedHeap() - heap,
+              measure(e, inputs));
+          classifier.compile();
+          report(botFile, "compiled", classifier.getCount(),
+              usedHeap() - heap, measure(e, inputs));
+        }
+      }
+    }
+
+    adversarial();
+    literal(new Random(42));
+
+    Random random = new Random(42);
+    List<String> patterns = syntheticPatterns(random, categories);
+    List<String> inputs = syntheticInputs(random, 1000);
+    for (MatchingBehaviour behaviour : behaviours()) {
+      long heap = usedHeap();
+      Classifier classifier = new Classifier();
+      Bot bot = createBot(classifier, behaviour);
+      for (String pattern : patterns) {
+        PaternSequence sequence = new PaternSequence(
+            classifier.getContextInfo());
+        sequence.add("input", pattern);
+        try {
+          classifier.add(sequence, pattern);
+        } catch (DuplicatePathException e) {
+          //random patterns may repeat
+        }
+      }
+      Environment e = bot.createEnvironment();
+      report("synthetic", name(behaviour), classifier.getCount(), usedHeap() -
+          heap, measure(e, inputs));
+      if (behaviour == PatternBehaviour.getDefaultBehaviour()) {
+        report("synthetic", "reused", classifier.getCount(), usedHeap() - heap,
+            measure(e, inputs, true));
+        scaling("synthetic", "character", bot, inputs);
+        classifier.setMatchCache(new MatchCache(2 * inputs.size()));
+        report("synthetic", "cached", classifier.getCount(), usedHeap() - heap,
+            measure(e, inputs));
+        scaling("synthetic", "cached", bot, inputs);
+        classifier.setMatchCache(null);
+        classifier.freeze();
+        report("synthetic", "frozen", classifier.getCount(),
+            usedHeap() - heap, measure(e, inputs));
+        scaling("synthetic", "frozen", bot, inputs);
+        classifier.freeze(true);
+        report("synthetic", "offheap", classifier.getCount(),
+            usedHeap() - heap, measure(e, inputs));
+        classifier.compile();
+        report("synthetic", "compiled", classifier.getCount(),
+            usedHeap() - heap, measure(e, inputs));
+      }
+    }
+  }
+
+  /**
+   * Measures patterns that make the backtracking matchers try every placement
+   * of their wildcards, before failing
+   */
+  static void adversarial() throws Exception {
+    long heap = usedHeap();
+    Classifier classifier = new Classifier();
+    Bot bot = createBot(classifier, PatternBehaviour.getDefaultBehaviour());
+    for (String pattern : ADVERSARIAL_PATTERNS) {
+      PaternSequence sequence = new PaternSequence(classifier.getContextInfo());
+      sequence.add("input", pattern);
+      classifier.add(sequence, pattern);
+    }
+    List<String> inputs = adversarialInputs();
+    Environment e = bot.createEnvironment();
+    report("adversarial", "character", classifier.getCount(), usedHeap() -
+        heap, measure(e, inputs));
+    classifier.freeze();
+    report("adversarial", "frozen", classifier.getCount(), usedHeap() - heap,
+        measure(e, inputs));
+    classifier.compile();
+    report("adversarial", "compiled", classifier.getCount(), usedHeap() -
+        heap, measure(e, inputs));
+  }
+
+  /**
+   * Measures long literal patterns, half of them followed by a wildcard, so
+   * that matching is dominated by comparing long strings
+   */
+  static void literal(Random random) throws Exception {
+    long heap = usedHeap();
+    Classifier classifier = new Classifier();
+    Bot bot = createBot(classifier, PatternBehaviour.getDefaultBehaviour());
+    List<String> patterns = literalPatterns(random, LITERALS);
+    for (String pattern : patterns) {
+      PaternSequence sequence = new PaternSequence(classifier.getContextInfo());
+      sequence.add("input", pattern);
+      try {
+        classifier.add(sequence, pattern);
+      } catch (DuplicatePathException e) {
+        //random patterns may repeat
+      }
+    }
+    List<String> inputs = literalInputs(random, patterns, 1000);
+    Environment e = bot.createEnvironment();
+    report("literal", "character", classifier.getCount(), usedHeap() - heap,
+        measure(e, inputs));
+    classifier.freeze();
+    report("literal", "frozen", classifier.getCount(), usedHeap() - heap,
+        measure(e, inputs));
+    classifier.compile();
+    report("literal", "compiled", classifier.getCount(), usedHeap() - heap,
+        measure(e, inputs));
+  }
+
+  /**
+   * Returns the matching behaviours that are compared
+   */
+  static MatchingBehaviour[] behaviours() {
+    return new MatchingBehaviour[] { PatternBehaviour.getDefaultBehaviour(),
+        PatternBehaviour.getWordBehaviour() };
+  }
+
+  /**
+   * Creates a bot with only the input context registered, using the
+   * specified matching behaviour.
+   */
+  static Bot createBot(Classifier classifier, MatchingBehaviour behaviour)
+      throws Exception {
+    ContextInfo contextInfo = classifier.getContextInfo();
+    contextInfo.registerContext(new InputContext("input",
+        new EnvironmentInputSource(), behaviour));
+    return new Bot(classifier);
+  }
+
+  /**
+   * The averages of a single match
+   */
+  static class Measurement {
+    /** The time of a match in nanoseconds */
+    double nanos;
+
+    /** The bytes allocated by a match, -1 if not available */
+    double bytes;
+  }
+
+  /**
+   * Matches all the inputs repeatedly, and returns the average time and
+   * allocation of a single match.
+   */
+  static Measurement measure(Environment e, List<String> inputs) {
+    return measure(e, inputs, false);
+  }
+
+  /**
+   * Matches all the inputs repeatedly, and returns the average time and
+   * allocation of a single match. The inputs are either matched using the
+   * environment, or using a single match state that is reset before every
+   * match.
+   */
+  static Measurement measure(Environment e, List<String> inputs, boolean reuse) {
+    MatchState state = null;
+    if (reuse) {
+      e.pushInput(inputs.get(0));
+      state = new MatchState(e);
+      e.popInput();
+    }
+    int matched = 0;
+    for (int i = 0; i < WARMUP_ROUNDS; i++) {
+      matched += matchAll(e, inputs, state);
+    }
+    long allocated = allocatedBytes();
+    long start = System.nanoTime();
+    for (int i = 0; i < ROUNDS; i++) {
+      matched += matchAll(e, inputs, state);
+    }
+    long time = System.nanoTime() - start;
+    if (matched < 0) {
+      System.out.println(); //keep the results alive
+    }
+    Measurement result = new Measurement();
+    result.nanos = (double) time / (ROUNDS * inputs.size());
+    result.bytes = (allocated < 0 ? -1 : (double) (allocatedBytes() - allocated) /
+        (ROUNDS * inputs.size()));
+    return result;
+  }
+
+  /**
+   * Matches all the inputs repeatedly from a single thread, and then from as
+   * many threads as there are processors, each with its own environment.
+   * Reports the throughput of all the threads, and how many times it's higher
+   * than that of the single thread.
+   */
+  static void scaling(String set, String name, Bot bot, List<String> inputs)
+      throws Exception {
+    int threads = Runtime.getRuntime().availableProcessors();
+    throughput(bot, inputs, threads); //warm up
+    double single = throughput(bot, inputs, 1);
+    double multi = throughput(bot, inputs, threads);
+    System.out.printf("%-12s %-10s %8d threads %12.0f matches/s %9.1fx%n",
+        set, name, threads, multi, multi / single);
+  }
+
+  /**
+   * Matches all the inputs repeatedly from the specified number of threads,
+   * and returns the number of matches per second
+   */
+  static double throughput(final Bot bot, final List<String> inputs,
+      int threads) throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+      for (int i = 0; i < threads; i++) {
+        tasks.add(new Callable<Integer>() {
+          public Integer call() {
+            Environment e = bot.createEnvironment();
+            int matched = 0;
+            for (int round = 0; round < ROUNDS; round++) {
+              matched += matchAll(e, inputs, null);
+            }
+            return matched;
+          }
+        });
+      }
+      long start = System.nanoTime();
+      for (Future<Integer> result : executor.invokeAll(tasks)) {
+        result.get();
+      }
+      long time = System.nanoTime() - start;
+      return (double) threads * ROUNDS * inputs.size() * 1e9 / time;
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Returns the number of bytes allocated by the current thread so far
+   *
+   * @return the number of bytes, or -1 if the JVM can't measure it
+   */
+  static long allocatedBytes() {
+    ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (bean instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the number of bytes used on the heap, after collecting garbage
+   */
+  static long usedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  static int matchAll(Environment e, List<String> inputs, MatchState state) {
+    int matched = 0;
+    for (String input : inputs) {
+      e.pushInput(input);
+      if (state == null) {
+        if (e.match() != null) {
+          matched++;
+        }
+      } else {
+        state.reset(e);
+        if (state.getClassifier().match(state)) {
+          matched++;
+        }
+      }
+      e.popInput();
+    }
+    return matched;
+  }
+
+  static String name(MatchingBehaviour behaviour) {
+    return (behaviour == PatternBehaviour.getWordBehaviour() ? "word" : "character");
+  }
+
+  static void report(String set, String name, int count, long heap,
+      Measurement m) {
+    System.out.printf(
+        "%-12s %-10s %8d categories %12.0f ns/match %10.0f B/match %8d KB heap%n",
+        set, name, count, m.nanos, m.bytes, heap / 1024);
+  }
+
+  /**
+   * Creates inputs from the patterns of the bundled AIML files, by replacing
+   * wildcards with words.
+   */
+  static List<String> botInputs() throws IOException {
+    List<String> inputs = new ArrayList<String>();
+    Pattern p = Pattern.compile("<pattern>(.*?)</pattern>");
+    File dirs[] = { new File("aiml/example"), new File("aiml/utils") };
+    for (File dir : dirs) {
+      File files[] = dir.listFiles();
+      if (files == null) {
+        continue;
+      }
+      for (File file : files) {
+        BufferedReader in = new BufferedReader(new InputStreamReader(
+            new FileInputStream(file), "UTF-8"));
+        try {
+          String line;
+          while ((line = in.readLine()) != null) {
+            Matcher m = p.matcher(line);
+            while (m.find()) {
+              String pattern = m.group(1).replaceAll("<[^>]*>", "X");
+              inputs.add(pattern.replace("*", "SOME WORDS").replace("_", "ONE"));
+              inputs.add("WELL " + pattern.replace("*", "A B C").replace("_", "D") + " OK");
+            }
+          }
+        } finally {
+          in.close();
+        }
+      }
+    }
+    return inputs;
+  }
+
+  static String word(Random random) {
+    return "W" + random.nextInt(VOCABULARY);
+  }
+
+  /**
+   * Generates random patterns, roughly a third of them with wildcards
+   */
+  static List<String> syntheticPatterns(Random random, int count) {
+    List<String> patterns = new ArrayList<String>(count);
+    for (int i = 0; i < count; i++) {
+      StringBuilder sb = new StringBuilder();
+      int words = 1 + random.nextInt(6);
+      for (int j = 0; j < words; j++) {
+        if (j > 0) {
+          sb.append(' ');
+        }
+        int r = random.nextInt(10);
+        if (r == 0) {
+          sb.append('*');
+        } else if (r == 1 && j == 0) {
+          sb.append('_');
+        } else {
+          sb.append(word(random));
+        }
+      }
+      patterns.add(sb.toString());
+    }
+    return patterns;
+  }
+
+  /**
+   * Generates random sentences of 8 to 16 words sharing a few common
+   * beginnings, every other one followed by a star
+   */
+  static List<String> literalPatterns(Random random, int count) {
+    String beginnings[] = { "WHAT IS THE", "HOW DO I", "CAN YOU TELL ME" };
+    List<String> patterns = new ArrayList<String>(count);
+    for (int i = 0; i < count; i++) {
+      StringBuilder sb = new StringBuilder(beginnings[i % beginnings.length]);
+      int words = 8 + random.nextInt(9);
+      for (int j = 0; j < words; j++) {
+        sb.append(' ').append(word(random));
+      }
+      if (i % 2 == 1) {
+        sb.append(" *");
+      }
+      patterns.add(sb.toString());
+    }
+    return patterns;
+  }
+
+  /**
+   * Generates inputs from the literal patterns: every other one matches its
+   * pattern, the others differ in the last word of the sentence
+   */
+  static List<String> literalInputs(Random random, List<String> patterns,
+      int count) {
+    List<String> inputs = new ArrayList<String>(count);
+    for (int i = 0; i < count; i++) {
+      String pattern = patterns.get(random.nextInt(patterns.size()));
+      String input = (pattern.endsWith(" *") ? pattern.substring(0,
+          pattern.length() - 2) : pattern);
+      if (i % 2 == 1) {
+        input = input.substring(0, input.lastIndexOf(' ') + 1) + word(random);
+      }
+      if (pattern.endsWith(" *")) {
+        input += " " + word(random) + " " + word(random);
+      }
+      inputs.add(input);
+    }
+    return inputs;
+  }
+
+  /**
+   * Generates inputs consisting of a repeated word
+   */
+  static List<String> adversarialInputs() {
+    List<String> inputs = new ArrayList<String>();
+    StringBuilder sb = new StringBuilder("X");
+    for (int i = 1; i < 16; i++) {
+      sb.append(" X");
+      inputs.add(sb.toString());
+    }
+    return inputs;
+  }
+
+  /**
+   * Generates random sentences
+   */
+  static List<String> syntheticInputs(Random random, int count) {
+    List<String> inputs = new ArrayList<String>(count);
+    for (int i = 0; i < count; i++) {
+      StringBuilder sb = new StringBuilder();
+      for (int j = 0; j < INPUT_WORDS; j++) {
+        if (j > 0) {
+          sb.append(' ');
+        }
+        sb.append(word(random));
+      }
+      inputs.add(sb.toString());
+    }
+    return inputs;
+  }
+}
@@ -0,0 +1,241 @@
+/*
+    jaiml - java AIML library
+    Copyright (C) 2026  Kim Sullivan
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    You should have received a copy of the GNU General Public License
+    along with this program; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package aiml.bot;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+import aiml.classifier.Classifier;
+import aiml.classifier.MatchCache;
+import aiml.classifier.MatchState;
+import aiml.environment.Environment;
+import aiml.script.Script;
+import aiml.snapshot.SnapshotFormatException;
+
+public class BotTest extends TestCase {
+
+  private File botFile;
+
+  private File aimlFile;
+
+  private static void write(File file, String contents) throws IOException {
+    Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+    try {
+      out.write(contents);
+    } finally {
+      out.close();
+    }
+  }
+
+  private void writeAiml(String answer) throws IOException {
+    write(aimlFile, "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+        "<aiml version=\"1.0\">\n" +
+        "<category><pattern>HELLO</pattern><template><srai>ANSWER</srai></template></category>\n" +
+        "<category><pattern>ANSWER</pattern><template>" + answer +
+        "</template></category>\n" + "</aiml>\n");
+  }
+
+  protected void setUp() throws Exception {
+    aimlFile = File.createTempFile("bottest", ".aiml");
+    botFile = File.createTempFile("bottest", ".xml");
+    write(botFile, "<bot id=\"test\" enabled=\"true\">\n<learn>" +
+        aimlFile.getAbsolutePath() + "</learn>\n</bot>\n");
+  }
+
+  protected void tearDown() throws Exception {
+    aimlFile.delete();
+    botFile.delete();
+  }
+
+  private static String respond(MatchState m) {
+    return ((Script) m.getResult()).evaluate(m);
+  }
+
+  public void testReload() throws Exception {
+    writeAiml("one");
+    Bot bot = new Bot(new Classifier());
+    bot.load(botFile.getPath());
+    bot.getClassifier().freeze();
+    Environment e = bot.createEnvironment();
+
+    e.pushInput("hello");
+    MatchState before = e.match();
+    e.popInput();
+    Classifier old = bot.getClassifier();
+
+    writeAiml("two");
+    bot.reload();
+    assertNotSame(old, bot.getClassifier());
+    assertTrue(bot.getClassifier().isFrozen());
+    assertSame(old, before.getClassifier());
+
+    //the match started before the reload finishes against the old categories
+    assertEquals("one", respond(before));
+
+    e.pushInput("hello");
+    MatchState after = e.match();
+    e.popInput();
+    assertSame(bot.getClassifier(), after.getClassifier());
+    assertEquals("two", respond(after));
+  }
+
+  public void testReloadSettings() throws Exception {
+    writeAiml("one");
+    Bot bot = new Bot(new Classifier());
+    bot.load(botFile.getPath());
+    Classifier old = bot.getClassifier();
+    old.setStepBudget(1);
+    old.setTimeBudget(1, TimeUnit.SECONDS);
+    old.setBudgetFallback("fallback");
+    old.setMemoizeFailures(true);
+    old.setMatchCache(new MatchCache(10));
+
+    bot.reload();
+    Classifier reloaded = bot.getClassifier();
+    assertNotSame(old, reloaded);
+    assertEquals(1, reloaded.getStepBudget());
+    assertEquals(1, reloaded.getTimeBudget(TimeUnit.SECONDS));
+    assertTrue(reloaded.isMemoizingFailures());
+    assertEquals(10, reloaded.getMatchCache().getCapacity());
+    assertNotSame(old.getMatchCache(), reloaded.getMatchCache());
+
+    //the budget still stops the match
+    Environment e = bot.createEnvironment();
+    e.pushInput("hello");
+    assertEquals("fallback", e.match().getResult());
+    e.popInput();
+    assertEquals(1, reloaded.getBudgetExceededCount());
+  }
+
+  public void testSnapshot() throws Exception {
+    write(aimlFile, "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+        "<aiml version=\"1.0\">\n" +
+        "<category><pattern>HELLO</pattern><template><srai>MY NAME IS <bot name=\"name\"/></srai></template></category>\n" +
+        "<category><pattern>MY NAME IS *</pattern><template><think><set name=\"user\"><star/></set></think>" +
+        "<condition name=\"user\"><li value=\"bob\">Hi Bob</li><li value=\"ann\">Hi Ann</li><li><uppercase><get name=\"user\"/></uppercase></li></condition>" +
+        "</template></category>\n" +
+        "<category><pattern>_ SAID *</pattern><that>*</that><template><person><star index=\"2\"/></person> <thatstar/></template></category>\n" +
+        "<category><pattern>SIZE</pattern><template><size/> <input index=\"1\"/><b>!</b></template></category>\n" +
+        "</aiml>\n");
+    write(botFile, "<bot id=\"test\" enabled=\"true\">\n" +
+        "<properties><property name=\"name\" value=\"Bob\"/></properties>\n" +
+        "<substitutions><input><substitute find=\"\\bim\\b\" replace=\"I am\"/></input>\n" +
+        "<person><substitute find=\"\\bme\\b\" replace=\"you\"/></person></substitutions>\n" +
+        "<learn>" + aimlFile.getAbsolutePath() + "</learn>\n</bot>\n");
+    Bot bot = new Bot(new Classifier());
+    bot.load(botFile.getPath());
+
+    File snapshotFile = File.createTempFile("bottest", ".snapshot");
+    try {
+      bot.writeSnapshot(snapshotFile.getPath());
+      Bot loaded = new Bot(new Classifier());
+      loaded.loadSnapshot(snapshotFile.getPath());
+      assertEquals("test", loaded.getName());
+      assertEquals("Bob", loaded.getProperty("name"));
+      assertEquals(bot.getClassifier().getCount(),
+          loaded.getClassifier().getCount());
+      assertTrue(loaded.getClassifier().isFrozen());
+      assertEquals(bot.preprocessInput("im here"),
+          loaded.preprocessInput("im here"));
+
+      Bot mapped = new Bot(new Classifier());
+      mapped.loadSnapshot(snapshotFile.getPath(), true);
+      assertTrue(mapped.getClassifier().isOffHeap());
+      assertFalse(loaded.getClassifier().isOffHeap());
+
+      String inputs[] = { "hello", "my name is ann", "my name is joe",
+          "he said hit me", "size", "nothing" };
+      Environment expected = bot.createEnvironment();
+      Environment actual = loaded.createEnvironment();
+      Environment actualMapped = mapped.createEnvironment();
+      for (int i = 0; i < 2; i++) {
+        expected.addBotResponse("");
+        actual.addBotResponse("");
+        actualMapped.addBotResponse("");
+      }
+      String responses[] = new String[inputs.length];
+      for (int i = 0; i < inputs.length; i++) {
+        responses[i] = respond(actual, inputs[i]);
+        assertEquals(respond(expected, inputs[i]), responses[i]);
+        assertEquals(responses[i], respond(actualMapped, inputs[i]));
+      }
+      assertEquals("Hi Bob", responses[0]);
+      assertEquals("JOE", responses[2]);
+      assertNull(responses[5]);
+
+      //reloading uses the snapshot again
+      loaded.reload();
+      assertEquals(bot.getClassifier().getCount(),
+          loaded.getClassifier().getCount());
+      mapped.reload();
+      assertTrue(mapped.getClassifier().isOffHeap());
+
+      write(snapshotFile, "not a snapshot");
+      try {
+        new Bot(new Classifier()).loadSnapshot(snapshotFile.getPath());
+        fail("Loaded an invalid snapshot");
+      } catch (SnapshotFormatException e) {
+      }
+    } finally {
+      snapshotFile.delete();
+    }
+  }
+
+  private static String respond(Environment e, String input) {
+    e.pushInput(input);
+    MatchState m = e.match();
+    String response = (m == null ? null : respond(m));
+    e.popInput();
+    e.addBotResponse(response == null ? "" : response);
+    return response;
+  }
+
+  public void testStringPool() throws Exception {
+    write(aimlFile, "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+        "<aiml version=\"1.0\">\n" +
+        "<category><pattern>HELLO THERE</pattern><template>Same text</template></category>\n" +
+        "<category><pattern>HELLO THEN</pattern><template>Same text</template></category>\n" +
+        "<category><pattern>HELLO THERE *</pattern><template>Same text</template></category>\n" +
+        "</aiml>\n");
+    Bot bot = new Bot(new Classifier());
+    bot.load(botFile.getPath());
+    Environment e = bot.createEnvironment();
+    e.pushInput("hello there");
+    String first = respond(e.match());
+    e.popInput();
+    e.pushInput("hello then");
+    String second = respond(e.match());
+    e.popInput();
+    assertEquals("Same text", first);
+    assertSame(first, second);
+    //the pool is only kept while loading
+    assertTrue(bot.getClassifier().getStringPool().getDuplicates() > 0);
+    assertEquals(0, bot.getClassifier().getStringPool().getSize());
+  }
+
+  public void testReloadWithoutFile() throws Exception {
+    Bot bot = new Bot(new Classifier());
+    try {
+      bot.reload();
+      fail("Reloaded a bot that wasn't loaded from a file");
+    } catch (IllegalStateException e) {
+    }
+  }
+}
@@ -14,16 +14,80 @@
 
 package aiml.classifier;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
 import junit.framework.TestCase;
+import aiml.bot.Bot;
 import aiml.context.Context;
 import aiml.context.ContextInfo;
 import aiml.context.InputContext;
 import aiml.context.behaviour.PatternBehaviour;
 import aiml.context.data.EnvironmentInputSource;
 import aiml.context.data.StringSource;
+import aiml.environment.Environment;
 
 public class ClassifierTest extends TestCase {
 
+  private Classifier classifier;
+  private ContextInfo contextInfo;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    classifier = createClassifier(PatternBehaviour.getDefaultBehaviour());
+    contextInfo = classifier.getContextInfo();
+  }
+
+  /**
+   * Creates a classifier with the input and that contexts
+   */
+  private static Classifier createClassifier(PatternBehaviour behaviour) {
+    Classifier classifier = new Classifier();
+    ContextInfo contextInfo = classifier.getContextInfo();
+    contextInfo.registerContext(new InputContext("input",
+        new EnvironmentInputSource(), behaviour));
+    contextInfo.registerContext(new Context<String>("that", new StringSource(),
+        behaviour));
+    return classifier;
+  }
+
+  /**
+   * Adds input patterns, each with the pattern as the result
+   */
+  private void add(String patterns[]) throws MultipleContextsException,
+      DuplicatePathException {
+    for (String pattern : patterns) {
+      classifier.add(sequence(contextInfo, new String[] { pattern, null }),
+          pattern);
+    }
+  }
+
+  /**
+   * Adds input and that patterns, each with "input/that" as the result
+   */
+  private void add(String patterns[][]) throws MultipleContextsException,
+      DuplicatePathException {
+    for (String pattern[] : patterns) {
+      classifier.add(sequence(contextInfo, pattern), pattern[0] + "/" +
+          pattern[1]);
+    }
+  }
+
+  private static PaternSequence sequence(ContextInfo contextInfo,
+      String pattern[]) throws MultipleContextsException {
+    PaternSequence s = new PaternSequence(contextInfo);
+    s.add("input", pattern[0]);
+    if (pattern[1] != null) {
+      s.add("that", pattern[1]);
+    }
+    return s;
+  }
+
   public void testAdd() throws MultipleContextsException,
       DuplicatePathException {
     Classifier classifier = new Classifier();
@@ -47,4 +111,860 @@ public class ClassifierTest extends TestCase {
 
   }
 
+  public void testNormalizedWildcards() throws Exception {
+    PaternSequence s = new PaternSequence(contextInfo);
+    s.add("input", "KUN * STRASSE *");
+    classifier.add(s, "street");
+
+    Environment e = new Bot(classifier).createEnvironment();
+    e.pushInput("k\u016f\u0148 \u017elu\u0165ou\u010dk\u00fd stra\u00dfe e\u0301 o");
+    MatchState m = classifier.match(e);
+    assertNotNull(m);
+    assertEquals("street", m.getResult());
+    Context input = contextInfo.getContext("input");
+    assertEquals("\u017elu\u0165ou\u010dk\u00fd", m.getWildcard(input, 1).getValue());
+    assertEquals("e\u0301 o", m.getWildcard(input, 2).getValue());
+  }
+
+  public void testWordBehaviour() throws Exception {
+    classifier = createClassifier(PatternBehaviour.getWordBehaviour());
+    contextInfo = classifier.getContextInfo();
+
+    String patterns[] = { "WHAT IS *", "WHAT IS YOUR NAME", "_ NAME", "* IS *",
+        "WHAT" };
+    add(patterns);
+
+    Environment e = new Bot(classifier).createEnvironment();
+    Context input = contextInfo.getContext("input");
+
+    e.pushInput("what is your name");
+    MatchState m = classifier.match(e);
+    assertEquals("_ NAME", m.getResult());
+    assertEquals("what is your", m.getWildcard(input, 1).getValue());
+    e.popInput();
+
+    e.pushInput("what is  the   time");
+    m = classifier.match(e);
+    assertEquals("WHAT IS *", m.getResult());
+    assertEquals("the   time", m.getWildcard(input, 1).getValue());
+    e.popInput();
+
+    e.pushInput("whatever is this");
+    m = classifier.match(e);
+    assertEquals("* IS *", m.getResult());
+    assertEquals("whatever", m.getWildcard(input, 1).getValue());
+    assertEquals("this", m.getWildcard(input, 2).getValue());
+    e.popInput();
+
+    e.pushInput("what");
+    assertEquals("WHAT", classifier.match(e).getResult());
+    e.popInput();
+
+    e.pushInput("whatis");
+    assertNull(classifier.match(e));
+    e.popInput();
+
+    //the word based tree can't be frozen, but its matches can be listed
+    e.pushInput("what is your name");
+    List<Object> results = new ArrayList<Object>();
+    for (Iterator<MatchState> i = classifier.matches(e); i.hasNext();) {
+      results.add(i.next().getResult());
+    }
+    e.popInput();
+    assertEquals(Arrays.asList("_ NAME", "WHAT IS YOUR NAME", "WHAT IS *",
+        "* IS *"), results);
+  }
+
+  public void testWildcardLookahead() throws Exception {
+    String patterns[] = { "* WHAT IS *", "* IS", "* A B", "* A C *", "* X _ Y" };
+    add(patterns);
+
+    Environment e = new Bot(classifier).createEnvironment();
+    Context input = contextInfo.getContext("input");
+    String inputs[][] = {
+        { "so what is what is this", "* WHAT IS *", "so", "what is this" },
+        { "what is what is", "* IS", "what is what", null },
+        { "a a a b", "* A B", "a a", null },
+        { "a c a b a c d", "* A C *", "a c a b", "d" },
+        { "x x q y", "* X _ Y", "x", "q" } };
+    for (String test[] : inputs) {
+      e.pushInput(test[0]);
+      MatchState m = classifier.match(e);
+      assertEquals(test[1], m.getResult());
+      assertEquals(test[2], m.getWildcard(input, 1).getValue());
+      if (test[3] != null) {
+        assertEquals(test[3], m.getWildcard(input, 2).getValue());
+      }
+      e.popInput();
+    }
+  }
+
+  public void testLiteralSuffixes() throws Exception {
+    //the literal patterns are stored in a hash map node first, which has to
+    //be split when the wildcards are added
+    String patterns[] = { "HELLO THERE", "HELLO", "HI", "WHAT IS YOUR NAME",
+        "HELLO *", "_ THERE", "WHAT IS *", "WHAT" };
+    add(patterns);
+    PaternSequence s = new PaternSequence(contextInfo);
+    s.add("input", "what is your name");
+    try {
+      classifier.add(s, "duplicate");
+      fail("Added a duplicate literal pattern");
+    } catch (DuplicatePathException ex) {
+    }
+
+    Environment e = new Bot(classifier).createEnvironment();
+    String inputs[][] = { { "hello there", "_ THERE" }, { "hello", "HELLO" },
+        { "hello you", "HELLO *" }, { "hi", "HI" }, { "hi there", "_ THERE" },
+        { "what is your name", "WHAT IS YOUR NAME" },
+        { "what is that", "WHAT IS *" }, { "what", "WHAT" },
+        { "whatever", null } };
+    for (int i = 0; i < 2; i++) {
+      for (String test[] : inputs) {
+        e.pushInput(test[0]);
+        MatchState m = classifier.match(e);
+        assertEquals(test[1], (m == null ? null : m.getResult()));
+        e.popInput();
+      }
+      classifier.freeze();
+    }
+  }
+
+  public void testRemove() throws Exception {
+    String patterns[][] = { { "HELLO THERE", null }, { "HELLO", null },
+        { "HI", null }, { "HELLO *", null }, { "_ THERE", null },
+        { "WHAT IS *", null }, { "WHAT IS YOUR NAME", null },
+        { "WHAT", "*" }, { "WHAT", null } };
+    add(patterns);
+    String removed[][] = { { "HI", null }, { "_ THERE", null },
+        { "WHAT IS YOUR NAME", null }, { "WHAT", "*" } };
+    for (String pattern[] : removed) {
+      classifier.remove(sequence(contextInfo, pattern));
+    }
+    assertEquals(patterns.length - removed.length, classifier.getCount());
+
+    String missing[][] = { { "HI", null }, { "HELL", null },
+        { "HELLO THERE *", null }, { "WHAT IS", null }, { "WHAT", "FOO" },
+        { "_", null } };
+    for (String pattern[] : missing) {
+      try {
+        classifier.remove(sequence(contextInfo, pattern));
+        fail("Removed a missing pattern " + pattern[0]);
+      } catch (NoSuchPathException ex) {
+      }
+    }
+    assertEquals(patterns.length - removed.length, classifier.getCount());
+
+    Environment e = new Bot(classifier).createEnvironment();
+    String inputs[][] = { { "hello there", "HELLO THERE/null" },
+        { "hello", "HELLO/null" }, { "hi", null },
+        { "hi there", null }, { "what is your name", "WHAT IS */null" },
+        { "what", "WHAT/null" } };
+    for (String test[] : inputs) {
+      e.pushInput(test[0]);
+      MatchState m = classifier.match(e);
+      assertEquals(test[1], (m == null ? null : m.getResult()));
+      e.popInput();
+    }
+
+    for (String pattern[] : patterns) {
+      try {
+        classifier.remove(sequence(contextInfo, pattern));
+      } catch (NoSuchPathException ex) {
+      }
+    }
+    assertEquals(0, classifier.getCount());
+    e.pushInput("hello");
+    assertNull(classifier.match(e));
+    classifier.add(sequence(contextInfo, patterns[1]), "again");
+    assertEquals("again", classifier.match(e).getResult());
+    e.popInput();
+  }
+
+  public void testRemoveLastLiteral() throws Exception {
+    //only the empty pattern remains in the literal node of the branch, which
+    //then has to be split by a pattern with a wildcard
+    String patterns[][] = { { "*", null }, { "A", null }, { "", null },
+        { "A *", null } };
+    for (int i = 0; i < 3; i++) {
+      classifier.add(sequence(contextInfo, patterns[i]), patterns[i][0]);
+    }
+    classifier.remove(sequence(contextInfo, patterns[1]));
+    classifier.add(sequence(contextInfo, patterns[3]), patterns[3][0]);
+
+    Environment e = new Bot(classifier).createEnvironment();
+    String inputs[][] = { { "a b", "A *" }, { "a", "*" }, { "", "" } };
+    for (String test[] : inputs) {
+      e.pushInput(test[0]);
+      assertEquals(test[0], test[1], classifier.match(e).getResult());
+      e.popInput();
+    }
+  }
+
+  public void testStatistics() throws Exception {
+    String patterns[][] = { { "HELLO *", null }, { "HI *", null },
+        { "WHAT", "*" }, { "WHAT", null } };
+    for (String pattern[] : patterns) {
+      classifier.add(sequence(contextInfo, pattern), pattern[0]);
+    }
+
+    ClassifierStatistics statistics = classifier.getStatistics();
+    assertEquals(patterns.length, statistics.getCategoryCount());
+    assertEquals(patterns.length,
+        statistics.getNodeCounts().get("LeafContextNode").intValue());
+    int leaves = 0;
+    for (int count : statistics.getLeafDepths().values()) {
+      leaves += count;
+    }
+    assertEquals(patterns.length, leaves);
+    //the root branches into "H" and "W", "H" into "ELLO " and "I "
+    assertEquals(2, statistics.getFanOut("StringBranchNode").get(2).intValue());
+
+    ClassifierStatistics.ContextStatistics contexts[] = statistics.getContexts().toArray(
+        new ClassifierStatistics.ContextStatistics[0]);
+    assertEquals(2, contexts.length);
+    assertEquals("input", contexts[0].getName());
+    assertEquals(1, contexts[0].getTreeCount());
+    assertEquals(2, contexts[0].getWildcardCount());
+    assertEquals("that", contexts[1].getName());
+    assertEquals(1, contexts[1].getWildcardCount());
+    assertEquals(1.0, contexts[1].getWildcardDensity(), 0);
+    assertTrue(statistics.getEstimatedSize() > 0);
+    assertEquals(-1, statistics.getFrozenSize());
+
+    classifier.freeze();
+    statistics = classifier.getStatistics();
+    assertEquals(0, statistics.getNodeCount());
+    assertTrue(statistics.getFrozenSize() > 0);
+  }
+
+  public void testFailureMemo() throws Exception {
+    PaternSequence s = new PaternSequence(contextInfo);
+    s.add("input", "* A * A * A * A * A * A * B");
+    classifier.add(s, "many");
+    s = new PaternSequence(contextInfo);
+    s.add("input", "* A * A *");
+    s.add("that", "FOO");
+    classifier.add(s, "that");
+    s = new PaternSequence(contextInfo);
+    s.add("input", "*");
+    classifier.add(s, "default");
+
+    Environment e = new Bot(classifier).createEnvironment();
+    StringBuilder sb = new StringBuilder("A");
+    for (int i = 0; i < 15; i++) {
+      sb.append(" A");
+    }
+    String inputs[] = { sb.toString(), sb + " B" };
+    for (String input : inputs) {
+      e.pushInput(input);
+      MatchState plain = classifier.match(e);
+      classifier.setMemoizeFailures(true);
+      MatchState memo = classifier.match(e);
+      classifier.setMemoizeFailures(false);
+      assertEquals(String.valueOf(plain), String.valueOf(memo));
+      e.popInput();
+    }
+
+    //every way of matching "* A * A *" leads to the same failing <that>
+    e.pushInput(inputs[0]);
+    classifier.setMemoizeFailures(true);
+    MatchState m = classifier.match(e);
+    assertEquals("default", m.getResult());
+    assertTrue(m.getMemoFailures() > 0);
+    assertTrue(m.getMemoHits() > 0);
+    e.popInput();
+
+    //without the memo, this would take far too long
+    for (int i = 0; i < 200; i++) {
+      sb.append(" A");
+    }
+    e.pushInput(sb.toString());
+    assertEquals("default", classifier.match(e).getResult());
+    e.popInput();
+  }
+
+  public void testReuseMatchState() throws Exception {
+    String patterns[] = { "* IS *", "WHAT IS YOUR NAME", "WHAT" };
+    add(patterns);
+
+    Environment e = new Bot(classifier).createEnvironment();
+    String inputs[] = { "what is this", "what", "what is your name", "who",
+        "a is b is c" };
+    e.pushInput(inputs[0]);
+    MatchState reused = new MatchState(e, classifier);
+    e.popInput();
+    for (int i = 0; i < 2; i++) {
+      for (String input : inputs) {
+        e.pushInput(input);
+        MatchState m = classifier.match(e);
+        reused.reset(e);
+        assertEquals(m != null, classifier.match(reused));
+        if (m != null) {
+          assertEquals(m.toString(), reused.toString());
+        }
+        e.popInput();
+      }
+      classifier.freeze();
+    }
+
+    //the environment keeps its match state, except for nested matches (like
+    //those of <srai>), which push their input first
+    e.pushInput("what");
+    MatchState outer = classifier.match(e);
+    e.pushInput("what is this");
+    MatchState inner = classifier.match(e);
+    e.popInput();
+    assertNotSame(outer, inner);
+    assertEquals("WHAT", outer.getResult());
+    assertSame(outer, classifier.match(e));
+    //a reused match state takes over the changed budget of the classifier
+    classifier.setStepBudget(1);
+    assertNull(classifier.match(e));
+    assertTrue(outer.isBudgetExceeded());
+    classifier.setStepBudget(0);
+    try {
+      new Classifier().match(new MatchState(e, classifier));
+      fail("Matched a state created for a different classifier");
+    } catch (IllegalArgumentException ex) {
+    }
+    e.popInput();
+  }
+
+  public void testMatchAll() throws Exception {
+    String patterns[] = { "* IS *", "WHAT IS YOUR NAME", "WHAT", "_ NAME" };
+    add(patterns);
+
+    Bot bot = new Bot(classifier);
+    String inputs[] = { "what is this", "what", "what is your name", "who",
+        "my name", "a is b" };
+    List<Environment> batch = new ArrayList<Environment>();
+    for (int i = 0; i < 1000; i++) {
+      Environment e = bot.createEnvironment();
+      e.pushInput(inputs[i % inputs.length] + (i % 7 == 0 ? " " + i : ""));
+      batch.add(e);
+    }
+
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      for (int i = 0; i < 2; i++) {
+        //the results are the match states kept by the environments, so the
+        //expected ones have to be described before
+        List<String> expected = new ArrayList<String>();
+        for (Environment e : batch) {
+          expected.add(String.valueOf(classifier.match(e)));
+        }
+        List<MatchState> results = classifier.matchAll(batch, pool);
+        assertEquals(batch.size(), results.size());
+        for (int j = 0; j < batch.size(); j++) {
+          assertEquals(expected.get(j), String.valueOf(results.get(j)));
+        }
+        classifier.freeze();
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  public void testMatchCache() throws Exception {
+    Context input = contextInfo.getContext("input");
+
+    String patterns[][] = { { "KUN * STRASSE *", null }, { "HELLO", null },
+        { "WHAT IS *", null } };
+    for (String pattern[] : patterns) {
+      classifier.add(sequence(contextInfo, pattern), pattern[0]);
+    }
+    MatchCache cache = new MatchCache(4, 32);
+    classifier.setMatchCache(cache);
+    assertSame(cache, classifier.getMatchCache());
+
+    Environment e = new Bot(classifier).createEnvironment();
+    e.pushInput("kun zlutoucky strasse o");
+    assertEquals("KUN * STRASSE *", classifier.match(e).getResult());
+    e.popInput();
+    //the same normalized values, but different wildcard values
+    e.pushInput("K\u016f\u0148 \u017elu\u0165ou\u010dk\u00fd stra\u00dfe \u00f3");
+    MatchState m = classifier.match(e);
+    e.popInput();
+    assertEquals("KUN * STRASSE *", m.getResult());
+    assertEquals("\u017elu\u0165ou\u010dk\u00fd",
+        m.getWildcard(input, 1).getValue());
+    assertEquals("\u00f3", m.getWildcard(input, 2).getValue());
+    assertEquals(1, cache.getHits());
+    assertEquals(1, cache.getMisses());
+
+    //failures are cached too, long inputs aren't
+    for (int i = 0; i < 2; i++) {
+      e.pushInput("goodbye");
+      assertNull(classifier.match(e));
+      e.popInput();
+      e.pushInput("what is the answer to life the universe and everything");
+      assertEquals("WHAT IS *", classifier.match(e).getResult());
+      e.popInput();
+    }
+    assertEquals(2, cache.getHits());
+    assertEquals(2, cache.getMisses());
+    assertEquals(2, cache.getSize());
+
+    //a modified classifier invalidates the cache
+    classifier.add(sequence(contextInfo, new String[] { "GOODBYE", null }),
+        "GOODBYE");
+    e.pushInput("goodbye");
+    assertEquals("GOODBYE", classifier.match(e).getResult());
+    e.popInput();
+    assertEquals(1, cache.getInvalidations());
+    classifier.remove(sequence(contextInfo, patterns[1]));
+    e.pushInput("hello");
+    assertNull(classifier.match(e));
+    e.popInput();
+    assertEquals(2, cache.getInvalidations());
+
+    //the entry that has been hit survives the other entries
+    for (String text : new String[] { "hello", "a", "b", "c", "d", "e" }) {
+      e.pushInput(text);
+      classifier.match(e);
+      e.popInput();
+    }
+    assertEquals(4, cache.getSize());
+    assertEquals(2, cache.getEvictions());
+    long hits = cache.getHits();
+    e.pushInput("hello");
+    assertNull(classifier.match(e));
+    e.popInput();
+    assertEquals(hits + 1, cache.getHits());
+
+    classifier.freeze();
+    e.pushInput("what is this");
+    assertEquals("WHAT IS *", classifier.match(e).getResult());
+    assertEquals("this", classifier.match(e).getWildcard(input, 1).getValue());
+    e.popInput();
+    classifier.setMatchCache(null);
+    assertNull(classifier.getMatchCache());
+  }
+
+  public void testFreeze() throws Exception {
+    String patterns[][] = { { "WHAT IS *", null }, { "WHAT IS YOUR NAME", null },
+        { "_ NAME", null }, { "* IS *", null }, { "WHAT", null },
+        { "*", "WHAT IS YOUR NAME" }, { "*", null }, { "WHAT IS *", "*" } };
+    add(patterns);
+
+    Environment e = new Bot(classifier).createEnvironment();
+    String inputs[] = { "what is your name", "what is the time",
+        "whatever is this", "what", "whatis", "", "my name", "n\u00e1zev" };
+    String expected[] = new String[inputs.length];
+    for (int i = 0; i < inputs.length; i++) {
+      e.pushInput(inputs[i]);
+      expected[i] = classifier.match(e).toString();
+      e.popInput();
+    }
+
+    classifier.freeze();
+    assertTrue(classifier.isFrozen());
+    assertFalse(classifier.isOffHeap());
+    for (int i = 0; i < inputs.length; i++) {
+      e.pushInput(inputs[i]);
+      assertEquals(expected[i], classifier.match(e).toString());
+      e.popInput();
+    }
+
+    classifier.freeze(true);
+    assertTrue(classifier.isOffHeap());
+    assertTrue(classifier.getStatistics().getOffHeapSize() > 0);
+    for (int i = 0; i < inputs.length; i++) {
+      e.pushInput(inputs[i]);
+      assertEquals(expected[i], classifier.match(e).toString());
+      e.popInput();
+    }
+
+    PaternSequence s = new PaternSequence(contextInfo);
+    s.add("input", "FOO");
+    try {
+      classifier.add(s, "foo");
+      fail("Added a pattern to a frozen classifier");
+    } catch (IllegalStateException ex) {
+    }
+  }
+
+  /**
+   * Describes a match, including the first wildcard of every context (which
+   * may be a don't care wildcard)
+   */
+  private static String describe(MatchState m, ContextInfo contextInfo) {
+    if (m == null) {
+      return null;
+    }
+    StringBuffer sb = new StringBuffer(m.toString());
+    for (int i = 0; i < contextInfo.getCount(); i++) {
+      try {
+        sb.append(m.getWildcard(contextInfo.getContext(i), 1).getValue());
+      } catch (InvalidWildcardReferenceException ex) {
+        sb.append("-");
+      }
+      sb.append("|");
+    }
+    return sb.toString();
+  }
+
+  public void testCompile() throws Exception {
+    String patterns[][] = { { "WHAT IS *", null }, { "WHAT IS YOUR NAME", null },
+        { "_ NAME", null }, { "* IS *", null }, { "WHAT", null },
+        { "* * NAME *", null }, { "_ IS THE *", "*" }, { "* IS A *", "_" },
+        { "ONE", null }, { "TWO", null }, { "THREE", null }, { "FOUR", null },
+        { "FIVE", null }, { "SIX", null }, { "SEVEN", null }, { "EIGHT", null },
+        { "N\u00c1ZEV *", null }, { "*", "WHAT IS YOUR NAME" } };
+    add(patterns);
+
+    Environment e = new Bot(classifier).createEnvironment();
+    String inputs[] = { "what is your name", "what is the time",
+        "this is a test", "whatever is this", "what", "whatis", "", "my name",
+        "my own name is bob", "five", "fiver", "six is the number",
+        "n\u00e1zev souboru", "is is is is is is is is is is is is" };
+    String expected[] = new String[inputs.length];
+    for (int i = 0; i < inputs.length; i++) {
+      e.pushInput(inputs[i]);
+      expected[i] = describe(classifier.match(e), contextInfo);
+      e.popInput();
+    }
+
+    classifier.compile();
+    assertTrue(classifier.isFrozen());
+    assertTrue(classifier.isCompiled());
+    for (int pass = 0; pass < 2; pass++) {
+      //the second pass uses the states created by the first one
+      for (int i = 0; i < inputs.length; i++) {
+        e.pushInput(inputs[i]);
+        assertEquals(inputs[i], expected[i], describe(classifier.match(e),
+            contextInfo));
+        e.popInput();
+      }
+    }
+
+    classifier.freeze(true);
+    assertTrue(classifier.isCompiled());
+    for (int i = 0; i < inputs.length; i++) {
+      e.pushInput(inputs[i]);
+      assertEquals(inputs[i], expected[i], describe(classifier.match(e),
+          contextInfo));
+      e.popInput();
+    }
+  }
+
+  public void testTrace() throws Exception {
+    String patterns[] = { "* IS *", "WHAT IS YOUR NAME", "WHAT", "_ NAME" };
+    add(patterns);
+
+    Environment e = new Bot(classifier).createEnvironment();
+    String inputs[] = { "what is this", "what is your name", "my name",
+        "who" };
+    for (int pass = 0; pass < 3; pass++) {
+      for (String input : inputs) {
+        e.pushInput(input);
+        MatchState m = classifier.match(e);
+        TracingMatchState<Object> traced = new TracingMatchState<Object>(e,
+            classifier);
+        assertEquals(m != null, classifier.match(traced));
+        if (m != null) {
+          assertEquals(m.toString(), traced.toString());
+        }
+        e.popInput();
+
+        MatchTrace trace = traced.getTrace();
+        assertFalse(trace.isTruncated());
+        assertTrue(trace.size() > 0);
+        assertEquals(MatchTrace.Event.ENTER, trace.getEvent(0));
+        assertEquals(trace.getCount(MatchTrace.Event.ENTER), trace
+            .getCount(MatchTrace.Event.MATCH) +
+            trace.getCount(MatchTrace.Event.BACKTRACK));
+        assertEquals(m != null, trace.getCount(MatchTrace.Event.MATCH) > 0);
+        if (input.equals("what is this")) {
+          //"WHAT IS YOUR NAME" fails before "* IS *" is tried
+          assertTrue(trace.getCount(MatchTrace.Event.BACKTRACK) > 0);
+          assertTrue(trace.getCount(MatchTrace.Event.GROW) > 0);
+        }
+        assertTrue(trace.toGraphviz().startsWith("digraph trace"));
+        assertTrue(trace.toString().contains("nodes entered"));
+      }
+      if (pass == 0) {
+        classifier.freeze();
+      } else {
+        classifier.compile();
+      }
+    }
+
+    e.pushInput("what is this");
+    TracingMatchState<Object> limited = new TracingMatchState<Object>(e,
+        classifier, 2);
+    assertTrue(classifier.match(limited));
+    e.popInput();
+    assertEquals(2, limited.getTrace().size());
+    assertTrue(limited.getTrace().isTruncated());
+  }
+
+  public void testBudget() throws Exception {
+    String patterns[] = { "_ A _ A _ A _ B", "HELLO" };
+    add(patterns);
+
+    StringBuilder input = new StringBuilder("a");
+    for (int i = 0; i < 40; i++) {
+      input.append(" a");
+    }
+    //the B keeps the pattern from being skipped by its signature
+    input.append(" b a");
+    Environment e = new Bot(classifier).createEnvironment();
+    for (int pass = 0; pass < 3; pass++) {
+      e.pushInput(input.toString());
+      MatchState m = new MatchState(e, classifier);
+      assertFalse(classifier.match(m));
+      assertFalse(m.isBudgetExceeded());
+      long steps = m.getSteps();
+      assertTrue(steps > 0);
+
+      classifier.setStepBudget(steps / 2);
+      m = new MatchState(e, classifier);
+      assertFalse(classifier.match(m));
+      assertTrue(m.isBudgetExceeded());
+      assertEquals(steps / 2 + 1, m.getSteps());
+
+      classifier.setBudgetFallback("fallback");
+      m.reset(e);
+      assertTrue(classifier.match(m));
+      assertTrue(m.isBudgetExceeded());
+      assertEquals("fallback", m.getResult());
+      assertEquals(input.toString(), m.getWildcard(contextInfo
+          .getContext("input"), 1).getValue());
+      e.popInput();
+
+      //ordinary matches stay within the budget
+      e.pushInput("hello");
+      m = classifier.match(e);
+      assertEquals("HELLO", m.getResult());
+      assertFalse(m.isBudgetExceeded());
+      e.popInput();
+
+      e.pushInput(input.toString());
+      classifier.setStepBudget(0);
+      classifier.setTimeBudget(1, TimeUnit.NANOSECONDS);
+      m = new MatchState(e, classifier);
+      if (pass < 2) {
+        assertTrue(classifier.match(m));
+        assertTrue(m.isBudgetExceeded());
+      }
+      m.setTimeBudget(0, TimeUnit.NANOSECONDS);
+      m.reset(e);
+      assertFalse(classifier.match(m));
+      assertFalse(m.isBudgetExceeded());
+      e.popInput();
+
+      assertEquals(3 * (pass + 1) - (pass == 2 ? 1 : 0), classifier
+          .getBudgetExceededCount());
+      classifier.setTimeBudget(0, TimeUnit.NANOSECONDS);
+      classifier.setBudgetFallback(null);
+      if (pass == 0) {
+        classifier.freeze();
+      } else {
+        classifier.compile();
+      }
+    }
+  }
+
+  public void testLengthBounds() throws Exception {
+    String patterns[] = { "HI", "HI THERE", "HELLO *", "* IS *", "_ NAME",
+        "WHAT IS YOUR NAME", "HOW ARE YOU TODAY" };
+    add(patterns);
+
+    Environment e = new Bot(classifier).createEnvironment();
+    e.pushInput("hi");
+    TracingMatchState<Object> m = new TracingMatchState<Object>(e, classifier);
+    assertTrue(classifier.match(m));
+    e.popInput();
+    assertEquals("HI", m.getResult());
+    MatchTrace trace = m.getTrace();
+    for (int i = 0; i < trace.size(); i++) {
+      //the wildcards need longer inputs, and aren't even entered
+      assertFalse(trace.getNodeType(i).equals("WildcardNode"));
+    }
+    assertEquals(0, trace.getCount(MatchTrace.Event.BACKTRACK));
+    try {
+      //but the wildcards would have been tried, so this isn't a don't care
+      m.getWildcard(contextInfo.getContext("input"), 1);
+      fail("The skipped wildcards weren't recorded");
+    } catch (InvalidWildcardReferenceException ex) {
+    }
+
+    String inputs[] = { "hi", "hi there", "hello", "hello you", "my name",
+        "how are you", "how are you today", "what is your name", "is",
+        "what is it", "", "hi there you" };
+    String expected[] = new String[inputs.length];
+    for (int i = 0; i < inputs.length; i++) {
+      e.pushInput(inputs[i]);
+      expected[i] = describe(classifier.match(e), contextInfo);
+      e.popInput();
+    }
+    //the frozen classifier doesn't use the bounds
+    classifier.freeze();
+    for (int i = 0; i < inputs.length; i++) {
+      e.pushInput(inputs[i]);
+      assertEquals(inputs[i], expected[i], describe(classifier.match(e),
+          contextInfo));
+      e.popInput();
+    }
+
+    //removing the longest literal pattern narrows the bounds again
+    classifier = createClassifier(PatternBehaviour.getDefaultBehaviour());
+    contextInfo = classifier.getContextInfo();
+    String literals[][] = { { "HI", null }, { "HOW ARE YOU TODAY", null } };
+    for (String pattern[] : literals) {
+      classifier.add(sequence(contextInfo, pattern), pattern[0]);
+    }
+    classifier.remove(sequence(contextInfo, literals[1]));
+    e = new Bot(classifier).createEnvironment();
+    e.pushInput("hello there");
+    m = new TracingMatchState<Object>(e, classifier);
+    assertFalse(classifier.match(m));
+    e.popInput();
+    trace = m.getTrace();
+    for (int i = 0; i < trace.size(); i++) {
+      assertFalse(trace.getNodeType(i).equals("HashMapNode"));
+    }
+  }
+
+  public void testSignatures() throws Exception {
+    assertEquals(Pattern.signature('A') | Pattern.signature('B'), Pattern
+        .signature("ABBA"));
+    assertEquals(0, Pattern.signature(" "));
+    assertTrue(Pattern.signature('\u00C6') != 0);
+
+    String patterns[] = { "* YOUR NAME", "_ QUIZ _", "HELLO", "HELLO *" };
+    add(patterns);
+
+    Environment e = new Bot(classifier).createEnvironment();
+    e.pushInput("what time do we have now");
+    TracingMatchState<Object> m = new TracingMatchState<Object>(e, classifier);
+    assertFalse(classifier.match(m));
+    e.popInput();
+    MatchTrace trace = m.getTrace();
+    for (int i = 0; i < trace.size(); i++) {
+      //neither Y nor Q is there, so no wildcard is entered
+      assertFalse(trace.getNodeType(i).equals("WildcardNode"));
+    }
+    assertEquals(0, trace.getCount(MatchTrace.Event.GROW));
+
+    String inputs[] = { "hello", "hello there", "what is your name",
+        "your name", "a quiz b", "quiz", "a quiz", "what time do we have now",
+        "" };
+    String expected[] = new String[inputs.length];
+    for (int i = 0; i < inputs.length; i++) {
+      e.pushInput(inputs[i]);
+      expected[i] = describe(classifier.match(e), contextInfo);
+      e.popInput();
+    }
+    //the frozen classifier doesn't use the signatures
+    classifier.freeze();
+    for (int i = 0; i < inputs.length; i++) {
+      e.pushInput(inputs[i]);
+      assertEquals(inputs[i], expected[i], describe(classifier.match(e),
+          contextInfo));
+      e.popInput();
+    }
+  }
+
+  public void testSpeculation() throws Exception {
+    String patterns[][] = { { "WHAT IS *", null },
+        { "WHAT IS YOUR NAME", null }, { "_ NAME", null }, { "* IS *", null },
+        { "WHAT", null }, { "* * NAME *", null }, { "_ IS THE *", "*" },
+        { "* IS A *", "_" }, { "_ X _ X _ X _ Y", null }, { "X *", null },
+        { "* X", "NOTHING" }, { "*", "WHAT IS YOUR NAME" } };
+    add(patterns);
+
+    Environment e = new Bot(classifier).createEnvironment();
+    String inputs[] = { "what is your name", "what is the time",
+        "this is a test", "whatever is this", "what", "", "my name",
+        "my own name is bob", "x x x x x x x x x x x x x x x x", "x y", "x",
+        "a x b x c x d y", "is is is is is is is is is is is is" };
+    String expected[] = new String[inputs.length];
+    for (int i = 0; i < inputs.length; i++) {
+      e.pushInput(inputs[i]);
+      expected[i] = describe(classifier.match(e), contextInfo);
+      e.popInput();
+    }
+
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      classifier.setSpeculationPool(pool);
+      for (int pass = 0; pass < 3; pass++) {
+        for (int i = 0; i < inputs.length; i++) {
+          e.pushInput(inputs[i]);
+          assertEquals(inputs[i], expected[i], describe(classifier.match(e),
+              contextInfo));
+          e.popInput();
+        }
+      }
+
+      //the forks share the budget of the match
+      classifier.setStepBudget(20);
+      e.pushInput(inputs[8]);
+      MatchState m = new MatchState(e, classifier);
+      assertFalse(classifier.match(m));
+      assertTrue(m.isBudgetExceeded());
+      e.popInput();
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  public void testMatches() throws Exception {
+    String patterns[][] = { { "WHAT IS *", null },
+        { "WHAT IS YOUR NAME", null }, { "_ NAME", null }, { "* IS *", null },
+        { "WHAT", null }, { "* * NAME *", null }, { "_ IS THE *", "*" },
+        { "* IS A *", "_" }, { "* NAME", null }, { "*", null } };
+    add(patterns);
+
+    Environment e = new Bot(classifier).createEnvironment();
+    String inputs[] = { "what is your name", "what is the time", "my name",
+        "this is a test", "my own name is bob", "" };
+    for (int pass = 0; pass < 4; pass++) {
+      for (String input : inputs) {
+        e.pushInput(input);
+        List<MatchState> matches = new ArrayList<MatchState>();
+        List<String> descriptions = new ArrayList<String>();
+        for (Iterator<MatchState> i = classifier.matches(e); i.hasNext();) {
+          matches.add(i.next());
+          descriptions.add(matches.get(matches.size() - 1).toString());
+        }
+        assertEquals(input, describe(classifier.match(e), contextInfo),
+            describe(matches.get(0), contextInfo));
+
+        //each match is the best one once the ones before it are removed (the
+        //"don't care" wildcards may differ, they depend on the paths tried)
+        Classifier pruned = createClassifier(PatternBehaviour
+            .getDefaultBehaviour());
+        ContextInfo prunedInfo = pruned.getContextInfo();
+        for (String pattern[] : patterns) {
+          pruned.add(sequence(prunedInfo, pattern), pattern[0] + "/" +
+              pattern[1]);
+        }
+        Environment prunedEnvironment = new Bot(pruned).createEnvironment();
+        prunedEnvironment.pushInput(input);
+        for (int j = 0; j < matches.size(); j++) {
+          assertEquals(input, pruned.match(prunedEnvironment).toString(),
+              descriptions.get(j));
+          Object result = matches.get(j).getResult();
+          for (int i = 0; i < patterns.length; i++) {
+            if (result.equals(patterns[i][0] + "/" + patterns[i][1])) {
+              pruned.remove(sequence(prunedInfo, patterns[i]));
+            }
+          }
+        }
+        assertNull(pruned.match(prunedEnvironment));
+        e.popInput();
+      }
+      //the first two passes resume a matcher of the tree, the others one of
+      //the frozen classifier, each without and with the failure memo
+      if (pass == 1) {
+        classifier.freeze();
+      }
+      classifier.setMemoizeFailures(pass % 2 == 0);
+    }
+  }
+
 }
@@ -0,0 +1,183 @@
+/*
+    jaiml - java AIML library
+    Copyright (C) 2026  Kim Sullivan
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    You should have received a copy of the GNU General Public License
+    along with this program; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package aiml.classifier;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import junit.framework.TestCase;
+import aiml.bot.Bot;
+import aiml.context.Context;
+import aiml.context.ContextInfo;
+import aiml.context.InputContext;
+import aiml.context.behaviour.PatternBehaviour;
+import aiml.context.data.EnvironmentInputSource;
+import aiml.context.data.StringSource;
+import aiml.environment.Environment;
+
+/**
+ * Stress tests matching from many threads at once. Every thread uses its own
+ * environment and matches the same inputs against one shared classifier; the
+ * results must be the same as when matching from a single thread. The
+ * throughput is measured by {@link demo.MatchBenchmark}, since it depends on
+ * the machine.
+ *
+ * @author Kim Sullivan
+ */
+public class ConcurrentMatchTest extends TestCase {
+
+  private static final int CATEGORIES = 5000;
+
+  private static final int INPUTS = 500;
+
+  private static final int ROUNDS = 20;
+
+  private static final String WORDS[] = { "WHAT", "IS", "YOUR", "NAME", "I",
+      "LIKE", "\u017dLU\u0164OU\u010cK\u00dd", "K\u016e\u0147", "HELLO",
+      "THERE", "FOO", "BAR", "CAF\u00c9", "TIME", "DO", "YOU", "KNOW" };
+
+  private Classifier classifier;
+
+  private Bot bot;
+
+  private List<String> inputs;
+
+  protected void setUp() throws Exception {
+    classifier = new Classifier();
+    PatternBehaviour patternBehaviour = PatternBehaviour.getDefaultBehaviour();
+    ContextInfo contextInfo = classifier.getContextInfo();
+    contextInfo.registerContext(new InputContext("input",
+        new EnvironmentInputSource(), patternBehaviour));
+    contextInfo.registerContext(new Context<String>("that", new StringSource(),
+        patternBehaviour));
+
+    Random random = new Random(42);
+    for (int i = 0; i < CATEGORIES; i++) {
+      PaternSequence s = new PaternSequence(contextInfo);
+      s.add("input", sentence(random, true));
+      if (random.nextInt(4) == 0) {
+        s.add("that", sentence(random, true));
+      }
+      try {
+        classifier.add(s, s.toString());
+      } catch (DuplicatePathException e) {
+        //random patterns may repeat
+      }
+    }
+    inputs = new ArrayList<String>();
+    for (int i = 0; i < INPUTS; i++) {
+      inputs.add(sentence(random, false).toLowerCase());
+    }
+    bot = new Bot(classifier);
+  }
+
+  private static String sentence(Random random, boolean wildcards) {
+    StringBuilder sb = new StringBuilder();
+    int words = 1 + random.nextInt(wildcards ? 4 : 8);
+    for (int i = 0; i < words; i++) {
+      if (i > 0) {
+        sb.append(' ');
+      }
+      int r = random.nextInt(8);
+      if (wildcards && r == 0) {
+        sb.append('*');
+      } else if (wildcards && r == 1) {
+        sb.append('_');
+      } else {
+        sb.append(WORDS[random.nextInt(WORDS.length)]);
+      }
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Matches all the inputs, and returns a description of the results,
+   * including the wildcard values.
+   */
+  private List<String> matchAll(Environment e) {
+    List<String> results = new ArrayList<String>(inputs.size());
+    for (String input : inputs) {
+      e.pushInput(input);
+      MatchState m = classifier.match(e);
+      results.add(m == null ? null : m.toString());
+      e.popInput();
+    }
+    return results;
+  }
+
+  /**
+   * Matches the inputs repeatedly in the specified number of threads, and
+   * checks the results.
+   */
+  private void stress(int threads, final List<String> expected)
+      throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>();
+      for (int i = 0; i < threads; i++) {
+        tasks.add(new Callable<Boolean>() {
+          public Boolean call() throws Exception {
+            Environment e = bot.createEnvironment();
+            for (int round = 0; round < ROUNDS; round++) {
+              if (!expected.equals(matchAll(e))) {
+                return false;
+              }
+            }
+            return true;
+          }
+        });
+      }
+      for (Future<Boolean> result : executor.invokeAll(tasks)) {
+        assertTrue("Concurrent match results differ", result.get());
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Runs the stress test with all threads, and returns the number of matches
+   * done
+   */
+  private long stress() throws Exception {
+    List<String> expected = matchAll(bot.createEnvironment());
+    int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+    stress(threads, expected);
+    return (long) inputs.size() * (1 + ROUNDS * threads);
+  }
+
+  public void testConcurrentMatch() throws Exception {
+    stress();
+  }
+
+  public void testConcurrentFrozenMatch() throws Exception {
+    classifier.freeze();
+    stress();
+  }
+
+  public void testConcurrentCachedMatch() throws Exception {
+    //almost every lookup is a hit, which mustn't serialize the threads
+    MatchCache cache = new MatchCache(2 * INPUTS);
+    classifier.setMatchCache(cache);
+    long matches = stress();
+    assertEquals(matches, cache.getHits() + cache.getMisses());
+    assertTrue(cache.getHitRate() > 0.9);
+  }
+}
@@ -0,0 +1,109 @@
+/*
+    jaiml - java AIML library
+    Copyright (C) 2026  Kim Sullivan
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    You should have received a copy of the GNU General Public License
+    along with this program; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package aiml.classifier.node;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class CharMapTest extends TestCase {
+
+  /**
+   * Puts the keys into a CharMap and a HashMap, and checks that they contain
+   * the same entries after every step.
+   */
+  private CharMap<String> fill(String keys) {
+    CharMap<String> map = new CharMap<String>();
+    Map<Character, String> expected = new HashMap<Character, String>();
+    for (int i = 0; i < keys.length(); i++) {
+      char c = keys.charAt(i);
+      map.put(c, c + "" + i);
+      expected.put(c, c + "" + i);
+      assertEquals(expected.size(), map.size());
+      for (Map.Entry<Character, String> entry : expected.entrySet()) {
+        assertEquals(entry.getValue(), map.get(entry.getKey()));
+      }
+    }
+    char sorted[] = new char[expected.size()];
+    int i = 0;
+    for (Character c : expected.keySet()) {
+      sorted[i++] = c;
+    }
+    Arrays.sort(sorted);
+    assertTrue(Arrays.equals(sorted, map.keys()));
+    return map;
+  }
+
+  public void testSorted() {
+    CharMap<String> map = fill("HELLO");
+    assertEquals(CharMap.SORTED, map.getMode());
+    assertNull(map.get('A'));
+    assertNull(map.get('Z'));
+    assertEquals("{E=E1, H=H0, L=L3, O=O4}", map.toString());
+  }
+
+  public void testDirect() {
+    CharMap<String> map = fill("PACKMYBOXWITHFIVEDOZENLIQUORJUGS");
+    assertEquals(CharMap.DIRECT, map.getMode());
+    assertNull(map.get('\u0000'));
+    assertNull(map.get('a'));
+    assertNull(map.get('\uffff'));
+  }
+
+  public void testHash() {
+    CharMap<String> map = fill("\u0000A\u017d\u0164\u010c\u00dd\u016e\u0147\uffffZ!");
+    assertEquals(CharMap.HASH, map.getMode());
+    assertNull(map.get('B'));
+    assertNull(map.get('\u0100'));
+
+    StringBuilder keys = new StringBuilder();
+    Random random = new Random(42);
+    for (int i = 0; i < 1000; i++) {
+      keys.append((char) random.nextInt(0x10000));
+    }
+    fill(keys.toString());
+  }
+
+  public void testRemove() {
+    String keys[] = { "HELLO", "PACKMYBOXWITHFIVEDOZENLIQUORJUGS",
+        "\u0000A\u017d\u0164\u010c\u00dd\u016e\u0147\uffffZ!" };
+    for (String k : keys) {
+      CharMap<String> map = fill(k);
+      map.remove('#');
+      int size = map.size();
+      for (char c : map.keys()) {
+        map.remove(c);
+        assertNull(map.get(c));
+        assertEquals(--size, map.size());
+        for (char other : map.keys()) {
+          assertNotNull(map.get(other));
+        }
+      }
+      assertEquals(CharMap.SORTED, map.getMode());
+    }
+  }
+
+  public void testNullValue() {
+    CharMap<String> map = new CharMap<String>();
+    try {
+      map.put('A', null);
+      fail("Stored a null value");
+    } catch (NullPointerException e) {
+    }
+  }
+}